@@ -124,6 +124,7 @@ public class CopierPlugin extends AbstractUIPlugin {
 		 * has been copied in.
 		 */
     	TransactionManager transaction = new TransactionManager(newSession.getDataManager());
+    	transaction.setBulkInsert(true);
     	Session newSessionInTrans = transaction.getSession();
     	
     	Currency previousDefaultCurrency = newSessionInTrans.getDefaultCurrency(); 
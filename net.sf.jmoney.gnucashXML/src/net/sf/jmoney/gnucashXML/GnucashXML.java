@@ -37,6 +37,7 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
 import net.sf.jmoney.JMoneyPlugin;
+import net.sf.jmoney.isolation.TransactionManager;
 import net.sf.jmoney.model2.Account;
 import net.sf.jmoney.model2.BankAccount;
 import net.sf.jmoney.model2.BankAccountInfo;
@@ -170,22 +171,36 @@ public final class GnucashXML implements FileFormat, IRunnableWithProgress {
 			// Obtain the document
 			XMLDocument doc = parser.getDocument();
 
-			// Create the accounts
-			monitor.beginTask("Creating the accounts...", 2);
-			createAccounts(doc);
-
-			// Create the transactions
-			monitor.beginTask("Importing the transactions...", 3);
-			createTransactions(doc);
+			/*
+			 * Import into a transaction so that the datastore can insert the
+			 * new accounts and transactions in bulk when the import is
+			 * committed.
+			 */
+			Session targetSession = session;
+			TransactionManager transactionManager = new TransactionManager(targetSession.getDataManager());
+			transactionManager.setBulkInsert(true);
+			session = transactionManager.getSession();
+			try {
+				// Create the accounts
+				monitor.beginTask("Creating the accounts...", 2);
+				createAccounts(doc);
+
+				// Create the transactions
+				monitor.beginTask("Importing the transactions...", 3);
+				createTransactions(doc);
+			} finally {
+				session = targetSession;
+			}
 
 			// Commit the changes to the datastore
 			/*
 			 * TODO: decide if we are going to support import as an undoable
-			 * operation. This old mechanism is no longer supported, and
-			 * building a full undo history could be expensive in this case.
-			 * session.registerUndoableChange(GnucashXMLPlugin
+			 * operation. Building a full undo history could be expensive in
+			 * this case, so the changes are committed without one.
+			 * transactionManager.commit(GnucashXMLPlugin
 			 * .getResourceString("importDescription"));
 			 */
+			transactionManager.commit();
 		} catch (MalformedURLException e) {
 			JMoneyPlugin.log(e);
 		} catch (IOException e) {
@@ -113,6 +113,7 @@ public abstract class CsvImportWizard extends Wizard {
 			 * the entire import as a single change for undo/redo purposes.
 			 */
 			TransactionManager transactionManager = new TransactionManager(session.getDataManager());
+			transactionManager.setBulkInsert(true);
 
 			startImport(transactionManager);
 			
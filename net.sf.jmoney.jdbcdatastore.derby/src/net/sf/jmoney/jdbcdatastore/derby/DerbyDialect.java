@@ -0,0 +1,140 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+package net.sf.jmoney.jdbcdatastore.derby;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Date;
+
+import net.sf.jmoney.jdbcdatastore.DatabaseDialect;
+
+/**
+ * The SQL specific to Apache Derby.
+ *
+ * @author Nigel Westbury
+ */
+public class DerbyDialect extends DatabaseDialect {
+
+	/**
+	 * Derby does not have DATETIME, it has only DATE, TIME, and TIMESTAMP.
+	 */
+	@Override
+	public String getDateTypeName() {
+		return "DATE";
+	}
+
+	@Override
+	public int getDateSqlType() {
+		return Types.DATE;
+	}
+
+	@Override
+	public void setDateParameter(PreparedStatement stmt, int parameterIndex, Date date) throws SQLException {
+		stmt.setDate(parameterIndex, new java.sql.Date(date.getTime()));
+	}
+
+	/**
+	 * Derby requires all foreign key constraints on a table to be CASCADE if
+	 * the table has any CASCADE foreign key constraints.
+	 */
+	@Override
+	public boolean isCascadeToDerivedTableAllowed() {
+		return false;
+	}
+
+	/**
+	 * The identity columns are generated by default, not always, so that
+	 * rows can be written in batches with ids allocated by us.
+	 */
+	@Override
+	public String getIdentityColumnDefinition() {
+		return "NOT NULL GENERATED BY DEFAULT AS IDENTITY";
+	}
+
+	/**
+	 * Tables created by earlier versions of this plug-in have GENERATED
+	 * ALWAYS identity columns, which never accept explicit values. Derby
+	 * describes an identity column that is generated by default with a
+	 * default value of GENERATED_BY_DEFAULT, whereas an identity column that
+	 * is always generated is described as AUTOINCREMENT.
+	 */
+	@Override
+	public boolean isExplicitIdentitySupported(Connection connection) throws SQLException {
+		ResultSet rs = connection.getMetaData().getColumns(null, null, null, "_ID");
+		try {
+			while (rs.next()) {
+				String columnDefault = rs.getString("COLUMN_DEF");
+				if (columnDefault != null && columnDefault.startsWith("AUTOINCREMENT")) {
+					return false;
+				}
+			}
+		} finally {
+			rs.close();
+		}
+		return true;
+	}
+
+	/**
+	 * The tables are created with unquoted names, so Derby holds the names
+	 * in upper case.
+	 */
+	@Override
+	public String getIdentityNextValueSql(String tableName) {
+		return "SELECT c.AUTOINCREMENTVALUE FROM SYS.SYSCOLUMNS c, SYS.SYSTABLES t"
+			+ " WHERE c.REFERENCEID = t.TABLEID"
+			+ " AND t.TABLENAME = '" + tableName.toUpperCase() + "'"
+			+ " AND c.COLUMNNAME = '_ID'";
+	}
+
+	/**
+	 * Derby does not adjust the next value of an identity column when
+	 * explicit values are inserted.
+	 */
+	@Override
+	public String getIdentityRestartSql(String tableName, int nextId) {
+		return "ALTER TABLE " + tableName + " ALTER COLUMN \"_ID\" RESTART WITH " + nextId;
+	}
+
+	/**
+	 * Until the identity column is restarted at commit, Derby would generate
+	 * ids in our reserved range for rows inserted by other connections.
+	 */
+	@Override
+	public String getTableLockSql(String tableName) {
+		return "LOCK TABLE " + tableName + " IN EXCLUSIVE MODE";
+	}
+
+	@Override
+	public String getPagedSql(String sql) {
+		return sql + " OFFSET ? ROWS FETCH NEXT ? ROWS ONLY";
+	}
+
+	@Override
+	public void setPagingParameters(PreparedStatement stmt, int parameterIndex, int offset, int limit) throws SQLException {
+		stmt.setInt(parameterIndex, offset);
+		stmt.setInt(parameterIndex + 1, limit);
+		stmt.setMaxRows(0);
+	}
+}
@@ -0,0 +1,76 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+package net.sf.jmoney.jdbcdatastore.hsqldb;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import net.sf.jmoney.jdbcdatastore.DatabaseDialect;
+
+/**
+ * The SQL specific to HSQLDB.
+ *
+ * @author Nigel Westbury
+ */
+public class HsqldbDialect extends DatabaseDialect {
+
+	@Override
+	public String getBooleanTypeName() {
+		return "BIT";
+	}
+
+	/**
+	 * HSQLDB does not, as of 1.8.0.7, support the JDBC standard way of
+	 * getting the generated key.
+	 */
+	@Override
+	public String getIdentityQuery() {
+		return "CALL IDENTITY()";
+	}
+
+	/**
+	 * HSQLDB accepts explicit values in identity columns and adjusts the next
+	 * value to be generated accordingly.
+	 */
+	@Override
+	public boolean isExplicitIdentitySupported(Connection connection) {
+		return true;
+	}
+
+	@Override
+	public String getPagedSql(String sql) {
+		return sql + " LIMIT ? OFFSET ?";
+	}
+
+	@Override
+	public void setPagingParameters(PreparedStatement stmt, int parameterIndex, int offset, int limit) throws SQLException {
+		stmt.setInt(parameterIndex, limit);
+		stmt.setInt(parameterIndex + 1, offset);
+		stmt.setMaxRows(0);
+	}
+
+	@Override
+	public String getExplainPlanSql(String sql) {
+		return "EXPLAIN PLAN FOR " + sql;
+	}
+}
@@ -0,0 +1,99 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+package net.sf.jmoney.jdbcdatastore.mssql;
+
+import java.sql.Connection;
+
+import net.sf.jmoney.jdbcdatastore.DatabaseDialect;
+
+/**
+ * The SQL specific to Microsoft SQL Server.
+ * <P>
+ * Paging in SQL is not supported because OFFSET and FETCH are available
+ * only from SQL Server 2012.
+ *
+ * @author Nigel Westbury
+ */
+public class MsSqlDialect extends DatabaseDialect {
+
+	@Override
+	public String getBooleanTypeName() {
+		return "BIT";
+	}
+
+	@Override
+	public String getOnDeleteRestrict() {
+		return "ON DELETE NO ACTION";
+	}
+
+	/**
+	 * SQL Server accepts explicit values in identity columns if
+	 * IDENTITY_INSERT is set for the table.
+	 */
+	@Override
+	public boolean isExplicitIdentitySupported(Connection connection) {
+		return true;
+	}
+
+	/**
+	 * IDENTITY_INSERT can be set for only one table at a time.
+	 */
+	@Override
+	public String getIdentityInsertOnSql(String tableName) {
+		return "SET IDENTITY_INSERT " + tableName + " ON";
+	}
+
+	@Override
+	public String getIdentityInsertOffSql(String tableName) {
+		return "SET IDENTITY_INSERT " + tableName + " OFF";
+	}
+
+	/**
+	 * IDENT_CURRENT returns the last id generated, or the seed if no id has
+	 * yet been generated, in which case one id is skipped.
+	 */
+	@Override
+	public String getIdentityNextValueSql(String tableName) {
+		return "SELECT IDENT_CURRENT('" + tableName + "') + IDENT_INCR('" + tableName + "')";
+	}
+
+	@Override
+	public String getRangeLockHint() {
+		return " WITH (UPDLOCK, HOLDLOCK)";
+	}
+
+	/**
+	 * MERGE is available only from SQL Server 2008, so an update followed
+	 * by a conditional insert is used. The parameters are copied into
+	 * variables because each is used twice.
+	 */
+	@Override
+	public String getUpsertSql(String tableName, String keyColumn, String valueColumn) {
+		return "DECLARE @key NVARCHAR(200), @value NVARCHAR(200)"
+			+ " SELECT @key = ?, @value = ?"
+			+ " UPDATE " + tableName + " SET " + valueColumn + " = @value"
+			+ " WHERE " + keyColumn + " = @key"
+			+ " IF @@ROWCOUNT = 0"
+			+ " INSERT INTO " + tableName + " (" + keyColumn + ", " + valueColumn + ")"
+			+ " VALUES (@key, @value)";
+	}
+}
@@ -22,15 +22,22 @@
 
 package net.sf.jmoney.jdbcdatastore;
 
+import java.io.Closeable;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.AbstractCollection;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Vector;
 
 import net.sf.jmoney.model2.Entry;
 import net.sf.jmoney.model2.EntryInfo;
+import net.sf.jmoney.model2.Transaction;
 
 /**
  * This class is used to get the list of entries in a given account. Entries are
@@ -56,52 +63,33 @@ public class AccountEntriesList extends AbstractCollection<Entry> {
 		columnName = EntryInfo.getAccountAccessor().getLocalName();
 	}
 	
+	/**
+	 * The count is cached by the session manager, so this does not usually
+	 * require a query.
+	 */
 	@Override
 	public int size() {
-		try {
-			String sql = "SELECT COUNT(*) FROM " + tableName
-			+ " WHERE \"" + columnName + "\" = ?";
-			System.out.println(sql + " : " + keyOfRequiredPropertyValue.getRowId());
-			PreparedStatement stmt = sessionManager.getConnection().prepareStatement(sql);
-			try {
-				stmt.setInt(1, keyOfRequiredPropertyValue.getRowId());
-				ResultSet resultSet = stmt.executeQuery();
-				resultSet.next();
-				int size = resultSet.getInt(1);
-				resultSet.close();
-				return size;
-			} finally {
-				stmt.close();
-			}
-		} catch (SQLException e) {
-			e.printStackTrace();
-			throw new RuntimeException("SQL Exception: " + e.getMessage());
-		}
+		return sessionManager.getEntryCountCache().getCount(keyOfRequiredPropertyValue);
 	}
 
-	// TODO delete this method.  The base class will use the size() method from its default implementation.
 	@Override
 	public boolean isEmpty() {
-		try {
-			String sql =
-				"SELECT * FROM " + tableName
-				+ " WHERE \"" + columnName + "\" = ?";
-			System.out.println(sql + " : " + keyOfRequiredPropertyValue.getRowId());
-			PreparedStatement stmt = sessionManager.getConnection().prepareStatement(sql);
-			try {
-				stmt.setInt(1, keyOfRequiredPropertyValue.getRowId());
-				ResultSet resultSet = stmt.executeQuery();
-				boolean hasNext = resultSet.next();
-				return !hasNext;
-			} finally {
-				stmt.close();
-			}
-		} catch (SQLException e) {
-			e.printStackTrace();
-			throw new RuntimeException("SQL Exception: " + e.getMessage());
-		}
+		return sessionManager.getEntryCountCache().isEmpty(keyOfRequiredPropertyValue);
 	}
 	
+	/**
+	 * Returns an iterator over the entries in the account.
+	 * <P>
+	 * The entries are read through a cursor.  The entries are usually
+	 * wanted together with their transactions and the other entries in
+	 * those transactions, so as each window of entries is read from the
+	 * cursor, the transactions of those entries are read together with all
+	 * their entries.  The window is the fetch size of the cursor, so memory
+	 * use does not depend on the number of entries in the account.
+	 * <P>
+	 * The iterator is <code>java.io.Closeable</code> and must be closed if
+	 * the caller stops before the end.
+	 */
 	@Override
 	public Iterator<Entry> iterator() {
 		ResultSet rs = sessionManager.runWithReconnect(new IRunnableSql<ResultSet>() {
@@ -112,10 +100,9 @@ public class AccountEntriesList extends AbstractCollection<Entry> {
 				String sql =
 					"SELECT * FROM " + tableName
 					+ " WHERE \"" + columnName + "\" = ?";
-				System.out.println(sql + " : " + keyOfRequiredPropertyValue.getRowId());
-				PreparedStatement stmt = connection.prepareStatement(sql);
+				PreparedStatement stmt = sessionManager.prepareCursorStatement(sql);
 				stmt.setInt(1, keyOfRequiredPropertyValue.getRowId());
-				return stmt.executeQuery();
+				return sessionManager.executeQuery(stmt, sql);
 			}
 		});
 		
@@ -124,6 +111,72 @@ public class AccountEntriesList extends AbstractCollection<Entry> {
 		 * meaning it is the responsibility of UncachedObjectIterator to
 		 * close the statement when it is done.
 		 */
-		return new UncachedObjectIterator<Entry>(rs, EntryInfo.getPropertySet(), null, sessionManager);
+		return new PrefetchingIterator(new UncachedObjectIterator<Entry>(rs, EntryInfo.getPropertySet(), null, sessionManager));
+	}
+
+	/**
+	 * Iterator that takes the entries from a cursor a window at a time,
+	 * reading the transactions of the entries in each window.
+	 */
+	private class PrefetchingIterator implements Iterator<Entry>, Closeable {
+		private UncachedObjectIterator<Entry> cursor;
+		
+		private Vector<Entry> window = new Vector<Entry>();
+		
+		private int windowIndex = 0;
+		
+		/**
+		 * The transactions of the entries in the current window.  The
+		 * entries reference their transactions only through their keys, so
+		 * this keeps the transactions in memory until the entries have been
+		 * returned.
+		 */
+		@SuppressWarnings("unused")
+		private List<Transaction> windowTransactions = null;
+
+		PrefetchingIterator(UncachedObjectIterator<Entry> cursor) {
+			this.cursor = cursor;
+		}
+		
+		public boolean hasNext() {
+			return windowIndex < window.size() || cursor.hasNext();
+		}
+
+		public Entry next() {
+			if (windowIndex == window.size()) {
+				readWindow();
+			}
+			return window.get(windowIndex++);
+		}
+
+		private void readWindow() {
+			if (!cursor.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			
+			window.clear();
+			windowIndex = 0;
+			
+			Set<Integer> transactionIds = new LinkedHashSet<Integer>();
+			int windowSize = Math.max(sessionManager.getFetchSize(), 1);
+			while (window.size() < windowSize && cursor.hasNext()) {
+				Entry entry = cursor.next();
+				window.add(entry);
+				transactionIds.add(((IDatabaseRowKey)entry.getParentKey()).getRowId());
+			}
+			
+			windowTransactions = sessionManager.prefetchTransactions(transactionIds);
+		}
+		
+		public void remove() {
+			throw new RuntimeException("unimplemented method");
+		}
+
+		public void close() {
+			cursor.close();
+			window.clear();
+			windowIndex = 0;
+			windowTransactions = null;
+		}
 	}
-}	
+}
@@ -0,0 +1,226 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.jdbcdatastore;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import net.sf.jmoney.model2.EntryInfo;
+import net.sf.jmoney.model2.TransactionInfo;
+
+/**
+ * Builds and executes the queries that total the amounts of entries.
+ * <P>
+ * Each method executes a single query so the entries are never read into
+ * memory. The amounts are summed by the database and, where totals are
+ * required by period, grouped by the database into months. Grouping into
+ * longer periods (such as quarters) is done here by adding together the
+ * monthly totals, which is at most twelve rows per year.
+ * <P>
+ * All three supported databases have the YEAR and MONTH functions, so the
+ * month of a transaction is given by the same expression in each. The
+ * databases do differ in the type of the date column. Derby uses DATE while
+ * HSQLDB and MS SQL use a timestamp type, and the date parameters must be
+ * bound with a matching type or the comparisons at the ends of the range may
+ * go wrong.
+ *
+ * @author Nigel Westbury
+ */
+class AggregateQueries {
+
+	private SessionManager sessionManager;
+
+	private DatabaseDialect dialect;
+
+	private String entryTableName;
+
+	private String transactionTableName;
+
+	/**
+	 * The join of the entry table to the transaction table, this being the
+	 * part of the FROM clause common to all the queries
+	 */
+	private String fromClause;
+
+	private String amountColumn;
+
+	private String accountColumn;
+
+	private String dateColumn;
+
+	AggregateQueries(SessionManager sessionManager, DatabaseDialect dialect) {
+		this.sessionManager = sessionManager;
+		this.dialect = dialect;
+
+		entryTableName = EntryInfo.getPropertySet().getId().replace('.', '_');
+		transactionTableName = TransactionInfo.getPropertySet().getId().replace('.', '_');
+		String parentColumn = TransactionInfo.getEntriesAccessor().getName().replace('.', '_');
+
+		fromClause = " FROM " + entryTableName
+			+ " JOIN " + transactionTableName
+			+ " ON " + entryTableName + ".\"" + parentColumn + "\" = " + transactionTableName + ".\"_ID\"";
+
+		amountColumn = entryTableName + ".\"" + sessionManager.getColumnName(EntryInfo.getAmountAccessor()) + "\"";
+		accountColumn = entryTableName + ".\"" + sessionManager.getColumnName(EntryInfo.getAccountAccessor()) + "\"";
+		dateColumn = transactionTableName + ".\"" + sessionManager.getColumnName(TransactionInfo.getDateAccessor()) + "\"";
+	}
+
+	/**
+	 * Sums the amounts of all entries in the given accounts whose transaction
+	 * date is in the given range, inclusive of both ends.
+	 *
+	 * @param accountIds the row ids of the accounts
+	 * @param fromDate
+	 * @param toDate
+	 * @return the total of the amounts, being zero if there are no entries
+	 */
+	long sumOfAmounts(List<Integer> accountIds, Date fromDate, Date toDate) {
+		String sql = "SELECT SUM(" + amountColumn + ")"
+			+ fromClause
+			+ " WHERE " + buildAccountCondition(accountIds.size())
+			+ " AND " + dateColumn + " >= ?"
+			+ " AND " + dateColumn + " <= ?";
+
+		try {
+			sessionManager.flushPendingInserts();
+			PreparedStatement stmt = sessionManager.getCachedStatement(sql);
+			int parameterIndex = setAccountParameters(stmt, 1, accountIds);
+			setDateParameter(stmt, parameterIndex++, fromDate);
+			setDateParameter(stmt, parameterIndex++, toDate);
+
+			ResultSet rs = sessionManager.executeQuery(stmt, sql);
+			try {
+				rs.next();
+				// SUM returns NULL if there are no rows, which getLong returns as zero.
+				return rs.getLong(1);
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RuntimeException("SQL Exception: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the total of the amounts of the entries in the given accounts
+	 * for each of a consecutive range of periods.
+	 *
+	 * @param accountIds the row ids of the accounts
+	 * @param startYear the year in which the first period starts
+	 * @param startMonth the month in which the first period starts, 1 to 12
+	 * @param numberOfPeriods the number of periods
+	 * @param monthsPerPeriod the length of each period in months, so 1 for
+	 * 			monthly totals, 3 for quarterly totals, 12 for annual totals
+	 * @return an array of size numberOfPeriods containing the totals
+	 */
+	long[] getTotalsByPeriod(List<Integer> accountIds, int startYear, int startMonth, int numberOfPeriods, int monthsPerPeriod) {
+		/*
+		 * Months are numbered consecutively from year zero so that the
+		 * period can be found by simple arithmetic.
+		 */
+		int firstMonthNumber = startYear * 12 + startMonth - 1;
+		int endMonthNumber = firstMonthNumber + numberOfPeriods * monthsPerPeriod;
+
+		Date startDate = getStartOfMonth(firstMonthNumber);
+		Date endDate = getStartOfMonth(endMonthNumber);
+
+		String yearExpression = "YEAR(" + dateColumn + ")";
+		String monthExpression = "MONTH(" + dateColumn + ")";
+
+		String sql = "SELECT " + yearExpression + ", " + monthExpression + ", SUM(" + amountColumn + ")"
+			+ fromClause
+			+ " WHERE " + buildAccountCondition(accountIds.size())
+			+ " AND " + dateColumn + " >= ?"
+			+ " AND " + dateColumn + " < ?"
+			+ " GROUP BY " + yearExpression + ", " + monthExpression;
+
+		long [] totals = new long[numberOfPeriods];
+
+		try {
+			sessionManager.flushPendingInserts();
+			PreparedStatement stmt = sessionManager.getCachedStatement(sql);
+			int parameterIndex = setAccountParameters(stmt, 1, accountIds);
+			setDateParameter(stmt, parameterIndex++, startDate);
+			setDateParameter(stmt, parameterIndex++, endDate);
+
+			ResultSet rs = sessionManager.executeQuery(stmt, sql);
+			try {
+				while (rs.next()) {
+					int monthNumber = rs.getInt(1) * 12 + rs.getInt(2) - 1;
+					int period = (monthNumber - firstMonthNumber) / monthsPerPeriod;
+					if (period >= 0 && period < numberOfPeriods) {
+						totals[period] += rs.getLong(3);
+					}
+				}
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RuntimeException("SQL Exception: " + e.getMessage());
+		}
+
+		return totals;
+	}
+
+	/**
+	 * Builds the condition that restricts the entries to the given accounts.
+	 * A single account is the usual case and is given a simple equality
+	 * condition so the statement is the same whatever the account.
+	 */
+	private String buildAccountCondition(int numberOfAccounts) {
+		if (numberOfAccounts == 1) {
+			return accountColumn + " = ?";
+		}
+
+		StringBuffer condition = new StringBuffer(accountColumn + " IN (?");
+		for (int i = 1; i < numberOfAccounts; i++) {
+			condition.append(",?");
+		}
+		condition.append(')');
+		return condition.toString();
+	}
+
+	private int setAccountParameters(PreparedStatement stmt, int parameterIndex, List<Integer> accountIds) throws SQLException {
+		for (Integer accountId: accountIds) {
+			stmt.setInt(parameterIndex++, accountId);
+		}
+		return parameterIndex;
+	}
+
+	private void setDateParameter(PreparedStatement stmt, int parameterIndex, Date date) throws SQLException {
+		dialect.setDateParameter(stmt, parameterIndex, date);
+	}
+
+	private static Date getStartOfMonth(int monthNumber) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(monthNumber / 12, monthNumber % 12, 1, 0, 0, 0);
+		return calendar.getTime();
+	}
+}
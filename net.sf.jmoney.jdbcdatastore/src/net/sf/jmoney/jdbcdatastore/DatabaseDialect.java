@@ -0,0 +1,245 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.jdbcdatastore;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Date;
+
+/**
+ * The SQL that differs from one database implementation to another.
+ * <P>
+ * An instance of this class is used when no dialect has been contributed
+ * for the database. This base implementation uses standard SQL and JDBC.
+ * The fragments that supply the JDBC drivers contribute subclasses to the
+ * <code>net.sf.jmoney.jdbcdatastore.dialects</code> extension point,
+ * overriding only those methods that must differ for their database.
+ *
+ * @author Nigel Westbury
+ */
+public class DatabaseDialect {
+
+	/**
+	 * @return the type of the columns that hold boolean values, or null if
+	 * 			the database has no suitable type, in which case booleans
+	 * 			are held in a CHAR(1) column as '1' or '0'
+	 */
+	public String getBooleanTypeName() {
+		return null;
+	}
+
+	/**
+	 * @return the type of the columns that hold dates
+	 */
+	public String getDateTypeName() {
+		return "DATETIME";
+	}
+
+	/**
+	 * @return the JDBC type of the columns that hold dates, as used when
+	 * 			setting a null date parameter
+	 */
+	public int getDateSqlType() {
+		return Types.TIMESTAMP;
+	}
+
+	/**
+	 * Sets a date as a parameter in a statement that compares it against a
+	 * date column.
+	 */
+	public void setDateParameter(PreparedStatement stmt, int parameterIndex, Date date) throws SQLException {
+		stmt.setTimestamp(parameterIndex, new Timestamp(date.getTime()));
+	}
+
+	/**
+	 * @return the clause added to a foreign key so that a row cannot be
+	 * 			deleted while other rows reference it
+	 */
+	public String getOnDeleteRestrict() {
+		return "ON DELETE RESTRICT";
+	}
+
+	/**
+	 * Indicates whether a foreign key from the _ID column of a derived table
+	 * to its base table may be created with ON DELETE CASCADE. Some
+	 * databases do not allow a cascade to reach a table through more than
+	 * one path.
+	 */
+	public boolean isCascadeToDerivedTableAllowed() {
+		return true;
+	}
+
+	/**
+	 * @return the text that follows <code>INT</code> in the definition of the
+	 * 			_ID column in the CREATE TABLE statement for a basemost table.
+	 * 			PRIMARY KEY is added after this text.
+	 */
+	public String getIdentityColumnDefinition() {
+		return "IDENTITY";
+	}
+
+	/**
+	 * @return a query that returns the id generated by the last insert made
+	 * 			on the connection, or null if the id is to be obtained using
+	 * 			<code>getGeneratedKeys</code>
+	 */
+	public String getIdentityQuery() {
+		return null;
+	}
+
+	/**
+	 * Indicates whether rows can be inserted with explicit values in the
+	 * _ID columns of the basemost tables. This is required if rows are to be
+	 * inserted in JDBC batches, because the ids must then
+	 * be allocated before the rows are written.
+	 * <P>
+	 * This is called after the schema has been checked.
+	 *
+	 * @param connection
+	 */
+	public boolean isExplicitIdentitySupported(Connection connection) throws SQLException {
+		return false;
+	}
+
+	/**
+	 * @return a query that returns the next id to be generated by the
+	 * 			identity column of the given basemost table, or null if this
+	 * 			cannot be obtained from this database, in which case ids are
+	 * 			allocated after the highest id in the table
+	 */
+	public String getIdentityNextValueSql(String tableName) {
+		return null;
+	}
+
+	/**
+	 * @return the statement that must be executed before rows with explicit
+	 * 			ids are inserted into the given basemost table, or null if
+	 * 			none is needed
+	 */
+	public String getIdentityInsertOnSql(String tableName) {
+		return null;
+	}
+
+	/**
+	 * @return the statement that must be executed after rows with explicit
+	 * 			ids have been inserted into the given basemost table, or null
+	 * 			if none is needed
+	 */
+	public String getIdentityInsertOffSql(String tableName) {
+		return null;
+	}
+
+	/**
+	 * @return the statement that sets the next id to be generated for the
+	 * 			given basemost table, or null if the database adjusts the
+	 * 			next id itself when explicit ids are inserted
+	 */
+	public String getIdentityRestartSql(String tableName, int nextId) {
+		return null;
+	}
+
+	/**
+	 * @return the text to be added after the table name in a SELECT
+	 * 			statement so that the rows read remain locked, with the
+	 * 			range of rows locked against inserts, until the transaction
+	 * 			is committed, or an empty string if the database does not
+	 * 			support or need this
+	 */
+	public String getRangeLockHint() {
+		return "";
+	}
+
+	/**
+	 * Ids reserved for rows inserted in bulk must not be generated by the
+	 * identity column for rows inserted by other connections.  A database
+	 * that adjusts the next identity value only when
+	 * {@link #getIdentityRestartSql(String, int)} is executed, at commit,
+	 * must lock the table against such inserts until then.
+	 * 
+	 * @return the statement that locks the given basemost table against
+	 * 			inserts by other connections until the transaction ends, or
+	 * 			null if no lock is needed
+	 */
+	public String getTableLockSql(String tableName) {
+		return null;
+	}
+
+	/**
+	 * Adds the paging clause to a query. The parameters for the paging
+	 * clause follow all other parameters in the query.
+	 * <P>
+	 * A dialect that overrides this method must also override
+	 * {@link #setPagingParameters(PreparedStatement, int, int, int)}.
+	 *
+	 * @return the query with the paging clause, or null if the database
+	 * 			does not support paging in SQL, in which case the caller
+	 * 			skips the rows before the page
+	 */
+	public String getPagedSql(String sql) {
+		return null;
+	}
+
+	/**
+	 * Sets up a statement so that it returns the given page of rows. This
+	 * must be called on every execution because a cached statement keeps
+	 * its settings from its previous use.
+	 * <P>
+	 * This base implementation is used when {@link #getPagedSql(String)}
+	 * returns null. There is no paging clause, so the number of rows
+	 * returned is limited to the rows up to the end of the page. The caller
+	 * skips the first <code>offset</code> rows. Dialects that add a paging
+	 * clause set its parameters instead.
+	 *
+	 * @param parameterIndex the index of the first parameter of the
+	 * 			paging clause
+	 * @param offset the number of rows to be skipped
+	 * @param limit the maximum number of rows to be returned
+	 */
+	public void setPagingParameters(PreparedStatement stmt, int parameterIndex, int offset, int limit) throws SQLException {
+		stmt.setMaxRows(offset + limit);
+	}
+
+	/**
+	 * Builds a single statement that inserts a row or, if a row with the
+	 * given key already exists, updates it. The statement has two
+	 * parameters, being the key and then the value.
+	 *
+	 * @return the statement, or null if the database cannot do this in one
+	 * 			statement, in which case the caller deletes any existing row
+	 * 			and then inserts the row
+	 */
+	public String getUpsertSql(String tableName, String keyColumn, String valueColumn) {
+		return null;
+	}
+
+	/**
+	 * @return a statement that returns the plan for the given query, or
+	 * 			null if the plan cannot be obtained from this database
+	 */
+	public String getExplainPlanSql(String sql) {
+		return null;
+	}
+}
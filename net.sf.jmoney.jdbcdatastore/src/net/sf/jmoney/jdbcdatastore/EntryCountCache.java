@@ -0,0 +1,197 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.jdbcdatastore;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.jmoney.model2.Account;
+import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.EntryInfo;
+import net.sf.jmoney.model2.ExtendableObject;
+import net.sf.jmoney.model2.ScalarPropertyAccessor;
+import net.sf.jmoney.model2.SessionChangeAdapter;
+
+/**
+ * Caches the number of entries in each account.
+ * <P>
+ * The navigator and the checks made before an account is deleted ask for
+ * the number of entries, or whether there are any entries, many times over.
+ * Once the count for an account has been read from the database, it is kept
+ * here and kept up to date from the session change events.
+ * <P>
+ * The count is incremented when an entry is created in the account and
+ * moved from one account to the other when the account of an entry is
+ * changed. When entries are deleted the counts for the affected accounts
+ * are simply dropped, to be read again when next needed. The session
+ * manager drops them after it has deleted the rows, not when the deletion
+ * events are fired. The events are fired before the rows are deleted, so a
+ * count read by a listener at that time would still include the entries.
+ * <P>
+ * This listener must see each event before any other listener, otherwise
+ * another listener could read the count from the database after the change
+ * was made but before the count is adjusted, resulting in the change being
+ * counted twice. The session manager therefore registers this as a
+ * <code>SessionChangeFirerListener</code>.
+ *
+ * @author Nigel Westbury
+ */
+class EntryCountCache extends SessionChangeAdapter {
+
+	private SessionManager sessionManager;
+
+	private String tableName;
+
+	private String columnName;
+
+	/**
+	 * Map of account row ids to the number of entries in the account.
+	 */
+	private Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+
+	EntryCountCache(SessionManager sessionManager) {
+		this.sessionManager = sessionManager;
+		this.tableName = EntryInfo.getPropertySet().getId().replace('.', '_');
+		this.columnName = sessionManager.getColumnName(EntryInfo.getAccountAccessor());
+	}
+
+	/**
+	 * @return the number of entries in the given account
+	 */
+	int getCount(IDatabaseRowKey accountKey) {
+		Integer count = counts.get(accountKey.getRowId());
+		if (count == null) {
+			count = readCount(accountKey);
+			counts.put(accountKey.getRowId(), count);
+		}
+		return count;
+	}
+
+	/**
+	 * Indicates whether there are any entries in the given account. If the
+	 * count is not cached then the database is asked only whether there is
+	 * at least one entry, which does not require the database to count all
+	 * the entries.
+	 */
+	boolean isEmpty(IDatabaseRowKey accountKey) {
+		Integer count = counts.get(accountKey.getRowId());
+		if (count != null) {
+			return count == 0;
+		}
+
+		try {
+			String sql = "SELECT \"_ID\" FROM " + tableName
+				+ " WHERE \"" + columnName + "\" = ?";
+			sessionManager.flushPendingInserts();
+			PreparedStatement stmt = sessionManager.getCachedStatement(sql);
+			stmt.setInt(1, accountKey.getRowId());
+			stmt.setMaxRows(1);
+			ResultSet resultSet = sessionManager.executeQuery(stmt, sql);
+			try {
+				boolean isEmpty = !resultSet.next();
+				if (isEmpty) {
+					counts.put(accountKey.getRowId(), 0);
+				}
+				return isEmpty;
+			} finally {
+				resultSet.close();
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RuntimeException("SQL Exception: " + e.getMessage());
+		}
+	}
+
+	private int readCount(IDatabaseRowKey accountKey) {
+		try {
+			String sql = "SELECT COUNT(*) FROM " + tableName
+				+ " WHERE \"" + columnName + "\" = ?";
+			sessionManager.flushPendingInserts();
+			PreparedStatement stmt = sessionManager.getCachedStatement(sql);
+			stmt.setInt(1, accountKey.getRowId());
+			ResultSet resultSet = sessionManager.executeQuery(stmt, sql);
+			try {
+				resultSet.next();
+				return resultSet.getInt(1);
+			} finally {
+				resultSet.close();
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RuntimeException("SQL Exception: " + e.getMessage());
+		}
+	}
+
+	private void adjust(Account account, int delta) {
+		if (account != null) {
+			int accountId = ((IDatabaseRowKey)account.getObjectKey()).getRowId();
+			Integer count = counts.get(accountId);
+			if (count != null) {
+				counts.put(accountId, count + delta);
+			}
+		}
+	}
+
+	/**
+	 * Drops the count for the given account, to be read again when next
+	 * needed.
+	 */
+	void invalidate(int accountId) {
+		counts.remove(accountId);
+	}
+
+	/**
+	 * Drops the counts affected by the deletion of the given object. This is
+	 * called by the session manager after the rows for the object have been
+	 * deleted. The entries in a deleted transaction are deleted, and passed
+	 * to this method, one at a time.
+	 */
+	void objectDeleted(ExtendableObject deletedObject) {
+		if (deletedObject instanceof Entry) {
+			Account account = ((Entry)deletedObject).getAccount();
+			if (account != null) {
+				invalidate(((IDatabaseRowKey)account.getObjectKey()).getRowId());
+			}
+		} else if (deletedObject instanceof Account) {
+			invalidate(((IDatabaseRowKey)deletedObject.getObjectKey()).getRowId());
+		}
+	}
+
+	@Override
+	public void objectCreated(ExtendableObject newObject) {
+		if (newObject instanceof Entry) {
+			adjust(((Entry)newObject).getAccount(), 1);
+		}
+	}
+
+	@Override
+	public void objectChanged(ExtendableObject changedObject, ScalarPropertyAccessor changedProperty, Object oldValue, Object newValue) {
+		if (changedProperty == EntryInfo.getAccountAccessor()) {
+			adjust((Account)oldValue, -1);
+			adjust((Account)newValue, 1);
+		}
+	}
+}
@@ -0,0 +1,281 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.jdbcdatastore;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Records the queries that take longer than a threshold and suggests
+ * indexes that may speed them up.
+ * <P>
+ * <code>checkDatabase</code> creates indexes for all columns that reference
+ * other rows and for sortable date columns. Those indexes cover the queries
+ * made by JMoney itself. Plug-ins may however query on other columns, and
+ * this class helps to find those cases. The columns that are already indexed
+ * are passed to this object when the schema is checked. When a slow query is
+ * recorded, the columns used in its WHERE clause are matched against the
+ * indexed columns and a CREATE INDEX statement is suggested for each column
+ * that is not indexed.
+ * <P>
+ * The query plan is recorded too where the database makes it easy to get the
+ * plan (currently only HSQLDB).
+ *
+ * @author Nigel Westbury
+ */
+class IndexAdvisor {
+
+	/**
+	 * Queries that take at least this long are recorded.
+	 */
+	static final long SLOW_QUERY_THRESHOLD_MILLIS = 200;
+
+	/**
+	 * The maximum number of distinct slow queries to record. When this is
+	 * exceeded, the query that was least recently found to be slow is
+	 * forgotten.
+	 */
+	private static final int MAXIMUM_RECORDED_QUERIES = 50;
+
+	/**
+	 * Matches the first table in the FROM clause.
+	 */
+	private static final Pattern fromPattern = Pattern.compile("\\sFROM\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * Matches a column compared in a WHERE clause, optionally qualified by the
+	 * table name. Group 1 is the table name, if any, and group 2 the column
+	 * name.
+	 */
+	private static final Pattern predicatePattern = Pattern.compile("(?:(\\w+)\\.)?\"([^\"]+)\"\\s*(?:=|<|>|<=|>=|IN\\s|IS\\s)", Pattern.CASE_INSENSITIVE);
+
+	class SlowQuery {
+		String sql;
+		int count = 0;
+		long totalMillis = 0;
+		long maximumMillis = 0;
+		String plan;
+
+		SlowQuery(String sql) {
+			this.sql = sql;
+		}
+	}
+
+	private DatabaseDialect dialect;
+
+	/**
+	 * Set of indexed columns, each element being the table name and column
+	 * name in upper case separated by a period.
+	 */
+	private Set<String> indexedColumns = new HashSet<String>();
+
+	private Map<String, SlowQuery> slowQueries = new LinkedHashMap<String, SlowQuery>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, SlowQuery> eldest) {
+			return size() > MAXIMUM_RECORDED_QUERIES;
+		}
+	};
+
+	IndexAdvisor(DatabaseDialect dialect) {
+		this.dialect = dialect;
+	}
+
+	/**
+	 * Notifies this advisor that the given column has an index on
+	 * which the column is the first (or only) column.
+	 */
+	void addIndexedColumn(String tableName, String columnName) {
+		indexedColumns.add(tableName.toUpperCase() + "." + columnName.toUpperCase());
+	}
+
+	boolean isIndexed(String tableName, String columnName) {
+		return indexedColumns.contains(tableName.toUpperCase() + "." + columnName.toUpperCase());
+	}
+
+	/**
+	 * Called after each query has been executed.
+	 *
+	 * @param connection the connection on which the query was executed, used
+	 * 			to obtain the query plan the first time the query is found
+	 * 			to be slow
+	 * @param sql the SQL for the query
+	 * @param elapsedMillis the time taken to execute the query
+	 */
+	void queryExecuted(Connection connection, String sql, long elapsedMillis) {
+		if (elapsedMillis < SLOW_QUERY_THRESHOLD_MILLIS) {
+			return;
+		}
+
+		SlowQuery slowQuery = slowQueries.get(sql);
+		if (slowQuery == null) {
+			slowQuery = new SlowQuery(sql);
+			slowQuery.plan = getPlan(connection, sql);
+			slowQueries.put(sql, slowQuery);
+		}
+		slowQuery.count++;
+		slowQuery.totalMillis += elapsedMillis;
+		slowQuery.maximumMillis = Math.max(slowQuery.maximumMillis, elapsedMillis);
+
+		if (JDBCDatastorePlugin.DEBUG) {
+			JDBCDatastorePlugin.logInfo("Slow query (" + elapsedMillis + "ms): " + sql);
+		}
+	}
+
+	private String getPlan(Connection connection, String sql) {
+		/*
+		 * Some databases require values for the parameters, so we replace
+		 * each parameter with NULL. This does not affect the choice of
+		 * index.
+		 */
+		String planSql = dialect.getExplainPlanSql(sql.replace("?", "NULL"));
+		if (planSql == null) {
+			return null;
+		}
+
+		try {
+			Statement stmt = connection.createStatement();
+			try {
+				ResultSet rs = stmt.executeQuery(planSql);
+				StringBuffer plan = new StringBuffer();
+				while (rs.next()) {
+					plan.append(rs.getString(1)).append('\n');
+				}
+				rs.close();
+				return plan.toString();
+			} finally {
+				stmt.close();
+			}
+		} catch (SQLException e) {
+			// The plan is only informational, so just leave it out.
+			return null;
+		}
+	}
+
+	/**
+	 * @return the slow queries recorded in this session, least recently
+	 * 			slow first
+	 */
+	Collection<SlowQuery> getSlowQueries() {
+		return slowQueries.values();
+	}
+
+	/**
+	 * Suggests indexes for the columns used in the WHERE clauses of the slow
+	 * queries, where those columns are not already indexed.
+	 *
+	 * @return a list of CREATE INDEX statements, which may be empty but is
+	 * 			never null
+	 */
+	List<String> getSuggestedIndexes() {
+		Set<String> suggestedColumns = new HashSet<String>();
+		List<String> result = new ArrayList<String>();
+
+		for (SlowQuery slowQuery: slowQueries.values()) {
+			Matcher fromMatcher = fromPattern.matcher(slowQuery.sql);
+			if (!fromMatcher.find()) {
+				continue;
+			}
+			String defaultTableName = fromMatcher.group(1);
+
+			int whereIndex = slowQuery.sql.toUpperCase().indexOf(" WHERE ");
+			if (whereIndex == -1) {
+				continue;
+			}
+
+			Matcher matcher = predicatePattern.matcher(slowQuery.sql);
+			matcher.region(whereIndex, slowQuery.sql.length());
+			while (matcher.find()) {
+				String tableName = (matcher.group(1) != null) ? matcher.group(1) : defaultTableName;
+				String columnName = matcher.group(2);
+				if (columnName.equals("_ID") || isIndexed(tableName, columnName)) {
+					continue;
+				}
+				if (suggestedColumns.add(tableName.toUpperCase() + "." + columnName.toUpperCase())) {
+					result.add("CREATE INDEX " + getIndexName(tableName, columnName)
+							+ " ON " + tableName + "(\"" + columnName + "\")");
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Writes the slow queries and the suggested indexes to the log of this
+	 * plug-in, as a single entry.
+	 */
+	void logReport() {
+		if (slowQueries.isEmpty()) {
+			return;
+		}
+
+		StringBuffer report = new StringBuffer();
+		report.append("Slow queries:\n");
+		for (SlowQuery slowQuery: slowQueries.values()) {
+			report.append("  " + slowQuery.count + " times, "
+					+ (slowQuery.totalMillis / slowQuery.count) + "ms average, "
+					+ slowQuery.maximumMillis + "ms maximum: " + slowQuery.sql + "\n");
+			if (slowQuery.plan != null) {
+				report.append(slowQuery.plan);
+			}
+		}
+
+		List<String> suggestedIndexes = getSuggestedIndexes();
+		if (!suggestedIndexes.isEmpty()) {
+			report.append("Suggested indexes:\n");
+			for (String sql: suggestedIndexes) {
+				report.append("  " + sql + "\n");
+			}
+		}
+
+		JDBCDatastorePlugin.logInfo(report.toString());
+	}
+
+	/**
+	 * Builds the name of an index on a single column. Index names must be
+	 * unique in the schema (not just in the table), so the table name is
+	 * included. The name is kept within the 128 character limit of Derby and
+	 * MS SQL.
+	 */
+	static String getIndexName(String tableName, String columnName) {
+		String name = "IX_" + tableName + "_" + columnName.replace('.', '_');
+		if (name.length() > 128) {
+			String hash = Integer.toHexString(name.hashCode());
+			name = name.substring(0, 128 - hash.length() - 1) + "_" + hash;
+		}
+		return name.toUpperCase();
+	}
+}
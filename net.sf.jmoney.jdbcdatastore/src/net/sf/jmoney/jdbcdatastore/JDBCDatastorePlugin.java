@@ -26,7 +26,12 @@ import java.sql.SQLException;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IConfigurationElement;
+import org.eclipse.core.runtime.IExtensionRegistry;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.dialogs.IDialogConstants;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.ui.IWorkbenchWindow;
@@ -40,8 +45,20 @@ import org.osgi.framework.BundleContext;
  */
 public class JDBCDatastorePlugin extends AbstractUIPlugin {
 
+	public static final String PLUGIN_ID = "net.sf.jmoney.jdbcdatastore"; //$NON-NLS-1$
+
 	public static final boolean DEBUG = "true".equalsIgnoreCase(Platform.getDebugOption("net.sf.jmoney.jdbcdatastore/debug"));
 
+	/**
+	 * True if statistics are to be recorded for all SQL statements
+	 */
+	public static final boolean TRACE_SQL = "true".equalsIgnoreCase(Platform.getDebugOption("net.sf.jmoney.jdbcdatastore/trace/sql"));
+
+	/**
+	 * True if all SQL statements are to be printed as they are executed
+	 */
+	public static final boolean TRACE_SQL_STATEMENTS = "true".equalsIgnoreCase(Platform.getDebugOption("net.sf.jmoney.jdbcdatastore/trace/sql/statements"));
+
 	//The shared instance.
 	private static JDBCDatastorePlugin plugin;
 	//Resource bundle.
@@ -83,6 +100,32 @@ public class JDBCDatastorePlugin extends AbstractUIPlugin {
 		return plugin;
 	}
 	
+	/**
+	 * Log status to the log of this plug-in.
+	 */
+	public static void log(IStatus status) {
+		getDefault().getLog().log(status);
+	}
+
+	/**
+	 * Log an information message to the log of this plug-in.
+	 * 
+	 * @param message the message to log
+	 */
+	public static void logInfo(String message) {
+		log(new Status(IStatus.INFO, PLUGIN_ID, IStatus.OK, message, null));
+	}
+
+	/**
+	 * Log a warning message to the log of this plug-in.
+	 * 
+	 * @param message the message to log
+	 * @param e the exception showing where the problem arose, or null
+	 */
+	public static void logWarning(String message, Throwable e) {
+		log(new Status(IStatus.WARNING, PLUGIN_ID, IStatus.OK, message, e));
+	}
+
 	/**
 	 * Returns the string from the plugin's resource bundle,
 	 * or 'key' if not found.
@@ -103,6 +146,32 @@ public class JDBCDatastorePlugin extends AbstractUIPlugin {
 		return resourceBundle;
 	}
 	
+	/**
+	 * Returns the dialect for the given database implementation. The
+	 * dialects are contributed to the
+	 * <code>net.sf.jmoney.jdbcdatastore.dialects</code> extension point,
+	 * normally by the fragments that supply the JDBC drivers.
+	 * 
+	 * @param databaseProductName the database product name, as returned by
+	 * 			the JDBC database metadata
+	 * @return the dialect, or a dialect that uses only standard SQL if no
+	 * 			dialect has been contributed for the database
+	 */
+	public static DatabaseDialect getDialect(String databaseProductName) {
+		IExtensionRegistry registry = Platform.getExtensionRegistry();
+		for (IConfigurationElement element: registry.getConfigurationElementsFor("net.sf.jmoney.jdbcdatastore.dialects")) { //$NON-NLS-1$
+			if (element.getName().equals("dialect") //$NON-NLS-1$
+					&& databaseProductName.equals(element.getAttribute("databaseProductName"))) { //$NON-NLS-1$
+				try {
+					return (DatabaseDialect)element.createExecutableExtension("class"); //$NON-NLS-1$
+				} catch (CoreException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return new DatabaseDialect();
+	}
+
 	/**
 	 * @param window
 	 * @return
@@ -151,7 +220,10 @@ public class JDBCDatastorePlugin extends AbstractUIPlugin {
 		}
 		
 		try {
-			result = new SessionManager(url, user, password);
+			int objectCacheSize = getPreferenceStore().getInt("objectCacheSize");
+			boolean useVersionColumns = getPreferenceStore().getBoolean("useVersionColumns");
+			result = new SessionManager(url, user, password, objectCacheSize, useVersionColumns);
+			result.setFetchSize(getPreferenceStore().getInt("fetchSize"));
 		} catch (SQLException e3) {
 			if (e3.getSQLState().equals("08000")) {
 				// A connection error which means the database server is probably not running.
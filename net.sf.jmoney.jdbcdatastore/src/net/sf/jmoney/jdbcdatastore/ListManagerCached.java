@@ -77,6 +77,22 @@ public class ListManagerCached<E extends ExtendableObject> implements IListManag
 		}
 	}
 
+	/**
+	 * Constructs a list manager for a list whose elements have
+	 * already been read from the database.
+	 * 
+	 * @param sessionManager
+	 * @param listKey
+	 * @param elements
+	 *            the elements in the list, which becomes owned by
+	 *            this list manager
+	 */
+	ListManagerCached(SessionManager sessionManager, DatabaseListKey<E> listKey, Vector<E> elements) {
+		this.sessionManager = sessionManager;
+		this.listKey = listKey;
+		this.elements = elements;
+	}
+
 	public <F extends E> F createNewElement(ExtendablePropertySet<F> propertySet) {
 		// We must create the object before we persist it to the database.
 		// The reason why we must do this, and not simply write the
@@ -118,11 +118,10 @@ public class ListManagerUncached<E extends ExtendableObject> implements IListMan
 			String columnName = listKey.listPropertyAccessor.getName().replace('.', '_');
 			String sql = "SELECT COUNT(*) FROM " + tableName
 			+ " WHERE \"" + columnName + "\" = ?";
-			System.out.println(sql);
 			PreparedStatement stmt = sessionManager.getConnection().prepareStatement(sql);
 			try {
 				stmt.setInt(1, listKey.parentKey.getRowId());
-				ResultSet resultSet = stmt.executeQuery();
+				ResultSet resultSet = sessionManager.executeQuery(stmt, sql);
 				resultSet.next();
 				int size = resultSet.getInt(1);
 				resultSet.close();
@@ -0,0 +1,276 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.jdbcdatastore;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.sf.jmoney.model2.ExtendableObject;
+
+/**
+ * The identity map for the objects of one base-most property set, mapping
+ * row ids to the materialized objects.
+ * <P>
+ * A datastore must never have two instances of the same object, so every
+ * materialized object is put in this map and the map is consulted before an
+ * object is materialized. The map holds the objects through weak references
+ * so the objects can be garbage collected when no longer used. References
+ * that have been cleared by the garbage collector are put on a reference
+ * queue, and the queue is purged on each call that modifies this map so
+ * the map does not grow without limit over a long session.
+ * <P>
+ * Only holding weak references would mean objects that are used often but
+ * briefly, such as accounts and commodities, are collected and read again
+ * from the database over and over. This cache therefore also keeps strong
+ * references to the most recently used objects. The number of strong
+ * references is limited, the least recently used being dropped when the
+ * limit is reached. A dropped object stays in the weak map for as long as
+ * it is referenced elsewhere.
+ * <P>
+ * The weak map is keyed by primitive int, using open addressing with linear
+ * probing, so no Integer objects or map entry objects are created.
+ *
+ * @author Nigel Westbury
+ */
+class ObjectCache {
+
+	/**
+	 * A weak reference that knows its row id, so it can be removed from the
+	 * map when it is found on the reference queue.
+	 */
+	private static class ObjectReference extends WeakReference<ExtendableObject> {
+		final int id;
+
+		ObjectReference(int id, ExtendableObject object, ReferenceQueue<ExtendableObject> queue) {
+			super(object, queue);
+			this.id = id;
+		}
+	}
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private ReferenceQueue<ExtendableObject> queue = new ReferenceQueue<ExtendableObject>();
+
+	/**
+	 * The row ids, valid only where the corresponding element in
+	 * <code>references</code> is non-null. The length is always a power of
+	 * two.
+	 */
+	private int[] ids = new int[INITIAL_CAPACITY];
+
+	private ObjectReference[] references = new ObjectReference[INITIAL_CAPACITY];
+
+	private int size = 0;
+
+	/**
+	 * The most recently used objects, held by strong references.
+	 */
+	private Map<Integer, ExtendableObject> recentlyUsed;
+
+	private int hits = 0;
+	private int misses = 0;
+	private int evictions = 0;
+	private int purged = 0;
+
+	/**
+	 * @param strongCacheSize the maximum number of objects to be kept by
+	 * 			strong references, being zero if objects are to be held
+	 * 			only by weak references
+	 */
+	ObjectCache(final int strongCacheSize) {
+		recentlyUsed = new LinkedHashMap<Integer, ExtendableObject>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, ExtendableObject> eldest) {
+				if (size() > strongCacheSize) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the object with the given id, if it is materialized.
+	 *
+	 * @return the object, or null if the object is not materialized
+	 */
+	ExtendableObject get(int id) {
+		int index = indexOf(id);
+		ExtendableObject object = (index == -1) ? null : references[index].get();
+		if (object == null) {
+			misses++;
+		} else {
+			hits++;
+			recentlyUsed.put(id, object);
+		}
+		return object;
+	}
+
+	/**
+	 * Adds a newly materialized or newly created object to this cache.
+	 */
+	void put(int id, ExtendableObject object) {
+		purge();
+
+		int index = indexOf(id);
+		if (index == -1) {
+			if ((size + 1) * 4 > references.length * 3) {
+				resize(references.length * 2);
+			}
+			index = hash(id) & (references.length - 1);
+			while (references[index] != null) {
+				index = (index + 1) & (references.length - 1);
+			}
+			size++;
+		}
+		ids[index] = id;
+		references[index] = new ObjectReference(id, object, queue);
+
+		recentlyUsed.put(id, object);
+	}
+
+	/**
+	 * Removes an object from this cache.  This is used when the row for the
+	 * object has been deleted without going through the object.
+	 */
+	void remove(int id) {
+		int index = indexOf(id);
+		if (index != -1) {
+			removeAt(index);
+		}
+		recentlyUsed.remove(id);
+	}
+
+	/**
+	 * Removes the entries for objects that have been garbage collected.
+	 */
+	private void purge() {
+		ObjectReference reference;
+		while ((reference = (ObjectReference)queue.poll()) != null) {
+			int index = indexOf(reference.id);
+			/*
+			 * The entry may since have been replaced by a reference to a
+			 * new instance, in which case it must be left alone.
+			 */
+			if (index != -1 && references[index] == reference) {
+				removeAt(index);
+				purged++;
+			}
+		}
+	}
+
+	private int indexOf(int id) {
+		int mask = references.length - 1;
+		for (int index = hash(id) & mask; references[index] != null; index = (index + 1) & mask) {
+			if (ids[index] == id) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Removes the entry at the given index, moving back any following
+	 * entries in the same probe sequence so that no entry becomes
+	 * unreachable.
+	 */
+	private void removeAt(int index) {
+		int mask = references.length - 1;
+		references[index] = null;
+		size--;
+
+		int gap = index;
+		for (int next = (gap + 1) & mask; references[next] != null; next = (next + 1) & mask) {
+			int home = hash(ids[next]) & mask;
+			// Move the entry into the gap if its home slot is not
+			// cyclically between the gap and its current position.
+			boolean canMove = (gap <= next)
+				? (home <= gap || home > next)
+				: (home <= gap && home > next);
+			if (canMove) {
+				ids[gap] = ids[next];
+				references[gap] = references[next];
+				references[next] = null;
+				gap = next;
+			}
+		}
+	}
+
+	private void resize(int newCapacity) {
+		int[] oldIds = ids;
+		ObjectReference[] oldReferences = references;
+
+		ids = new int[newCapacity];
+		references = new ObjectReference[newCapacity];
+
+		int mask = newCapacity - 1;
+		for (int i = 0; i < oldReferences.length; i++) {
+			if (oldReferences[i] != null) {
+				int index = hash(oldIds[i]) & mask;
+				while (references[index] != null) {
+					index = (index + 1) & mask;
+				}
+				ids[index] = oldIds[i];
+				references[index] = oldReferences[i];
+			}
+		}
+	}
+
+	/**
+	 * Row ids are usually allocated sequentially, so the bits are mixed
+	 * to spread them over the table.
+	 */
+	private static int hash(int id) {
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	int getHits() {
+		return hits;
+	}
+
+	int getMisses() {
+		return misses;
+	}
+
+	int getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return a one line summary of the counters, for debugging
+	 */
+	String getStatistics() {
+		return "size " + size
+			+ ", strongly held " + recentlyUsed.size()
+			+ ", hits " + hits
+			+ ", misses " + misses
+			+ ", evictions " + evictions
+			+ ", purged " + purged;
+	}
+}
@@ -26,6 +26,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.MessageFormat;
+import java.util.Vector;
 
 import net.sf.jmoney.jdbcdatastore.SessionManager.DatabaseListKey;
 import net.sf.jmoney.model2.DataManager;
@@ -102,6 +103,23 @@ public class ObjectKey implements IDatabaseRowKey {
 	// work.
 	private ExtendableObject extendableObject = null;
 
+	/**
+	 * The value of the _VERSION column when the object was read or last
+	 * updated.  This is used only if the session manager is using version
+	 * columns, and is valid only in the key that was used to materialize
+	 * the object.
+	 */
+	private int version = 0;
+
+	/**
+	 * A list property of the object whose elements were read from the
+	 * database before the object was materialized, or null if none.  The
+	 * list manager for this list is built from these elements, saving a
+	 * query.  These are cleared once the list manager has been built.
+	 */
+	private ListPropertyAccessor<?> prefetchedListAccessor = null;
+	private Vector<? extends ExtendableObject> prefetchedElements = null;
+
 	/**
 	 * Construct an object key when used as a reference from
 	 * an extendable object.
@@ -136,7 +154,24 @@ public class ObjectKey implements IDatabaseRowKey {
 	 * @throws SQLException
 	 */
 	<E extends ExtendableObject> ObjectKey(ResultSet resultSet, ExtendablePropertySet<E> finalPropertySet, DatabaseListKey<? super E> databaseListKey, SessionManager sessionManager) throws SQLException {
+		this(resultSet, finalPropertySet, databaseListKey, sessionManager, null, null);
+	}
+
+	/**
+	 * Constructs the key from a result set when the elements of one of the
+	 * lists in the object have already been read.  If the object is
+	 * materialized by this constructor then the list is built from the
+	 * given elements.  If the object was already materialized then the
+	 * given elements are not used.
+	 * 
+	 * @param prefetchedListAccessor the list property whose elements are given
+	 * @param prefetchedElements all the elements in the list, which become
+	 * 			owned by the list manager
+	 */
+	<E extends ExtendableObject, L extends ExtendableObject> ObjectKey(ResultSet resultSet, ExtendablePropertySet<E> finalPropertySet, DatabaseListKey<? super E> databaseListKey, SessionManager sessionManager, ListPropertyAccessor<L> prefetchedListAccessor, Vector<L> prefetchedElements) throws SQLException {
 		this.sessionManager = sessionManager;
+		this.prefetchedListAccessor = prefetchedListAccessor;
+		this.prefetchedElements = prefetchedElements;
 		rowId = resultSet.getInt("_ID");
 
 		// TODO: it may be more efficient for the caller to do this????
@@ -151,7 +186,11 @@ public class ObjectKey implements IDatabaseRowKey {
 		if (extendableObject == null) {
 			ListKey<? super E> listKey = (databaseListKey == null) ? null : sessionManager.constructListKey(databaseListKey);
 			extendableObject = sessionManager.materializeObject(resultSet, finalPropertySet, this, listKey);
+			readVersion(resultSet);
 		}
+		
+		this.prefetchedListAccessor = null;
+		this.prefetchedElements = null;
 	}
 	
 	/**
@@ -196,106 +235,143 @@ public class ObjectKey implements IDatabaseRowKey {
 			 * The object must be constructed.
 			 * 
 			 * If the class of extendable objects that may be referenced by this key
-			 * is an abstract class then the process is a two step process. The
-			 * first step is to read the base table. That table will have a column
-			 * that indicates the actual derived class of the object. A second
-			 * select statement must then be submitted that selects the columns from
-			 * the appropriate tables of additional properties for the derived
-			 * class.
+			 * is an abstract class then we do not know which derived tables contain
+			 * the properties of the object. We read the base table joined to all the
+			 * derived tables. The base table has a column that indicates the actual
+			 * derived class of the object, and from that we know which of the joined
+			 * columns to use.
 			 */
-			ExtendablePropertySet<?> finalPropertySet = null;
+			if (typedPropertySet.isDerivable()) {
+				extendableObject = materializeDerivableObject();
+			} else {
+				extendableObject = materializeFinalObject();
+			}
+		}
+		return extendableObject;
+	}
+
+	/**
+	 * Reads the object from the database when the property set of the object
+	 * is known. The base and derived tables are joined.
+	 */
+	private ExtendableObject materializeFinalObject() {
+		ExtendablePropertySet<?> finalPropertySet = typedPropertySet;
+		try {
+			// Build the SQL statement that will return all
+			// the rows from the base and derived tables.
+			String sql = sessionManager.buildJoins(finalPropertySet);
+			sql += " WHERE " + finalPropertySet.getId().replace('.', '_') + ".\"_ID\"=?";
+
+			PreparedStatement stmt = sessionManager.getCachedStatement(sql);
+			stmt.setInt(1, rowId);
+			ResultSet rs = sessionManager.executeQuery(stmt, sql);
 			try {
-				
-				if (typedPropertySet.isDerivable()) {
-					/*
-					 * Get the base-most property set, because only the tables
-					 * for the base-most property sets contain the _PROPERTY_SET
-					 * columns from which we can determine the exact class of the object.
-					 */
-					ExtendablePropertySet<?> basemostPropertySet = typedPropertySet;
-					while (basemostPropertySet.getBasePropertySet() != null) {
-						basemostPropertySet = basemostPropertySet.getBasePropertySet();
-					}
-					
-					String sql = "SELECT \"_PROPERTY_SET\" FROM "
-						+ basemostPropertySet.getId().replace('.', '_')
-						+ " WHERE \"_ID\" = ?";
-					System.out.println(sql);
-					PreparedStatement stmt = sessionManager.getConnection().prepareStatement(sql);
-					try {
-						stmt.setInt(1, rowId);
-						ResultSet rs = stmt.executeQuery();
-
-						// Get the final property set.
-						rs.next();
-						String id = rs.getString("_PROPERTY_SET");  // TODO: use index, faster
-
-						try {
-							finalPropertySet = PropertySet.getExtendablePropertySet(id);
-						} catch (PropertySetNotFoundException e1) {
-							// TODO: The most probable cause is that an object
-							// is stored in the database, but the plug-in that supports
-							// the object has now gone.
-							// We need to think about the proper way of
-							// handling this scenario.
-							e1.printStackTrace();
-							throw new RuntimeException("Property set stored in database is no longer supported by the installed plug-ins.");
-						}
-					} finally {
-						stmt.close();
-					}
-				} else {
-					finalPropertySet = typedPropertySet;
+				if (!rs.next()) {
+					throw new RuntimeException(MessageFormat.format(
+							"The database may be corrupted.  No row exists in the {1} table with _ID of {0}.",
+							rowId,
+							finalPropertySet.getId().replace('.', '_')));
 				}
 
-				// Build the SQL statement that will return all
-				// the rows from the base and derived tables.
-				String sql = sessionManager.buildJoins(finalPropertySet);
-				sql += " WHERE " + finalPropertySet.getId().replace('.', '_') + ".\"_ID\"=?";
+				ExtendableObject result = sessionManager.materializeObject(rs, finalPropertySet, this);
+				readVersion(rs);
 
-				System.out.println(sql + " : " + rowId);
-				PreparedStatement stmt = sessionManager.getConnection().prepareStatement(sql);
-				stmt.setInt(1, rowId);
-				ResultSet rs = stmt.executeQuery();
+				return result;
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RuntimeException(e.getMessage(), e);
+		}
+	}
 
-				rs.next();
+	/**
+	 * Reads the object from the database when the property set of the object
+	 * is derived from the type of this key but the actual property set is
+	 * not known. A single query reads the base-most table joined to all the
+	 * derived tables.
+	 */
+	private ExtendableObject materializeDerivableObject() {
+		PolymorphicQuery query = sessionManager.getPolymorphicQuery(basemostPropertySet);
+		String sql = query.getSql();
 
-				extendableObject = sessionManager.materializeObject(rs, finalPropertySet, this);
-				
-				rs.close();
-			} catch (SQLException e) {
-				if (e.getSQLState().equals("24000") && finalPropertySet != null) {
+		try {
+			PreparedStatement stmt = sessionManager.getCachedStatement(sql);
+			stmt.setInt(1, rowId);
+			ResultSet rs = sessionManager.executeQuery(stmt, sql);
+			try {
+				if (!rs.next()) {
+					throw new RuntimeException(MessageFormat.format(
+							"The database may be corrupted.  No row exists in the {1} table with _ID of {0}.",
+							rowId,
+							basemostPropertySet.getId().replace('.', '_')));
+				}
+
+				// Get the final property set.
+				String id = rs.getString("_PROPERTY_SET");
+				ExtendablePropertySet<?> finalPropertySet;
+				try {
+					finalPropertySet = PropertySet.getExtendablePropertySet(id);
+				} catch (PropertySetNotFoundException e1) {
+					// TODO: The most probable cause is that an object
+					// is stored in the database, but the plug-in that supports
+					// the object has now gone.
+					// We need to think about the proper way of
+					// handling this scenario.
+					e1.printStackTrace();
+					throw new RuntimeException("Property set stored in database is no longer supported by the installed plug-ins.");
+				}
+
+				if (!query.isRowPresent(rs, finalPropertySet)) {
 					/*
-					 * This error indicates there is no current row in the
-					 * result set which almost certainly means that the result
-					 * set contained no rows. This in turn implies a corrupted
-					 * database. The most likely situation is that a row exists
-					 * in a base table but the row does not exist in the table
-					 * of derived objects as would be expected by the value of
-					 * _PROPERTY_SET.
-					 * 
-					 * We build a message giving details of this possible
-					 * problem.
+					 * A row exists in a base table but the row does not exist
+					 * in the table of derived objects as would be expected by
+					 * the value of _PROPERTY_SET.
 					 */
 					String description = MessageFormat.format(
 							"The database may be corrupted.  A row exists in the {1} table with _ID of {0} and _PROPERTY_SET of {2} but no row exists with an _ID of {0} in one of the derived tables.",
 							rowId,
 							basemostPropertySet.getId().replace('.', '_'),
 							finalPropertySet.getId());
-					throw new RuntimeException(description, e);
-				} else {
-					e.printStackTrace();
-					throw new RuntimeException(e.getMessage(), e);
+					throw new RuntimeException(description);
 				}
+
+				ExtendableObject result = sessionManager.materializeObject(rs, query.getColumnIndexes(finalPropertySet), finalPropertySet, this);
+				readVersion(rs);
+
+				return result;
+			} finally {
+				rs.close();
 			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RuntimeException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Reads the version of the object from the _VERSION column, if there is
+	 * one.  This column is in the base-most table so it is never aliased.
+	 */
+	private void readVersion(ResultSet rs) throws SQLException {
+		if (sessionManager.isUsingVersionColumns()) {
+			version = rs.getInt("_VERSION");
 		}
-		return extendableObject;
 	}
 
 	public int getRowId() {
 		return rowId;
 	}
 
+	int getVersion() {
+		return version;
+	}
+
+	void setVersion(int version) {
+		this.version = version;
+	}
+
 	/**
 	 * Although there will never be two instances of an ExtendableObject that
 	 * represent the same object, there may be two ObjectKey objects that are
@@ -339,7 +415,7 @@ public class ObjectKey implements IDatabaseRowKey {
 	}
 	
 	public void updateProperties(ExtendablePropertySet<?> actualPropertySet, Object[] oldValues, Object[] newValues) {
-		sessionManager.updateProperties(actualPropertySet, rowId, oldValues, newValues);
+		sessionManager.updateProperties(actualPropertySet, this, oldValues, newValues);
 	}
 
 	public Session getSession() {
@@ -350,9 +426,16 @@ public class ObjectKey implements IDatabaseRowKey {
 		return sessionManager;
 	}
 
+	@SuppressWarnings("unchecked")
 	public <E extends ExtendableObject> IListManager<E> constructListManager(ListPropertyAccessor<E> listAccessor) {
 		DatabaseListKey<E> listKey = new SessionManager.DatabaseListKey<E>(this, listAccessor);
-		if (listAccessor == SessionInfo.getTransactionsAccessor()) {
+		if (listAccessor == prefetchedListAccessor) {
+			// The elements were passed to the constructor as a Vector<E>
+			Vector<E> elements = (Vector<E>)prefetchedElements;
+			prefetchedListAccessor = null;
+			prefetchedElements = null;
+			return new ListManagerCached<E>(sessionManager, listKey, elements);
+		} else if (listAccessor == SessionInfo.getTransactionsAccessor()) {
 			return new ListManagerUncached<E>(sessionManager, listKey);
 		} else {
 			return new ListManagerCached<E>(sessionManager, listKey, false);
@@ -0,0 +1,178 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.jdbcdatastore;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.jmoney.jdbcdatastore.SessionManager.ColumnInfo;
+import net.sf.jmoney.model2.ExtendablePropertySet;
+import net.sf.jmoney.model2.PropertySet;
+
+/**
+ * A query that reads a single object of a derivable property set, whatever
+ * the actual property set of the object, in one statement.
+ * <P>
+ * The base-most table is joined, using LEFT JOIN, to every table for a
+ * property set derived from it. The _PROPERTY_SET column in the base-most
+ * table then tells us which of the derived tables contain the properties of
+ * the object.
+ * <P>
+ * Different derived tables may contain columns with the same name. For
+ * example two account types may both have a 'currency' property. The
+ * columns from the derived tables are therefore given unique aliases in the
+ * SELECT list. Every column is listed explicitly, so the position of each
+ * column in the result set is known when the query is built. For each final
+ * property set we keep a map from the column names to those positions, and
+ * the code that materializes an object reads the columns by index using
+ * that map.
+ * <P>
+ * One object of this class is built for each base-most property set the
+ * first time it is needed, and is then kept by the session manager.
+ *
+ * @author Nigel Westbury
+ */
+class PolymorphicQuery {
+
+	private String sql;
+
+	/**
+	 * A map from the column names of the columns in the base-most table to
+	 * the index of the column in the result set.
+	 */
+	private Map<String, Integer> basemostColumnIndexes = new HashMap<String, Integer>();
+
+	/**
+	 * For each final property set, a map from the column names of all the
+	 * columns needed to materialize an object of that property set to the
+	 * index of the column in the result set.
+	 */
+	private Map<ExtendablePropertySet<?>, Map<String, Integer>> columnIndexes = new HashMap<ExtendablePropertySet<?>, Map<String, Integer>>();
+
+	/**
+	 * For each derived property set, the index of the _ID column of the
+	 * table for that property set.
+	 */
+	private Map<ExtendablePropertySet<?>, Integer> idIndexes = new HashMap<ExtendablePropertySet<?>, Integer>();
+
+	PolymorphicQuery(SessionManager sessionManager, ExtendablePropertySet<?> basemostPropertySet) {
+		String basemostTableName = basemostPropertySet.getId().replace('.', '_');
+
+		/*
+		 * The columns in the base-most table are not aliased, so the
+		 * _PROPERTY_SET and _VERSION columns can still be read by name.
+		 */
+		String selectList = basemostTableName + ".\"_ID\"";
+		int columnIndex = 1;
+		basemostColumnIndexes.put("_ID", columnIndex);
+		for (ColumnInfo columnInfo: sessionManager.buildColumnList(basemostPropertySet)) {
+			basemostColumnIndexes.put(columnInfo.columnName, ++columnIndex);
+			selectList += ", " + basemostTableName + ".\"" + columnInfo.columnName + "\"";
+		}
+
+		String joins = "";
+		Map<ExtendablePropertySet<?>, Map<String, Integer>> derivedColumnIndexes = new HashMap<ExtendablePropertySet<?>, Map<String, Integer>>();
+
+		for (ExtendablePropertySet<?> propertySet: PropertySet.getAllExtendablePropertySets()) {
+			if (propertySet == basemostPropertySet
+					|| SessionManager.getBasemostPropertySet(propertySet) != basemostPropertySet) {
+				continue;
+			}
+
+			String tableName = propertySet.getId().replace('.', '_');
+
+			idIndexes.put(propertySet, ++columnIndex);
+			selectList += ", " + tableName + ".\"_ID\" AS C" + columnIndex;
+
+			Map<String, Integer> tableColumns = new HashMap<String, Integer>();
+			for (ColumnInfo columnInfo: sessionManager.buildColumnList(propertySet)) {
+				tableColumns.put(columnInfo.columnName, ++columnIndex);
+				selectList += ", " + tableName + ".\"" + columnInfo.columnName + "\" AS C" + columnIndex;
+			}
+
+			joins += " LEFT JOIN " + tableName
+				+ " ON " + tableName + ".\"_ID\" = " + basemostTableName + ".\"_ID\"";
+
+			/*
+			 * The columns of this table are needed for this property set and
+			 * for every property set derived from it.
+			 */
+			for (ExtendablePropertySet<?> finalPropertySet: propertySet.getDerivedPropertySets()) {
+				Map<String, Integer> columnMap = derivedColumnIndexes.get(finalPropertySet);
+				if (columnMap == null) {
+					columnMap = new HashMap<String, Integer>(basemostColumnIndexes);
+					derivedColumnIndexes.put(finalPropertySet, columnMap);
+				}
+				columnMap.putAll(tableColumns);
+			}
+		}
+		columnIndexes.putAll(derivedColumnIndexes);
+
+		sql = "SELECT " + selectList
+			+ " FROM " + basemostTableName
+			+ joins
+			+ " WHERE " + basemostTableName + ".\"_ID\" = ?";
+	}
+
+	/**
+	 * @return the SQL for the query, which has a single parameter
+	 * 			being the id of the object
+	 */
+	String getSql() {
+		return sql;
+	}
+
+	/**
+	 * Indicates whether the current row contains a row from the table for the
+	 * given property set. This will always be true unless the database is
+	 * corrupted.
+	 */
+	boolean isRowPresent(ResultSet rs, ExtendablePropertySet<?> propertySet) throws SQLException {
+		for (ExtendablePropertySet<?> propertySet2 = propertySet; propertySet2.getBasePropertySet() != null; propertySet2 = propertySet2.getBasePropertySet()) {
+			rs.getInt(idIndexes.get(propertySet2));
+			if (rs.wasNull()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the positions in the result set of the columns for the given
+	 * property set.
+	 *
+	 * @param finalPropertySet the actual property set of the object in the row
+	 * @return a map from the names of the columns in the tables to the index
+	 * 			of the column in the result set of this query
+	 */
+	Map<String, Integer> getColumnIndexes(ExtendablePropertySet<?> finalPropertySet) {
+		Map<String, Integer> result = columnIndexes.get(finalPropertySet);
+		if (result == null) {
+			// Final property set is the base-most property set, so no derived columns.
+			return basemostColumnIndexes;
+		}
+		return result;
+	}
+}
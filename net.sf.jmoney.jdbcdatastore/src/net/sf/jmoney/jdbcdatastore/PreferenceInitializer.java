@@ -80,5 +80,9 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
 		
 		store.setDefault("user", "sa");
 		store.setDefault("password", "");
+
+		store.setDefault("objectCacheSize", SessionManager.DEFAULT_OBJECT_CACHE_SIZE);
+		store.setDefault("useVersionColumns", false);
+		store.setDefault("fetchSize", SessionManager.DEFAULT_FETCH_SIZE);
 	}
 }
\ No newline at end of file
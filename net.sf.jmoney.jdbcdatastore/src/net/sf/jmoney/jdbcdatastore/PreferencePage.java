@@ -24,6 +24,7 @@ package net.sf.jmoney.jdbcdatastore;
 
 import org.eclipse.jface.preference.BooleanFieldEditor;
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
+import org.eclipse.jface.preference.IntegerFieldEditor;
 import org.eclipse.jface.preference.StringFieldEditor;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
@@ -93,6 +94,22 @@ implements IWorkbenchPreferencePage {
 		addField(
 				new StringFieldEditor("password", "Password:", getFieldEditorParent()));
 
+		addField(
+				new IntegerFieldEditor("objectCacheSize", "Objects kept in memory (per type):", getFieldEditorParent()));
+		addField(
+				new IntegerFieldEditor("fetchSize", "Rows read from database per round trip:", getFieldEditorParent()));
+
+		/*
+		 * If the database is shared by more than one user then all users should
+		 * set this option, otherwise changes made by users without this option
+		 * will not be detected by users with this option.
+		 */
+		addField(
+				new BooleanFieldEditor(
+						"useVersionColumns",
+						"Detect changes made by other &users (for shared databases)",
+						getFieldEditorParent()));
+
 		addField(
 				new BooleanFieldEditor(
 						"promptEachTime",
@@ -22,8 +22,10 @@
 
 package net.sf.jmoney.jdbcdatastore;
 
-import java.lang.ref.WeakReference;
+import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
@@ -32,15 +34,22 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.Vector;
 
 import net.sf.jmoney.JMoneyPlugin;
@@ -50,12 +59,14 @@ import net.sf.jmoney.model2.Commodity;
 import net.sf.jmoney.model2.CurrencyAccount;
 import net.sf.jmoney.model2.DatastoreManager;
 import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.EntryInfo;
 import net.sf.jmoney.model2.ExtendableObject;
 import net.sf.jmoney.model2.ExtendablePropertySet;
 import net.sf.jmoney.model2.ExtensionPropertySet;
 import net.sf.jmoney.model2.IEntryQueries;
 import net.sf.jmoney.model2.IListManager;
 import net.sf.jmoney.model2.IObjectKey;
+import net.sf.jmoney.model2.ISessionChangeFirer;
 import net.sf.jmoney.model2.IValues;
 import net.sf.jmoney.model2.ListKey;
 import net.sf.jmoney.model2.ListPropertyAccessor;
@@ -65,12 +76,19 @@ import net.sf.jmoney.model2.ReferencePropertyAccessor;
 import net.sf.jmoney.model2.ReferenceViolationException;
 import net.sf.jmoney.model2.ScalarPropertyAccessor;
 import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.model2.SessionChangeFirerListener;
+import net.sf.jmoney.model2.SessionChangeListener;
 import net.sf.jmoney.model2.SessionInfo;
 import net.sf.jmoney.model2.Transaction;
+import net.sf.jmoney.model2.TransactionInfo;
+import net.sf.jmoney.model2.UpdateConflictException;
 
+import org.eclipse.core.runtime.IConfigurationElement;
+import org.eclipse.core.runtime.Platform;
 import org.eclipse.ui.IMemento;
 import org.eclipse.ui.IPersistableElement;
 import org.eclipse.ui.IWorkbenchWindow;
+import org.osgi.framework.Bundle;
 
 /**
  * Manages a session that is held in a JDBC database.
@@ -88,24 +106,51 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 		dateFormat.applyPattern("yyyy-MM-dd");
 	}
 
-	private boolean isHsqldb = false;
-	
-	private boolean isDerby = false;
-	
+	/**
+	 * The SQL and other behavior specific to the database implementation.
+	 */
+	private DatabaseDialect dialect;
+
+	/**
+	 * True if rows may be inserted with ids allocated by us rather than by
+	 * the database. This is determined after the schema check.
+	 */
+	private boolean explicitIdentitySupported = false;
+
 	private String booleanTypeName = null;
 	
 	private String dateTypeName = "DATETIME";
 	
 	private String onDeleteRestrict = "ON DELETE RESTRICT";
+
+	/**
+	 * True if each basemost table has a _VERSION column that is incremented
+	 * on every update of the object.  Updates are then checked against the
+	 * version rather than against the old values of the changed columns.
+	 */
+	private boolean useVersionColumns;
 	
 	private Connection connection;
 	
+	/**
+	 * The prepared statements used for writes to the database.  This
+	 * cache is tied to the connection and is replaced whenever the
+	 * connection is re-established.
+	 */
+	private StatementCache statementCache;
+	
 	private IDatabaseRowKey sessionKey;
 	
+	/**
+	 * The default number of objects of each base-most property set that
+	 * are kept in memory by strong references.
+	 */
+	static final int DEFAULT_OBJECT_CACHE_SIZE = 1000;
+
 	/**
 	 * For each <code>PropertySet</code> for which objects are required
-	 * to be cached, map the <code>PropertySet</code> to a <Map>.
-	 * Each map is itself a map of integer ids to extendable objects.
+	 * to be cached, map the <code>PropertySet</code> to an <code>ObjectCache</code>.
+	 * Each cache is itself a map of integer ids to extendable objects.
 	 * <P>
 	 * If a PropertySet is cached then so are all property sets
 	 * derived from that property set.  However, derived property
@@ -113,7 +158,7 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 	 * derived property set are put in the map for the base property
 	 * set.
 	 */
-	private Map<ExtendablePropertySet<?>, Map<Integer, WeakReference<ExtendableObject>>> objectMaps = new HashMap<ExtendablePropertySet<?>, Map<Integer, WeakReference<ExtendableObject>>>();
+	private Map<ExtendablePropertySet<?>, ObjectCache> objectMaps = new HashMap<ExtendablePropertySet<?>, ObjectCache>();
 	
 	private class ParentList {
 		ExtendablePropertySet<?> parentPropertySet;
@@ -139,6 +184,97 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 	 */
 	private Map<ExtendablePropertySet<?>, Vector<ParentList>> tablesMap = null;
 
+	/**
+	 * The parameterized INSERT statement for each table, together with the
+	 * columns in the order in which the parameters must be set. These are
+	 * built from the column list when a table is first inserted into.
+	 */
+	private Map<ExtendablePropertySet<?>, TableInsert> tableInserts = new HashMap<ExtendablePropertySet<?>, TableInsert>();
+
+	private class TableInsert {
+		String sql;
+		
+		/**
+		 * The INSERT statement that includes the _ID column.  For derived
+		 * tables this is the same as <code>sql</code>.  For basemost tables
+		 * this is used only when the id has been allocated by us and not by
+		 * the database.
+		 */
+		String sqlWithId;
+		
+		Vector<ColumnInfo> columns;
+
+		/**
+		 * The JDBC type of each column, from java.sql.Types, starting with
+		 * the _ID column. This is used to set null values.
+		 */
+		int[] sqlTypesWithId;
+	}
+
+	/**
+	 * True if inserts are being queued and written as JDBC batches. This is
+	 * set for the duration of a bulk transaction, started by
+	 * <code>startBulkTransaction</code>, if the database allows us to
+	 * allocate the values of the identity columns.
+	 */
+	private boolean bulkInsertMode = false;
+
+	/**
+	 * The number of ids reserved at a time for a basemost table when rows
+	 * are inserted in bulk insert mode.
+	 */
+	private static final int ROW_ID_BLOCK_SIZE = 1000;
+
+	/**
+	 * The prefix of the property in the schema information table that holds,
+	 * for a basemost table, the id following the last id reserved for rows
+	 * inserted in bulk insert mode. The table name follows the prefix.
+	 */
+	private static final String NEXT_ROW_ID_PROPERTY_PREFIX = "nextId.";
+
+	/**
+	 * The maximum number of ids put in the IN clause of a single DELETE
+	 * statement when objects are deleted in bulk.
+	 */
+	private static final int BULK_DELETE_CHUNK_SIZE = 500;
+
+	/**
+	 * The number of transactions read by each query when transactions are
+	 * prefetched together with their entries.
+	 */
+	private static final int PREFETCH_CHUNK_SIZE = 100;
+
+	/**
+	 * The rows that have been queued but not yet written, in the order in
+	 * which the tables were first used. This order is the order in which
+	 * the rows are written so that rows in base tables and rows of parent
+	 * objects are written before the rows that reference them. Each row
+	 * contains the id followed by the values for the columns in the
+	 * <code>TableInsert</code>, converted by <code>toJdbcValue</code>.
+	 */
+	private LinkedHashMap<ExtendablePropertySet<?>, Vector<Object[]>> pendingBatches = new LinkedHashMap<ExtendablePropertySet<?>, Vector<Object[]>>();
+
+	/**
+	 * For each basemost table into which rows have been inserted in bulk
+	 * insert mode, the next id to be allocated.  The first id for each table
+	 * is read from the database so no round trip is needed for subsequent
+	 * rows.
+	 */
+	private Map<ExtendablePropertySet<?>, Integer> nextRowIds = new HashMap<ExtendablePropertySet<?>, Integer>();
+
+	/**
+	 * For each basemost table for which ids have been reserved in the
+	 * current transaction, the id following the last reserved id.
+	 */
+	private Map<ExtendablePropertySet<?>, Integer> rowIdLimits = new HashMap<ExtendablePropertySet<?>, Integer>();
+
+	/**
+	 * For each basemost table, the lowest allocated id of the rows that are
+	 * still in a pending batch.  A row with an id greater than or equal to
+	 * this value has not yet been written to the database.
+	 */
+	private Map<ExtendablePropertySet<?>, Integer> firstPendingRowIds = new HashMap<ExtendablePropertySet<?>, Integer>();
+
 	/*
 	 * This is saved so we can re-connect in case the connection fails.
 	 */
@@ -153,33 +289,109 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 	 * This is saved so we can re-connect in case the connection fails.
 	 */
 	private String password;
+
+	/**
+	 * Records slow queries and suggests indexes for them.
+	 */
+	private IndexAdvisor indexAdvisor;
+
+	/**
+	 * Builds and executes the queries that total entry amounts.
+	 */
+	private AggregateQueries aggregateQueries;
+
+	/**
+	 * The number of entries in each account, kept up to date from the
+	 * session change events.
+	 */
+	private EntryCountCache entryCountCache;
+
+	/**
+	 * The queries used to read a single object of a derivable property
+	 * set, keyed by the base-most property set.  These are built when
+	 * first needed.
+	 */
+	private Map<ExtendablePropertySet<?>, PolymorphicQuery> polymorphicQueries = new HashMap<ExtendablePropertySet<?>, PolymorphicQuery>();
+
+	/**
+	 * The default number of rows fetched from the database in each round
+	 * trip when iterating a cursor.
+	 */
+	static final int DEFAULT_FETCH_SIZE = 100;
+
+	private int fetchSize = DEFAULT_FETCH_SIZE;
+
+	/**
+	 * The cursors that have been opened and not yet closed.  Any cursors
+	 * still in this set when the session is closed have been leaked.
+	 */
+	private Set<UncachedObjectIterator<?>> openCursors = new HashSet<UncachedObjectIterator<?>>();
+
+	/**
+	 * Records statistics for all the SQL statements, or null if SQL
+	 * tracing is not enabled.
+	 */
+	private SqlTracer sqlTracer = null;
 	
 	public SessionManager(String url, String user, String password) throws SQLException {
+		this(url, user, password, DEFAULT_OBJECT_CACHE_SIZE, false);
+	}
+
+	/**
+	 * @param url
+	 * @param user
+	 * @param password
+	 * @param objectCacheSize the number of recently used objects of each
+	 * 			base-most property set that are kept in memory even when
+	 * 			not otherwise referenced
+	 * @param useVersionColumns true if a _VERSION column is to be kept in
+	 * 			each basemost table and used to detect changes made by
+	 * 			other users, false if updates are to be checked against the
+	 * 			old values of the changed columns
+	 * @throws SQLException
+	 */
+	public SessionManager(String url, String user, String password, int objectCacheSize, boolean useVersionColumns) throws SQLException {
 		this.url = url;
 		this.user = user;
 		this.password = password;
+		this.useVersionColumns = useVersionColumns;
 
-		this.connection = DriverManager.getConnection(url, user, password);
+		if (JDBCDatastorePlugin.TRACE_SQL || JDBCDatastorePlugin.TRACE_SQL_STATEMENTS) {
+			sqlTracer = new SqlTracer(JDBCDatastorePlugin.TRACE_SQL_STATEMENTS);
+			sqlTracer.register(url);
+		}
+		
+		this.connection = openConnection();
+		this.statementCache = new StatementCache(connection);
 
 		/*
 		 * Set properties that need special values depending on the database implementation.
 		 */
 		String databaseProductName = connection.getMetaData().getDatabaseProductName();
-		if (databaseProductName.equals("HSQL Database Engine")) {
-			isHsqldb = true;
-			booleanTypeName = "BIT";
-		} else if (databaseProductName.equals("Apache Derby")) {
-			isDerby = true;
-			dateTypeName = "DATE";
-		} else if (databaseProductName.equals("Microsoft SQL Server")) {
-			booleanTypeName = "BIT";
-			onDeleteRestrict = "ON DELETE NO ACTION";
-		}
-
-		// Create a weak reference map for every base property set.
+		dialect = JDBCDatastorePlugin.getDialect(databaseProductName);
+		booleanTypeName = dialect.getBooleanTypeName();
+		dateTypeName = dialect.getDateTypeName();
+		onDeleteRestrict = dialect.getOnDeleteRestrict();
+
+		indexAdvisor = new IndexAdvisor(dialect);
+		aggregateQueries = new AggregateQueries(this, dialect);
+
+		/*
+		 * The entry counts must be adjusted before any other listener sees
+		 * the change, so the cache is called from a firer listener which is
+		 * always called before the session change listeners.
+		 */
+		entryCountCache = new EntryCountCache(this);
+		addSessionChangeFirerListener(new SessionChangeFirerListener() {
+			public void sessionChanged(ISessionChangeFirer firer) {
+				firer.fire(entryCountCache);
+			}
+		});
+
+		// Create an object cache for every base property set.
 		for (ExtendablePropertySet<?> propertySet: PropertySet.getAllExtendablePropertySets()) { 
 			if (propertySet.getBasePropertySet() == null) {
-				objectMaps.put(propertySet, new HashMap<Integer, WeakReference<ExtendableObject>>());
+				objectMaps.put(propertySet, new ObjectCache(objectCacheSize));
 			}
 		}
 		
@@ -221,9 +433,28 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 			tablesMap.put(propertySet, list);
 		}
 		
-		// Check that all the required tables and columns exist.
-		// Any missing tables or columns are created at this time.
-		checkDatabase(connection, stmt);
+		/*
+		 * Check that all the required tables and columns exist. Any missing
+		 * tables or columns are created at this time. This check requires
+		 * a lot of calls to get database metadata so it is skipped if the
+		 * schema has not changed since the last time the check was made.
+		 */
+		String schemaFingerprint = computeSchemaFingerprint();
+		if (schemaFingerprint.equals(readSchemaFingerprint(connection, stmt))) {
+			for (ExtendablePropertySet<?> propertySet: PropertySet.getAllExtendablePropertySets()) {
+				String tableName = propertySet.getId().replace('.', '_');
+				for (ColumnInfo columnInfo: buildColumnList(propertySet)) {
+					if (isIndexRequired(columnInfo)) {
+						indexAdvisor.addIndexedColumn(tableName, columnInfo.columnName);
+					}
+				}
+			}
+		} else {
+			checkDatabase(connection, stmt);
+			writeSchemaFingerprint(stmt, schemaFingerprint);
+		}
+		
+		explicitIdentitySupported = dialect.isExplicitIdentitySupported(connection);
 		
 		/*
 		 * Create the single row in the session table, if it does not
@@ -232,7 +463,6 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 		 */
 		String sql3 = "SELECT * FROM " 
 			+ SessionInfo.getPropertySet().getId().replace('.', '_');
-		System.out.println(sql3);
 		ResultSet rs3 = stmt.executeQuery(sql3);
 		if (!rs3.next()) {
 
@@ -246,10 +476,9 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 
 			for (ScalarPropertyAccessor<?> propertyAccessor: SessionInfo.getPropertySet().getScalarProperties2()) {
 				String columnName = getColumnName(propertyAccessor);
-				Object value = propertyAccessor.getDefaultValue();
 				
 				columnNames += separator + "\"" + columnName + "\"";
-				columnValues += separator + valueToSQLText(value);
+				columnValues += separator + "?";
 
 				separator = ", ";
 			}
@@ -257,8 +486,16 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 			sql += columnNames + ") VALUES(" + columnValues + ")";
 
 			try {
-				System.out.println(sql);
-				stmt.execute(sql);
+				PreparedStatement insertStmt = connection.prepareStatement(sql);
+				try {
+					int parameterIndex = 1;
+					for (ScalarPropertyAccessor<?> propertyAccessor: SessionInfo.getPropertySet().getScalarProperties2()) {
+						setParameter(insertStmt, parameterIndex++, propertyAccessor, propertyAccessor.getDefaultValue());
+					}
+					insertStmt.executeUpdate();
+				} finally {
+					insertStmt.close();
+				}
 			} catch (SQLException e) {
 				// TODO Handle this properly
 				e.printStackTrace();
@@ -290,9 +527,16 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 	}
 
 	/**
+	 * Returns the connection to the database.
+	 * <P>
+	 * Any rows queued in bulk insert mode are written to the database
+	 * before the connection is returned, so queries submitted by the
+	 * caller will see all objects created so far.
+	 * 
 	 * @return
 	 */
 	public Connection getConnection() {
+		flushPendingInserts();
 		return connection;
 	}
 
@@ -305,6 +549,29 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 	
 	@Override
 	public void close() {
+		/*
+		 * Any cursors still open have been leaked.  Copy the set because
+		 * closing a cursor removes it from the set.
+		 */
+		for (UncachedObjectIterator<?> cursor: new ArrayList<UncachedObjectIterator<?>>(openCursors)) {
+			cursor.reportLeak();
+		}
+		
+		if (JDBCDatastorePlugin.DEBUG) {
+			indexAdvisor.logReport();
+			StringBuffer statistics = new StringBuffer("Object caches:\n");
+			for (Map.Entry<ExtendablePropertySet<?>, ObjectCache> entry: objectMaps.entrySet()) {
+				statistics.append("  " + entry.getKey().getId() + ": " + entry.getValue().getStatistics() + "\n");
+			}
+			JDBCDatastorePlugin.logInfo(statistics.toString());
+		}
+		
+		if (sqlTracer != null) {
+			JDBCDatastorePlugin.logInfo(sqlTracer.getReport());
+			sqlTracer.unregister();
+		}
+		
+		statementCache.close();
 		try {
 			connection.close();
 		} catch (SQLException e) {
@@ -372,19 +639,14 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 	}
 	
 	public <E extends ExtendableObject> E getObjectIfMaterialized(ExtendablePropertySet<E> basemostPropertySet, int id) {
-		Map<Integer, WeakReference<ExtendableObject>> result = objectMaps.get(basemostPropertySet);
-		WeakReference<ExtendableObject> object = result.get(id);
-		if (object == null) {
-			// Indicate that the object is not cached.
-			return null;
-		} else {
-			return basemostPropertySet.getImplementationClass().cast(object.get());
-		}
+		ObjectCache cache = objectMaps.get(basemostPropertySet);
+		// Null is returned if the object is not cached.
+		return basemostPropertySet.getImplementationClass().cast(cache.get(id));
 	}
 
 	public <E extends ExtendableObject> void setMaterializedObject(ExtendablePropertySet<E> basemostPropertySet, int id, E extendableObject) {
-		Map<Integer, WeakReference<ExtendableObject>> result = objectMaps.get(basemostPropertySet);
-		result.put(id, new WeakReference<ExtendableObject>(extendableObject));
+		ObjectCache cache = objectMaps.get(basemostPropertySet);
+		cache.put(id, extendableObject);
 	}
 
 	/**
@@ -418,6 +680,19 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 		return sql;
 	}
 	
+	/**
+	 * Returns the query that reads, in a single statement, an object whose
+	 * property set is derived from the given base-most property set.
+	 */
+	PolymorphicQuery getPolymorphicQuery(ExtendablePropertySet<?> basemostPropertySet) {
+		PolymorphicQuery query = polymorphicQueries.get(basemostPropertySet);
+		if (query == null) {
+			query = new PolymorphicQuery(this, basemostPropertySet);
+			polymorphicQueries.put(basemostPropertySet, query);
+		}
+		return query;
+	}
+
 	/**
 	 * This method creates a new statement on each call.  This allows callers
 	 * to have multiple result sets active at the same time.
@@ -435,6 +710,8 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 	 * @throws SQLException
 	 */
 	PreparedStatement executeListQuery(DatabaseListKey<?> listKey, ExtendablePropertySet<?> finalPropertySet) throws SQLException {
+		flushPendingInserts();
+		
 		String sql = buildJoins(finalPropertySet);
 		
 		/*
@@ -461,8 +738,7 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 				sql += " WHERE " + whereClause;
 			}
 
-			PreparedStatement stmt = connection.prepareStatement(sql);
-			System.out.println(sql);
+			PreparedStatement stmt = prepareCursorStatement(sql);
 			return stmt;
 		} else {
 			/*
@@ -471,13 +747,666 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 			 */
 			sql += " WHERE \"" + listKey.listPropertyAccessor.getName().replace('.', '_') + "\" = ?";
 
-			System.out.println(sql + " : " + listKey.parentKey.getRowId());
-			PreparedStatement stmt = connection.prepareStatement(sql);
+			PreparedStatement stmt = prepareCursorStatement(sql);
 			stmt.setInt(1, listKey.parentKey.getRowId());
 			return stmt;
 		}
 	}
 	
+	/**
+	 * Prepares a statement whose result set is to be iterated once from
+	 * start to end.  The driver is told that the cursor is forward-only and
+	 * read-only and how many rows to fetch in each round trip, which lets
+	 * drivers such as jTDS stream the rows rather than read them all into
+	 * memory.
+	 * <P>
+	 * The caller owns the statement and must close it.
+	 */
+	public PreparedStatement prepareCursorStatement(String sql) throws SQLException {
+		PreparedStatement stmt = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		stmt.setFetchSize(fetchSize);
+		return stmt;
+	}
+
+	/**
+	 * Sets the number of rows fetched from the database in each round trip
+	 * when iterating over objects that are not cached.
+	 */
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * @return the number of rows fetched from the database in each round
+	 * 			trip when iterating over objects that are not cached
+	 */
+	int getFetchSize() {
+		return fetchSize;
+	}
+
+	void cursorOpened(UncachedObjectIterator<?> cursor) {
+		openCursors.add(cursor);
+	}
+
+	void cursorClosed(UncachedObjectIterator<?> cursor) {
+		openCursors.remove(cursor);
+	}
+
+	/**
+	 * @return the number of cursors that have been opened but not yet
+	 * 			closed, for debugging
+	 */
+	int getOpenCursorCount() {
+		return openCursors.size();
+	}
+
+	/**
+	 * Returns a cached prepared statement for the given SQL.
+	 * <P>
+	 * If the connection has been reset (usually because it has not been used
+	 * in a while) then the connection is re-established and the statement
+	 * prepared on the new connection.
+	 * 
+	 * @param sql
+	 * @return a prepared statement, which is owned by the statement cache
+	 * 			and must not be closed by the caller
+	 * @throws SQLException
+	 */
+	public PreparedStatement getCachedStatement(String sql) throws SQLException {
+		try {
+			return statementCache.getStatement(sql);
+		} catch (SQLException e) {
+			if ("HY010".equals(e.getSQLState())) {
+				reconnect();
+				return statementCache.getStatement(sql);
+			} else {
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Returns a cached prepared statement for the given INSERT statement
+	 * that has been prepared such that generated keys can be fetched.
+	 * 
+	 * @see #getCachedStatement(String)
+	 */
+	private PreparedStatement getCachedInsertStatementReturningKey(String sql) throws SQLException {
+		try {
+			return statementCache.getInsertStatementReturningKey(sql);
+		} catch (SQLException e) {
+			if ("HY010".equals(e.getSQLState())) {
+				reconnect();
+				return statementCache.getInsertStatementReturningKey(sql);
+			} else {
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Closes the current connection and opens a new connection using
+	 * the original connection parameters.  All cached statements are
+	 * discarded because they belong to the old connection.
+	 */
+	private void reconnect() throws SQLException {
+		statementCache.close();
+		try {
+			connection.close();
+		} catch (SQLException e2) {
+			/*
+			 * Ignore any failures on the close. It was a 'best efforts
+			 * only' close. In fact, it almost certainly will fail, and
+			 * perhaps we should not even bother to try to close it.
+			 */
+		}	
+
+		connection = openConnection();
+		statementCache = new StatementCache(connection);
+	}
+
+	/**
+	 * Opens a connection to the database, wrapped so that the statements
+	 * are traced if tracing is enabled.
+	 */
+	private Connection openConnection() throws SQLException {
+		Connection newConnection = DriverManager.getConnection(url, user, password);
+		if (sqlTracer != null) {
+			newConnection = sqlTracer.wrap(newConnection);
+		}
+		return newConnection;
+	}
+
+	/**
+	 * @return the object recording statistics for the SQL statements, or
+	 * 			null if SQL tracing is not enabled
+	 */
+	public SqlTracer getSqlTracer() {
+		return sqlTracer;
+	}
+
+	/**
+	 * Returns the parameterized INSERT statement for the table for the given
+	 * property set. The statement contains a parameter for every column in the
+	 * table, so a single statement serves all inserts into the table.
+	 * 
+	 * @param propertySet
+	 * @return
+	 */
+	private TableInsert getTableInsert(ExtendablePropertySet<?> propertySet) {
+		TableInsert tableInsert = tableInserts.get(propertySet);
+		if (tableInsert == null) {
+			tableInsert = new TableInsert();
+			tableInsert.columns = buildColumnList(propertySet);
+
+			tableInsert.sqlTypesWithId = new int[tableInsert.columns.size() + 1];
+			tableInsert.sqlTypesWithId[0] = Types.INTEGER;
+			int columnIndex = 1;
+			for (ColumnInfo columnInfo: tableInsert.columns) {
+				switch (columnInfo.nature) {
+				case SCALAR_PROPERTY:
+					tableInsert.sqlTypesWithId[columnIndex++] = getSqlType(columnInfo.propertyAccessor.getClassOfValueObject());
+					break;
+				case PROPERTY_SET:
+					tableInsert.sqlTypesWithId[columnIndex++] = Types.VARCHAR;
+					break;
+				default:
+					tableInsert.sqlTypesWithId[columnIndex++] = Types.INTEGER;
+				}
+			}
+
+			String columnNames = "";
+			String columnValues = "";
+			String separator = "";
+
+			for (ColumnInfo columnInfo: tableInsert.columns) {
+				columnNames += separator + "\"" + columnInfo.columnName + "\"";
+				columnValues += separator + "?";
+				separator = ", ";
+			}
+
+			String tableName = propertySet.getId().replace('.', '_');
+			
+			tableInsert.sqlWithId = "INSERT INTO " + tableName
+				+ " (\"_ID\", " + columnNames + ") VALUES(?, " + columnValues + ")";
+
+			/*
+			 * If this is a basemost property set then the _ID column will
+			 * normally be auto-generated by the database.  If this is a derived
+			 * property set then we must insert the id that had been assigned
+			 * when the row in the basemost table was inserted.
+			 */
+			if (propertySet.getBasePropertySet() != null) {
+				tableInsert.sql = tableInsert.sqlWithId;
+			} else {
+				tableInsert.sql = "INSERT INTO " + tableName
+					+ " (" + columnNames + ") VALUES(" + columnValues + ")";
+			}
+			
+			tableInserts.put(propertySet, tableInsert);
+		}
+		return tableInsert;
+	}
+	
+	/**
+	 * Sets the parameters for the columns of a table into an INSERT statement
+	 * obtained from the given <code>TableInsert</code>.
+	 * 
+	 * @param stmt
+	 * @param parameterIndex the index of the first parameter to be set
+	 * @param tableInsert
+	 * @param finalPropertySet the actual property set of the object
+	 * @param newObject
+	 * @param listKey the list into which the object is being inserted
+	 * @throws SQLException
+	 */
+	private void setInsertParameters(PreparedStatement stmt, int parameterIndex, TableInsert tableInsert, ExtendablePropertySet<?> finalPropertySet, ExtendableObject newObject, DatabaseListKey<?> listKey) throws SQLException {
+		Object[] values = new Object[tableInsert.columns.size() + 1];
+		getInsertValues(values, tableInsert, finalPropertySet, newObject, listKey);
+		for (int i = 1; i < values.length; i++) {
+			bindValue(stmt, parameterIndex++, tableInsert.sqlTypesWithId[i], values[i]);
+		}
+	}
+
+	/**
+	 * Gets the values for the columns of a table, in the order of the
+	 * columns in the given <code>TableInsert</code>. The values are put into
+	 * the given array starting at index 1, index 0 being reserved for the id.
+	 * 
+	 * @param values the array into which the values are put
+	 * @param tableInsert
+	 * @param finalPropertySet the actual property set of the object
+	 * @param newObject
+	 * @param listKey the list into which the object is being inserted
+	 */
+	private void getInsertValues(Object[] values, TableInsert tableInsert, ExtendablePropertySet<?> finalPropertySet, ExtendableObject newObject, DatabaseListKey<?> listKey) {
+		int index = 1;
+		for (ColumnInfo columnInfo: tableInsert.columns) {
+			switch (columnInfo.nature) {
+			case PARENT:
+				/*
+				 * Set the parent id in the column for the list that
+				 * contains this object. All other parent columns are
+				 * null.
+				 */
+				if (columnInfo.parentList.listProperty == listKey.listPropertyAccessor) {
+					values[index++] = listKey.parentKey.getRowId();
+				} else {
+					values[index++] = null;
+				}
+				break;
+			case SCALAR_PROPERTY:
+				Object value = newObject.getPropertyValue(columnInfo.propertyAccessor);
+				values[index++] = toJdbcValue(columnInfo.propertyAccessor, value);
+				break;
+			case PROPERTY_SET:
+				// Set to the id of the final
+				// (non-derivable) property set for this object.
+				values[index++] = finalPropertySet.getId();
+				break;
+			case VERSION:
+				values[index++] = 0;
+				break;
+			}
+		}
+	}
+
+	boolean isUsingVersionColumns() {
+		return useVersionColumns;
+	}
+
+	public DatabaseDialect getDialect() {
+		return dialect;
+	}
+
+	/**
+	 * Indicates whether inserts can be queued and written in JDBC batches.
+	 * <P>
+	 * To write rows in batches we must allocate the ids ourselves, which
+	 * means inserting explicit values into the identity columns. Whether
+	 * this is allowed depends on the database and, for some databases, on
+	 * how the tables were created.
+	 */
+	private boolean isBulkInsertSupported() {
+		return explicitIdentitySupported;
+	}
+	
+	/**
+	 * Queues the rows for a new object in the JDBC batches for the tables.
+	 * The id of the object is allocated without a round trip to the
+	 * database, so the object key is complete even though no rows have yet
+	 * been written.
+	 * 
+	 * @return The id allocated to the row
+	 */
+	private int queueInsert(ExtendablePropertySet<?> propertySet, ExtendableObject newObject, DatabaseListKey<?> listKey) {
+		try {
+			/*
+			 * The rows of the batches are written in the order in which the
+			 * tables were first used.  If the parent of this object, or an
+			 * object referenced by one of its properties, is itself still in a
+			 * batch, and that batch would not be executed before the batch for
+			 * the table with the foreign key column, then the foreign key
+			 * constraint would fail.  In that case we first write out what has
+			 * been queued so far.
+			 */
+			if (isReferencedRowBatchedAfter(propertySet, newObject, listKey)) {
+				flushPendingInserts();
+			}
+
+			Vector<ExtendablePropertySet<?>> propertySets = new Vector<ExtendablePropertySet<?>>();
+			for (ExtendablePropertySet<?> propertySet2 = propertySet; propertySet2 != null; propertySet2 = propertySet2.getBasePropertySet()) {
+				propertySets.add(propertySet2);
+			}
+
+			int rowId = allocateRowId(propertySets.lastElement());
+			
+			for (int index = propertySets.size()-1; index >= 0; index--) {
+				ExtendablePropertySet<?> propertySet2 = propertySets.get(index);
+
+				TableInsert tableInsert = getTableInsert(propertySet2);
+
+				Vector<Object[]> rows = pendingBatches.get(propertySet2);
+				if (rows == null) {
+					rows = new Vector<Object[]>();
+					pendingBatches.put(propertySet2, rows);
+				}
+
+				Object[] values = new Object[tableInsert.columns.size() + 1];
+				values[0] = rowId;
+				getInsertValues(values, tableInsert, propertySet, newObject, listKey);
+				rows.add(values);
+			}
+			
+			return rowId;
+		} catch (SQLException e) {
+			// TODO Handle this properly
+			e.printStackTrace();
+			throw new RuntimeException("internal error", e);
+		}
+	}
+
+	/**
+	 * Allocates an id for a new row in a basemost table.  Ids are reserved
+	 * in blocks, so most ids are allocated from memory.
+	 */
+	private int allocateRowId(ExtendablePropertySet<?> basemostPropertySet) throws SQLException {
+		Integer nextRowId = nextRowIds.get(basemostPropertySet);
+		if (nextRowId == null || nextRowId >= rowIdLimits.get(basemostPropertySet)) {
+			nextRowId = reserveRowIds(basemostPropertySet);
+			if (!firstPendingRowIds.containsKey(basemostPropertySet)) {
+				firstPendingRowIds.put(basemostPropertySet, nextRowId);
+			}
+		}
+		
+		nextRowIds.put(basemostPropertySet, nextRowId + 1);
+		return nextRowId;
+	}
+
+	/**
+	 * Reserves a block of ids for new rows in a basemost table.
+	 * <P>
+	 * The id following the last reserved id is saved in the schema
+	 * information table.  The reservation is made by updating that row only
+	 * if it still has the value we read, so two connections can never
+	 * reserve the same ids.  The updated row remains locked until our
+	 * transaction ends.
+	 * <P>
+	 * The block starts after the highest of the saved id, the highest id in
+	 * the table, and the next id to be generated by the identity column.
+	 * Ids of deleted rows are therefore never re-used, so an object that
+	 * is still cached can never be confused with a new row.
+	 *
+	 * @return the first id in the reserved block
+	 */
+	private int reserveRowIds(ExtendablePropertySet<?> basemostPropertySet) throws SQLException {
+		String tableName = basemostPropertySet.getId().replace('.', '_');
+		String propertyName = NEXT_ROW_ID_PROPERTY_PREFIX + tableName;
+
+		/*
+		 * If another connection reserves ids between our read and our update
+		 * then our update finds no row and we try again.  We give up if this
+		 * keeps happening because something else must be wrong.
+		 */
+		for (int attempt = 0; attempt < 3; attempt++) {
+			PreparedStatement readStmt = getCachedStatement(
+					"SELECT PROPERTY_VALUE FROM " + SCHEMA_INFO_TABLE
+					+ " WHERE PROPERTY_NAME = ?");
+			readStmt.setString(1, propertyName);
+			String savedValue;
+			ResultSet rs = readStmt.executeQuery();
+			try {
+				savedValue = rs.next() ? rs.getString(1) : null;
+			} finally {
+				rs.close();
+			}
+
+			int firstRowId = readFirstUnusedRowId(basemostPropertySet);
+			if (savedValue != null) {
+				firstRowId = Math.max(firstRowId, Integer.parseInt(savedValue));
+			}
+			int rowIdLimit = firstRowId + ROW_ID_BLOCK_SIZE;
+
+			int rowsUpdated;
+			if (savedValue == null) {
+				PreparedStatement insertStmt = getCachedStatement(
+						"INSERT INTO " + SCHEMA_INFO_TABLE
+						+ " (PROPERTY_NAME, PROPERTY_VALUE) VALUES (?, ?)");
+				insertStmt.setString(1, propertyName);
+				insertStmt.setString(2, Integer.toString(rowIdLimit));
+				try {
+					rowsUpdated = insertStmt.executeUpdate();
+				} catch (SQLException e) {
+					/*
+					 * A duplicate key means another connection has just
+					 * inserted the row, in which case we read it again. Any
+					 * other failure is passed on.
+					 */
+					if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+						throw e;
+					}
+					rowsUpdated = 0;
+				}
+			} else {
+				PreparedStatement updateStmt = getCachedStatement(
+						"UPDATE " + SCHEMA_INFO_TABLE
+						+ " SET PROPERTY_VALUE = ? WHERE PROPERTY_NAME = ? AND PROPERTY_VALUE = ?");
+				updateStmt.setString(1, Integer.toString(rowIdLimit));
+				updateStmt.setString(2, propertyName);
+				updateStmt.setString(3, savedValue);
+				rowsUpdated = updateStmt.executeUpdate();
+			}
+
+			if (rowsUpdated == 1) {
+				rowIdLimits.put(basemostPropertySet, rowIdLimit);
+				return firstRowId;
+			}
+		}
+
+		throw new SQLException("Ids could not be reserved for " + tableName);
+	}
+
+	/**
+	 * Reads the lowest id above all ids used in a basemost table, whether
+	 * by existing rows or by the identity column.
+	 * <P>
+	 * Where the database supports it, the read takes a range lock that is
+	 * held until the transaction commits, so other connections cannot insert
+	 * rows with ids in the range we are allocating from.  A database that
+	 * does not adjust its identity column until the transaction commits
+	 * instead has the whole table locked when ids are first reserved.
+	 */
+	private int readFirstUnusedRowId(ExtendablePropertySet<?> basemostPropertySet) throws SQLException {
+		String tableName = basemostPropertySet.getId().replace('.', '_');
+		
+		String lockSql = dialect.getTableLockSql(tableName);
+		if (lockSql != null && !rowIdLimits.containsKey(basemostPropertySet)) {
+			executeUpdate(lockSql);
+		}
+		
+		int firstRowId;
+		String sql = "SELECT MAX(\"_ID\") FROM " 
+			+ tableName
+			+ dialect.getRangeLockHint();
+		ResultSet rs = getCachedStatement(sql).executeQuery();
+		try {
+			rs.next();
+			firstRowId = rs.getInt(1) + 1;
+		} finally {
+			rs.close();
+		}
+
+		String identitySql = dialect.getIdentityNextValueSql(tableName);
+		if (identitySql != null) {
+			ResultSet rs2 = getCachedStatement(identitySql).executeQuery();
+			try {
+				if (rs2.next()) {
+					int nextIdentity = rs2.getInt(1);
+					if (!rs2.wasNull()) {
+						firstRowId = Math.max(firstRowId, nextIdentity);
+					}
+				}
+			} finally {
+				rs2.close();
+			}
+		}
+
+		return firstRowId;
+	}
+
+	/**
+	 * Checks the rows referenced by the foreign key columns of a new object
+	 * before the rows for the object are queued.  The foreign key columns
+	 * are the column for the list containing the object and the columns for
+	 * reference properties.
+	 * 
+	 * @return true if a row referenced by the new object is in a batch that
+	 * 			would be executed after the batch for the table with the
+	 * 			foreign key column
+	 */
+	private boolean isReferencedRowBatchedAfter(ExtendablePropertySet<?> propertySet, ExtendableObject newObject, DatabaseListKey<?> listKey) {
+		if (listKey.listPropertyAccessor.getPropertySet() != SessionInfo.getPropertySet()) {
+			ExtendablePropertySet<?> parentTable = findParentList(listKey).parentPropertySet;
+			ExtendablePropertySet<?> childTable = listKey.listPropertyAccessor.getElementPropertySet();
+			if (isRowPending(parentTable, listKey.parentKey.getRowId())
+					&& !isBatchedBefore(parentTable, childTable)) {
+				return true;
+			}
+		}
+
+		for (ExtendablePropertySet<?> table = propertySet; table != null; table = table.getBasePropertySet()) {
+			for (ColumnInfo columnInfo: getTableInsert(table).columns) {
+				if (columnInfo.nature == ColumnNature.SCALAR_PROPERTY
+						&& columnInfo.foreignKeyPropertySet != null) {
+					ExtendableObject referencedObject = (ExtendableObject)newObject.getPropertyValue(columnInfo.propertyAccessor);
+					if (referencedObject != null
+							&& isRowPending(columnInfo.foreignKeyPropertySet, ((IDatabaseRowKey)referencedObject.getObjectKey()).getRowId())
+							&& !isBatchedBefore(columnInfo.foreignKeyPropertySet, table)) {
+						return true;
+					}
+				}
+			}
+		}
+		
+		return false;
+	}
+
+	/**
+	 * @return true if the row with the given id in the table for the given
+	 * 			property set is in a batch that has not yet been written to
+	 * 			the database
+	 */
+	private boolean isRowPending(ExtendablePropertySet<?> propertySet, int rowId) {
+		Integer firstPendingRowId = firstPendingRowIds.get(getBasemostPropertySet(propertySet));
+		return firstPendingRowId != null
+			&& rowId >= firstPendingRowId;
+	}
+
+	/**
+	 * Finds the parent column information for the given list.
+	 */
+	private ParentList findParentList(DatabaseListKey<?> listKey) {
+		for (ParentList parentList: tablesMap.get(listKey.listPropertyAccessor.getElementPropertySet())) {
+			if (parentList.listProperty == listKey.listPropertyAccessor) {
+				return parentList;
+			}
+		}
+		throw new RuntimeException("internal error - no parent column for list " + listKey.listPropertyAccessor.getName());
+	}
+
+	/**
+	 * @return true if the batch for the first table will be executed before
+	 * 			the batch for the second table, taking into account that a
+	 * 			table not yet in the batch will be added at the end
+	 */
+	private boolean isBatchedBefore(ExtendablePropertySet<?> firstTable, ExtendablePropertySet<?> secondTable) {
+		for (ExtendablePropertySet<?> table: pendingBatches.keySet()) {
+			if (table == firstTable) {
+				return true;
+			}
+			if (table == secondTable) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Executes all queued batches of inserts.
+	 * <P>
+	 * This method must be called before any statement is executed that may
+	 * depend on the queued rows.  This includes all queries and all updates
+	 * and deletes.
+	 * <P>
+	 * The batch for each table is removed from the queue once it has been
+	 * written.  If a batch cannot be written then an exception is thrown
+	 * and the rows not yet written remain queued.  The caller is expected
+	 * to roll back the transaction, which discards the queued rows.
+	 */
+	public void flushPendingInserts() {
+		if (pendingBatches.isEmpty()) {
+			return;
+		}
+		
+		try {
+			for (Iterator<Map.Entry<ExtendablePropertySet<?>, Vector<Object[]>>> iter = pendingBatches.entrySet().iterator(); iter.hasNext(); ) {
+				Map.Entry<ExtendablePropertySet<?>, Vector<Object[]>> mapEntry = iter.next();
+				ExtendablePropertySet<?> propertySet = mapEntry.getKey();
+				Vector<Object[]> rows = mapEntry.getValue();
+				String tableName = propertySet.getId().replace('.', '_');
+				TableInsert tableInsert = getTableInsert(propertySet);
+				
+				/*
+				 * Some databases allow explicit values in an identity column
+				 * only if a setting is made for the table, and this may be
+				 * set for only one table at a time.
+				 */
+				String identityInsertOnSql = null;
+				String identityInsertOffSql = null;
+				if (propertySet.getBasePropertySet() == null) {
+					identityInsertOnSql = dialect.getIdentityInsertOnSql(tableName);
+					identityInsertOffSql = dialect.getIdentityInsertOffSql(tableName);
+				}
+				
+				if (identityInsertOnSql != null) {
+					executeUpdate(identityInsertOnSql);
+				}
+				
+				/*
+				 * The statement is not taken from the statement cache
+				 * because the cache may close a statement at any time.
+				 */
+				PreparedStatement stmt = connection.prepareStatement(tableInsert.sqlWithId);
+				try {
+					for (Object[] values: rows) {
+						for (int i = 0; i < values.length; i++) {
+							bindValue(stmt, i + 1, tableInsert.sqlTypesWithId[i], values[i]);
+						}
+						stmt.addBatch();
+					}
+					stmt.executeBatch();
+				} finally {
+					stmt.close();
+				}
+				
+				if (identityInsertOffSql != null) {
+					executeUpdate(identityInsertOffSql);
+				}
+				
+				iter.remove();
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("The queued inserts could not be written", e);
+		}
+		
+		firstPendingRowIds.putAll(nextRowIds);
+	}
+
+	/**
+	 * Sets the next id to be generated by the database for each basemost
+	 * table for which ids were reserved in this transaction, for those
+	 * databases that do not do this themselves.  The identity column then
+	 * continues after the reserved block.
+	 */
+	private void restartIdentities() throws SQLException {
+		for (Map.Entry<ExtendablePropertySet<?>, Integer> mapEntry: rowIdLimits.entrySet()) {
+			String tableName = mapEntry.getKey().getId().replace('.', '_');
+			String sql = dialect.getIdentityRestartSql(tableName, mapEntry.getValue());
+			if (sql != null) {
+				executeUpdate(sql);
+			}
+		}
+	}
+
+	private void executeUpdate(String sql) throws SQLException {
+		Statement stmt = connection.createStatement();
+		try {
+			stmt.executeUpdate(sql);
+		} finally {
+			stmt.close();
+		}
+	}
+
 	/**
 	 * @param propertySet
 	 * @param values
@@ -488,47 +1417,12 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 	 * @return The id of the inserted row
 	 */
 	public int insertIntoDatabase(ExtendablePropertySet<?> propertySet, ExtendableObject newObject, DatabaseListKey<?> listKey) {
-		int rowId = -1;
-
-		Statement statement;
-		try {
-			statement = connection.createStatement();
-		} catch (SQLException e) {
-			if (e.getSQLState().equals("HY010")) {
-				/*
-				 * The socket has been reset.  This condition is usually caused
-				 * by a connection that has not been used in a while.  It can most
-				 * likely be fixed simply by reconnecting.
-				 */
-				try {
-					connection.close();
-				} catch (SQLException e2) {
-					/*
-					 * Ignore any failures on the close. It was a 'best efforts
-					 * only' close. In fact, it almost certainly will fail, and
-					 * perhaps we should not even bother to try to close it.
-					 */
-				}	
-				
-				try {
-					connection = DriverManager.getConnection(url, user, password);
-					statement = connection.createStatement();
-				} catch (SQLException e2) {
-					// TODO Handle this properly
-					e.printStackTrace();
-					throw new RuntimeException("internal error", e);
-				}	
-			} else {
-				/*
-				 * The error does not like something that can be fixed by re-creating
-				 * the connection, so pass on the exception. 
-				 */
-				// TODO Handle this properly
-				e.printStackTrace();
-				throw new RuntimeException("internal error", e);
-			}
+		if (bulkInsertMode) {
+			return queueInsert(propertySet, newObject, listKey);
 		}
 		
+		int rowId = -1;
+
 		try {
 			// We must insert into the base table first, then the table for the objects
 			// derived from the base and so on.  The reason is that each derived table
@@ -545,106 +1439,50 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 
 			for (int index = propertySets.size()-1; index >= 0; index--) {
 				ExtendablePropertySet<?> propertySet2 = propertySets.get(index);
+				boolean isBasemost = (index == propertySets.size()-1);
 
-				String sql = "INSERT INTO " 
-					+ propertySet2.getId().replace('.', '_')
-					+ " (";
-
-				String columnNames = "";
-				String columnValues = "";
-				String separator = "";
+				TableInsert tableInsert = getTableInsert(propertySet2);
 
 				/*
-				 * If this is a basemost property set then the _ID column will be
-				 * auto-generated by the database.  If this is a derived property
-				 * set then we must insert the id that had been assigned when the
-				 * row in the basemost table was inserted.
-				 */
-				if (index != propertySets.size()-1) {
-					columnNames += separator + "\"_ID\"";
-					columnValues += separator + Integer.toString(rowId);
-					separator = ", ";
-				}
-
-				for (ScalarPropertyAccessor<?> propertyAccessor: propertySet2.getScalarProperties2()) {
-					String columnName = getColumnName(propertyAccessor);
-
-					// Get the value from the passed property value array.
-					Object value = newObject.getPropertyValue(propertyAccessor);
-
-					columnNames += separator + "\"" + columnName + "\"";
-					columnValues += separator + valueToSQLText(value);
-
-					separator = ", ";
-				}
-
-				/* Set the parent id in the appropriate column.
-				 * 
-				 * If the containing list property is a property in one of the three
-				 * lists in the session object
-				 * then, as an optimization, there is no parent column.
+				 * Some databases, such as HSQLDB 1.8, do not support the JDBC
+				 * standard way of getting the generated key. The dialect then
+				 * provides a query that returns the key.
 				 */
-				if (listKey.listPropertyAccessor.getElementPropertySet() == propertySet2
-						&& listKey.listPropertyAccessor.getPropertySet() != SessionInfo.getPropertySet()) {
-					String valueString = Integer.toString(listKey.parentKey.getRowId());
-					String parentColumnName = listKey.listPropertyAccessor.getName().replace('.', '_');
-					columnNames += separator + "\"" + parentColumnName + "\"";
-					columnValues += separator + valueString;
-					separator = ", ";
+				PreparedStatement stmt;
+				if (isBasemost && dialect.getIdentityQuery() == null) {
+					stmt = getCachedInsertStatementReturningKey(tableInsert.sql);
+				} else {
+					stmt = getCachedStatement(tableInsert.sql);
 				}
 
-				/*
-				 * If the base-most property set and it is derivable, the
-				 * _PROPERTY_SET column must be set.
-				 */
-				if (propertySet2.getBasePropertySet() == null
-						&& propertySet2.isDerivable()) {
-					columnNames += separator + "\"_PROPERTY_SET\"";
-					// Set to the id of the final
-					// (non-derivable) property set for this object.
-					ExtendablePropertySet<?> finalPropertySet = propertySets.get(0); 
-					columnValues += separator + "\'" + finalPropertySet.getId() + "\'";
-					separator = ", ";
+				int parameterIndex = 1;
+				if (!isBasemost) {
+					stmt.setInt(parameterIndex++, rowId);
 				}
+				setInsertParameters(stmt, parameterIndex, tableInsert, propertySet, newObject, listKey);
 
-				sql += columnNames + ") VALUES(" + columnValues + ")";
+				stmt.executeUpdate();
 
-				System.out.println(sql);
 				/*
-				 * Insert the row and, if this is a basemost table, get the
-				 * value of the auto-generated key.
+				 * If this is a basemost table, get the value of the
+				 * auto-generated key.
 				 */
-				if (index == propertySets.size()-1) {
+				if (isBasemost) {
 					ResultSet rs;
-					if (isHsqldb) {
-						/*
-						 * HSQLDB does not, as of 1.8.0.7, support the JDBC
-						 * standard way of getting the generated key. We must do
-						 * things slightly differently.
-						 */
-						statement.execute(sql);
-						rs = statement.executeQuery("CALL IDENTITY()");
+					if (dialect.getIdentityQuery() != null) {
+						rs = getCachedStatement(dialect.getIdentityQuery()).executeQuery();
 					} else {
-						statement.execute(sql, Statement.RETURN_GENERATED_KEYS);
-						rs = statement.getGeneratedKeys();
+						rs = stmt.getGeneratedKeys();
 					}
 					rs.next();
 					rowId = rs.getInt(1);
 					rs.close();
-				} else {
-					statement.execute(sql);
 				}
 			}
 		} catch (SQLException e) {
 			// TODO Handle this properly
 			e.printStackTrace();
 			throw new RuntimeException("internal error", e);
-		} finally {
-			try {
-				statement.close();
-			} catch (SQLException e) {
-				// ignore this one
-			}
 		}
 
 		return rowId;
@@ -655,14 +1493,7 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 		ListKey originalListKey = extendableObject.getParentListKey();
 		IDatabaseRowKey originalParentKey = (IDatabaseRowKey)originalListKey.getParentKey();
 		
-		Statement statement;
-		try {
-			statement = connection.createStatement();
-		} catch (SQLException e) {
-			// TODO Handle this properly
-			e.printStackTrace();
-			throw new RuntimeException("internal error", e);
-		}
+		flushPendingInserts();
 		
 		try {
 			boolean priorAutocommitState = connection.getAutoCommit();
@@ -687,12 +1518,14 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 					String parentColumnName = originalListKey.getListPropertyAccessor().getName().replace('.', '_');
 					String sql = "UPDATE "
 						+ originalListKey.getListPropertyAccessor().getElementPropertySet().getId().replace('.', '_')
-						+ " SET " + parentColumnName + "=NULL"
-						+ " WHERE \"_ID\"=" + objectKey.getRowId()
-						+ " AND " + parentColumnName + "=" + originalParentKey.getRowId();
+						+ " SET \"" + parentColumnName + "\"=NULL"
+						+ " WHERE \"_ID\"=?"
+						+ " AND \"" + parentColumnName + "\"=?";
 
-					System.out.println(sql);
-					int numberUpdated = statement.executeUpdate(sql);
+					PreparedStatement stmt = getCachedStatement(sql);
+					stmt.setInt(1, objectKey.getRowId());
+					stmt.setInt(2, originalParentKey.getRowId());
+					int numberUpdated = stmt.executeUpdate();
 					if (numberUpdated != 1) {
 						throw new RuntimeException("internal error");
 					}
@@ -708,12 +1541,14 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 					String parentColumnName = newListKey.listPropertyAccessor.getName().replace('.', '_');
 					String sql = "UPDATE "
 						+ newListKey.listPropertyAccessor.getElementPropertySet().getId().replace('.', '_')
-						+ " SET " + parentColumnName + "=" + newListKey.parentKey.getRowId()
-						+ " WHERE \"_ID\"=" + objectKey.getRowId()
-						+ " AND " + parentColumnName + " IS NULL";
-
-					System.out.println(sql);
-					int numberUpdated = statement.executeUpdate(sql);
+						+ " SET \"" + parentColumnName + "\"=?"
+						+ " WHERE \"_ID\"=?"
+						+ " AND \"" + parentColumnName + "\" IS NULL";
+
+					PreparedStatement stmt = getCachedStatement(sql);
+					stmt.setInt(1, newListKey.parentKey.getRowId());
+					stmt.setInt(2, objectKey.getRowId());
+					int numberUpdated = stmt.executeUpdate();
 					if (numberUpdated != 1) {
 						throw new RuntimeException("internal error");
 					}
@@ -725,12 +1560,6 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 			// TODO Handle this properly
 			e.printStackTrace();
 			throw new RuntimeException("internal error");
-		} finally {
-			try {
-				statement.close();
-			} catch (SQLException e) {
-				// Ignore this one
-			}
 		}
 	}
 	
@@ -738,56 +1567,43 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 	 * Execute SQL UPDATE statements to update the database with
 	 * the new values of the properties of an object.
 	 * <P>
-	 * The SQL statements will verify the old values of the properties
-	 * in the WHERE clause.  If the database does not contain an object
-	 * with the expected old property values that an exception is raised,
-	 * causing the transaction to be rolled back.
+	 * If version columns are being used then the UPDATE statement for the
+	 * base-most table checks the version of the row and increments it.
+	 * This statement is executed even if no column in the base-most table
+	 * has changed. If the version does not match then another user has
+	 * updated or deleted the object since we read it, and an
+	 * <code>UpdateConflictException</code> is thrown.
+	 * <P>
+	 * If version columns are not being used then the SQL statements will
+	 * verify the old values of the properties in the WHERE clause.  If the
+	 * database does not contain an object with the expected old property
+	 * values then an exception is raised.
+	 * <P>
+	 * The statements are parameterized.  The SQL text depends only on
+	 * which columns changed (and on which old values were null), so the
+	 * prepared statements are re-used from the statement cache for
+	 * repeated updates of the same shape.
 	 * 
-	 * @param rowId
+	 * @param objectKey the key of the object being updated
 	 * @param oldValues
 	 * @param newValues
-	 * @param sessionManager
 	 */
-	public void updateProperties(ExtendablePropertySet<?> propertySet, int rowId, Object[] oldValues, Object[] newValues) {
-		Statement statement;
-		try {
-			statement = connection.createStatement();
-		} catch (SQLException e) {
-			if (e.getSQLState().equals("HY010")) {
-				/*
-				 * The socket has been reset.  This condition is usually caused
-				 * by a connection that has not been used in a while.  It can most
-				 * likely be fixed simply by reconnecting.
-				 */
-				try {
-					connection.close();
-				} catch (SQLException e2) {
-					/*
-					 * Ignore any failures on the close. It was a 'best efforts
-					 * only' close. In fact, it almost certainly will fail, and
-					 * perhaps we should not even bother to try to close it.
-					 */
-				}	
-				
-				try {
-					connection = DriverManager.getConnection(url, user, password);
-					statement = connection.createStatement();
-				} catch (SQLException e2) {
-					// TODO Handle this properly
-					e.printStackTrace();
-					throw new RuntimeException("internal error", e);
-				}	
-			} else {
-				/*
-				 * The error does not like something that can be fixed by re-creating
-				 * the connection, so pass on the exception. 
-				 */
-				// TODO Handle this properly
-				e.printStackTrace();
-				throw new RuntimeException("internal error", e);
+	public void updateProperties(ExtendablePropertySet<?> propertySet, ObjectKey objectKey, Object[] oldValues, Object[] newValues) {
+		int rowId = objectKey.getRowId();
+		
+		boolean anyChanged = false;
+		for (int i = 0; i < newValues.length; i++) {
+			if (!JMoneyPlugin.areEqual(oldValues[i], newValues[i])) {
+				anyChanged = true;
+				break;
 			}
 		}
+		if (!anyChanged) {
+			return;
+		}
 
+		flushPendingInserts();
+		
 		// The array of property values contains the properties from the
 		// base table first, then the table derived from that and so on.
 		// We therefore process the tables starting with the base table
@@ -802,6 +1618,7 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 
 		for (int index = propertySets.size()-1; index >= 0; index--) {
 			ExtendablePropertySet<?> propertySet2 = propertySets.get(index);
+			boolean checkVersion = useVersionColumns && propertySet2.getBasePropertySet() == null;
 			
 			String sql = "UPDATE " 
 				+ propertySet2.getId().replace('.', '_')
@@ -811,6 +1628,15 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 			String whereTerms = "";
 			String separator = "";
 			
+			/*
+			 * The properties that have changed, with the old and new values
+			 * in the same order.  These are needed to set the parameters
+			 * once the statement has been obtained.
+			 */
+			Vector<ScalarPropertyAccessor<?>> changedProperties = new Vector<ScalarPropertyAccessor<?>>();
+			Vector<Object> changedOldValues = new Vector<Object>();
+			Vector<Object> changedNewValues = new Vector<Object>();
+			
 			for (ScalarPropertyAccessor<?> propertyAccessor: propertySet2.getScalarProperties2()) {
 
 				if (propertyAccessor.getIndexIntoScalarProperties() != propertyIndex) {
@@ -824,33 +1650,72 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 				if (!JMoneyPlugin.areEqual(oldValue, newValue)) {
 					String columnName = getColumnName(propertyAccessor);
 
-					updateClauses += separator + "\"" + columnName + "\"=" + valueToSQLText(newValue);
+					updateClauses += separator + "\"" + columnName + "\"=?";
 					
-					if (oldValue != null) {
-						whereTerms += " AND \"" + columnName + "\"=" + valueToSQLText(oldValue);
-					} else {
-						whereTerms += " AND \"" + columnName + "\" IS NULL";
+					if (!useVersionColumns) {
+						if (oldValue != null) {
+							whereTerms += " AND \"" + columnName + "\"=?";
+						} else {
+							whereTerms += " AND \"" + columnName + "\" IS NULL";
+						}
 					}
 					separator = ", ";
+					
+					changedProperties.add(propertyAccessor);
+					changedOldValues.add(oldValue);
+					changedNewValues.add(newValue);
 				}
 			}
 			
+			if (checkVersion) {
+				updateClauses += separator + "\"_VERSION\"=\"_VERSION\"+1";
+				whereTerms += " AND \"_VERSION\"=?";
+				separator = ", ";
+			}
+			
 			// If no properties have been updated in a table then no update
 			// statement should be executed.
 			
 			if (!separator.equals("")) {
-				sql += updateClauses + " WHERE \"_ID\"=" + rowId + whereTerms;
+				sql += updateClauses + " WHERE \"_ID\"=?" + whereTerms;
 				
 				try {
-					System.out.println(sql);
-					int numberUpdated = statement.executeUpdate(sql);
+					PreparedStatement stmt = getCachedStatement(sql);
+					
+					int parameterIndex = 1;
+					for (int i = 0; i < changedProperties.size(); i++) {
+						setParameter(stmt, parameterIndex++, changedProperties.get(i), changedNewValues.get(i));
+					}
+					stmt.setInt(parameterIndex++, rowId);
+					if (checkVersion) {
+						stmt.setInt(parameterIndex++, objectKey.getVersion());
+					} else if (!useVersionColumns) {
+						for (int i = 0; i < changedProperties.size(); i++) {
+							Object oldValue = changedOldValues.get(i);
+							if (oldValue != null) {
+								setParameter(stmt, parameterIndex++, changedProperties.get(i), oldValue);
+							}
+						}
+					}
+					
+					int numberUpdated = stmt.executeUpdate();
 					if (numberUpdated != 1) {
+						if (checkVersion) {
+							throw new UpdateConflictException(propertySet,
+									"No row in " + propertySet2.getId().replace('.', '_')
+									+ " has an _ID of " + rowId
+									+ " and a _VERSION of " + objectKey.getVersion());
+						}
 						// This could happen if a column in the table contains a string
 						// serialization of a custom object, and the column contained a string
 						// that failed to construct a value.  In that case, the prior property value will
 						// be null be the value in the database will be non-null.
 						throw new RuntimeException("Update failed.  Row with expected data was not found.");
 					}
+					
+					if (checkVersion) {
+						objectKey.setVersion(objectKey.getVersion() + 1);
+					}
 				} catch (SQLException e) {
 					// TODO Handle this properly
 					e.printStackTrace();
@@ -860,15 +1725,116 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 		}
 	}
 
+	/**
+	 * Sets the value of a property as a parameter in a prepared statement.
+	 * The JDBC setter is chosen from the class of the property, matching
+	 * the column types created by <code>buildColumnList</code>.
+	 * 
+	 * @param stmt
+	 * @param parameterIndex
+	 * @param propertyAccessor the property whose value is being set, used to
+	 * 			determine the type of the column
+	 * @param value the value, which may be null
+	 * @throws SQLException
+	 */
+	public void setParameter(PreparedStatement stmt, int parameterIndex, ScalarPropertyAccessor<?> propertyAccessor, Object value) throws SQLException {
+		Class<?> valueClass = propertyAccessor.getClassOfValueObject();
+		bindValue(stmt, parameterIndex, getSqlType(valueClass), toJdbcValue(propertyAccessor, value));
+	}
+
+	/**
+	 * Converts the value of a property to the value held in the column,
+	 * matching the column types created by <code>buildColumnList</code>.
+	 * 
+	 * @return an Integer, Long, String, Boolean, java.sql.Date, or null
+	 */
+	private Object toJdbcValue(ScalarPropertyAccessor<?> propertyAccessor, Object value) {
+		Class<?> valueClass = propertyAccessor.getClassOfValueObject();
+		
+		if (value == null) {
+			return null;
+		} else if (valueClass == Integer.class
+				|| valueClass == Long.class) {
+			return value;
+		} else if (valueClass == Character.class
+				|| valueClass == String.class) {
+			return value.toString();
+		} else if (valueClass == Boolean.class) {
+			if (booleanTypeName != null) {
+				return value;
+			} else {
+				// CHAR(1) is used
+				return ((Boolean)value).booleanValue() ? "1" : "0";
+			}
+		} else if (valueClass == Date.class) {
+			return new java.sql.Date(((Date)value).getTime());
+		} else if (ExtendableObject.class.isAssignableFrom(valueClass)) {
+			ExtendableObject extendableObject = (ExtendableObject)value;
+			IDatabaseRowKey key = (IDatabaseRowKey)extendableObject.getObjectKey();
+			return key.getRowId();
+		} else {
+			/*
+			 * All other objects are serialized to a string.
+			 */
+			return value.toString();
+		}
+	}
+
+	/**
+	 * Sets a value returned by <code>toJdbcValue</code> as a parameter in a
+	 * prepared statement.
+	 * 
+	 * @param sqlType the JDBC type of the column, used if the value is null
+	 */
+	private void bindValue(PreparedStatement stmt, int parameterIndex, int sqlType, Object value) throws SQLException {
+		if (value == null) {
+			stmt.setNull(parameterIndex, sqlType);
+		} else if (value instanceof Integer) {
+			stmt.setInt(parameterIndex, (Integer)value);
+		} else if (value instanceof Long) {
+			stmt.setLong(parameterIndex, (Long)value);
+		} else if (value instanceof Boolean) {
+			stmt.setBoolean(parameterIndex, (Boolean)value);
+		} else if (value instanceof java.sql.Date) {
+			stmt.setDate(parameterIndex, (java.sql.Date)value);
+		} else {
+			stmt.setString(parameterIndex, (String)value);
+		}
+	}
+
+	/**
+	 * Returns the JDBC type of the column used to hold values of the given
+	 * class.  This is needed when setting null parameters.
+	 */
+	private int getSqlType(Class<?> valueClass) {
+		if (valueClass == Integer.class) {
+			return Types.INTEGER;
+		} else if (valueClass == Long.class) {
+			return Types.BIGINT;
+		} else if (valueClass == Character.class) {
+			return Types.CHAR;
+		} else if (valueClass == Boolean.class) {
+			return (booleanTypeName == null) ? Types.CHAR : Types.BIT;
+		} else if (valueClass == Date.class) {
+			return dialect.getDateSqlType();
+		} else if (ExtendableObject.class.isAssignableFrom(valueClass)) {
+			return Types.INTEGER;
+		} else {
+			return Types.VARCHAR;
+		}
+	}
+
 	/**
 	 * Given a value of a property as an Object, return the text that 
 	 * represents the value in an SQL statement.
+	 * <P>
+	 * All statements that read or write data use parameters.  This method
+	 * is needed only for the DEFAULT clauses in column definitions because
+	 * parameters cannot be used in DDL statements.
 	 * 
 	 * @param newValue
 	 * @return
 	 */
-	// TODO: If we always used prepared statements with parameters
-	// then we may not need this method at all.
 	private String valueToSQLText(Object value) {
 		String valueString;
 		
@@ -922,7 +1888,10 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
      * 				other integrity violation was found in the database
 	 */
 	public void deleteFromDatabase(IDatabaseRowKey objectKey) throws ReferenceViolationException {
-		ExtendablePropertySet<?> propertySet = PropertySet.getPropertySet(objectKey.getObject().getClass()); 
+		flushPendingInserts();
+		
+		ExtendableObject deletedObject = objectKey.getObject();
+		ExtendablePropertySet<?> propertySet = PropertySet.getPropertySet(deletedObject.getClass()); 
 		
 		/*
 		 * Because we cannot always use CASCADE, we must first delete objects
@@ -948,26 +1917,21 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 				+ " WHERE \"_ID\" = ?";
 			
 			try {
-				System.out.println(sql + " : " + objectKey.getRowId());
 
-				PreparedStatement stmt = getConnection().prepareStatement(sql);
-				try {
-					stmt.setInt(1, objectKey.getRowId());
-					int rowCount = stmt.executeUpdate();
-					if (rowCount != 1) {
-						if (rowCount == 0
-								&& propertySet2 == propertySet) {
-							/*
-							 * The object does not exist in the database. It is
-							 * possible that another process deleted it so we ignore
-							 * this condition.
-							 */
-						} else {
-							throw new RuntimeException("database is inconsistent");
-						}
+				PreparedStatement stmt = getCachedStatement(sql);
+				stmt.setInt(1, objectKey.getRowId());
+				int rowCount = stmt.executeUpdate();
+				if (rowCount != 1) {
+					if (rowCount == 0
+							&& propertySet2 == propertySet) {
+						/*
+						 * The object does not exist in the database. It is
+						 * possible that another process deleted it so we ignore
+						 * this condition.
+						 */
+					} else {
+						throw new RuntimeException("database is inconsistent");
 					}
-				} finally {
-					stmt.close();
 				}
 			} catch (SQLException e) {
 				if (e.getSQLState().equals("23000")) {
@@ -986,6 +1950,13 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 				throw new RuntimeException("internal error", e);
 			}
 		}
+		
+		/*
+		 * The entry counts are dropped only now that the rows have gone.
+		 * The session change events were fired before the rows were
+		 * deleted, so a count read by a listener may include this object.
+		 */
+		entryCountCache.objectDeleted(deletedObject);
 	}
 
 	/**
@@ -1022,6 +1993,255 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 		}
 	}
 
+	/**
+	 * Deletes the given transactions, together with their entries, using a
+	 * few set-based DELETE statements.
+	 * <P>
+	 * Deleting the transactions one at a time through the transaction
+	 * collection executes a DELETE statement for each table row of each
+	 * transaction and each entry. That is too slow when thousands of
+	 * transactions are deleted, for example when an import is rolled back.
+	 * This method instead deletes the rows for up to
+	 * <code>BULK_DELETE_CHUNK_SIZE</code> transactions in each statement.
+	 * <P>
+	 * The session change events and the undo information are the same as
+	 * if each transaction had been deleted from the transaction collection.
+	 * As required by <code>ObjectCollection.deleteElement</code>, they are
+	 * fired and recorded before any rows are deleted, because listeners and
+	 * the undo information may need to fetch the transactions and their
+	 * entries from the database.
+	 * <P>
+	 * All the rows are deleted in a single database transaction. If this
+	 * method is called outside a datastore transaction then the database
+	 * transaction is committed by this method, or rolled back if any of the
+	 * transactions could not be deleted.
+	 * 
+	 * @param transactions the transactions to delete, all of which must be
+	 * 			in this session
+	 * @throws ReferenceViolationException if there are references to any of
+	 * 			the transactions or their entries that prevent them from
+	 * 			being deleted
+	 */
+	public void deleteTransactions(Collection<Transaction> transactions) throws ReferenceViolationException {
+		if (transactions.isEmpty()) {
+			return;
+		}
+
+		Vector<Integer> rowIds = new Vector<Integer>();
+		Vector<Integer> entryRowIds = new Vector<Integer>();
+		Set<Integer> accountRowIds = new HashSet<Integer>();
+		for (Transaction transaction: transactions) {
+			if (transaction.getDataManager() != this) {
+				throw new RuntimeException("Invalid call to deleteTransactions.  A transaction passed does not belong to this data manager.");
+			}
+			rowIds.add(((IDatabaseRowKey)transaction.getObjectKey()).getRowId());
+
+			/*
+			 * The ids of the entries, and of their accounts, are needed to
+			 * update the caches once the rows have gone.
+			 */
+			for (Entry entry: transaction.getEntryCollection()) {
+				entryRowIds.add(((IDatabaseRowKey)entry.getObjectKey()).getRowId());
+				if (entry.getAccount() != null) {
+					accountRowIds.add(((IDatabaseRowKey)entry.getAccount().getObjectKey()).getRowId());
+				}
+			}
+		}
+
+		/*
+		 * As when a single object is deleted, the deletion events are fired
+		 * before the rows are deleted because listeners may need to fetch
+		 * information about the objects from the database.
+		 */
+		for (final Transaction transaction: transactions) {
+			fireEvent(
+					new ISessionChangeFirer() {
+						public void fire(SessionChangeListener listener) {
+							listener.objectRemoved(transaction);
+						}
+					});
+
+			getSession().getChangeManager().processObjectDeletion(getSession(), SessionInfo.getTransactionsAccessor(), transaction);
+		}
+
+		flushPendingInserts();
+
+		try {
+			boolean ownTransaction = connection.getAutoCommit();
+			if (ownTransaction) {
+				connection.setAutoCommit(false);
+			}
+
+			try {
+				String parameters = getParameterList(BULK_DELETE_CHUNK_SIZE);
+				for (int start = 0; start < rowIds.size(); start += BULK_DELETE_CHUNK_SIZE) {
+					int end = Math.min(start + BULK_DELETE_CHUNK_SIZE, rowIds.size());
+					deleteRows(TransactionInfo.getPropertySet(), "_ID", parameters, rowIds.subList(start, end), new HashSet<ExtendablePropertySet<?>>());
+				}
+
+				if (ownTransaction) {
+					connection.commit();
+				}
+			} catch (SQLException e) {
+				if (ownTransaction) {
+					connection.rollback();
+				}
+				throw e;
+			} catch (ReferenceViolationException e) {
+				if (ownTransaction) {
+					connection.rollback();
+				}
+				throw e;
+			} finally {
+				if (ownTransaction) {
+					connection.setAutoCommit(true);
+				}
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RuntimeException("SQL Exception: " + e.getMessage());
+		}
+
+		/*
+		 * The rows have gone, so the deleted objects must no longer be
+		 * returned from the object caches and the entry counts of the
+		 * accounts must be read again.
+		 */
+		ObjectCache transactionCache = objectMaps.get(TransactionInfo.getPropertySet());
+		for (int rowId: rowIds) {
+			transactionCache.remove(rowId);
+		}
+		ObjectCache entryCache = objectMaps.get(EntryInfo.getPropertySet());
+		for (int rowId: entryRowIds) {
+			entryCache.remove(rowId);
+		}
+		for (int rowId: accountRowIds) {
+			entryCountCache.invalidate(rowId);
+		}
+	}
+
+	/**
+	 * Deletes, using set-based DELETE statements, the objects of a given
+	 * property set whose rows in the table for that property set have a value
+	 * in the given column that is in the given selection. The objects in the
+	 * list properties of these objects are deleted first, recursively.
+	 * 
+	 * @param propertySet the property set of the objects, which may be
+	 * 			derivable
+	 * @param columnName the column that identifies the objects to delete,
+	 * 			being either _ID or the column that contains the id of the
+	 * 			parent object
+	 * @param selection a list of <code>BULK_DELETE_CHUNK_SIZE</code>
+	 * 			parameters or a sub-query that selects ids using such a
+	 * 			list, to be put in an IN clause
+	 * @param selectionIds the ids to be set into the parameters of the
+	 * 			selection, being at most <code>BULK_DELETE_CHUNK_SIZE</code>
+	 * 			ids
+	 * @param propertySetsInPath the property sets whose objects are being
+	 * 			deleted by the callers of this method, used to detect
+	 * 			objects that may contain objects of the same type
+	 * @throws ReferenceViolationException if there are references to the
+	 * 			objects that prevent them from being deleted
+	 */
+	private void deleteRows(ExtendablePropertySet<?> propertySet, String columnName, String selection, List<Integer> selectionIds, Set<ExtendablePropertySet<?>> propertySetsInPath) throws SQLException, ReferenceViolationException {
+		if (!propertySetsInPath.add(propertySet)) {
+			throw new RuntimeException("The objects of property set " + propertySet.getId() + " may contain objects of the same type and so cannot be deleted in bulk.");
+		}
+
+		String tableName = propertySet.getId().replace('.', '_');
+		String idSelection = "SELECT \"_ID\" FROM " + tableName
+			+ " WHERE \"" + columnName + "\" IN (" + selection + ")";
+
+		/*
+		 * The property sets derived from this property set, ordered so that
+		 * the tables for derived property sets come before the tables for
+		 * their base property sets.
+		 */
+		Vector<ExtendablePropertySet<?>> derivedPropertySets = new Vector<ExtendablePropertySet<?>>();
+		addDerivedPropertySets(propertySet, derivedPropertySets);
+
+		/*
+		 * Delete the child objects first.  A list property may be in this
+		 * property set or in any derived property set.
+		 */
+		Set<ListPropertyAccessor> listProperties = new HashSet<ListPropertyAccessor>(propertySet.getListProperties3());
+		for (ExtendablePropertySet<?> derivedPropertySet: derivedPropertySets) {
+			listProperties.addAll(derivedPropertySet.getListProperties3());
+		}
+		for (ListPropertyAccessor<?> listProperty: listProperties) {
+			deleteRows(listProperty.getElementPropertySet(), listProperty.getName().replace('.', '_'), idSelection, selectionIds, propertySetsInPath);
+		}
+
+		for (ExtendablePropertySet<?> derivedPropertySet: derivedPropertySets) {
+			executeDelete(derivedPropertySet, "DELETE FROM " + derivedPropertySet.getId().replace('.', '_')
+					+ " WHERE \"_ID\" IN (" + idSelection + ")", selectionIds);
+		}
+
+		if (propertySet.getBasePropertySet() == null) {
+			executeDelete(propertySet, "DELETE FROM " + tableName
+					+ " WHERE \"" + columnName + "\" IN (" + selection + ")", selectionIds);
+		} else {
+			/*
+			 * The rows in the base tables must be deleted after the rows in
+			 * this table, but the ids can no longer be selected from this
+			 * table once its rows are deleted.  The ids are therefore read
+			 * first.
+			 */
+			Vector<Integer> ids = new Vector<Integer>();
+			PreparedStatement stmt = getCachedStatement(idSelection);
+			setPaddedIds(stmt, selectionIds, BULK_DELETE_CHUNK_SIZE);
+			ResultSet resultSet = executeQuery(stmt, idSelection);
+			try {
+				while (resultSet.next()) {
+					ids.add(resultSet.getInt(1));
+				}
+			} finally {
+				resultSet.close();
+			}
+
+			String parameters = getParameterList(BULK_DELETE_CHUNK_SIZE);
+			for (int start = 0; start < ids.size(); start += BULK_DELETE_CHUNK_SIZE) {
+				List<Integer> chunk = ids.subList(start, Math.min(start + BULK_DELETE_CHUNK_SIZE, ids.size()));
+				for (ExtendablePropertySet<?> propertySet2 = propertySet; propertySet2 != null; propertySet2 = propertySet2.getBasePropertySet()) {
+					executeDelete(propertySet2, "DELETE FROM " + propertySet2.getId().replace('.', '_')
+							+ " WHERE \"_ID\" IN (" + parameters + ")", chunk);
+				}
+			}
+		}
+
+		propertySetsInPath.remove(propertySet);
+	}
+
+	/**
+	 * Adds all the property sets derived from the given property set, both
+	 * final and not, with each property set added before its base property
+	 * set.
+	 */
+	private void addDerivedPropertySets(ExtendablePropertySet<?> propertySet, Vector<ExtendablePropertySet<?>> derivedPropertySets) {
+		for (ExtendablePropertySet<?> derivedPropertySet: propertySet.getDirectlyDerivedPropertySets()) {
+			addDerivedPropertySets(derivedPropertySet, derivedPropertySets);
+			derivedPropertySets.add(derivedPropertySet);
+		}
+	}
+
+	/**
+	 * Executes a DELETE statement whose only parameters are a single list of
+	 * <code>BULK_DELETE_CHUNK_SIZE</code> ids.
+	 */
+	private void executeDelete(ExtendablePropertySet<?> propertySet, String sql, List<Integer> ids) throws SQLException, ReferenceViolationException {
+		PreparedStatement stmt = getCachedStatement(sql);
+		setPaddedIds(stmt, ids, BULK_DELETE_CHUNK_SIZE);
+		try {
+			stmt.executeUpdate();
+		} catch (SQLException e) {
+			if ("23000".equals(e.getSQLState())) {
+				// As in deleteFromDatabase, this must be a checked exception.
+				throw new ReferenceViolationException(propertySet, e.getMessage());
+			}
+			throw e;
+		}
+	}
+
 	/**
 	 * Construct an object with default property values.
 	 * 
@@ -1083,11 +2303,32 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 	 * @param rs
 	 * @param propertySet
 	 * @param objectKey
-	 * @param parentKey
+	 * @param parentKey
+	 * @return
+	 * @throws SQLException
+	 */ 
+	<E extends ExtendableObject> E materializeObject(ResultSet rs, ExtendablePropertySet<E> propertySet, IDatabaseRowKey objectKey, ListKey<? super E> listKey) throws SQLException {
+		return materializeObject(rs, null, propertySet, objectKey, listKey);
+	}
+
+	/**
+	 * Materialize an object from a row of data, reading the columns by index.
+	 * <P>
+	 * This version of this method is used when the result set comes from a
+	 * query in which the columns do not have the names used in the tables,
+	 * such as a <code>PolymorphicQuery</code>.
+	 *
+	 * @param rs
+	 * @param columnIndexes a map from column names to the index of the
+	 * 			column in the result set, or null if the columns are to be
+	 * 			found by name
+	 * @param propertySet
+	 * @param objectKey
+	 * @param listKey
 	 * @return
 	 * @throws SQLException
-	 */ 
-	<E extends ExtendableObject> E materializeObject(final ResultSet rs, final ExtendablePropertySet<E> propertySet, final IDatabaseRowKey objectKey, ListKey<? super E> listKey) throws SQLException {
+	 */
+	<E extends ExtendableObject> E materializeObject(final ResultSet rs, final Map<String, Integer> columnIndexes, final ExtendablePropertySet<E> propertySet, final IDatabaseRowKey objectKey, ListKey<? super E> listKey) throws SQLException {
 		/**
 		 * The list of parameters to be passed to the constructor
 		 * of this object.
@@ -1098,33 +2339,34 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 				String columnName = getColumnName(propertyAccessor);
 
 				try {
+				int columnIndex = findColumn(rs, columnIndexes, columnName);
 				Class<V> valueClass = propertyAccessor.getClassOfValueObject(); 
 				if (valueClass == Character.class) {
-					return valueClass.cast(rs.getString(columnName).charAt(0));
+					return valueClass.cast(rs.getString(columnIndex).charAt(0));
 				} else if (valueClass == Long.class) {
-					return valueClass.cast(rs.getLong(columnName));
+					return valueClass.cast(rs.getLong(columnIndex));
 				} else if (valueClass == Integer.class) {
-					return valueClass.cast(rs.getInt(columnName));
+					return valueClass.cast(rs.getInt(columnIndex));
 				} else if (valueClass == String.class) {
-					return valueClass.cast(rs.getString(columnName));
+					return valueClass.cast(rs.getString(columnIndex));
 				} else if (valueClass == Boolean.class) {
 					if (booleanTypeName == null) {
 						// Type is char(1).  Check '0' or '1', otherwise
 						// the getBoolean won't work.
-						String x = rs.getString(columnName);
+						String x = rs.getString(columnIndex);
 						if (x.equals("T") || x.equals("F")) {
 							System.out.println("old style");
 						}
 					}
-					return valueClass.cast(rs.getBoolean(columnName));
+					return valueClass.cast(rs.getBoolean(columnIndex));
 				} else if (valueClass == Date.class) {
-					return valueClass.cast(rs.getDate(columnName));
+					return valueClass.cast(rs.getDate(columnIndex));
 				} else {
 					/*
 					 * Must be a user defined object.  Construct it using
 					 * the string constructor.
 					 */
-					String text = rs.getString(columnName);
+					String text = rs.getString(columnIndex);
 					if (rs.wasNull() || text.length() == 0) {
 						return null;
 					} else {
@@ -1176,7 +2418,7 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 			public IObjectKey getReferencedObjectKey(ReferencePropertyAccessor<?> propertyAccessor) {
 				String columnName = getColumnName(propertyAccessor);
 				try {
-					int rowIdOfProperty = rs.getInt(columnName);
+					int rowIdOfProperty = rs.getInt(findColumn(rs, columnIndexes, columnName));
 					if (rs.wasNull()) {
 						return null;
 					} else {
@@ -1235,6 +2477,30 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 		return extendableObject;
 	}
 
+	/**
+	 * Executes a query, recording the query with the index advisor if it
+	 * is slow.
+	 * 
+	 * @param stmt the prepared statement, with all parameters set
+	 * @param sql the SQL used to prepare the statement
+	 * @return the result set from the query
+	 * @throws SQLException
+	 */
+	public ResultSet executeQuery(PreparedStatement stmt, String sql) throws SQLException {
+		long startTime = System.currentTimeMillis();
+		ResultSet rs = stmt.executeQuery();
+		indexAdvisor.queryExecuted(connection, sql, System.currentTimeMillis() - startTime);
+		return rs;
+	}
+
+	IndexAdvisor getIndexAdvisor() {
+		return indexAdvisor;
+	}
+
+	EntryCountCache getEntryCountCache() {
+		return entryCountCache;
+	}
+
 	/**
 	 * Given a property, return the name of the database column that holds the
 	 * values of the property.
@@ -1252,7 +2518,7 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 	 * @return an SQL compliant column name, guaranteed to be unique within the
 	 *         table
 	 */
-	String getColumnName(ScalarPropertyAccessor<?> propertyAccessor) {
+	public String getColumnName(ScalarPropertyAccessor<?> propertyAccessor) {
 		if (propertyAccessor.getPropertySet().isExtension()) {
 			return propertyAccessor.getName().replace('.', '_');
 		} else {
@@ -1260,6 +2526,24 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 		}
 	}
 
+	/**
+	 * Gets the index of a column in a result set.
+	 * 
+	 * @param rs
+	 * @param columnIndexes a map from column names to column indexes, or
+	 * 			null if the column is to be found by name in the result set
+	 * @param columnName
+	 * @return the index of the column
+	 * @throws SQLException
+	 */
+	private static int findColumn(ResultSet rs, Map<String, Integer> columnIndexes, String columnName) throws SQLException {
+		if (columnIndexes == null) {
+			return rs.findColumn(columnName);
+		} else {
+			return columnIndexes.get(columnName);
+		}
+	}
+
 	/**
 	 * Materialize an object from a row of data.
 	 * <P>
@@ -1278,15 +2562,32 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 	 * @throws SQLException
 	 */
 	<E extends ExtendableObject> E materializeObject(ResultSet rs, ExtendablePropertySet<E> propertySet, IDatabaseRowKey key) throws SQLException {
+		return materializeObject(rs, null, propertySet, key);
+	}
+
+	/**
+	 * Materialize an object from a row of data, reading the columns by index
+	 * and building the parent key from data in the row.
+	 *
+	 * @param rs
+	 * @param columnIndexes a map from column names to the index of the
+	 * 			column in the result set, or null if the columns are to be
+	 * 			found by name
+	 * @param propertySet
+	 * @param key
+	 * @return
+	 * @throws SQLException
+	 */
+	<E extends ExtendableObject> E materializeObject(ResultSet rs, Map<String, Integer> columnIndexes, ExtendablePropertySet<E> propertySet, IDatabaseRowKey key) throws SQLException {
 		/*
 		 * We need to obtain the key for the containing list.  We do this by
 		 * creating one from the data in the result set.
 		 */ 
-		DatabaseListKey<? super E> parentListKey = buildParentKey(rs, propertySet);
+		DatabaseListKey<? super E> parentListKey = buildParentKey(rs, columnIndexes, propertySet);
 		
 		ListKey<? super E> listKey = constructListKey(parentListKey);
 		
-		E extendableObject = materializeObject(rs, propertySet, key, listKey);
+		E extendableObject = materializeObject(rs, columnIndexes, propertySet, key, listKey);
 		
 		return extendableObject;
 	}
@@ -1325,8 +2626,16 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 	 * another account (if the account is a sub-account) or may be the
 	 * session.
 	 */
-	@SuppressWarnings("unchecked")
 	<E extends ExtendableObject> DatabaseListKey<? super E> buildParentKey(ResultSet rs, ExtendablePropertySet<E> propertySet) throws SQLException {
+		return buildParentKey(rs, null, propertySet);
+	}
+
+	/*
+	 * As above, but the parent columns are found using the given map from
+	 * column names to column indexes if the map is not null.
+	 */
+	@SuppressWarnings("unchecked")
+	<E extends ExtendableObject> DatabaseListKey<? super E> buildParentKey(ResultSet rs, Map<String, Integer> columnIndexes, ExtendablePropertySet<E> propertySet) throws SQLException {
 		/* 
 		 * A column exists in this table for each list which can contain objects
 		 * of this type. Only one of these columns can be non-null so we must
@@ -1353,7 +2662,7 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 			 * for each such property that exists in another property set.
 			 */
 			for (ParentList parentList: list) {
-				parentId = rs.getInt(parentList.getColumnName());
+				parentId = rs.getInt(findColumn(rs, columnIndexes, parentList.getColumnName()));
 				if (!rs.wasNull()) {		
 					matchingParentList = parentList;
 					nonNullValueFound = true;
@@ -1395,11 +2704,25 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 		String columnDefinition;
 		ExtendablePropertySet<?> foreignKeyPropertySet = null;
 		ColumnNature nature;
+
+		/**
+		 * The list that this column refers to, set only if this is a
+		 * parent column
+		 */
+		ParentList parentList = null;
+
+		/**
+		 * The property whose values are held in this column, set only if
+		 * this is a scalar property column
+		 */
+		ScalarPropertyAccessor<?> propertyAccessor = null;
 	}
 	
 	private enum ColumnNature {
 		PARENT,
-		SCALAR_PROPERTY
+		SCALAR_PROPERTY,
+		PROPERTY_SET,
+		VERSION
 	}
 	
 	/**
@@ -1414,7 +2737,7 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 	 * @return A Vector containing objects of class 
 	 * 		<code>ColumnInfo</code>.
 	 */
-	private Vector<ColumnInfo> buildColumnList(ExtendablePropertySet<?> propertySet) {
+	Vector<ColumnInfo> buildColumnList(ExtendablePropertySet<?> propertySet) {
 		Vector<ColumnInfo> result = new Vector<ColumnInfo>();
 		
 		/*
@@ -1462,6 +2785,7 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 		for (ParentList parentList: list) {
 			ColumnInfo info = new ColumnInfo();
 			info.nature = ColumnNature.PARENT;
+			info.parentList = parentList;
 			info.columnName = parentList.getColumnName();
 			info.columnDefinition = "INT DEFAULT NULL";
 			info.foreignKeyPropertySet = parentList.parentPropertySet;
@@ -1474,6 +2798,7 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 			ColumnInfo info = new ColumnInfo();
 
 			info.nature = ColumnNature.SCALAR_PROPERTY;
+			info.propertyAccessor = propertyAccessor;
 			info.columnName = getColumnName(propertyAccessor);
 
 			Class<?> valueClass = propertyAccessor.getClassOfValueObject();
@@ -1572,17 +2897,41 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 		if (propertySet.getBasePropertySet() == null
 		 && propertySet.isDerivable()) {
 			ColumnInfo info = new ColumnInfo();
+			info.nature = ColumnNature.PROPERTY_SET;
 			info.columnName = "_PROPERTY_SET";
 			// 200 should be enough for property set ids.
 			info.columnDefinition = "VARCHAR(200) NOT NULL";
 			result.add(info);
 		}
 		
+		/*
+		 * If version columns are being used then the base-most table has a
+		 * _VERSION column. One version number covers the rows in the
+		 * base-most table and all the derived tables.
+		 */
+		if (propertySet.getBasePropertySet() == null
+		 && useVersionColumns) {
+			ColumnInfo info = new ColumnInfo();
+			info.nature = ColumnNature.VERSION;
+			info.columnName = "_VERSION";
+			info.columnDefinition = "INT DEFAULT 0 NOT NULL";
+			result.add(info);
+		}
+		
 		return result;
 	}
 	
 	private static String[] tableOnlyType = new String[] { "TABLE" };
 
+	/**
+	 * The table containing information about the database that is not
+	 * part of the accounting data.  This table has a row for each item of
+	 * information with columns PROPERTY_NAME and PROPERTY_VALUE.
+	 */
+	private static final String SCHEMA_INFO_TABLE = "JMONEY_SCHEMA_INFO";
+
+	private static final String SCHEMA_FINGERPRINT_PROPERTY = "fingerprint";
+
 	private void traceResultSet(ResultSet rs) {
 		if (JDBCDatastorePlugin.DEBUG) {
 			try {
@@ -1643,7 +2992,6 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 							"ALTER TABLE " + tableName
 							+ " ADD \"" + columnInfo.columnName
 							+ "\" " + columnInfo.columnDefinition;
-						System.out.println(sql);
 						stmt.execute(sql);	
 					}
 					columnResultSet.close();
@@ -1687,7 +3035,7 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 			if (propertySet.getBasePropertySet() != null) {
 				String primaryTableName = propertySet.getBasePropertySet().getId().replace('.', '_');
 				System.out.println(tableName + ", " + primaryTableName);
-				checkForeignKey(dmd, stmt, tableName, "_ID", primaryTableName, !isDerby);
+				checkForeignKey(dmd, stmt, tableName, "_ID", primaryTableName, dialect.isCascadeToDerivedTableAllowed());
 			}
 
 			/*
@@ -1721,6 +3069,229 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 				}
 			}
 		}		
+
+		/*
+		 * Now create the indexes. Some databases (HSQLDB and Derby) create an
+		 * index whenever a foreign key constraint is created, so in those
+		 * databases this pass will usually find the indexes already exist
+		 * for the reference columns. MS SQL does not, so without this pass
+		 * every query for the entries in an account or the elements in a
+		 * list would scan the entire table.
+		 */
+		for (ExtendablePropertySet<?> propertySet: PropertySet.getAllExtendablePropertySets()) {
+			checkIndexes(dmd, stmt, propertySet);
+		}
+	}
+
+	/**
+	 * Checks that the indexes exist on the columns that are used to
+	 * select or order rows.  Any missing indexes are created.
+	 * <P>
+	 * An index is required on:
+	 * <UL>
+	 * <LI>every column that references another row, whether a reference
+	 * property or a column containing the id of the parent object, so that
+	 * list queries and queries for the entries in an account do not
+	 * scan the table</LI>
+	 * <LI>every date column for a sortable property, so that the entries
+	 * can be sorted and filtered by date ranges</LI>
+	 * </UL>
+	 * An index is considered to exist if there is any index with the column
+	 * as its first column.  All such columns are passed to the index advisor.
+	 * 
+	 * @param dmd
+	 * @param stmt
+	 * @param propertySet
+	 */
+	private void checkIndexes(DatabaseMetaData dmd, Statement stmt, ExtendablePropertySet<?> propertySet) throws SQLException {
+		String tableName = propertySet.getId().replace('.', '_');
+
+		ResultSet indexResultSet = dmd.getIndexInfo(null, null, tableName.toUpperCase(), false, true);
+		try {
+			while (indexResultSet.next()) {
+				String columnName = indexResultSet.getString("COLUMN_NAME");
+				if (columnName != null && indexResultSet.getInt("ORDINAL_POSITION") == 1) {
+					indexAdvisor.addIndexedColumn(tableName, columnName);
+				}
+			}
+		} finally {
+			indexResultSet.close();
+		}
+
+		Vector<ColumnInfo> columnInfos = buildColumnList(propertySet);
+		for (ColumnInfo columnInfo: columnInfos) {
+			if (isIndexRequired(columnInfo) && !indexAdvisor.isIndexed(tableName, columnInfo.columnName)) {
+				String sql = 
+					"CREATE INDEX " + IndexAdvisor.getIndexName(tableName, columnInfo.columnName)
+					+ " ON " + tableName
+					+ "(\"" + columnInfo.columnName + "\")";
+				stmt.execute(sql);
+				indexAdvisor.addIndexedColumn(tableName, columnInfo.columnName);
+			}
+		}
+	}
+
+	/**
+	 * Indicates whether an index is required on the given column.
+	 * 
+	 * @see #checkIndexes(DatabaseMetaData, Statement, ExtendablePropertySet)
+	 */
+	private boolean isIndexRequired(ColumnInfo columnInfo) {
+		return columnInfo.foreignKeyPropertySet != null
+			|| (columnInfo.propertyAccessor != null
+					&& columnInfo.propertyAccessor.getClassOfValueObject() == Date.class
+					&& columnInfo.propertyAccessor.isSortable());
+	}
+
+	/**
+	 * Computes a hash of everything that determines the schema created by
+	 * <code>checkDatabase</code>. This consists of the tables and columns
+	 * required by the installed property sets, the versions of the plug-ins
+	 * that contribute property sets (including this plug-in, which determines
+	 * how the tables are built), and the database product.
+	 * <P>
+	 * If this hash is the same as the hash saved in the database when the
+	 * schema was last checked then the schema cannot need changing and the
+	 * check can be skipped.
+	 * 
+	 * @return the hash as a string of hex digits
+	 */
+	private String computeSchemaFingerprint() throws SQLException {
+		StringBuffer description = new StringBuffer();
+
+		DatabaseMetaData dmd = connection.getMetaData();
+		description.append(dmd.getDatabaseProductName()).append(' ')
+			.append(dmd.getDatabaseProductVersion()).append('\n');
+
+		/*
+		 * Sort by id so the hash does not depend on the order in which the
+		 * plug-ins happen to be loaded.
+		 */
+		TreeMap<String, ExtendablePropertySet<?>> propertySets = new TreeMap<String, ExtendablePropertySet<?>>();
+		for (ExtendablePropertySet<?> propertySet: PropertySet.getAllExtendablePropertySets()) {
+			propertySets.put(propertySet.getId(), propertySet);
+		}
+		for (ExtendablePropertySet<?> propertySet: propertySets.values()) {
+			description.append(propertySet.getId()).append('\n');
+			for (ColumnInfo columnInfo: buildColumnList(propertySet)) {
+				description.append(' ').append(columnInfo.columnName)
+					.append(' ').append(columnInfo.columnDefinition);
+				if (columnInfo.foreignKeyPropertySet != null) {
+					description.append(" -> ").append(columnInfo.foreignKeyPropertySet.getId());
+				}
+				description.append('\n');
+			}
+		}
+
+		TreeSet<String> pluginVersions = new TreeSet<String>();
+		if (Platform.isRunning()) {
+			pluginVersions.add(getBundleVersion(JDBCDatastorePlugin.getDefault().getBundle().getSymbolicName()));
+			for (IConfigurationElement element: Platform.getExtensionRegistry().getConfigurationElementsFor("net.sf.jmoney.fields")) {
+				pluginVersions.add(getBundleVersion(element.getContributor().getName()));
+			}
+		}
+		for (String pluginVersion: pluginVersions) {
+			description.append(pluginVersion).append('\n');
+		}
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] hash = digest.digest(description.toString().getBytes("UTF-8"));
+			StringBuffer result = new StringBuffer();
+			for (byte b: hash) {
+				result.append(Integer.toHexString((b >> 4) & 0xF));
+				result.append(Integer.toHexString(b & 0xF));
+			}
+			return result.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("internal error", e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException("internal error", e);
+		}
+	}
+
+	private static String getBundleVersion(String symbolicName) {
+		Bundle bundle = Platform.getBundle(symbolicName);
+		Object version = (bundle == null) ? null : bundle.getHeaders().get("Bundle-Version");
+		return symbolicName + " " + version;
+	}
+
+	/**
+	 * Reads the schema fingerprint saved by the last schema check.
+	 * 
+	 * @return the fingerprint, or null if the schema has never been checked
+	 * 			by a version of this plug-in that saves the fingerprint
+	 */
+	private String readSchemaFingerprint(Connection con, Statement stmt) throws SQLException {
+		ResultSet tableResultSet = con.getMetaData().getTables(null, null, SCHEMA_INFO_TABLE, tableOnlyType);
+		try {
+			if (!tableResultSet.next()) {
+				return null;
+			}
+		} finally {
+			tableResultSet.close();
+		}
+
+		String sql = "SELECT PROPERTY_VALUE FROM " + SCHEMA_INFO_TABLE
+			+ " WHERE PROPERTY_NAME = '" + SCHEMA_FINGERPRINT_PROPERTY + "'";
+		ResultSet rs = stmt.executeQuery(sql);
+		try {
+			return rs.next() ? rs.getString(1) : null;
+		} finally {
+			rs.close();
+		}
+	}
+
+	/**
+	 * Saves the schema fingerprint after a successful schema check,
+	 * creating the table for it if necessary.
+	 */
+	private void writeSchemaFingerprint(Statement stmt, String fingerprint) throws SQLException {
+		ResultSet tableResultSet = connection.getMetaData().getTables(null, null, SCHEMA_INFO_TABLE, tableOnlyType);
+		boolean tableExists;
+		try {
+			tableExists = tableResultSet.next();
+		} finally {
+			tableResultSet.close();
+		}
+
+		if (!tableExists) {
+			String sql = "CREATE TABLE " + SCHEMA_INFO_TABLE
+				+ " (PROPERTY_NAME VARCHAR(100) NOT NULL PRIMARY KEY, PROPERTY_VALUE VARCHAR(200))";
+			stmt.execute(sql);
+		}
+
+		String upsertSql = dialect.getUpsertSql(SCHEMA_INFO_TABLE, "PROPERTY_NAME", "PROPERTY_VALUE");
+		if (upsertSql != null) {
+			PreparedStatement upsertStmt = connection.prepareStatement(upsertSql);
+			try {
+				upsertStmt.setString(1, SCHEMA_FINGERPRINT_PROPERTY);
+				upsertStmt.setString(2, fingerprint);
+				upsertStmt.execute();
+			} finally {
+				upsertStmt.close();
+			}
+			return;
+		}
+
+		PreparedStatement deleteStmt = connection.prepareStatement(
+				"DELETE FROM " + SCHEMA_INFO_TABLE + " WHERE PROPERTY_NAME = ?");
+		try {
+			deleteStmt.setString(1, SCHEMA_FINGERPRINT_PROPERTY);
+			deleteStmt.executeUpdate();
+		} finally {
+			deleteStmt.close();
+		}
+
+		PreparedStatement insertStmt = connection.prepareStatement(
+				"INSERT INTO " + SCHEMA_INFO_TABLE + " (PROPERTY_NAME, PROPERTY_VALUE) VALUES (?, ?)");
+		try {
+			insertStmt.setString(1, SCHEMA_FINGERPRINT_PROPERTY);
+			insertStmt.setString(2, fingerprint);
+			insertStmt.executeUpdate();
+		} finally {
+			insertStmt.close();
+		}
 	}
 
 	/**
@@ -1771,7 +3342,6 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 				sql += " " + onDeleteRestrict;
 			}
 
-			System.out.println(sql);
 			stmt.execute(sql);	
 		} finally {
 			columnResultSet.close();
@@ -1816,11 +3386,7 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 			+ " (\"_ID\" INT";
 		
 		if (propertySet.getBasePropertySet() == null) {
-			if (isDerby) {
-				sql += " NOT NULL GENERATED ALWAYS AS IDENTITY";
-			} else {
-				sql += " IDENTITY";
-			}
+			sql += " " + dialect.getIdentityColumnDefinition();
 		}
 		
 		sql += " PRIMARY KEY";
@@ -1831,7 +3397,6 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 		}
 		sql += ")";
 		
-		System.out.println(sql);
 		stmt.execute(sql);
 	}
 
@@ -1840,12 +3405,7 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 	 */
 	@Override
 	public boolean hasEntries(Account account) {
-		// TODO: improve efficiency of this??????
-		// or should hasEntries be removed altogether and make caller
-		// call getEntries().isEmpty() ??????
-		// As long as collections are not being copied unneccessarily,
-		// this is probably better.
-		return !(new AccountEntriesList(this, (IDatabaseRowKey)account.getObjectKey()).isEmpty());
+		return !entryCountCache.isEmpty((IDatabaseRowKey)account.getObjectKey());
 	}
 
 	@Override
@@ -1854,109 +3414,176 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 	}
 
 	/**
-	 * @see net.sf.jmoney.model2.IEntryQueries#sumOfAmounts(net.sf.jmoney.model2.CurrencyAccount, java.util.Date, java.util.Date)
+	 * Reads the given transactions together with all the entries in them.
+	 * <P>
+	 * This is used when iterating the entries in an account.  The entries
+	 * are usually wanted together with their transactions and the other
+	 * entries in those transactions, and reading these for one transaction
+	 * at a time would take two queries for each transaction.  Here the
+	 * transactions are read in chunks, with two queries for each chunk.
+	 * <P>
+	 * Objects that are already materialized are not replaced.  Transactions
+	 * that are already materialized are not read again.
+	 * 
+	 * @param transactionIds the row ids of the transactions
+	 * @return the transactions, which the caller should hold for as long as
+	 * 			it needs the transactions to stay in memory
 	 */
-	public long sumOfAmounts(CurrencyAccount account, Date fromDate, Date toDate) {
-		IDatabaseRowKey proxy = (IDatabaseRowKey)account.getObjectKey();
-		
+	List<Transaction> prefetchTransactions(Collection<Integer> transactionIds) {
+		List<Transaction> transactions = new ArrayList<Transaction>();
+		Vector<Integer> idsToRead = new Vector<Integer>();
+		for (Integer transactionId: transactionIds) {
+			Transaction transaction = getObjectIfMaterialized(TransactionInfo.getPropertySet(), transactionId);
+			if (transaction != null) {
+				transactions.add(transaction);
+			} else {
+				idsToRead.add(transactionId);
+			}
+		}
+
 		try {
-			String sql = "SELECT SUM(amount) FROM net_sf_jmoney_entry, net_sf_jmoney_transaction"
-				+ " WHERE account = ?"
-				+ " AND date >= ?"
-				+ " AND date <= ?";
-			System.out.println(sql);
-			PreparedStatement stmt = getConnection().prepareStatement(sql);
-			try {
-				stmt.setInt(1, proxy.getRowId());
-				stmt.setDate(2, new java.sql.Date(fromDate.getTime()));
-				stmt.setDate(3, new java.sql.Date(toDate.getTime()));
-				ResultSet resultSet = stmt.executeQuery();
-				resultSet.next();
-				return resultSet.getLong(0);
-			} finally {
-				stmt.close();
+			for (int start = 0; start < idsToRead.size(); start += PREFETCH_CHUNK_SIZE) {
+				int end = Math.min(start + PREFETCH_CHUNK_SIZE, idsToRead.size());
+				prefetchTransactionChunk(idsToRead.subList(start, end), transactions);
 			}
 		} catch (SQLException e) {
-			throw new RuntimeException("SQL statement failed");
+			e.printStackTrace();
+			throw new RuntimeException("SQL Exception: " + e.getMessage(), e);
+		}
+		
+		return transactions;
+	}
+
+	/**
+	 * Reads up to <code>PREFETCH_CHUNK_SIZE</code> transactions together
+	 * with their entries.  The IN lists always have
+	 * <code>PREFETCH_CHUNK_SIZE</code> parameters, the last id being repeated
+	 * as needed, so the same two prepared statements are always used.
+	 */
+	private void prefetchTransactionChunk(List<Integer> transactionIds, List<Transaction> transactions) throws SQLException {
+		String entryTableName = EntryInfo.getPropertySet().getId().replace('.', '_');
+		String transactionTableName = TransactionInfo.getPropertySet().getId().replace('.', '_');
+		String parentColumnName = TransactionInfo.getEntriesAccessor().getName().replace('.', '_');
+
+		String parameters = getParameterList(PREFETCH_CHUNK_SIZE);
+
+		Map<Integer, Vector<Entry>> entryLists = new HashMap<Integer, Vector<Entry>>();
+		for (Integer transactionId: transactionIds) {
+			entryLists.put(transactionId, new Vector<Entry>());
+		}
+
+		String sql = "SELECT * FROM " + entryTableName
+			+ " WHERE \"" + parentColumnName + "\" IN (" + parameters + ")"
+			+ " ORDER BY \"_ID\"";
+		PreparedStatement stmt = getCachedStatement(sql);
+		setPaddedIds(stmt, transactionIds, PREFETCH_CHUNK_SIZE);
+		ResultSet rs = executeQuery(stmt, sql);
+		try {
+			while (rs.next()) {
+				int transactionId = rs.getInt(parentColumnName);
+				DatabaseListKey<Entry> listKey = new DatabaseListKey<Entry>(
+						new ObjectKey(transactionId, TransactionInfo.getPropertySet(), this),
+						TransactionInfo.getEntriesAccessor());
+				ObjectKey key = new ObjectKey(rs, EntryInfo.getPropertySet(), listKey, this);
+				entryLists.get(transactionId).add((Entry)key.getObject());
+			}
+		} finally {
+			rs.close();
+		}
+
+		sql = "SELECT * FROM " + transactionTableName
+			+ " WHERE \"_ID\" IN (" + parameters + ")";
+		stmt = getCachedStatement(sql);
+		setPaddedIds(stmt, transactionIds, PREFETCH_CHUNK_SIZE);
+		rs = executeQuery(stmt, sql);
+		try {
+			while (rs.next()) {
+				DatabaseListKey<? super Transaction> listKey = buildParentKey(rs, TransactionInfo.getPropertySet());
+				ObjectKey key = new ObjectKey(rs, TransactionInfo.getPropertySet(), listKey, this,
+						TransactionInfo.getEntriesAccessor(), entryLists.get(rs.getInt("_ID")));
+				transactions.add((Transaction)key.getObject());
+			}
+		} finally {
+			rs.close();
+		}
+	}
+
+	/**
+	 * @return a list of the given number of parameter markers, separated by
+	 * 			commas, for use in an IN list
+	 */
+	private static String getParameterList(int parameterCount) {
+		StringBuffer parameters = new StringBuffer("?");
+		for (int i = 1; i < parameterCount; i++) {
+			parameters.append(", ?");
+		}
+		return parameters.toString();
+	}
+
+	/**
+	 * Sets the ids as the parameters of an IN list that has the given
+	 * number of parameters, repeating the last id.  Using a fixed number of
+	 * parameters means the same prepared statement is always used.
+	 */
+	private void setPaddedIds(PreparedStatement stmt, List<Integer> ids, int parameterCount) throws SQLException {
+		for (int i = 0; i < parameterCount; i++) {
+			stmt.setInt(i + 1, ids.get(Math.min(i, ids.size() - 1)));
 		}
 	}
 
+	/**
+	 * @see net.sf.jmoney.model2.IEntryQueries#sumOfAmounts(net.sf.jmoney.model2.CurrencyAccount, java.util.Date, java.util.Date)
+	 */
+	public long sumOfAmounts(CurrencyAccount account, Date fromDate, Date toDate) {
+		IDatabaseRowKey proxy = (IDatabaseRowKey)account.getObjectKey();
+		ArrayList<Integer> accountIds = new ArrayList<Integer>();
+		accountIds.add(proxy.getRowId());
+		return aggregateQueries.sumOfAmounts(accountIds, fromDate, toDate);
+	}
+
 	/* (non-Javadoc)
 	 * @see net.sf.jmoney.model2.IEntryQueries#getSortedReadOnlyCollection(net.sf.jmoney.model2.CapitalAccount, net.sf.jmoney.model2.PropertyAccessor, boolean)
 	 */
 	public Collection<Entry> getSortedEntries(CapitalAccount account, PropertyAccessor sortProperty, boolean descending) {
-		// TODO implement this.
-		throw new RuntimeException("must implement");
+		if (!sortProperty.isScalar()) {
+			throw new RuntimeException("list properties cannot be used for sorting"); //$NON-NLS-1$
+		}
+		IDatabaseRowKey proxy = (IDatabaseRowKey)account.getObjectKey();
+		return new SortedAccountEntriesList(this, proxy, (ScalarPropertyAccessor<?>)sortProperty, descending);
 	}
 
 	/* (non-Javadoc)
 	 * @see net.sf.jmoney.model2.IEntryQueries#getEntryTotalsByMonth(int, int, int, boolean)
 	 */
 	public long[] getEntryTotalsByMonth(CapitalAccount account, int startYear, int startMonth, int numberOfMonths, boolean includeSubAccounts) {
+		return getEntryTotalsByPeriod(account, startYear, startMonth, numberOfMonths, 1, includeSubAccounts);
+	}
+
+	/**
+	 * Return the total amount of entries in the account in each of a range
+	 * of periods, each period being a whole number of months. This is a
+	 * generalization of <code>getEntryTotalsByMonth</code> that allows, for
+	 * example, quarterly or annual totals. The totals are calculated by a
+	 * single query regardless of the number of periods or sub-accounts.
+	 * 
+	 * @param account
+	 * @param startYear
+	 * @param startMonth the first month of the first period, 1 to 12
+	 * @param numberOfPeriods
+	 * @param monthsPerPeriod the number of months in each period
+	 * @param includeSubAccounts
+	 * @return An array with a size equal to the numberOfPeriods
+	 */
+	public long[] getEntryTotalsByPeriod(CapitalAccount account, int startYear, int startMonth, int numberOfPeriods, int monthsPerPeriod, boolean includeSubAccounts) {
 		IDatabaseRowKey proxy = (IDatabaseRowKey)account.getObjectKey();
-		
-//		String startDateString = '\''
-//			+ new Integer(startYear).toString() + "-"
-//			+ new Integer(startMonth).toString() + "-"
-//			+ new Integer(1).toString()
-//			+ '\'';
-		Calendar c = Calendar.getInstance();
-		c.set(Calendar.YEAR, startYear);
-		c.set(Calendar.MONTH, startMonth - 1);
-		c.set(Calendar.DAY_OF_MONTH, 1);
-		Date startDate = c.getTime();
-
-		int endMonth = startMonth + numberOfMonths;
-		int years = (endMonth - 1) / 12;
-		endMonth -= years * 12;
-		int endYear = startYear + years;
-		
-//		String endDateString = '\''
-//			+ new Integer(endYear).toString() + "-"
-//			+ new Integer(endMonth).toString() + "-"
-//			+ new Integer(1).toString()
-//			+ '\'';
-		c.set(Calendar.YEAR, endYear);
-		c.set(Calendar.MONTH, endMonth - 1);
-		c.set(Calendar.DAY_OF_MONTH, 1);
-		Date endDate = c.getTime();
-
-		String accountList = "(" + proxy.getRowId();
+
+		ArrayList<Integer> accountIds = new ArrayList<Integer>();
+		accountIds.add(proxy.getRowId());
 		if (includeSubAccounts) {
-			ArrayList<Integer> accountIds = new ArrayList<Integer>();
 			addEntriesFromSubAccounts(account, accountIds);
-			for (Integer accountId: accountIds) {
-				accountList += "," + accountId; 
-			}
 		}
-		accountList += ")";
-		
-		try {
-			String sql = "SELECT SUM(amount), DateSerial(Year(date),Month(date),1) FROM net_sf_jmoney_entry, net_sf_jmoney_transaction"
-				+ " GROUP BY DateSerial(Year(date),Month(date),1)"
-				+ " WHERE account IN " + accountList
-				+ " AND date >= ?"
-				+ " AND date < ?"
-				+ " ORDER BY DateSerial(Year(date),Month(date),1)";
-			System.out.println(sql);
-			PreparedStatement stmt = getConnection().prepareStatement(sql);
-			try {
-				stmt.setDate(1, new java.sql.Date(startDate.getTime()));
-				stmt.setDate(2, new java.sql.Date(endDate.getTime()));
-				ResultSet rs = stmt.executeQuery();
 
-				long [] totals = new long[numberOfMonths];
-				for (int i = 0; i < numberOfMonths; i++) {
-					rs.next();
-					totals[i] = rs.getLong(0);
-				}
-				return totals;
-			} finally {
-				stmt.close();
-			}
-		} catch (SQLException e) {
-			throw new RuntimeException("SQL statement failed");
-		}
+		return aggregateQueries.getTotalsByPeriod(accountIds, startYear, startMonth, numberOfPeriods, monthsPerPeriod);
 	}
 	
 	private void addEntriesFromSubAccounts(CapitalAccount account, ArrayList<Integer> accountIds) {
@@ -1967,6 +3594,9 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 		}
 	}
 
+	/**
+	 * Starts a database transaction.
+	 */
 	@Override
 	public void startTransaction() {
 		try {
@@ -1977,19 +3607,90 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 		}
 	}
 
+	/**
+	 * Starts a database transaction in which a large number of objects
+	 * are expected to be inserted, such as an import.
+	 * <P>
+	 * All inserts made during the transaction are queued and written to the
+	 * database in JDBC batches, one batch per table, provided the database
+	 * supports this. The batches are written when the transaction is
+	 * committed or earlier if another statement needs to see the rows. This
+	 * makes a large import much faster because there is no round trip for
+	 * each row. However, an insert that fails is reported only when the
+	 * batch is written.
+	 */
+	@Override
+	public void startBulkTransaction() {
+		startTransaction();
+		bulkInsertMode = isBulkInsertSupported();
+	}
+
+	/**
+	 * Commits the database transaction.
+	 * <P>
+	 * If the queued inserts cannot be written then the exception is thrown
+	 * to the caller and the transaction is left open.  The caller must then
+	 * call <code>rollbackTransaction</code>.  If the commit itself fails
+	 * then the transaction is rolled back before the exception is thrown,
+	 * because turning auto-commit back on would otherwise commit the changes
+	 * made so far.
+	 */
 	@Override
 	public void commitTransaction() {
+		flushPendingInserts();
+		
 		try {
+			restartIdentities();
 			connection.commit();
+		} catch (SQLException e) {
+			rollbackTransaction();
+			throw new RuntimeException("The transaction could not be committed", e);
+		}
+
+		endTransaction();
+	}
+
+	/**
+	 * Rolls back the database transaction.  This is called by the framework
+	 * if a change failed, for example because of an
+	 * <code>UpdateConflictException</code>, so the changes that have
+	 * already been written as part of the transaction are not left in the
+	 * database.  Any inserts still queued are discarded.
+	 * <P>
+	 * Nothing is done if the transaction has already been rolled back
+	 * because the commit failed.
+	 */
+	@Override
+	public void rollbackTransaction() {
+		try {
+			if (connection.getAutoCommit()) {
+				return;
+			}
+			connection.rollback();
 		} catch (SQLException e) {
 			// TODO We need a mechanism to log and report errors
 			e.printStackTrace();
 		}
 
+		pendingBatches.clear();
+		endTransaction();
+	}
+
+	/**
+	 * Returns the connection to auto-commit mode at the end of a
+	 * transaction, whether committed or rolled back.
+	 */
+	private void endTransaction() {
 		/*
-		 * Note that we want to turn on auto-commit even if
-		 * the above commit failed.
+		 * Ids must be re-read at the start of the next transaction
+		 * because other connections may insert rows once our locks
+		 * are released.
 		 */
+		bulkInsertMode = false;
+		nextRowIds.clear();
+		rowIdLimits.clear();
+		firstPendingRowIds.clear();
+
 		try {
 			connection.setAutoCommit(true);
 		} catch (SQLException e) {
@@ -2020,6 +3721,8 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 	 * exceptions are returned to the caller.
 	 */
 	public <T> T runWithReconnect(IRunnableSql<T> runnableSql) {
+		flushPendingInserts();
+		
 		try {
 			return runnableSql.execute(connection);
 		} catch (SQLException e) {
@@ -2030,17 +3733,7 @@ public class SessionManager extends DatastoreManager implements IEntryQueries {
 					 * by a connection that has not been used in a while.  It can most
 					 * likely be fixed simply by reconnecting.
 					 */
-					try {
-						connection.close();
-					} catch (SQLException e2) {
-						/*
-						 * Ignore any failures on the close. It was a 'best efforts
-						 * only' close. In fact, it almost certainly will fail, and
-						 * perhaps we should not even bother to try to close it.
-						 */
-					}	
-					
-					connection = DriverManager.getConnection(url, user, password);
+					reconnect();
 					return runnableSql.execute(connection);
 				} else {
 					throw e;
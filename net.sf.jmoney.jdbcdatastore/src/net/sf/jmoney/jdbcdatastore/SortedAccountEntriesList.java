@@ -0,0 +1,187 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.jdbcdatastore;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import net.sf.jmoney.model2.AccountInfo;
+import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.EntryInfo;
+import net.sf.jmoney.model2.ExtendablePropertySet;
+import net.sf.jmoney.model2.ExtensionPropertySet;
+import net.sf.jmoney.model2.PropertySet;
+import net.sf.jmoney.model2.ScalarPropertyAccessor;
+import net.sf.jmoney.model2.TransactionInfo;
+
+/**
+ * The list of entries in a given account, sorted by a property of the entry,
+ * of the transaction containing the entry, or of the account.
+ * <P>
+ * The sort is done by the database using an ORDER BY clause. As with the
+ * unsorted list, <code>size()</code> is obtained by a COUNT query and no
+ * entries are read from the database until the collection is iterated. A
+ * window of the sorted entries can be fetched using
+ * <code>getEntries(int, int)</code>, which allows a virtual table to read only
+ * the rows that are visible.
+ *
+ * @author Nigel Westbury
+ */
+public class SortedAccountEntriesList extends AccountEntriesList {
+
+	/**
+	 * The SQL for the query without any paging, with one parameter
+	 * which is the id of the account
+	 */
+	private String sql;
+
+	/**
+	 * @param sessionManager
+	 * @param keyOfRequiredPropertyValue the key of the account
+	 * @param sortProperty the property on which the entries are sorted, being
+	 * 			a property of the entry, the transaction, or the account
+	 * @param descending if true, sort in descending order
+	 */
+	public SortedAccountEntriesList(SessionManager sessionManager, IDatabaseRowKey keyOfRequiredPropertyValue, ScalarPropertyAccessor<?> sortProperty, boolean descending) {
+		super(sessionManager, keyOfRequiredPropertyValue);
+
+		/*
+		 * If the property is in an extension then the column is in the table
+		 * for the property set being extended.
+		 */
+		PropertySet<?> propertySet = sortProperty.getPropertySet();
+		ExtendablePropertySet<?> extendablePropertySet;
+		if (propertySet.isExtension()) {
+			extendablePropertySet = ((ExtensionPropertySet<?>)propertySet).getExtendablePropertySet();
+		} else {
+			extendablePropertySet = (ExtendablePropertySet<?>)propertySet;
+		}
+
+		String sortColumnName = sessionManager.getColumnName(sortProperty);
+		String order = descending ? " DESC" : "";
+
+		if (extendablePropertySet == EntryInfo.getPropertySet()) {
+			sql = "SELECT * FROM " + tableName
+				+ " WHERE \"" + columnName + "\" = ?"
+				+ " ORDER BY \"" + sortColumnName + "\"" + order
+				+ ", \"_ID\"" + order;
+		} else if (extendablePropertySet == TransactionInfo.getPropertySet()) {
+			String transactionTableName = TransactionInfo.getPropertySet().getId().replace('.', '_');
+			String parentColumnName = TransactionInfo.getEntriesAccessor().getName().replace('.', '_');
+			sql = "SELECT " + tableName + ".* FROM " + tableName
+				+ " JOIN " + transactionTableName
+				+ " ON " + tableName + ".\"" + parentColumnName + "\" = " + transactionTableName + ".\"_ID\""
+				+ " WHERE " + tableName + ".\"" + columnName + "\" = ?"
+				+ " ORDER BY " + transactionTableName + ".\"" + sortColumnName + "\"" + order
+				+ ", " + tableName + ".\"_ID\"" + order;
+		} else if (SessionManager.getBasemostPropertySet(extendablePropertySet) == AccountInfo.getPropertySet()) {
+			/*
+			 * All the entries are in the same account, so the value of the
+			 * account property is the same for every entry. There is nothing
+			 * to sort.  We still order by the id so that windows of the result
+			 * are consistent.
+			 */
+			sql = "SELECT * FROM " + tableName
+				+ " WHERE \"" + columnName + "\" = ?"
+				+ " ORDER BY \"_ID\"";
+		} else {
+			throw new RuntimeException("given property cannot be used for entry sorting"); //$NON-NLS-1$
+		}
+	}
+
+	@Override
+	public Iterator<Entry> iterator() {
+		ResultSet rs = sessionManager.runWithReconnect(new IRunnableSql<ResultSet>() {
+			public ResultSet execute(Connection connection) throws SQLException {
+				PreparedStatement stmt = sessionManager.prepareCursorStatement(sql);
+				stmt.setInt(1, keyOfRequiredPropertyValue.getRowId());
+				return sessionManager.executeQuery(stmt, sql);
+			}
+		});
+
+		/*
+		 * UncachedObjectIterator takes over ownership of the statement,
+		 * meaning it is the responsibility of UncachedObjectIterator to
+		 * close the statement when it is done.
+		 */
+		return new UncachedObjectIterator<Entry>(rs, EntryInfo.getPropertySet(), null, sessionManager);
+	}
+
+	/**
+	 * Returns a window of the sorted entries.
+	 * <P>
+	 * Only the requested rows are read from the database. If the database
+	 * supports paging in SQL then the paging is done by the database.
+	 * Otherwise the number of rows returned by the database is limited and
+	 * the rows before the window are skipped without being materialized.
+	 *
+	 * @param offset the index of the first entry to be returned, being zero
+	 * 			for the first entry in the sorted list
+	 * @param limit the maximum number of entries to be returned
+	 * @return a list of at most <code>limit</code> entries
+	 */
+	public List<Entry> getEntries(final int offset, final int limit) {
+		final DatabaseDialect dialect = sessionManager.getDialect();
+		final String pagedSql = dialect.getPagedSql(sql);
+		final boolean pagedInSql = (pagedSql != null);
+
+		ResultSet rs = sessionManager.runWithReconnect(new IRunnableSql<ResultSet>() {
+			public ResultSet execute(Connection connection) throws SQLException {
+				String sqlToExecute = pagedInSql ? pagedSql : sql;
+				PreparedStatement stmt = sessionManager.prepareCursorStatement(sqlToExecute);
+				stmt.setInt(1, keyOfRequiredPropertyValue.getRowId());
+				dialect.setPagingParameters(stmt, 2, offset, limit);
+				return sessionManager.executeQuery(stmt, sqlToExecute);
+			}
+		});
+
+		try {
+			if (!pagedInSql) {
+				for (int i = 0; i < offset; i++) {
+					if (!rs.next()) {
+						break;
+					}
+				}
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RuntimeException("SQL Exception: " + e.getMessage());
+		}
+
+		List<Entry> entries = new ArrayList<Entry>(limit);
+		UncachedObjectIterator<Entry> iter = new UncachedObjectIterator<Entry>(rs, EntryInfo.getPropertySet(), null, sessionManager);
+		try {
+			while (iter.hasNext()) {
+				entries.add(iter.next());
+			}
+		} finally {
+			iter.close();
+		}
+		return entries;
+	}
+}
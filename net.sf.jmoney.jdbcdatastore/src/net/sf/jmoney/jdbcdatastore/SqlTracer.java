@@ -0,0 +1,464 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.jdbcdatastore;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Records statistics for every SQL statement executed on a connection.
+ * <P>
+ * The connection is wrapped so that every statement created from it is also
+ * wrapped, and the execution of each statement is timed. Statements are
+ * grouped by their shape, being the SQL with any literal values replaced by
+ * parameter markers, so the same query executed for different rows is
+ * counted together. For each shape we record the number of executions, the
+ * total and maximum time, a histogram of the times, and the number of rows
+ * returned (or, for updates, the number of rows affected).
+ * <P>
+ * A query that is executed many times in quick succession is usually a query
+ * for a single row executed once for each row of some other query (the 'N+1'
+ * problem). These bursts are counted so the report can point them out.
+ * <P>
+ * If the <code>trace/sql/statements</code> debug option is also set then the
+ * most recent statements, with their parameters and times, are kept and are
+ * included in the report.
+ * <P>
+ * The statistics can be viewed through JMX or written to a file. Nothing is
+ * wrapped if tracing is not enabled, so there is no cost when it is not
+ * used. Tracing is enabled using the <code>trace/sql</code> debug option.
+ *
+ * @author Nigel Westbury
+ */
+public class SqlTracer implements SqlTracerMBean {
+
+	/**
+	 * The upper bounds, in microseconds, of each bucket of the histogram
+	 * except the last.  The last bucket has no upper bound.
+	 */
+	private static final long[] HISTOGRAM_BOUNDS_MICROS = { 1000, 4000, 16000, 64000, 256000, 1000000 };
+
+	private static final String[] HISTOGRAM_LABELS = { "<1ms", "<4ms", "<16ms", "<64ms", "<256ms", "<1s", ">=1s" };
+
+	/**
+	 * A query executed at least this many times within the window is
+	 * counted as a burst.
+	 */
+	static final int REPEATED_QUERY_THRESHOLD = 10;
+
+	static final long REPEATED_QUERY_WINDOW_MILLIS = 500;
+
+	/**
+	 * The number of statements kept when statements are logged.  Older
+	 * statements are discarded.
+	 */
+	static final int MAXIMUM_LOGGED_STATEMENTS = 1000;
+
+	private static final Pattern stringLiteralPattern = Pattern.compile("'(?:[^']|'')*'");
+
+	private static final Pattern numberLiteralPattern = Pattern.compile("\\b\\d+\\b");
+
+	class StatementStats {
+		String shape;
+		long count = 0;
+		long totalNanos = 0;
+		long maximumNanos = 0;
+		long rows = 0;
+		long [] histogram = new long[HISTOGRAM_BOUNDS_MICROS.length + 1];
+
+		long burstStart = 0;
+		int burstCount = 0;
+		int bursts = 0;
+		int largestBurst = 0;
+
+		StatementStats(String shape) {
+			this.shape = shape;
+		}
+
+		void endBurst() {
+			if (burstCount >= REPEATED_QUERY_THRESHOLD) {
+				bursts++;
+				largestBurst = Math.max(largestBurst, burstCount);
+			}
+			burstCount = 0;
+		}
+	}
+
+	/**
+	 * True if each statement is to be logged as it is executed.
+	 */
+	private boolean logStatements;
+
+	/**
+	 * The most recently executed statements, oldest first, kept only if
+	 * statements are logged.  Access is synchronized on this object.
+	 */
+	private LinkedList<String> recentStatements = new LinkedList<String>();
+
+	/**
+	 * The statistics for each statement shape.  This is accessed both from
+	 * the thread using the connection and from the JMX threads, so all access
+	 * is synchronized on this object.
+	 */
+	private Map<String, StatementStats> statistics = new HashMap<String, StatementStats>();
+
+	private ObjectName objectName = null;
+
+	/**
+	 * @param logStatements true if each statement is to be logged as it
+	 * 			is executed, together with its parameters and the time
+	 * 			taken
+	 */
+	SqlTracer(boolean logStatements) {
+		this.logStatements = logStatements;
+	}
+
+	/**
+	 * Registers this object with the platform MBean server so it can be
+	 * viewed using jconsole or any other JMX client.
+	 *
+	 * @param name a name that identifies the database, which will be
+	 * 			included in the JMX object name
+	 */
+	void register(String name) {
+		try {
+			objectName = new ObjectName("net.sf.jmoney.jdbcdatastore:type=SqlTracer,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		} catch (JMException e) {
+			// The statistics are still available through the dump action.
+			e.printStackTrace();
+			objectName = null;
+		}
+	}
+
+	void unregister() {
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException e) {
+				e.printStackTrace();
+			}
+			objectName = null;
+		}
+	}
+
+	/**
+	 * Wraps the given connection so that all statements executed through
+	 * it are traced.
+	 */
+	Connection wrap(final Connection connection) {
+		return (Connection)Proxy.newProxyInstance(
+				Connection.class.getClassLoader(),
+				new Class[] { Connection.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						Object result = invokeTarget(connection, proxy, method, args);
+						String name = method.getName();
+						if (name.equals("prepareStatement") || name.equals("prepareCall")) {
+							return wrapStatement((Statement)result, (String)args[0]);
+						} else if (name.equals("createStatement")) {
+							return wrapStatement((Statement)result, null);
+						}
+						return result;
+					}
+				});
+	}
+
+	/**
+	 * @param preparedSql the SQL of a prepared statement, or null if this is a
+	 * 			plain statement, in which case the SQL is passed to the execute
+	 * 			methods
+	 */
+	private Statement wrapStatement(final Statement stmt, final String preparedSql) {
+		Class<?> statementInterface;
+		if (stmt instanceof CallableStatement) {
+			statementInterface = CallableStatement.class;
+		} else if (stmt instanceof PreparedStatement) {
+			statementInterface = PreparedStatement.class;
+		} else {
+			statementInterface = Statement.class;
+		}
+
+		return (Statement)Proxy.newProxyInstance(
+				Statement.class.getClassLoader(),
+				new Class[] { statementInterface },
+				new InvocationHandler() {
+					/**
+					 * The parameters, kept only if statements are logged
+					 */
+					private Map<Integer, Object> parameters = new TreeMap<Integer, Object>();
+
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+
+						if (name.startsWith("execute")) {
+							String sql = (args != null && args.length != 0 && args[0] instanceof String)
+									? (String)args[0]
+									: preparedSql;
+							if (sql == null) {
+								sql = "(batch)";
+							}
+
+							long startTime = System.nanoTime();
+							Object result = invokeTarget(stmt, proxy, method, args);
+							long elapsedNanos = System.nanoTime() - startTime;
+
+							StatementStats stats = recordExecution(sql, elapsedNanos, result);
+							if (logStatements) {
+								logStatement(sql
+										+ (parameters.isEmpty() ? "" : " : " + parameters.values())
+										+ " (" + (elapsedNanos / 1000) + "us)");
+							}
+
+							if (result instanceof ResultSet) {
+								return wrapResultSet((ResultSet)result, stats);
+							}
+							return result;
+						}
+
+						if (logStatements) {
+							if (name.startsWith("set")
+									&& args != null
+									&& args.length >= 2
+									&& args[0] instanceof Integer) {
+								parameters.put((Integer)args[0], args[1]);
+							} else if (name.equals("clearParameters")) {
+								parameters.clear();
+							}
+						}
+
+						return invokeTarget(stmt, proxy, method, args);
+					}
+				});
+	}
+
+	/**
+	 * Wraps a result set so that the rows read from it are counted.
+	 */
+	private ResultSet wrapResultSet(final ResultSet rs, final StatementStats stats) {
+		return (ResultSet)Proxy.newProxyInstance(
+				ResultSet.class.getClassLoader(),
+				new Class[] { ResultSet.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						Object result = invokeTarget(rs, proxy, method, args);
+						if (method.getName().equals("next") && Boolean.TRUE.equals(result)) {
+							synchronized (SqlTracer.this) {
+								stats.rows++;
+							}
+						}
+						return result;
+					}
+				});
+	}
+
+	/**
+	 * Invokes the method on the wrapped object. The proxy has its own
+	 * identity, so equals and hashCode are not passed on.
+	 */
+	private static Object invokeTarget(Object target, Object proxy, Method method, Object[] args) throws Throwable {
+		if (method.getName().equals("equals") && args != null && args.length == 1) {
+			return proxy == args[0];
+		} else if (method.getName().equals("hashCode") && args == null) {
+			return System.identityHashCode(proxy);
+		}
+
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Replaces the literal values in the given SQL by parameter markers.
+	 */
+	static String getShape(String sql) {
+		String shape = stringLiteralPattern.matcher(sql).replaceAll("?");
+		return numberLiteralPattern.matcher(shape).replaceAll("?");
+	}
+
+	private synchronized StatementStats recordExecution(String sql, long elapsedNanos, Object result) {
+		String shape = getShape(sql);
+		StatementStats stats = statistics.get(shape);
+		if (stats == null) {
+			stats = new StatementStats(shape);
+			statistics.put(shape, stats);
+		}
+
+		stats.count++;
+		stats.totalNanos += elapsedNanos;
+		stats.maximumNanos = Math.max(stats.maximumNanos, elapsedNanos);
+
+		long elapsedMicros = elapsedNanos / 1000;
+		int bucket = 0;
+		while (bucket < HISTOGRAM_BOUNDS_MICROS.length && elapsedMicros >= HISTOGRAM_BOUNDS_MICROS[bucket]) {
+			bucket++;
+		}
+		stats.histogram[bucket]++;
+
+		if (result instanceof Integer) {
+			stats.rows += (Integer)result;
+		} else if (result instanceof int[]) {
+			for (int count: (int[])result) {
+				if (count > 0) {
+					stats.rows += count;
+				}
+			}
+		}
+
+		long now = System.currentTimeMillis();
+		if (now - stats.burstStart > REPEATED_QUERY_WINDOW_MILLIS) {
+			stats.endBurst();
+			stats.burstStart = now;
+		}
+		stats.burstCount++;
+
+		return stats;
+	}
+
+	private synchronized void logStatement(String statement) {
+		recentStatements.addLast(statement);
+		if (recentStatements.size() > MAXIMUM_LOGGED_STATEMENTS) {
+			recentStatements.removeFirst();
+		}
+	}
+
+	public synchronized String getRecentStatements() {
+		StringBuffer result = new StringBuffer();
+		for (String statement: recentStatements) {
+			result.append(statement).append('\n');
+		}
+		return result.toString();
+	}
+
+	public synchronized long getStatementCount() {
+		long count = 0;
+		for (StatementStats stats: statistics.values()) {
+			count += stats.count;
+		}
+		return count;
+	}
+
+	public synchronized long getTotalMillis() {
+		long totalNanos = 0;
+		for (StatementStats stats: statistics.values()) {
+			totalNanos += stats.totalNanos;
+		}
+		return totalNanos / 1000000;
+	}
+
+	public synchronized int getStatementShapeCount() {
+		return statistics.size();
+	}
+
+	public synchronized String getReport() {
+		List<StatementStats> sortedStatistics = new ArrayList<StatementStats>(statistics.values());
+		Collections.sort(sortedStatistics, new Comparator<StatementStats>() {
+			public int compare(StatementStats stats1, StatementStats stats2) {
+				return stats1.totalNanos < stats2.totalNanos ? 1
+						: stats1.totalNanos > stats2.totalNanos ? -1
+						: 0;
+			}
+		});
+
+		StringBuffer report = new StringBuffer();
+		report.append(getStatementCount()).append(" statements, ")
+			.append(getTotalMillis()).append("ms total, ")
+			.append(statistics.size()).append(" distinct statements\n\n");
+
+		for (StatementStats stats: sortedStatistics) {
+			report.append(stats.shape).append('\n');
+			report.append("  executed ").append(stats.count)
+				.append(" times, total ").append(stats.totalNanos / 1000000)
+				.append("ms, average ").append(stats.totalNanos / stats.count / 1000)
+				.append("us, maximum ").append(stats.maximumNanos / 1000)
+				.append("us, rows ").append(stats.rows).append('\n');
+
+			report.append("  ");
+			for (int i = 0; i < stats.histogram.length; i++) {
+				if (stats.histogram[i] != 0) {
+					report.append(HISTOGRAM_LABELS[i]).append(": ").append(stats.histogram[i]).append("  ");
+				}
+			}
+			report.append('\n');
+
+			// Include the current burst, if it is long enough.
+			int bursts = stats.bursts;
+			int largestBurst = stats.largestBurst;
+			if (stats.burstCount >= REPEATED_QUERY_THRESHOLD) {
+				bursts++;
+				largestBurst = Math.max(largestBurst, stats.burstCount);
+			}
+			if (bursts != 0 && stats.shape.trim().toUpperCase().startsWith("SELECT")) {
+				report.append("  possible N+1 query: ").append(bursts)
+					.append(" bursts of up to ").append(largestBurst)
+					.append(" executions within ").append(REPEATED_QUERY_WINDOW_MILLIS).append("ms\n");
+			}
+			report.append('\n');
+		}
+
+		if (logStatements) {
+			report.append("Most recent statements:\n");
+			report.append(getRecentStatements());
+		}
+
+		return report.toString();
+	}
+
+	public void dumpToFile(String fileName) throws IOException {
+		FileWriter writer = new FileWriter(fileName);
+		try {
+			writer.write(getReport());
+		} finally {
+			writer.close();
+		}
+	}
+
+	public synchronized void reset() {
+		statistics.clear();
+		recentStatements.clear();
+	}
+}
@@ -0,0 +1,74 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.jdbcdatastore;
+
+import java.io.IOException;
+
+/**
+ * The management interface through which the SQL statistics can be
+ * inspected using a JMX console such as jconsole.
+ *
+ * @author Nigel Westbury
+ */
+public interface SqlTracerMBean {
+
+	/**
+	 * @return the number of statements executed since the statistics
+	 * 			were last reset
+	 */
+	long getStatementCount();
+
+	/**
+	 * @return the total time spent executing statements, in milliseconds
+	 */
+	long getTotalMillis();
+
+	/**
+	 * @return the number of distinct statements, after literal values have
+	 * 			been replaced by parameter markers
+	 */
+	int getStatementShapeCount();
+
+	/**
+	 * @return a report of the statistics for each statement, most expensive
+	 * 			first
+	 */
+	String getReport();
+
+	/**
+	 * @return the most recently executed statements, with their parameters
+	 * 			and times, one per line, or an empty string if statements
+	 * 			are not being logged
+	 */
+	String getRecentStatements();
+
+	/**
+	 * Writes the report to the given file.
+	 */
+	void dumpToFile(String fileName) throws IOException;
+
+	/**
+	 * Clears all statistics.
+	 */
+	void reset();
+}
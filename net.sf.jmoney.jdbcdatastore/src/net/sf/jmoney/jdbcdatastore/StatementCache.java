@@ -0,0 +1,149 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.jdbcdatastore;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of prepared statements for a single JDBC connection.
+ * <P>
+ * All writes to the database go through parameterized statements that are
+ * built once per table (or, for updates, once per set of changed columns).
+ * Keeping the prepared statements open means the database parses each
+ * statement only once per session instead of once per row.
+ * <P>
+ * Statements are keyed by their SQL text. Statements obtained from this cache
+ * are owned by the cache and must not be closed by the caller. Because a
+ * statement may be handed out again, a caller must have finished with any
+ * result set from a cached statement before the same SQL is requested again.
+ * This cache should therefore not be used for queries whose result sets are
+ * passed back to the caller of the session manager (such as the result sets
+ * used by <code>UncachedObjectIterator</code>).
+ * <P>
+ * A cache is tied to the connection from which it was created. If the session
+ * manager has to re-connect then it must close this cache and create a new
+ * one for the new connection.
+ *
+ * @author Nigel Westbury
+ */
+class StatementCache {
+
+	/**
+	 * The maximum number of statements kept open. Most drivers limit the
+	 * number of open statements per connection, so the least recently used
+	 * statement is closed when this limit is reached.
+	 */
+	private static final int MAXIMUM_STATEMENTS = 200;
+
+	private Connection connection;
+
+	private Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+			if (size() > MAXIMUM_STATEMENTS) {
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/**
+	 * Separate map for inserts that return generated keys. The same SQL text
+	 * may be prepared both with and without the request for generated keys,
+	 * so these must be kept apart.
+	 */
+	private Map<String, PreparedStatement> generatedKeyStatements = new LinkedHashMap<String, PreparedStatement>();
+
+	StatementCache(Connection connection) {
+		this.connection = connection;
+	}
+
+	/**
+	 * Returns a prepared statement for the given SQL, preparing it only if
+	 * it has not already been prepared on this connection.
+	 *
+	 * @param sql
+	 * @return a prepared statement which must not be closed by the caller
+	 * @throws SQLException
+	 */
+	PreparedStatement getStatement(String sql) throws SQLException {
+		PreparedStatement stmt = statements.get(sql);
+		if (stmt == null) {
+			stmt = connection.prepareStatement(sql);
+			statements.put(sql, stmt);
+		} else {
+			stmt.clearParameters();
+		}
+		return stmt;
+	}
+
+	/**
+	 * Returns a prepared statement for the given INSERT statement, prepared so
+	 * that the key generated by the database can be fetched after the insert.
+	 *
+	 * @param sql
+	 * @return a prepared statement which must not be closed by the caller
+	 * @throws SQLException
+	 */
+	PreparedStatement getInsertStatementReturningKey(String sql) throws SQLException {
+		PreparedStatement stmt = generatedKeyStatements.get(sql);
+		if (stmt == null) {
+			stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+			generatedKeyStatements.put(sql, stmt);
+		} else {
+			stmt.clearParameters();
+		}
+		return stmt;
+	}
+
+	/**
+	 * Closes all the statements in this cache. This must be called before the
+	 * connection is closed or replaced.
+	 */
+	void close() {
+		for (PreparedStatement stmt: statements.values()) {
+			closeQuietly(stmt);
+		}
+		for (PreparedStatement stmt: generatedKeyStatements.values()) {
+			closeQuietly(stmt);
+		}
+		statements.clear();
+		generatedKeyStatements.clear();
+	}
+
+	private static void closeQuietly(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+			// Ignore failures.  The statement is being discarded anyway.
+		}
+	}
+}
@@ -22,10 +22,12 @@
 
 package net.sf.jmoney.jdbcdatastore;
 
+import java.io.Closeable;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import net.sf.jmoney.jdbcdatastore.SessionManager.DatabaseListKey;
 import net.sf.jmoney.model2.ExtendableObject;
@@ -40,6 +42,15 @@ import net.sf.jmoney.model2.ExtendablePropertySet;
  * This class implements the Iterator interface and will return
  * the set of ExtendableObject objects.
  * <P>
+ * The result set is a database cursor, which is a limited resource in
+ * some databases.  The cursor is closed when the last object has been
+ * returned.  A caller that stops before the end must call
+ * <code>close</code>.  Callers that see this iterator only through the
+ * model interfaces can test whether the iterator is
+ * <code>java.io.Closeable</code>, which avoids a dependency on this
+ * plug-in.  Cursors that are not closed are reported as leaks, and closed,
+ * when the session is closed.
+ * <P>
  * Derivable property sets are not supported by this class; the
  * property set must be a final property set.  At the time of
  * writing, this class is used for the Transaction property
@@ -47,14 +58,22 @@ import net.sf.jmoney.model2.ExtendablePropertySet;
  * 
  * @author Nigel Westbury
  */
-public class UncachedObjectIterator<E extends ExtendableObject> implements Iterator<E> {
+public class UncachedObjectIterator<E extends ExtendableObject> implements Iterator<E>, Closeable {
 	private Statement stmt;
 	private ResultSet resultSet;
+	private boolean ownsStatement;
 	private ExtendablePropertySet<E> propertySet;
 	private DatabaseListKey<? super E> listKey;
 	private SessionManager sessionManager;
 	private boolean isAnother;
 
+	/**
+	 * The stack at the time this cursor was opened, used to report where
+	 * a leaked cursor came from.  This is recorded only when debugging
+	 * because it is expensive.
+	 */
+	private Throwable openedAt;
+
 	/**
 	 * It is the responsibility of this iterator to close both the result set
 	 * and the statement when the iterator is done. (Note that if the
@@ -62,11 +81,8 @@ public class UncachedObjectIterator<E extends ExtendableObject> implements Itera
 	 * the statement).
 	 * <P>
 	 * The statement and result set are closed when the iteration has completed
-	 * (when the last object has been obtained from the next() method). However,
-	 * there is a problem in that if the user of this iterator does not do a
-	 * complete iteration of all elements then the result set and statement
-	 * would never be closed. We guard against this by closing these when this
-	 * iterator is garbage collected.
+	 * (when the last object has been obtained from the next() method) or
+	 * when <code>close</code> is called, whichever is first.
 	 * 
 	 * @param stmt
 	 *            a prepared statement which, when executed, returns the result
@@ -84,18 +100,39 @@ public class UncachedObjectIterator<E extends ExtendableObject> implements Itera
 	 * @throws SQLException
 	 */
 	public UncachedObjectIterator(ResultSet resultSet, ExtendablePropertySet<E> propertySet, DatabaseListKey<? super E> listKey, SessionManager sessionManager) {
+		this(resultSet, propertySet, listKey, sessionManager, true);
+	}
+
+	/**
+	 * @param ownsStatement
+	 *            true if the statement is to be closed by this iterator,
+	 *            false if only the result set is to be closed because the
+	 *            statement is owned by the statement cache
+	 */
+	public UncachedObjectIterator(ResultSet resultSet, ExtendablePropertySet<E> propertySet, DatabaseListKey<? super E> listKey, SessionManager sessionManager, boolean ownsStatement) {
+		this.ownsStatement = ownsStatement;
 		this.propertySet = propertySet;
 		this.listKey = listKey;
 		this.sessionManager = sessionManager;
 		
+		if (JDBCDatastorePlugin.DEBUG) {
+			openedAt = new Throwable("Cursor opened here");
+		}
+		
 		// Position on first row.
 		try {
-		this.stmt = resultSet.getStatement();
-		this.resultSet = resultSet;
-		isAnother = resultSet.next();
+			this.stmt = resultSet.getStatement();
+			this.resultSet = resultSet;
+			sessionManager.cursorOpened(this);
+			isAnother = resultSet.next();
 		} catch (SQLException e) {
-			// Should really attempt to close, but this is not a likely exception.
-			throw new RuntimeException("SQL failure");
+			close();
+			e.printStackTrace();
+			throw new RuntimeException("SQL Exception: " + e.getMessage());
+		}
+		
+		if (!isAnother) {
+			close();
 		}
 	}
 	
@@ -104,6 +141,10 @@ public class UncachedObjectIterator<E extends ExtendableObject> implements Itera
 	}
 	
 	public E next() {
+		if (!isAnother) {
+			throw new NoSuchElementException();
+		}
+		
 		try {
 			/*
 			 * If parentKey is null then objects in this collection have
@@ -128,19 +169,15 @@ public class UncachedObjectIterator<E extends ExtendableObject> implements Itera
 			/*
 			 * We have reached the end, so close the statement and result
 			 * set now.  (It is the responsibility of this iterator to do
-			 * so).  Because the finalizer also closes these (in case the
-			 * caller does not finish the iteration), we set these to null
-			 * after closing them to prevent trying to close twice.
+			 * so).
 			 */
 			if (!isAnother) {
-				resultSet.close();
-				resultSet = null;
-				stmt.close();
-				stmt = null;
+				close();
 			}
 			
 			return extendableObject;
 		} catch (SQLException e) {
+			close();
 			e.printStackTrace();
 			throw new RuntimeException("internal error");
 		}
@@ -150,17 +187,38 @@ public class UncachedObjectIterator<E extends ExtendableObject> implements Itera
 		throw new RuntimeException("unimplemented method");
 	}
 	
-	@Override
-	public void finalize() {
-		try {
-			if (stmt != null) {
+	/**
+	 * Closes the cursor.  No more objects will be returned by this
+	 * iterator.  This method may be called more than once.
+	 */
+	public void close() {
+		isAnother = false;
+		if (stmt != null) {
+			try {
 				if (resultSet != null) {
 					resultSet.close();
 				}
-				stmt.close();
+				if (ownsStatement) {
+					stmt.close();
+				}
+			} catch (SQLException e) {
+				// Don't worry if the close fails.
 			}
-		} catch (SQLException e) {
-			// Don't worry if the close fails.
+			resultSet = null;
+			stmt = null;
+			sessionManager.cursorClosed(this);
 		}
 	}
-}
\ No newline at end of file
+	
+	boolean isOpen() {
+		return stmt != null;
+	}
+	
+	/**
+	 * Reports that this cursor was not closed, and closes it.
+	 */
+	void reportLeak() {
+		JDBCDatastorePlugin.logWarning("Database cursor was not closed: " + propertySet.getId(), openedAt);
+		close();
+	}
+}
@@ -0,0 +1,59 @@
+package net.sf.jmoney.jdbcdatastore.handlers;
+
+import java.io.IOException;
+
+import net.sf.jmoney.jdbcdatastore.SessionManager;
+import net.sf.jmoney.jdbcdatastore.SqlTracer;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.handlers.HandlerUtil;
+
+/**
+ * Writes the statistics for the SQL statements executed against the open
+ * database to a file chosen by the user.
+ * <P>
+ * Statistics are recorded only if the <code>trace/sql</code> debug option
+ * is set for this plug-in.
+ */
+public final class DumpSqlStatisticsHandler extends AbstractHandler {
+
+	public Object execute(ExecutionEvent event) throws ExecutionException {
+		Shell shell = HandlerUtil.getActiveShellChecked(event);
+		IWorkbenchWindow window = HandlerUtil.getActiveWorkbenchWindowChecked(event);
+
+		Object input = window.getActivePage() == null ? null : window.getActivePage().getInput();
+		if (!(input instanceof SessionManager)) {
+			MessageDialog.openWarning(shell, "Dump SQL Statistics", "No database is open.");
+			return null;
+		}
+
+		SqlTracer sqlTracer = ((SessionManager)input).getSqlTracer();
+		if (sqlTracer == null) {
+			MessageDialog.openWarning(shell, "Dump SQL Statistics",
+					"SQL statistics are not being recorded.  Set the net.sf.jmoney.jdbcdatastore/trace/sql "
+					+ "debug option and re-open the database to record statistics.");
+			return null;
+		}
+
+		FileDialog dialog = new FileDialog(shell, SWT.SAVE);
+		dialog.setFilterExtensions(new String[] { "*.txt", "*.*" });
+		dialog.setFileName("sql-statistics.txt");
+		String fileName = dialog.open();
+		if (fileName != null) {
+			try {
+				sqlTracer.dumpToFile(fileName);
+			} catch (IOException e) {
+				MessageDialog.openError(shell, "Dump SQL Statistics", "The file could not be written: " + e.getMessage());
+			}
+		}
+
+		return null;
+	}
+}
@@ -22,12 +22,17 @@ public class SQLEntriesStatement {
 		this.sessionManager = sessionManager;
 	}
 
+	/**
+	 * Runs the query and materializes all the entries. The statement is
+	 * owned by the statement cache so only the result set is closed.
+	 */
 	public List<Entry> execute() throws SQLException {
 		List<Entry> elements = new ArrayList<Entry>(); 
 
+		sessionManager.flushPendingInserts();
 		ResultSet resultSet = statement.executeQuery();
 
-		Iterator<Entry> iter = new UncachedObjectIterator<Entry>(resultSet, EntryInfo.getPropertySet(), null, sessionManager);
+		Iterator<Entry> iter = new UncachedObjectIterator<Entry>(resultSet, EntryInfo.getPropertySet(), null, sessionManager, false);
 		while (iter.hasNext()) {
 			elements.add(iter.next());
 		}
@@ -1,9 +1,14 @@
 package net.sf.jmoney.sqldirect;
 
 import java.sql.SQLException;
+import java.util.Collection;
 
 import net.sf.jmoney.jdbcdatastore.SessionManager;
+import net.sf.jmoney.model2.ExtendableObject;
+import net.sf.jmoney.model2.ExtendablePropertySet;
+import net.sf.jmoney.model2.ReferenceViolationException;
 import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.model2.Transaction;
 
 public class SqlDirectFactory {
 
@@ -14,7 +19,31 @@ public class SqlDirectFactory {
 		 */
 		SessionManager sessionManager = (SessionManager)session.getDataManager();
 
-		return new SQLEntriesStatement(sessionManager.getConnection().prepareStatement(sql), sessionManager);
+		return new SQLEntriesStatement(sessionManager.getCachedStatement(sql), sessionManager);
+	}
+
+	/**
+	 * Creates a query over the objects of the given property set.
+	 * 
+	 * @param session a session opened by the JDBC datastore
+	 * @param propertySet a final property set
+	 */
+	public static <E extends ExtendableObject> SqlQuery<E> createQuery(Session session, ExtendablePropertySet<E> propertySet) {
+		SessionManager sessionManager = (SessionManager)session.getDataManager();
+		return new SqlQuery<E>(sessionManager, propertySet);
+	}
+
+	/**
+	 * Deletes the given transactions and their entries using set-based
+	 * DELETE statements.  This is much faster than deleting the transactions
+	 * one at a time when there are many transactions.
+	 * 
+	 * @param session a session opened by the JDBC datastore
+	 * @param transactions transactions in the given session
+	 */
+	public static void deleteTransactions(Session session, Collection<Transaction> transactions) throws ReferenceViolationException {
+		SessionManager sessionManager = (SessionManager)session.getDataManager();
+		sessionManager.deleteTransactions(transactions);
 	}
 
 }
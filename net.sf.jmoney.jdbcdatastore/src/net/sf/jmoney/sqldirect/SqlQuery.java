@@ -0,0 +1,450 @@
+package net.sf.jmoney.sqldirect;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+
+import net.sf.jmoney.jdbcdatastore.SessionManager;
+import net.sf.jmoney.jdbcdatastore.UncachedObjectIterator;
+import net.sf.jmoney.model2.ExtendableObject;
+import net.sf.jmoney.model2.ExtendablePropertySet;
+import net.sf.jmoney.model2.ExtensionPropertySet;
+import net.sf.jmoney.model2.ListPropertyAccessor;
+import net.sf.jmoney.model2.PropertySet;
+import net.sf.jmoney.model2.ScalarPropertyAccessor;
+import net.sf.jmoney.model2.SessionInfo;
+
+/**
+ * A query over the objects of a property set, built from property
+ * accessors rather than from SQL text. The table and column names are
+ * derived from the property sets in the same way as the datastore derives
+ * them, so callers need not know how the objects are stored.
+ * <P>
+ * The conditions are combined with AND. For example, the entries with a
+ * memo containing 'rent', in date order, are obtained by:
+ * <pre>
+ * SqlQuery&lt;Entry&gt; query = SqlDirectFactory.createQuery(session, EntryInfo.getPropertySet());
+ * query.joinParent(TransactionInfo.getEntriesAccessor());
+ * query.where(EntryInfo.getMemoAccessor(), SqlQuery.Operator.LIKE, "%rent%");
+ * query.orderBy(TransactionInfo.getDateAccessor(), false);
+ * List&lt;Entry&gt; entries = query.list();
+ * </pre>
+ * The statements are taken from the statement cache of the session, so a
+ * query that is run repeatedly, with the same conditions but different
+ * values, is prepared only once. The exception is <code>stream</code>,
+ * which needs a statement of its own because the caller holds the cursor.
+ * <P>
+ * A query may be run any number of times and may be changed between runs.
+ *
+ * @author Nigel Westbury
+ */
+public class SqlQuery<E extends ExtendableObject> {
+
+	/**
+	 * The comparisons that may be made in a condition.
+	 */
+	public enum Operator {
+		EQUAL("="),
+		NOT_EQUAL("<>"),
+		LESS("<"),
+		LESS_OR_EQUAL("<="),
+		GREATER(">"),
+		GREATER_OR_EQUAL(">="),
+		LIKE("LIKE");
+
+		private String sql;
+
+		private Operator(String sql) {
+			this.sql = sql;
+		}
+	}
+
+	private SessionManager sessionManager;
+
+	private ExtendablePropertySet<E> propertySet;
+
+	/**
+	 * The property sets whose tables are in the FROM clause
+	 */
+	private Vector<ExtendablePropertySet<?>> tables = new Vector<ExtendablePropertySet<?>>();
+
+	/**
+	 * The columns of the tables for the queried property set, being the
+	 * columns needed to materialize the objects
+	 */
+	private String objectColumns = "";
+
+	private String fromClause;
+
+	private Vector<String> conditions = new Vector<String>();
+
+	private Vector<ScalarPropertyAccessor<?>> parameterProperties = new Vector<ScalarPropertyAccessor<?>>();
+
+	private Vector<Object> parameterValues = new Vector<Object>();
+
+	private String orderByClause = "";
+
+	private int offset = 0;
+
+	/**
+	 * The maximum number of rows to be returned, or -1 if there is no limit
+	 */
+	private int limit = -1;
+
+	SqlQuery(SessionManager sessionManager, ExtendablePropertySet<E> propertySet) {
+		if (propertySet.isDerivable()) {
+			throw new IllegalArgumentException("Queries are supported only on final property sets, but " + propertySet.getId() + " is derivable.");
+		}
+
+		this.sessionManager = sessionManager;
+		this.propertySet = propertySet;
+
+		String tableName = getTableName(propertySet);
+		fromClause = tableName;
+		objectColumns = tableName + ".*";
+		tables.add(propertySet);
+		for (ExtendablePropertySet<?> basePropertySet = propertySet.getBasePropertySet(); basePropertySet != null; basePropertySet = basePropertySet.getBasePropertySet()) {
+			String baseTableName = getTableName(basePropertySet);
+			fromClause += " JOIN " + baseTableName
+				+ " ON " + tableName + ".\"_ID\" = " + baseTableName + ".\"_ID\"";
+			objectColumns += ", " + baseTableName + ".*";
+			tables.add(basePropertySet);
+		}
+	}
+
+	/**
+	 * Joins the table of the object that contains each object in the given
+	 * list, so that conditions and ordering may use the properties of the
+	 * containing object. For example, joining on the list of entries in a
+	 * transaction allows entries to be selected by transaction date.
+	 *
+	 * @param listProperty a list property whose elements are of the queried
+	 * 			property set or of one of its base property sets
+	 * @return this query
+	 */
+	public SqlQuery<E> joinParent(ListPropertyAccessor<? super E> listProperty) {
+		ExtendablePropertySet<?> elementPropertySet = listProperty.getElementPropertySet();
+		if (!tables.contains(elementPropertySet)) {
+			throw new IllegalArgumentException("The elements of " + listProperty.getName() + " are not of the property set being queried.");
+		}
+
+		/*
+		 * There is no parent column for lists in the session object,
+		 * because there is only one session object.
+		 */
+		if (listProperty.getPropertySet() == SessionInfo.getPropertySet()) {
+			throw new IllegalArgumentException("Lists in the session cannot be joined.");
+		}
+		ExtendablePropertySet<?> parentPropertySet = getTablePropertySet(listProperty.getPropertySet());
+
+		String parentTableName = getTableName(parentPropertySet);
+		fromClause += " JOIN " + parentTableName
+			+ " ON " + getTableName(elementPropertySet) + ".\"" + listProperty.getName().replace('.', '_') + "\""
+			+ " = " + parentTableName + ".\"_ID\"";
+		tables.add(parentPropertySet);
+		for (ExtendablePropertySet<?> basePropertySet = parentPropertySet.getBasePropertySet(); basePropertySet != null; basePropertySet = basePropertySet.getBasePropertySet()) {
+			String baseTableName = getTableName(basePropertySet);
+			fromClause += " JOIN " + baseTableName
+				+ " ON " + parentTableName + ".\"_ID\" = " + baseTableName + ".\"_ID\"";
+			tables.add(basePropertySet);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Adds a condition on the value of a property. A null value may be
+	 * given only with EQUAL or NOT_EQUAL.
+	 *
+	 * @return this query
+	 */
+	public <V> SqlQuery<E> where(ScalarPropertyAccessor<V> property, Operator operator, V value) {
+		addCondition(getQualifiedColumnName(property), property, operator, value);
+		return this;
+	}
+
+	/**
+	 * Adds a condition on the absolute value of a numeric property. This
+	 * is useful for amounts, which may be credits or debits.
+	 *
+	 * @return this query
+	 */
+	public <V extends Number> SqlQuery<E> whereAbsolute(ScalarPropertyAccessor<V> property, Operator operator, V value) {
+		addCondition("ABS(" + getQualifiedColumnName(property) + ")", property, operator, value);
+		return this;
+	}
+
+	private void addCondition(String columnExpression, ScalarPropertyAccessor<?> property, Operator operator, Object value) {
+		if (value == null) {
+			if (operator == Operator.EQUAL) {
+				conditions.add(columnExpression + " IS NULL");
+			} else if (operator == Operator.NOT_EQUAL) {
+				conditions.add(columnExpression + " IS NOT NULL");
+			} else {
+				throw new IllegalArgumentException("Null values can be compared only for equality.");
+			}
+		} else {
+			conditions.add(columnExpression + " " + operator.sql + " ?");
+			parameterProperties.add(property);
+			parameterValues.add(value);
+		}
+	}
+
+	/**
+	 * Adds a property to the ORDER BY clause. Properties are sorted in the
+	 * order in which they are added.
+	 *
+	 * @return this query
+	 */
+	public SqlQuery<E> orderBy(ScalarPropertyAccessor<?> property, boolean descending) {
+		orderByClause += (orderByClause.length() == 0) ? " ORDER BY " : ", ";
+		orderByClause += getQualifiedColumnName(property);
+		if (descending) {
+			orderByClause += " DESC";
+		}
+		return this;
+	}
+
+	/**
+	 * Limits the objects or rows returned to a window of the results. The
+	 * query should be ordered, otherwise the window is not well defined.
+	 * <P>
+	 * Where the database supports paging in SQL, only the rows in the
+	 * window are read. Otherwise the rows before the window are read but
+	 * are skipped without being materialized.
+	 *
+	 * @param offset the number of objects or rows to be skipped
+	 * @param limit the maximum number of objects or rows to be returned
+	 * @return this query
+	 */
+	public SqlQuery<E> page(int offset, int limit) {
+		this.offset = offset;
+		this.limit = limit;
+		return this;
+	}
+
+	/**
+	 * Runs the query and materializes all the objects.
+	 */
+	public List<E> list() throws SQLException {
+		List<E> elements = new ArrayList<E>();
+
+		ResultSet resultSet = openResultSet(objectColumns, true, true);
+		if (resultSet != null) {
+			Iterator<E> iter = new UncachedObjectIterator<E>(resultSet, propertySet, null, sessionManager, false);
+			while (iter.hasNext()) {
+				elements.add(iter.next());
+			}
+		}
+
+		return elements;
+	}
+
+	/**
+	 * Runs the query and returns an iterator that materializes each object
+	 * only as it is reached. Use this when there may be a large number of
+	 * objects and not all are needed at the same time.
+	 * <P>
+	 * The iterator holds a database cursor. The cursor is closed when the
+	 * last object has been returned. A caller that stops before the end
+	 * must close the iterator, which implements
+	 * <code>java.io.Closeable</code>.
+	 */
+	public Iterator<E> stream() throws SQLException {
+		ResultSet resultSet = openResultSet(objectColumns, true, false);
+		if (resultSet == null) {
+			return Collections.<E>emptyList().iterator();
+		}
+		return new UncachedObjectIterator<E>(resultSet, propertySet, null, sessionManager);
+	}
+
+	/**
+	 * Runs the query returning only the values of the given properties.
+	 * No objects are materialized.
+	 * <P>
+	 * The values are of the classes of the properties, except that
+	 * references to other objects are returned as the Integer id of the
+	 * row of the referenced object.
+	 *
+	 * @return a list of rows, each row being an array containing the
+	 * 			values of the given properties in the given order
+	 */
+	public List<Object[]> select(ScalarPropertyAccessor<?>... properties) throws SQLException {
+		String columns = "";
+		String separator = "";
+		for (ScalarPropertyAccessor<?> property: properties) {
+			columns += separator + getQualifiedColumnName(property);
+			separator = ", ";
+		}
+
+		List<Object[]> rows = new ArrayList<Object[]>();
+
+		ResultSet resultSet = openResultSet(columns, true, true);
+		if (resultSet != null) {
+			try {
+				while (resultSet.next()) {
+					Object[] row = new Object[properties.length];
+					for (int i = 0; i < properties.length; i++) {
+						row[i] = getValue(resultSet, i + 1, properties[i].getClassOfValueObject());
+					}
+					rows.add(row);
+				}
+			} finally {
+				resultSet.close();
+			}
+		}
+
+		return rows;
+	}
+
+	/**
+	 * @return the number of objects that meet the conditions, ignoring any
+	 * 			page
+	 */
+	public int count() throws SQLException {
+		ResultSet resultSet = openResultSet("COUNT(*)", false, true);
+		try {
+			resultSet.next();
+			return resultSet.getInt(1);
+		} finally {
+			resultSet.close();
+		}
+	}
+
+	/**
+	 * @return the total of the given property over all objects that meet the
+	 * 			conditions, ignoring any page
+	 */
+	public long sum(ScalarPropertyAccessor<Long> property) throws SQLException {
+		ResultSet resultSet = openResultSet("SUM(" + getQualifiedColumnName(property) + ")", false, true);
+		try {
+			resultSet.next();
+			return resultSet.getLong(1);
+		} finally {
+			resultSet.close();
+		}
+	}
+
+	/**
+	 * Executes the query.
+	 *
+	 * @param selectList the columns or expressions to be selected
+	 * @param isPaged true if the ORDER BY clause and the page are to be
+	 * 			applied, false if the query returns a single row of
+	 * 			aggregate values
+	 * @param useCache true if the statement is to be taken from the
+	 * 			statement cache, in which case the caller must have finished
+	 * 			with the result set before the statement is used again
+	 * @return the result set positioned before the first row in the page,
+	 * 			or null if there are no rows in the page
+	 */
+	private ResultSet openResultSet(String selectList, boolean isPaged, boolean useCache) throws SQLException {
+		sessionManager.flushPendingInserts();
+
+		String sql = "SELECT " + selectList + " FROM " + fromClause;
+		String separator = " WHERE ";
+		for (String condition: conditions) {
+			sql += separator + condition;
+			separator = " AND ";
+		}
+
+		boolean isWindowed = isPaged && limit >= 0;
+		boolean pagedInSql = false;
+		if (isPaged) {
+			sql += orderByClause;
+			if (isWindowed) {
+				String pagedSql = sessionManager.getDialect().getPagedSql(sql);
+				if (pagedSql != null) {
+					sql = pagedSql;
+					pagedInSql = true;
+				}
+			}
+		}
+
+		PreparedStatement stmt = useCache
+			? sessionManager.getCachedStatement(sql)
+			: sessionManager.prepareCursorStatement(sql);
+
+		int parameterIndex = 1;
+		for (int i = 0; i < parameterValues.size(); i++) {
+			sessionManager.setParameter(stmt, parameterIndex++, parameterProperties.get(i), parameterValues.get(i));
+		}
+
+		/*
+		 * The maximum number of rows must be set on every execution because a
+		 * cached statement keeps the setting from its previous use.
+		 */
+		if (isWindowed) {
+			sessionManager.getDialect().setPagingParameters(stmt, parameterIndex, offset, limit);
+		} else {
+			stmt.setMaxRows(0);
+		}
+
+		ResultSet resultSet = sessionManager.executeQuery(stmt, sql);
+
+		if (isWindowed && !pagedInSql) {
+			for (int i = 0; i < offset; i++) {
+				if (!resultSet.next()) {
+					resultSet.close();
+					if (!useCache) {
+						stmt.close();
+					}
+					return null;
+				}
+			}
+		}
+
+		return resultSet;
+	}
+
+	private Object getValue(ResultSet resultSet, int columnIndex, Class<?> valueClass) throws SQLException {
+		Object value;
+		if (valueClass == Integer.class
+				|| ExtendableObject.class.isAssignableFrom(valueClass)) {
+			value = resultSet.getInt(columnIndex);
+		} else if (valueClass == Long.class) {
+			value = resultSet.getLong(columnIndex);
+		} else if (valueClass == Boolean.class) {
+			value = resultSet.getBoolean(columnIndex);
+		} else if (valueClass == Date.class) {
+			java.sql.Date date = resultSet.getDate(columnIndex);
+			value = (date == null) ? null : new Date(date.getTime());
+		} else if (valueClass == Character.class) {
+			String text = resultSet.getString(columnIndex);
+			value = (text == null || text.length() == 0) ? null : text.charAt(0);
+		} else {
+			value = resultSet.getString(columnIndex);
+		}
+		return resultSet.wasNull() ? null : value;
+	}
+
+	private String getQualifiedColumnName(ScalarPropertyAccessor<?> property) {
+		ExtendablePropertySet<?> tablePropertySet = getTablePropertySet(property.getPropertySet());
+		if (!tables.contains(tablePropertySet)) {
+			throw new IllegalArgumentException("The table containing " + property.getName() + " is not in the query.");
+		}
+		return getTableName(tablePropertySet) + ".\"" + sessionManager.getColumnName(property) + "\"";
+	}
+
+	/**
+	 * Extension properties are stored in the table of the property set
+	 * being extended.
+	 */
+	private static ExtendablePropertySet<?> getTablePropertySet(PropertySet<?> propertySet) {
+		if (propertySet.isExtension()) {
+			return ((ExtensionPropertySet<?>)propertySet).getExtendablePropertySet();
+		} else {
+			return (ExtendablePropertySet<?>)propertySet;
+		}
+	}
+
+	private static String getTableName(ExtendablePropertySet<?> propertySet) {
+		return propertySet.getId().replace('.', '_');
+	}
+}
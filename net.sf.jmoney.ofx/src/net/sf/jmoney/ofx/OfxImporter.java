@@ -100,6 +100,7 @@ public class OfxImporter {
 			 * the entire import as a single change for undo/redo purposes.
 			 */
 			TransactionManager transactionManager = new TransactionManager(sessionManager);
+			transactionManager.setBulkInsert(true);
 
 			BufferedReader buffer = null;
 			buffer = new BufferedReader(new FileReader(file));
@@ -128,6 +128,7 @@ public class CsvImportWizard extends Wizard implements IImportWizard {
 		 * the entire import as a single change for undo/redo purposes.
 		 */
 		transactionManager = new TransactionManager(sessionManager);
+		transactionManager.setBulkInsert(true);
 		session = transactionManager.getSession();
 		
 		/*
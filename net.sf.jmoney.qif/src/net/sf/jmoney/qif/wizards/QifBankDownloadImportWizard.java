@@ -164,6 +164,7 @@ public class QifBankDownloadImportWizard extends Wizard implements IImportWizard
 			 * the entire import as a single change for undo/redo purposes.
 			 */
 			TransactionManager transactionManager = new TransactionManager(session.getDataManager());
+			transactionManager.setBulkInsert(true);
 			Session sessionInTransaction = transactionManager.getSession();
 			CurrencyAccount accountInTransaction = transactionManager.getCopyInTransaction(currencyAccount);
 			
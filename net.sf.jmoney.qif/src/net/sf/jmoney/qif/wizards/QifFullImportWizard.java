@@ -126,6 +126,7 @@ public class QifFullImportWizard extends Wizard implements IImportWizard {
 			 * the entire import as a single change for undo/redo purposes.
 			 */
 			TransactionManager transactionManager = new TransactionManager(session.getDataManager());
+			transactionManager.setBulkInsert(true);
 			Session sessionInTransaction = transactionManager.getSession();
 			
 			IExtensionRegistry registry = Platform.getExtensionRegistry();
@@ -13,8 +13,8 @@ import net.sf.jmoney.model2.EntryInfo;
 import net.sf.jmoney.model2.Session;
 import net.sf.jmoney.model2.TransactionInfo;
 import net.sf.jmoney.search.IEntrySearch;
-import net.sf.jmoney.sqldirect.SQLEntriesStatement;
 import net.sf.jmoney.sqldirect.SqlDirectFactory;
+import net.sf.jmoney.sqldirect.SqlQuery;
 
 import org.eclipse.jface.resource.ImageDescriptor;
 
@@ -135,61 +135,29 @@ public class EntrySearch implements IEntrySearch {
 		 * if we can't.
 		 */
 		try {
-			String entryTableName = EntryInfo.getPropertySet().getId().replace('.', '_');
-			String transactionTableName = TransactionInfo.getPropertySet().getId().replace('.', '_');
-			
-			StringBuffer whereClause = new StringBuffer();
-			String separator = "";
-			
-			if (startDate != null) {
-				whereClause.append(separator);
-				whereClause.append("\"date\" >= ? ");
-				separator = "and ";
-			}
-			
-			if (endDate != null) {
-				whereClause.append(separator);
-				whereClause.append("\"date\" <= ? ");
-				separator = "and ";
-			}
-			
-			if (amount != null) {
-				whereClause.append(separator);
-				whereClause.append("abs(\"amount\") = ? ");
-				separator = "and ";
-			}
-			
-			if (memo != null) {
-				whereClause.append(separator);
-				whereClause.append("\"memo\" like ? ");
-				separator = "and ";
-			}
-			
-			if (whereClause.length() == 0) {
+			if (startDate == null && endDate == null && amount == null && memo == null) {
 				throw new SearchException("Query Failed.  No restriction has been entered.  You must have at least one restriction.", null);
 			}
 			
-			String sql = "SELECT * FROM " + entryTableName +
-				" join " + transactionTableName + " ON net_sf_jmoney_transaction.\"_ID\" = net_sf_jmoney_entry.\"net_sf_jmoney_transaction_entry\"" +
-				" WHERE " + whereClause + "order by \"date\"";
+			SqlQuery<Entry> query = SqlDirectFactory.createQuery(session, EntryInfo.getPropertySet());
+			query.joinParent(TransactionInfo.getEntriesAccessor());
 			
-			SQLEntriesStatement statement = SqlDirectFactory.getEntriesStatement(session, sql);
-
-			int index = 1;
 			if (startDate != null) {
-				statement.setDate(index++, new java.sql.Date(startDate.getTime()));
+				query.where(TransactionInfo.getDateAccessor(), SqlQuery.Operator.GREATER_OR_EQUAL, startDate);
 			}
 			if (endDate != null) {
-				statement.setDate(index++, new java.sql.Date(endDate.getTime()));
+				query.where(TransactionInfo.getDateAccessor(), SqlQuery.Operator.LESS_OR_EQUAL, endDate);
 			}
 			if (amount != null) {
-				statement.setLong(index++, amount);
+				query.whereAbsolute(EntryInfo.getAmountAccessor(), SqlQuery.Operator.EQUAL, amount);
 			}
 			if (memo != null) {
-				statement.setString(index++, "%" + memo + "%");
+				query.where(EntryInfo.getMemoAccessor(), SqlQuery.Operator.LIKE, "%" + memo + "%");
 			}
 			
-			entries = statement.execute();
+			query.orderBy(TransactionInfo.getDateAccessor(), false);
+			
+			entries = query.list();
 		} catch (SQLException e) {
 			throw new SearchException("An SQL Exception has occured.", e);
 		} catch (NoClassDefFoundError e) {
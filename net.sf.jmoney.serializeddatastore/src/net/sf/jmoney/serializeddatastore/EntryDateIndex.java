@@ -0,0 +1,338 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.serializeddatastore;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.Vector;
+
+/**
+ * The entries in an account ordered by the date of their transactions,
+ * together with the total of the amounts of the entries up to any date.
+ * <P>
+ * This class does not look at the entries. The date and amount are given
+ * when each entry is added, so the entries may be represented by keys to
+ * entries that have not yet been read from the session file.
+ * <P>
+ * The totals are kept in a Fenwick tree (binary indexed tree) that has a node
+ * for each day in a range of days. The total of the amounts between any two
+ * dates is found, and the tree updated when an entry is added, removed or
+ * changed, in time proportional to the logarithm of the number of days in the
+ * range. If an entry is dated outside the range then the tree is rebuilt to
+ * cover a larger range.
+ * <P>
+ * The range is never more than <code>MAXIMUM_TREE_DAYS</code> days. An entry
+ * with a date far from the others, such as a date mistyped by a century, is
+ * not put in the tree. The totals for the days outside the range are instead
+ * added up when needed. There should be few such days, so this is quick.
+ *
+ * @author Nigel Westbury
+ */
+public class EntryDateIndex<E> {
+
+	private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+	/**
+	 * The number of days beyond the date of an entry that are included when
+	 * the tree is rebuilt, so that the tree is not rebuilt for every entry
+	 * added in date order.
+	 */
+	private static final int RANGE_MARGIN = 366;
+
+	/**
+	 * The maximum number of days covered by the tree, being about a hundred
+	 * years.
+	 */
+	static final int MAXIMUM_TREE_DAYS = 100 * 366;
+
+	private class DayEntries {
+		/**
+		 * The entries on the day, in the order in which they were added.
+		 */
+		Vector<E> entries = new Vector<E>();
+		long total = 0;
+	}
+
+	/**
+	 * The day and amount with which an entry was indexed. These are kept
+	 * because the entry may have changed by the time it is removed.
+	 */
+	private static class IndexedEntry {
+		/**
+		 * The day, or null if the transaction has no date.
+		 */
+		Long day;
+		long amount;
+	}
+
+	private TreeMap<Long, DayEntries> entriesByDay = new TreeMap<Long, DayEntries>();
+
+	/**
+	 * Entries in transactions that have no date. These are not included in
+	 * any total.
+	 */
+	private Vector<E> undatedEntries = new Vector<E>();
+
+	private Map<E, IndexedEntry> indexedEntries = new HashMap<E, IndexedEntry>();
+
+	/**
+	 * The day of the first node in the tree.
+	 */
+	private long firstDay = 0;
+
+	/**
+	 * The Fenwick tree. Node i, where i is from 1, covers the days from
+	 * <code>i - (i & -i) + 1</code> to <code>i</code>, counting the first
+	 * day as day 1. Element 0 is not used.
+	 */
+	private long[] tree = new long[1];
+
+	/**
+	 * Adds an entry to this index.
+	 *
+	 * @param entry the entry, or a key to the entry
+	 * @param date the date of the transaction that contains the entry, which
+	 * 			may be null
+	 * @param amount the amount of the entry
+	 */
+	public void add(E entry, Date date, long amount) {
+		IndexedEntry indexedEntry = new IndexedEntry();
+		indexedEntry.amount = amount;
+		if (date == null) {
+			undatedEntries.add(entry);
+		} else {
+			long day = getDay(date);
+			indexedEntry.day = day;
+			DayEntries dayEntries = entriesByDay.get(day);
+			if (dayEntries == null) {
+				dayEntries = new DayEntries();
+				entriesByDay.put(day, dayEntries);
+			}
+			dayEntries.entries.add(entry);
+			dayEntries.total += amount;
+
+			if (isInTree(day)) {
+				addToTree(day, amount);
+			} else {
+				// The day totals already include the amount of this entry.
+				extendTree(day);
+			}
+		}
+		indexedEntries.put(entry, indexedEntry);
+	}
+
+	/**
+	 * Removes an entry from this index. Nothing is done if the entry is not
+	 * in this index.
+	 */
+	public void remove(E entry) {
+		IndexedEntry indexedEntry = indexedEntries.remove(entry);
+		if (indexedEntry == null) {
+			return;
+		}
+		if (indexedEntry.day == null) {
+			undatedEntries.remove(entry);
+		} else {
+			DayEntries dayEntries = entriesByDay.get(indexedEntry.day);
+			dayEntries.entries.remove(entry);
+			dayEntries.total -= indexedEntry.amount;
+			if (dayEntries.entries.isEmpty()) {
+				entriesByDay.remove(indexedEntry.day);
+			}
+			if (isInTree(indexedEntry.day)) {
+				addToTree(indexedEntry.day, -indexedEntry.amount);
+			}
+		}
+	}
+
+	/**
+	 * Updates the index after the amount of an entry, or the date of the
+	 * transaction containing the entry, has changed.
+	 *
+	 * @param date the date of the transaction that contains the entry, which
+	 * 			may be null
+	 * @param amount the amount of the entry
+	 */
+	public void update(E entry, Date date, long amount) {
+		remove(entry);
+		add(entry, date, amount);
+	}
+
+	/**
+	 * @param fromDate the first date, or null to include all entries up to
+	 * 			the second date
+	 * @param toDate the second date, or null to include all entries from
+	 * 			the first date
+	 * @return the total of the amounts of the entries between the given
+	 * 			dates, inclusive
+	 */
+	public long sumOfAmounts(Date fromDate, Date toDate) {
+		long total = getTotalToDay(toDate == null ? Long.MAX_VALUE : getDay(toDate));
+		if (fromDate != null) {
+			total -= getTotalToDay(getDay(fromDate) - 1);
+		}
+		return total;
+	}
+
+	/**
+	 * @return the total of the amounts of the entries on or after the first
+	 * 			date and before the second date
+	 */
+	public long sumOfAmountsBefore(Date fromDate, Date beforeDate) {
+		return getTotalToDay(getDay(beforeDate) - 1) - getTotalToDay(getDay(fromDate) - 1);
+	}
+
+	/**
+	 * @return the entries ordered by date, with the entries in transactions
+	 * 			that have no date coming first in ascending order and last in
+	 * 			descending order. Entries with the same date are in the order
+	 * 			in which they were added.
+	 */
+	public Vector<E> getEntries(boolean descending) {
+		Vector<E> entries = new Vector<E>(indexedEntries.size());
+		if (!descending) {
+			entries.addAll(undatedEntries);
+		}
+		Collection<DayEntries> days = descending
+			? entriesByDay.descendingMap().values()
+			: entriesByDay.values();
+		for (DayEntries dayEntries: days) {
+			entries.addAll(dayEntries.entries);
+		}
+		if (descending) {
+			entries.addAll(undatedEntries);
+		}
+		return entries;
+	}
+
+	private long getLastDay() {
+		return firstDay + tree.length - 2;
+	}
+
+	private boolean isInTree(long day) {
+		return day >= firstDay && day <= getLastDay();
+	}
+
+	private void addToTree(long day, long amount) {
+		int size = tree.length - 1;
+		for (int i = (int)(day - firstDay + 1); i <= size; i += i & -i) {
+			tree[i] += amount;
+		}
+	}
+
+	/**
+	 * @return the total of the amounts of the entries up to and including the
+	 * 			given day
+	 */
+	private long getTotalToDay(long day) {
+		long total = 0;
+
+		long lastDay = getLastDay();
+		if (day >= firstDay) {
+			int size = tree.length - 1;
+			for (int i = (day > lastDay) ? size : (int)(day - firstDay + 1); i > 0; i -= i & -i) {
+				total += tree[i];
+			}
+		}
+
+		// Add the days that are outside the range of the tree.
+		for (DayEntries dayEntries: entriesByDay.headMap(Math.min(day, firstDay - 1), true).values()) {
+			total += dayEntries.total;
+		}
+		if (day > lastDay) {
+			for (DayEntries dayEntries: entriesByDay.subMap(lastDay, false, day, true).values()) {
+				total += dayEntries.total;
+			}
+		}
+
+		return total;
+	}
+
+	/**
+	 * Called when an entry is added on a day that is not covered by the tree.
+	 * The tree is rebuilt to cover the day, as well as the days that are
+	 * already covered, if that does not make the tree too large. Otherwise
+	 * the tree is rebuilt to cover the days around the median day that has
+	 * entries, so that outlying days are not covered.
+	 */
+	private void extendTree(long day) {
+		long newFirstDay;
+		long newLastDay;
+		if (tree.length == 1) {
+			newFirstDay = day - RANGE_MARGIN;
+			newLastDay = day + RANGE_MARGIN;
+		} else {
+			newFirstDay = Math.min(firstDay, day - RANGE_MARGIN);
+			newLastDay = Math.max(getLastDay(), day + RANGE_MARGIN);
+		}
+
+		if (newLastDay - newFirstDay + 1 > MAXIMUM_TREE_DAYS) {
+			Iterator<Long> iter = entriesByDay.keySet().iterator();
+			for (int i = 0; i < entriesByDay.size() / 2; i++) {
+				iter.next();
+			}
+			long medianDay = iter.next();
+			newFirstDay = medianDay - MAXIMUM_TREE_DAYS / 2;
+			newLastDay = newFirstDay + MAXIMUM_TREE_DAYS - 1;
+			if (newFirstDay == firstDay && newLastDay == getLastDay()) {
+				// The day is an outlier and the tree is already in the best place.
+				return;
+			}
+		}
+
+		rebuildTree(newFirstDay, newLastDay);
+	}
+
+	/**
+	 * Rebuilds the tree to cover the given range of days.
+	 */
+	private void rebuildTree(long newFirstDay, long newLastDay) {
+		firstDay = newFirstDay;
+		int size = (int)(newLastDay - newFirstDay + 1);
+		tree = new long[size + 1];
+		for (Map.Entry<Long, DayEntries> mapEntry: entriesByDay.subMap(newFirstDay, true, newLastDay, true).entrySet()) {
+			tree[(int)(mapEntry.getKey() - firstDay + 1)] = mapEntry.getValue().total;
+		}
+		for (int i = 1; i <= size; i++) {
+			int parent = i + (i & -i);
+			if (parent <= size) {
+				tree[parent] += tree[i];
+			}
+		}
+	}
+
+	/**
+	 * @return the number of days from 1 January 1970 to the given date in
+	 * 			the default time zone
+	 */
+	private static long getDay(Date date) {
+		long millis = date.getTime();
+		millis += TimeZone.getDefault().getOffset(millis);
+		return (millis >= 0) ? millis / MILLIS_PER_DAY : (millis - MILLIS_PER_DAY + 1) / MILLIS_PER_DAY;
+	}
+}
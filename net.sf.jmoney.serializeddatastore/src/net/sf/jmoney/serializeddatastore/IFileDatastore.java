@@ -53,7 +53,13 @@ public interface IFileDatastore {
 	boolean readSession(File sessionFile, SessionManager sessionManager, IWorkbenchWindow window) throws OpenSessionException;
     
     /**
-     * Write data to a file
+     * Write data to a file.
+     * <P>
+     * If the file cannot be written then this method must display an
+     * appropriate error message.
+     * 
+     * @return true if the file was written, false if the user canceled the
+     *         operation or if a failure occurred
      */
-    void writeSession(SessionManager sessionManager, File sessionFile, IWorkbenchWindow window);
+    boolean writeSession(SessionManager sessionManager, File sessionFile, IWorkbenchWindow window);
 }
@@ -0,0 +1,113 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.serializeddatastore;
+
+import java.util.Collection;
+
+import net.sf.jmoney.model2.ExtendableObject;
+import net.sf.jmoney.model2.ExtendablePropertySet;
+import net.sf.jmoney.model2.ExtensionPropertySet;
+import net.sf.jmoney.model2.ListPropertyAccessor;
+import net.sf.jmoney.model2.ReferencePropertyAccessor;
+import net.sf.jmoney.model2.ScalarPropertyAccessor;
+
+/**
+ * Reads objects from a session file when they are first needed, rather than
+ * when the session is opened.
+ * <P>
+ * The methods other than <code>loadObject</code> read the objects from the
+ * file without constructing them. The contents of the file do not change, so
+ * these methods may be called on a thread other than the thread that makes
+ * changes to the session.
+ *
+ * @author Nigel Westbury
+ */
+public interface IObjectLoader {
+
+	/**
+	 * Constructs the object for the given key. The keys of the objects in the
+	 * lists owned by the object are added to the lists, but those objects are
+	 * not read until they too are needed.
+	 * <P>
+	 * Reading an object does not modify the session, so no changes are
+	 * recorded in the journal.
+	 *
+	 * @param key the key of the object
+	 * @param loaderId the id of the object that was given when the loader
+	 * 			was set into the key
+	 * @return the object
+	 */
+	ExtendableObject loadObject(SimpleObjectKey key, int loaderId);
+
+	/**
+	 * Reads the value of a property of an object without constructing the
+	 * object.
+	 *
+	 * @param loaderId the id of the object that was given when the loader
+	 * 			was set into the key
+	 * @return the value of the property, being the default value of the
+	 * 			property if the object has no value for the property
+	 */
+	<V> V getPropertyValue(int loaderId, ScalarPropertyAccessor<V> propertyAccessor);
+
+	/**
+	 * @return the key of the object with the given id
+	 */
+	SimpleObjectKey getKey(int loaderId);
+
+	/**
+	 * @return the id of the object that owns the list containing the given
+	 * 			object
+	 */
+	int getParentId(int loaderId);
+
+	/**
+	 * @return the list property that contains the given object
+	 */
+	ListPropertyAccessor<?> getParentList(int loaderId);
+
+	/**
+	 * @return the ids of the objects in the lists owned by the given object,
+	 * 			in the order in which they are in the lists
+	 */
+	int[] getChildIds(int loaderId);
+
+	/**
+	 * @return the property set of the given object
+	 */
+	ExtendablePropertySet<?> getPropertySet(int loaderId);
+
+	/**
+	 * Gets the object referenced by a property of an object without
+	 * constructing either object.
+	 *
+	 * @return the id of the referenced object, or -1 if the property is null
+	 */
+	int getReferencedId(int loaderId, ReferencePropertyAccessor<?> propertyAccessor);
+
+	/**
+	 * @return the extensions of the given object that have properties with
+	 * 			non-default values or that own objects in their lists
+	 */
+	Collection<ExtensionPropertySet<?>> getNonDefaultExtensions(int loaderId);
+}
@@ -0,0 +1,120 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.serializeddatastore;
+
+import java.util.AbstractCollection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+
+import net.sf.jmoney.model2.ExtendableObject;
+
+/**
+ * A list of objects that holds the keys of the objects rather than the
+ * objects themselves. An object is obtained from its key only when it is
+ * fetched from the list, so the list may contain objects that have not yet
+ * been read from the session file.
+ * <P>
+ * Objects are compared by key, so the objects in this list must have been
+ * created with a SimpleObjectKey.
+ *
+ * @author Nigel Westbury
+ */
+public class ObjectKeyList<E extends ExtendableObject> extends AbstractCollection<E> {
+
+	private Vector<SimpleObjectKey> keys = new Vector<SimpleObjectKey>();
+
+	/**
+	 * Adds the object with the given key without obtaining the object.
+	 */
+	public void addKey(SimpleObjectKey key) {
+		keys.add(key);
+	}
+
+	/**
+	 * @return the keys of the objects in this list, in the order of the list
+	 */
+	public List<SimpleObjectKey> getKeys() {
+		return Collections.unmodifiableList(keys);
+	}
+
+	@Override
+	public boolean add(E extendableObject) {
+		return keys.add((SimpleObjectKey)extendableObject.getObjectKey());
+	}
+
+	@Override
+	public boolean remove(Object object) {
+		return (object instanceof ExtendableObject)
+			&& keys.remove(((ExtendableObject)object).getObjectKey());
+	}
+
+	@Override
+	public boolean contains(Object object) {
+		return (object instanceof ExtendableObject)
+			&& keys.contains(((ExtendableObject)object).getObjectKey());
+	}
+
+	@Override
+	public int size() {
+		return keys.size();
+	}
+
+	@Override
+	public void clear() {
+		keys.clear();
+	}
+
+	@SuppressWarnings("unchecked")
+	public E get(int index) {
+		return (E)keys.get(index).getObject();
+	}
+
+	/**
+	 * @return the index of the last occurrence of the given object in this
+	 * 			list, or -1 if the object is not in this list
+	 */
+	public int lastIndexOf(ExtendableObject extendableObject) {
+		return keys.lastIndexOf(extendableObject.getObjectKey());
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		final Iterator<SimpleObjectKey> keyIterator = keys.iterator();
+		return new Iterator<E>() {
+			public boolean hasNext() {
+				return keyIterator.hasNext();
+			}
+
+			@SuppressWarnings("unchecked")
+			public E next() {
+				return (E)keyIterator.next().getObject();
+			}
+
+			public void remove() {
+				keyIterator.remove();
+			}
+		};
+	}
+}
@@ -0,0 +1,56 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.serializeddatastore;
+
+import org.eclipse.core.runtime.Preferences;
+import org.eclipse.core.runtime.preferences.AbstractPreferenceInitializer;
+
+/** 
+ * Initializes a preference store with default preference values 
+ * for this plug-in.
+ * <P>
+ * This class is an implementation class for the <code>initializer</code>
+ * element in the org.eclipse.core.runtime.preferences extension point.
+ *
+ * @author Nigel Westbury
+ */
+public class PreferenceInitializer extends AbstractPreferenceInitializer {
+
+	/**
+	 * The preference that gives the number of months of transactions,
+	 * counting back from the latest transaction, that are read when a
+	 * binary file is opened.  Zero means all transactions are read.
+	 */
+	public static final String EAGER_MONTHS = "eagerMonths"; //$NON-NLS-1$
+
+	public PreferenceInitializer() {
+		super();
+	}
+	
+	@Override
+	public void initializeDefaultPreferences() {
+		Preferences store = SerializedDatastorePlugin.getDefault().getPluginPreferences();
+		
+		store.setDefault(EAGER_MONTHS, 0);
+	}
+}
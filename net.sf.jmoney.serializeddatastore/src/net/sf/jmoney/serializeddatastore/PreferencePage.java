@@ -0,0 +1,61 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.serializeddatastore;
+
+import org.eclipse.jface.preference.FieldEditorPreferencePage;
+import org.eclipse.jface.preference.IntegerFieldEditor;
+import org.eclipse.ui.IWorkbench;
+import org.eclipse.ui.IWorkbenchPreferencePage;
+
+/**
+ * The preference page for the datastores that keep the session in a file.
+ * <P>
+ * The only preference at this time is the number of months of transactions
+ * that are read when a file is opened.  This applies to the binary format
+ * only.  Files in the XML formats are always read in full.
+ *
+ * @author Nigel Westbury
+ */
+public class PreferencePage
+extends FieldEditorPreferencePage
+implements IWorkbenchPreferencePage {
+
+	public PreferencePage() {
+		super(GRID);
+		setPreferenceStore(SerializedDatastorePlugin.getDefault().getPreferenceStore());
+		setDescription(Messages.PreferencePage_Description);
+	}
+
+	@Override
+	public void createFieldEditors() {
+		IntegerFieldEditor eagerMonthsEditor = new IntegerFieldEditor(
+				PreferenceInitializer.EAGER_MONTHS,
+				Messages.PreferencePage_EagerMonths,
+				getFieldEditorParent());
+		eagerMonthsEditor.setValidRange(0, 1200);
+		addField(eagerMonthsEditor);
+	}
+
+	public void init(IWorkbench workbench) {
+	}
+}
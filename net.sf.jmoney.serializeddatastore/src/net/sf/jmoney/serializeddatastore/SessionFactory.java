@@ -23,6 +23,7 @@
 package net.sf.jmoney.serializeddatastore;
 
 import java.io.File;
+import java.io.IOException;
 
 import net.sf.jmoney.JMoneyPlugin;
 import net.sf.jmoney.serializeddatastore.handlers.OpenSessionException;
@@ -67,6 +68,7 @@ public class SessionFactory implements IElementFactory {
 				boolean isGoodFileRead = fileDatastore.readSession(sessionFile,
 						sessionManager, window);
 				if (isGoodFileRead) {
+					sessionManager.replayJournal();
 					return sessionManager;
 				} else {
 					/*
@@ -82,6 +84,10 @@ public class SessionFactory implements IElementFactory {
 				 * Perhaps the file has been deleted, renamed, or moved.
 				 */
 				return null;
+			} catch (IOException e) {
+				// The journal could not be applied.
+				JMoneyPlugin.log(e);
+				return null;
 			}
 		} else {
 			/*
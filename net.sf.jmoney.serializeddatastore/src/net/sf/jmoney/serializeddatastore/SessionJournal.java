@@ -0,0 +1,642 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.serializeddatastore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+import net.sf.jmoney.JMoneyPlugin;
+import net.sf.jmoney.model2.ExtendableObject;
+import net.sf.jmoney.model2.ExtendablePropertySet;
+import net.sf.jmoney.model2.ExtensionPropertySet;
+import net.sf.jmoney.model2.ListKey;
+import net.sf.jmoney.model2.ListPropertyAccessor;
+import net.sf.jmoney.model2.PropertySet;
+import net.sf.jmoney.model2.PropertySetNotFoundException;
+import net.sf.jmoney.model2.ReferenceViolationException;
+import net.sf.jmoney.model2.ScalarPropertyAccessor;
+
+/**
+ * The journal of the changes made to a session since the session file was
+ * last written in full.
+ * <P>
+ * Writing the session file means writing every object in the session, which
+ * takes several seconds for a large session. When a session that was read
+ * from a file is saved, the changes made since the last save are instead
+ * appended to a journal file that is kept next to the session file. When the
+ * session is next opened, the session file is read and then the changes in
+ * the journal are applied. The session file is written in full, and the
+ * journal deleted, when the journal becomes large compared to the session
+ * file or when the session is saved to another file.
+ * <P>
+ * The changes are recorded as they are made to the datastore, and are
+ * written to the journal file only when the session is saved. Objects have
+ * no persistent ids in this datastore, so an object is identified by its
+ * path from the session, each step in the path being the list property and
+ * the position of the object in the list. The path is taken when the change
+ * is made. Because the changes are applied in the same order when the
+ * journal is read, the path identifies the same object at that point.
+ * <P>
+ * The journal file starts with a header that identifies the session file to
+ * which the journal applies, by its length and time stamp. If the session
+ * file has since been changed then the journal is out of date and is not
+ * applied. Each save appends a block of changes, followed by a checksum. A
+ * block that is incomplete, because the save was interrupted, is discarded.
+ *
+ * @author Nigel Westbury
+ */
+public class SessionJournal {
+
+	private static final int MAGIC = 0x4A4D4A4C;
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_LENGTH = 24;
+
+	/**
+	 * Returned when reading a journal whose header is not recognized.
+	 */
+	private static final long UNREADABLE = -1;
+
+	/**
+	 * Returned when reading a journal that is not for the session file as
+	 * it is now.
+	 */
+	private static final long STALE = -2;
+
+	private static final byte OBJECT_CREATED = 1;
+	private static final byte PROPERTIES_CHANGED = 2;
+	private static final byte OBJECT_DELETED = 3;
+	private static final byte OBJECT_MOVED = 4;
+
+	private static final byte NULL_VALUE = 0;
+	private static final byte TEXT_VALUE = 1;
+	private static final byte DATE_VALUE = 2;
+	private static final byte REFERENCE_VALUE = 3;
+
+	private SessionManager sessionManager;
+
+	/**
+	 * True if changes are being recorded. Changes are not recorded while a
+	 * session is being read or while the journal is being applied, nor
+	 * while the session has no session file from which a journal could be
+	 * applied.
+	 */
+	private boolean recording = false;
+
+	/**
+	 * The changes recorded since the last save.
+	 */
+	private ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
+
+	private DataOutputStream pending = new DataOutputStream(pendingBytes);
+
+	SessionJournal(SessionManager sessionManager) {
+		this.sessionManager = sessionManager;
+	}
+
+	/**
+	 * @return the journal file for the given session file
+	 */
+	public static File getJournalFile(File sessionFile) {
+		return new File(sessionFile.getPath() + ".journal"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Indicates whether a save can be done by appending to the journal.
+	 * The session file is written in full instead if the journal has become
+	 * more than half the size of the session file, so the time taken to open
+	 * the session is never dominated by applying the journal.
+	 */
+	boolean canAppend(File sessionFile) {
+		if (!recording || !sessionFile.exists()) {
+			return false;
+		}
+		long journalLength = getJournalFile(sessionFile).length() + pendingBytes.size();
+		return journalLength <= sessionFile.length() / 2;
+	}
+
+	/**
+	 * Appends the changes made since the last save to the journal file.
+	 */
+	void append(File sessionFile) throws IOException {
+		if (pendingBytes.size() == 0) {
+			return;
+		}
+
+		File journalFile = getJournalFile(sessionFile);
+		boolean isNewJournal = !journalFile.exists();
+
+		FileOutputStream fout = new FileOutputStream(journalFile, true);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout));
+			if (isNewJournal) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(sessionFile.length());
+				out.writeLong(sessionFile.lastModified());
+			}
+
+			byte[] block = pendingBytes.toByteArray();
+			CRC32 checksum = new CRC32();
+			checksum.update(block);
+			out.writeInt(block.length);
+			out.write(block);
+			out.writeLong(checksum.getValue());
+			out.flush();
+			fout.getFD().sync();
+		} finally {
+			fout.close();
+		}
+
+		pendingBytes.reset();
+	}
+
+	/**
+	 * Called after the session has been written in full to the given file.
+	 * The journal, if any, is deleted because the session file now contains
+	 * all the changes, and changes are recorded from now on.
+	 */
+	void sessionFileWritten(File sessionFile) {
+		File journalFile = getJournalFile(sessionFile);
+		if (journalFile.exists() && !journalFile.delete()) {
+			/*
+			 * This is not serious, because the journal no longer matches
+			 * the session file and so will be ignored.
+			 */
+			JMoneyPlugin.log(new IOException("Could not delete " + journalFile.getPath())); //$NON-NLS-1$
+		}
+
+		pendingBytes.reset();
+		recording = true;
+	}
+
+	/**
+	 * Called when a copy of the session is taken so that the copy can be
+	 * written to the session file in the background.
+	 *
+	 * @return a mark to be passed to <code>snapshotWritten</code>, being the
+	 * 			amount of the recorded changes that are in the copy, or -1
+	 * 			if changes are not being recorded
+	 */
+	int markSnapshot() {
+		return recording ? pendingBytes.size() : -1;
+	}
+
+	/**
+	 * Called after a copy of the session has been written in full to the
+	 * given file. The journal, if any, is deleted because the session file
+	 * now contains all the changes in it. The changes that were recorded
+	 * after the copy was taken are kept, so they are in the next block to be
+	 * appended to the new journal.
+	 * <P>
+	 * If changes were not being recorded when the copy was taken then any
+	 * changes made since cannot be appended, so changes are still not
+	 * recorded and the next save writes the session file in full.
+	 *
+	 * @param snapshotMark the value returned by <code>markSnapshot</code>
+	 * 			when the copy was taken
+	 */
+	void snapshotWritten(File sessionFile, int snapshotMark) {
+		if (snapshotMark == -1) {
+			return;
+		}
+
+		byte[] laterChanges = pendingBytes.toByteArray();
+		sessionFileWritten(sessionFile);
+		pendingBytes.write(laterChanges, snapshotMark, laterChanges.length - snapshotMark);
+	}
+
+	/**
+	 * Applies the changes in the journal for the given session file, if
+	 * there is one, to the session that has just been read from the session
+	 * file. Changes are recorded from now on.
+	 * <P>
+	 * A journal that is not a journal file, or that was written by a later
+	 * version, is not applied. Nor is a journal for the session file as it
+	 * was before it was changed by something other than this datastore, for
+	 * example by restoring a backup. The journal may then contain changes
+	 * that are not in the session file. The problem is logged and the
+	 * journal is renamed so that it is not lost and is not appended to.
+	 */
+	void replay(File sessionFile) throws IOException {
+		File journalFile = getJournalFile(sessionFile);
+		if (journalFile.exists()) {
+			long validLength = replay(sessionFile, journalFile);
+			if (validLength == UNREADABLE || validLength == STALE) {
+				String suffix = (validLength == UNREADABLE) ? ".unreadable" : ".stale"; //$NON-NLS-1$ //$NON-NLS-2$
+				File renamedFile = new File(journalFile.getPath() + suffix);
+				renamedFile.delete();
+				if (!journalFile.renameTo(renamedFile)) {
+					/*
+					 * Changes cannot be appended to this journal, so do not
+					 * record changes. The next save writes the session file
+					 * in full.
+					 */
+					JMoneyPlugin.log(new IOException("Could not rename " + journalFile.getPath())); //$NON-NLS-1$
+					pendingBytes.reset();
+					recording = false;
+					return;
+				}
+			} else if (validLength < journalFile.length()) {
+				/*
+				 * The last save was interrupted. The incomplete block must be
+				 * removed, otherwise the blocks appended by later saves could
+				 * not be read.
+				 */
+				RandomAccessFile file = new RandomAccessFile(journalFile, "rw"); //$NON-NLS-1$
+				try {
+					file.setLength(validLength);
+				} finally {
+					file.close();
+				}
+			}
+		}
+
+		pendingBytes.reset();
+		recording = true;
+	}
+
+	/**
+	 * @return the length of the valid part of the journal file,
+	 * 			<code>STALE</code> if the journal file is not for the given
+	 * 			session file, or <code>UNREADABLE</code> if the journal file
+	 * 			cannot be read by this version
+	 */
+	private long replay(File sessionFile, File journalFile) throws IOException {
+		long fileLength = journalFile.length();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+		try {
+			if (fileLength < HEADER_LENGTH) {
+				JMoneyPlugin.log(new IOException(journalFile.getPath() + " has no header")); //$NON-NLS-1$
+				return STALE;
+			}
+			if (in.readInt() != MAGIC) {
+				JMoneyPlugin.log(new IOException(journalFile.getPath() + " is not a journal file")); //$NON-NLS-1$
+				return UNREADABLE;
+			}
+			if (in.readInt() != VERSION) {
+				JMoneyPlugin.log(new IOException(journalFile.getPath() + " was written by a later version")); //$NON-NLS-1$
+				return UNREADABLE;
+			}
+			if (in.readLong() != sessionFile.length()
+					|| in.readLong() != sessionFile.lastModified()) {
+				JMoneyPlugin.log(new IOException(journalFile.getPath() + " is for an earlier version of " + sessionFile.getPath())); //$NON-NLS-1$
+				return STALE;
+			}
+
+			long validLength = HEADER_LENGTH;
+			while (true) {
+				byte[] block;
+				long storedChecksum;
+				try {
+					int length = in.readInt();
+					if (length < 0 || length > fileLength - validLength - 12) {
+						break;
+					}
+					block = new byte[length];
+					in.readFully(block);
+					storedChecksum = in.readLong();
+				} catch (EOFException e) {
+					break;
+				}
+
+				CRC32 checksum = new CRC32();
+				checksum.update(block);
+				if (checksum.getValue() != storedChecksum) {
+					break;
+				}
+
+				applyBlock(block);
+				validLength += block.length + 12;
+			}
+			return validLength;
+		} finally {
+			in.close();
+		}
+	}
+
+	private void applyBlock(byte[] block) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(block));
+		while (in.available() > 0) {
+			byte operation = in.readByte();
+			switch (operation) {
+			case OBJECT_CREATED:
+				applyObjectCreated(in);
+				break;
+			case PROPERTIES_CHANGED:
+				readPropertyValues(in, readPath(in));
+				break;
+			case OBJECT_DELETED:
+				applyObjectDeleted(in);
+				break;
+			case OBJECT_MOVED:
+				applyObjectMoved(in);
+				break;
+			default:
+				throw new IOException("Journal contains an unknown operation"); //$NON-NLS-1$
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void applyObjectCreated(DataInputStream in) throws IOException {
+		ExtendableObject parent = readPath(in);
+		ListPropertyAccessor listAccessor = getListProperty(parent, in.readUTF());
+		String propertySetId = in.readUTF();
+		ExtendablePropertySet<?> propertySet;
+		try {
+			propertySet = PropertySet.getExtendablePropertySet(propertySetId);
+		} catch (PropertySetNotFoundException e) {
+			throw new IOException("Journal contains an object of unknown type " + propertySetId); //$NON-NLS-1$
+		}
+
+		ExtendableObject newObject = parent.getListPropertyValue(listAccessor).createNewElement(propertySet);
+		readPropertyValues(in, newObject);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void applyObjectDeleted(DataInputStream in) throws IOException {
+		ExtendableObject extendableObject = readPath(in);
+		ListKey listKey = extendableObject.getParentListKey();
+		try {
+			listKey.getParentKey().getObject().getListPropertyValue(listKey.getListPropertyAccessor()).deleteElement(extendableObject);
+		} catch (ReferenceViolationException e) {
+			throw new IOException("Journal deletes an object that is referenced"); //$NON-NLS-1$
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void applyObjectMoved(DataInputStream in) throws IOException {
+		ExtendableObject extendableObject = readPath(in);
+		ExtendableObject newParent = readPath(in);
+		ListPropertyAccessor listAccessor = getListProperty(newParent, in.readUTF());
+		newParent.getListPropertyValue(listAccessor).moveElement(extendableObject);
+	}
+
+	private ListPropertyAccessor<?> getListProperty(ExtendableObject parent, String listPropertyId) throws IOException {
+		ListPropertyAccessor<?> listAccessor = PropertySet.getPropertySet(parent.getClass()).getListProperty(listPropertyId);
+		if (listAccessor == null) {
+			throw new IOException("Journal contains an unknown list property " + listPropertyId); //$NON-NLS-1$
+		}
+		return listAccessor;
+	}
+
+	/**
+	 * Records the creation of an object. This must be called after the object
+	 * has been added to its list.
+	 */
+	void objectCreated(ExtendableObject newObject) {
+		if (!recording) {
+			return;
+		}
+
+		try {
+			ListKey<?> listKey = newObject.getParentListKey();
+			pending.writeByte(OBJECT_CREATED);
+			writePath(pending, listKey.getParentKey().getObject());
+			pending.writeUTF(listKey.getListPropertyAccessor().getName());
+			pending.writeUTF(PropertySet.getPropertySet(newObject.getClass()).getId());
+
+			/*
+			 * All the property values are written, not just those that were
+			 * set, because some default values, such as dates, depend on
+			 * when the object is created.
+			 */
+			ExtendablePropertySet<?> propertySet = PropertySet.getPropertySet(newObject.getClass());
+			Vector<ScalarPropertyAccessor<?>> properties = new Vector<ScalarPropertyAccessor<?>>();
+			for (ScalarPropertyAccessor<?> propertyAccessor: propertySet.getScalarProperties3()) {
+				PropertySet<?> propertySet2 = propertyAccessor.getPropertySet();
+				if (!propertySet2.isExtension()
+						|| newObject.getExtension((ExtensionPropertySet<?>)propertySet2, false) != null) {
+					properties.add(propertyAccessor);
+				}
+			}
+			pending.writeInt(properties.size());
+			for (ScalarPropertyAccessor<?> propertyAccessor: properties) {
+				pending.writeUTF(propertyAccessor.getName());
+				writeValue(pending, newObject.getPropertyValue(propertyAccessor));
+			}
+		} catch (IOException e) {
+			// Writes to a byte array do not fail.
+			throw new RuntimeException("internal error", e); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Records changes to the property values of an object. The values are
+	 * given in the order of <code>getScalarProperties3</code>.
+	 */
+	void propertiesChanged(ExtendableObject extendableObject, ExtendablePropertySet<?> propertySet, Object[] oldValues, Object[] newValues) {
+		if (!recording) {
+			return;
+		}
+
+		try {
+			Vector<ScalarPropertyAccessor<?>> properties = new Vector<ScalarPropertyAccessor<?>>();
+			Vector<Object> values = new Vector<Object>();
+			int i = 0;
+			for (ScalarPropertyAccessor<?> propertyAccessor: propertySet.getScalarProperties3()) {
+				if (!JMoneyPlugin.areEqual(oldValues[i], newValues[i])) {
+					properties.add(propertyAccessor);
+					values.add(newValues[i]);
+				}
+				i++;
+			}
+
+			if (!properties.isEmpty()) {
+				pending.writeByte(PROPERTIES_CHANGED);
+				writePath(pending, extendableObject);
+				pending.writeInt(properties.size());
+				for (int j = 0; j < properties.size(); j++) {
+					pending.writeUTF(properties.get(j).getName());
+					writeValue(pending, values.get(j));
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("internal error", e); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Records the deletion of an object. This must be called before the
+	 * object is removed from its list.
+	 */
+	void objectDeleted(ExtendableObject extendableObject) {
+		if (!recording) {
+			return;
+		}
+
+		try {
+			pending.writeByte(OBJECT_DELETED);
+			writePath(pending, extendableObject);
+		} catch (IOException e) {
+			throw new RuntimeException("internal error", e); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Records the move of an object to another list. This must be called
+	 * before the object is removed from its original list.
+	 */
+	void objectMoved(ExtendableObject extendableObject, ListKey<?> newListKey) {
+		if (!recording) {
+			return;
+		}
+
+		try {
+			pending.writeByte(OBJECT_MOVED);
+			writePath(pending, extendableObject);
+			writePath(pending, newListKey.getParentKey().getObject());
+			pending.writeUTF(newListKey.getListPropertyAccessor().getName());
+		} catch (IOException e) {
+			throw new RuntimeException("internal error", e); //$NON-NLS-1$
+		}
+	}
+
+	private void writePath(DataOutputStream out, ExtendableObject extendableObject) throws IOException {
+		Vector<ExtendableObject> ancestors = new Vector<ExtendableObject>();
+		for (ExtendableObject object = extendableObject; object.getParentListKey() != null; object = object.getParentListKey().getParentKey().getObject()) {
+			ancestors.add(object);
+		}
+
+		out.writeInt(ancestors.size());
+		for (int i = ancestors.size() - 1; i >= 0; i--) {
+			ExtendableObject object = ancestors.get(i);
+			ListKey<?> listKey = object.getParentListKey();
+			SimpleListManager<?> list = ((SimpleObjectKey)listKey.getParentKey()).getListManager(listKey.getListPropertyAccessor());
+			out.writeUTF(listKey.getListPropertyAccessor().getName());
+			// Changes are most often made to recently added objects.
+			out.writeInt(list.lastIndexOf(object));
+		}
+	}
+
+	private ExtendableObject readPath(DataInputStream in) throws IOException {
+		ExtendableObject object = sessionManager.getSession();
+		int depth = in.readInt();
+		for (int i = 0; i < depth; i++) {
+			ListPropertyAccessor<?> listAccessor = getListProperty(object, in.readUTF());
+			int index = in.readInt();
+			SimpleListManager<?> list = ((SimpleObjectKey)object.getObjectKey()).getListManager(listAccessor);
+			if (list == null || index < 0 || index >= list.size()) {
+				throw new IOException("Journal does not match the session file"); //$NON-NLS-1$
+			}
+			object = list.get(index);
+		}
+		return object;
+	}
+
+	/**
+	 * Writes a property value. Values other than dates and references are
+	 * written as text, as in the XML format, and read back using the
+	 * constructor that takes a string.
+	 */
+	private void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL_VALUE);
+		} else if (value instanceof ExtendableObject) {
+			out.writeByte(REFERENCE_VALUE);
+			writePath(out, (ExtendableObject)value);
+		} else if (value instanceof Date) {
+			out.writeByte(DATE_VALUE);
+			out.writeLong(((Date)value).getTime());
+		} else {
+			out.writeByte(TEXT_VALUE);
+			byte[] bytes = value.toString().getBytes("UTF-8"); //$NON-NLS-1$
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readPropertyValues(DataInputStream in, ExtendableObject extendableObject) throws IOException {
+		ExtendablePropertySet<?> propertySet = PropertySet.getPropertySet(extendableObject.getClass());
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			String propertyId = in.readUTF();
+			ScalarPropertyAccessor propertyAccessor = propertySet.getScalarProperty(propertyId);
+			Object value = readValue(in, propertyAccessor);
+
+			/*
+			 * Values of properties that are no longer known, because the
+			 * plug-in that added them is no longer installed, are ignored,
+			 * as they are when the session file is read.
+			 */
+			if (propertyAccessor != null) {
+				extendableObject.setPropertyValue(propertyAccessor, value);
+			}
+		}
+	}
+
+	private Object readValue(DataInputStream in, ScalarPropertyAccessor<?> propertyAccessor) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case NULL_VALUE:
+			return null;
+		case REFERENCE_VALUE:
+			return readPath(in);
+		case DATE_VALUE:
+			return new Date(in.readLong());
+		case TEXT_VALUE:
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			String text = new String(bytes, "UTF-8"); //$NON-NLS-1$
+			return propertyAccessor == null ? null : parseValue(propertyAccessor.getClassOfValueObject(), text);
+		default:
+			throw new IOException("Journal contains an unknown value type"); //$NON-NLS-1$
+		}
+	}
+
+	private Object parseValue(Class<?> valueClass, String text) throws IOException {
+		if (valueClass == String.class) {
+			return text;
+		} else if (valueClass == Integer.class) {
+			return new Integer(text);
+		} else if (valueClass == Long.class) {
+			return new Long(text);
+		} else if (valueClass == Boolean.class) {
+			return new Boolean(text);
+		} else if (valueClass == Character.class) {
+			return new Character(text.charAt(0));
+		} else {
+			try {
+				return valueClass.getConstructor(new Class[] { String.class }).newInstance(new Object[] { text });
+			} catch (Exception e) {
+				throw new IOException("Journal value cannot be converted to " + valueClass.getName()); //$NON-NLS-1$
+			}
+		}
+	}
+}
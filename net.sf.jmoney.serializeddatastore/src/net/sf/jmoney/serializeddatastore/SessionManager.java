@@ -25,24 +25,44 @@ package net.sf.jmoney.serializeddatastore;
 
 import java.io.File;
 import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Vector;
 
+import net.sf.jmoney.JMoneyPlugin;
 import net.sf.jmoney.model2.Account;
+import net.sf.jmoney.model2.AccountInfo;
+import net.sf.jmoney.model2.CapitalAccount;
+import net.sf.jmoney.model2.CurrencyAccount;
 import net.sf.jmoney.model2.DatastoreManager;
 import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.EntryInfo;
+import net.sf.jmoney.model2.IEntryQueries;
+import net.sf.jmoney.model2.PropertyAccessor;
+import net.sf.jmoney.model2.ScalarPropertyAccessor;
 import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.model2.TransactionInfo;
+import net.sf.jmoney.serializeddatastore.formats.AbstractFileDatastore;
 
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IConfigurationElement;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.dialogs.IDialogConstants;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.BusyIndicator;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.FileDialog;
 import org.eclipse.ui.IMemento;
 import org.eclipse.ui.IPersistableElement;
@@ -53,7 +73,7 @@ import org.eclipse.ui.IWorkbenchWindow;
  * datastore implementation must provide an implementation of the
  * ISessionManager interface.
  */
-public class SessionManager extends DatastoreManager {
+public class SessionManager extends DatastoreManager implements IEntryQueries {
 
 	Session session = null;
 
@@ -65,7 +85,38 @@ public class SessionManager extends DatastoreManager {
 
 	boolean modified = false;
 
-	Map<Account, Collection<Entry>> accountEntriesListsMap = new HashMap<Account, Collection<Entry>>();
+	/**
+	 * The number of changes made to the session. This is used to tell
+	 * whether the session was changed while a copy of the session was being
+	 * written in the background.
+	 */
+	private int changeCount = 0;
+
+	/**
+	 * The save that is writing the session file in the background, or null
+	 * if no such save is in progress.
+	 */
+	private BackgroundSave backgroundSave = null;
+
+	/**
+	 * True if the user asked for the session to be saved while a background
+	 * save was in progress, in which case the session is saved again when the
+	 * background save completes.
+	 */
+	private boolean saveRequested = false;
+
+	SessionJournal journal = new SessionJournal(this);
+
+	Map<Account, ObjectKeyList<Entry>> accountEntriesListsMap = new HashMap<Account, ObjectKeyList<Entry>>();
+
+	/**
+	 * The date indexes of the entries in each account. An index is built when
+	 * first needed by a query and is then kept up to date as entries are
+	 * added, removed and changed. The indexes hold the keys of the entries so
+	 * that entries that have not yet been read from the session file are not
+	 * read when an index is built.
+	 */
+	Map<Account, EntryDateIndex<SimpleObjectKey>> entryIndexes = new HashMap<Account, EntryDateIndex<SimpleObjectKey>>();
 
 	/**
 	 * Construct the session manager.
@@ -122,6 +173,25 @@ public class SessionManager extends DatastoreManager {
 		 */
 	}
 
+	/**
+	 * @return the journal in which changes to the session are recorded
+	 */
+	SessionJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Applies the changes in the journal file, if any, to the session that
+	 * has just been read from the session file. This must be called after
+	 * the session has been read and before any changes are made to it.
+	 */
+	public void replayJournal() throws IOException {
+		journal.replay(sessionFile);
+
+		// The session now matches what is on disk.
+		modified = false;
+	}
+
 	private boolean isModified() {
 		return modified;
 	}
@@ -133,6 +203,7 @@ public class SessionManager extends DatastoreManager {
 	 */
 	void setModified() {
 		modified = true;
+		changeCount++;
 	}
 
 	boolean requestSave(IWorkbenchWindow window) {
@@ -149,6 +220,7 @@ public class SessionManager extends DatastoreManager {
 		switch (answer) {
 		case 0: // YES
 			saveSession(window);
+			waitForBackgroundSave();
 			return true;
 		case 1: // NO
 			return true;
@@ -163,11 +235,165 @@ public class SessionManager extends DatastoreManager {
 	 * Saves the session in the selected file.
 	 */
 	public void saveSession(IWorkbenchWindow window) {
-		if (getFile() == null) {
+		if (backgroundSave != null) {
+			saveRequested = true;
+		} else if (getFile() == null) {
 			saveSessionAs(window);
+		} else if (journal.canAppend(getFile())) {
+			/*
+			 * Only the changes made since the last save are written, being
+			 * appended to the journal.
+			 */
+			try {
+				journal.append(getFile());
+				modified = false;
+			} catch (IOException e) {
+				JMoneyPlugin.log(e);
+				startBackgroundSave(window);
+			}
 		} else {
-			fileDatastore.writeSession(this, getFile(), window);
+			startBackgroundSave(window);
+		}
+	}
+
+	/**
+	 * Writes the entire session to the session file on a background thread,
+	 * so the user can continue to make changes while the file is written.
+	 * A copy of the session is taken and it is the copy that is written.
+	 * <P>
+	 * If the file format does not support writing in the background then
+	 * the file is written before this method returns.
+	 */
+	private void startBackgroundSave(IWorkbenchWindow window) {
+		if (!(fileDatastore instanceof AbstractFileDatastore)) {
+			writeSessionFile(getFile(), window);
+			return;
+		}
+
+		SessionManager snapshot = SessionSnapshot.takeSnapshot(this);
+		backgroundSave = new BackgroundSave(snapshot, getFile(), window);
+		backgroundSave.schedule();
+	}
+
+	/**
+	 * Called on the user interface thread when a background save has
+	 * finished writing the file.
+	 */
+	private void backgroundSaveDone(BackgroundSave save) {
+		if (backgroundSave != save) {
+			// Already completed by waitForBackgroundSave.
+			return;
+		}
+		backgroundSave = null;
+
+		if (save.failure == null) {
+			if (changeCount == save.changeCount) {
+				journal.sessionFileWritten(save.file);
+				modified = false;
+			} else {
+				// The session remains modified by the changes made since
+				// the copy was taken.
+				journal.snapshotWritten(save.file, save.journalMark);
+			}
+		} else {
+			JMoneyPlugin.log(save.failure);
+			((AbstractFileDatastore)fileDatastore).fileWriteError(save.file, save.window);
+		}
+
+		if (saveRequested) {
+			saveRequested = false;
+			if (modified) {
+				saveSession(save.window);
+			}
+		}
+	}
+
+	/**
+	 * Waits until any save in progress in the background has finished
+	 * writing the file. This must be called on the user interface thread
+	 * before the session is closed.
+	 */
+	private void waitForBackgroundSave() {
+		while (backgroundSave != null) {
+			final BackgroundSave save = backgroundSave;
+			BusyIndicator.showWhile(Display.getCurrent(), new Runnable() {
+				public void run() {
+					try {
+						save.join();
+					} catch (InterruptedException e) {
+						// Check again
+					}
+				}
+			});
+			if (save.getResult() != null) {
+				backgroundSaveDone(save);
+			}
+		}
+	}
+
+	/**
+	 * The job that writes a copy of the session to the session file.
+	 */
+	private class BackgroundSave extends Job {
+		private SessionManager snapshot;
+		private File file;
+		private IWorkbenchWindow window;
+		private Display display;
+		private int changeCount;
+		private int journalMark;
+		private Exception failure = null;
+
+		BackgroundSave(SessionManager snapshot, File file, IWorkbenchWindow window) {
+			super(MessageFormat.format(Messages.JMoneyXmlFormat_SavingFile, file));
+			this.snapshot = snapshot;
+			this.file = file;
+			this.window = window;
+			this.display = Display.getCurrent();
+			this.changeCount = SessionManager.this.changeCount;
+			this.journalMark = journal.markSnapshot();
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			monitor.beginTask(getName(), IProgressMonitor.UNKNOWN);
+			try {
+				((AbstractFileDatastore)fileDatastore).writeSessionReplacingFile(snapshot, file, monitor);
+			} catch (Exception e) {
+				failure = e;
+			} finally {
+				monitor.done();
+			}
+
+			if (!display.isDisposed()) {
+				display.asyncExec(new Runnable() {
+					public void run() {
+						backgroundSaveDone(BackgroundSave.this);
+					}
+				});
+			}
+
+			/*
+			 * Errors are reported to the user by backgroundSaveDone, so the
+			 * job always returns OK.
+			 */
+			return Status.OK_STATUS;
+		}
+	}
+
+	/**
+	 * Writes the entire session to the given file, which also compacts the
+	 * journal because the journal is then no longer needed.
+	 * 
+	 * @return true if the file was written, false if it could not be
+	 *         written, in which case the user has been told
+	 */
+	private boolean writeSessionFile(File file, IWorkbenchWindow window) {
+		if (fileDatastore.writeSession(this, file, window)) {
+			journal.sessionFileWritten(file);
 			modified = false;
+			return true;
+		} else {
+			return false;
 		}
 	}
 
@@ -180,6 +406,8 @@ public class SessionManager extends DatastoreManager {
 	 *            the workbench window to be used for UI
 	 */
 	public void saveSessionAs(IWorkbenchWindow window) {
+		waitForBackgroundSave();
+
 		File newSessionFile = obtainFileName(window);
 		if (newSessionFile != null) {
 			String fileName = newSessionFile.getName();
@@ -216,13 +444,12 @@ public class SessionManager extends DatastoreManager {
 			// Note that we do not set the new session file until the file is
 			// successfully written. If the file cannot be written to the new
 			// file then we must leave the old file as the current file.
-			fileDatastore.writeSession(this, newSessionFile, window);
-			this.sessionFile = newSessionFile;
-			//Update the title
-			String productName = Platform.getProduct().getName();
-			window.getShell().setText(productName+" - "+getBriefDescription()); //$NON-NLS-1$
-
-			modified = false;
+			if (writeSessionFile(newSessionFile, window)) {
+				this.sessionFile = newSessionFile;
+				//Update the title
+				String productName = Platform.getProduct().getName();
+				window.getShell().setText(productName+" - "+getBriefDescription()); //$NON-NLS-1$
+			}
 		}
 	}
 
@@ -267,6 +494,8 @@ public class SessionManager extends DatastoreManager {
 
 	@Override
 	public boolean canClose(IWorkbenchWindow window) {
+		waitForBackgroundSave();
+
 		if (isModified()) {
 			return requestSave(window);
 		} else {
@@ -276,8 +505,9 @@ public class SessionManager extends DatastoreManager {
 
 	@Override
 	public void close() {
-		// There is nothing to do here. No files, connections or other resources
-		// are kept open so there is nothing to close.
+		// No files, connections or other resources are kept open so there
+		// is nothing to close, but any save in progress must first finish.
+		waitForBackgroundSave();
 	}
 
 	@Override
@@ -324,6 +554,9 @@ public class SessionManager extends DatastoreManager {
 		if (adapter == IPersistableElement.class) {
 			return persistableElement;
 		}
+		if (adapter == IEntryQueries.class) {
+			return this;
+		}
 		return null;
 	}
 
@@ -335,6 +568,38 @@ public class SessionManager extends DatastoreManager {
 		Collection<Entry> accountEntriesList = accountEntriesListsMap
 				.get(account);
 		accountEntriesList.add(entry);
+
+		EntryDateIndex<SimpleObjectKey> index = entryIndexes.get(account);
+		if (index != null) {
+			index.add((SimpleObjectKey)entry.getObjectKey(), entry.getTransaction().getDate(), entry.getAmount());
+		}
+	}
+
+	/**
+	 * Adds an entry that may not yet have been read from the session file.
+	 * 
+	 * @param account
+	 * @param entryKey
+	 */
+	public void addEntryKeyToList(Account account, SimpleObjectKey entryKey) {
+		ObjectKeyList<Entry> accountEntriesList = accountEntriesListsMap
+				.get(account);
+		accountEntriesList.addKey(entryKey);
+
+		EntryDateIndex<SimpleObjectKey> index = entryIndexes.get(account);
+		if (index != null) {
+			addEntryKeyToIndex(index, entryKey);
+		}
+	}
+
+	/**
+	 * Adds an entry to a date index using the values in the session file if
+	 * the entry has not yet been read, so that the entry is not read.
+	 */
+	private void addEntryKeyToIndex(EntryDateIndex<SimpleObjectKey> index, SimpleObjectKey entryKey) {
+		Date date = entryKey.getParentKey().getPropertyValue(TransactionInfo.getDateAccessor());
+		Long amount = entryKey.getPropertyValue(EntryInfo.getAmountAccessor());
+		index.add(entryKey, date, (amount == null) ? 0 : amount);
 	}
 
 	/**
@@ -345,6 +610,27 @@ public class SessionManager extends DatastoreManager {
 		Collection<Entry> accountEntriesList = accountEntriesListsMap
 				.get(account);
 		accountEntriesList.remove(entry);
+
+		EntryDateIndex<SimpleObjectKey> index = entryIndexes.get(account);
+		if (index != null) {
+			index.remove((SimpleObjectKey)entry.getObjectKey());
+		}
+	}
+
+	/**
+	 * Updates the date index of the account of an entry after the amount of
+	 * the entry, or the date of its transaction, has changed.
+	 * 
+	 * @param entry
+	 * @param date the date of the transaction that contains the entry
+	 */
+	void updateEntryIndex(Entry entry, Date date) {
+		if (entry.getAccount() != null) {
+			EntryDateIndex<SimpleObjectKey> index = entryIndexes.get(entry.getAccount());
+			if (index != null) {
+				index.update((SimpleObjectKey)entry.getObjectKey(), date, entry.getAmount());
+			}
+		}
 	}
 
 	/**
@@ -352,7 +638,7 @@ public class SessionManager extends DatastoreManager {
 	 */
 	public void addAccountList(Account account) {
 		Assert.isTrue(!accountEntriesListsMap.containsKey(account));
-		accountEntriesListsMap.put(account, new Vector<Entry>());
+		accountEntriesListsMap.put(account, new ObjectKeyList<Entry>());
 	}
 
 	/**
@@ -361,6 +647,7 @@ public class SessionManager extends DatastoreManager {
 	public void removeAccountList(Account account) {
 		Assert.isTrue(accountEntriesListsMap.containsKey(account));
 		accountEntriesListsMap.remove(account);
+		entryIndexes.remove(account);
 	}
 
 	@Override
@@ -377,6 +664,108 @@ public class SessionManager extends DatastoreManager {
 		return Collections.unmodifiableCollection(entriesList);
 	}
 
+	private EntryDateIndex<SimpleObjectKey> getEntryIndex(Account account) {
+		EntryDateIndex<SimpleObjectKey> index = entryIndexes.get(account);
+		if (index == null) {
+			ObjectKeyList<Entry> entriesList = accountEntriesListsMap.get(account);
+			Assert.isNotNull(entriesList);
+			index = new EntryDateIndex<SimpleObjectKey>();
+			for (SimpleObjectKey entryKey: entriesList.getKeys()) {
+				addEntryKeyToIndex(index, entryKey);
+			}
+			entryIndexes.put(account, index);
+		}
+		return index;
+	}
+
+	public long sumOfAmounts(CurrencyAccount account, Date fromDate, Date toDate) {
+		return getEntryIndex(account).sumOfAmounts(fromDate, toDate);
+	}
+
+	public Collection<Entry> getSortedEntries(CapitalAccount account, PropertyAccessor sortProperty, boolean descending) {
+		if (sortProperty == TransactionInfo.getDateAccessor()) {
+			ObjectKeyList<Entry> sortedEntries = new ObjectKeyList<Entry>();
+			for (SimpleObjectKey entryKey: getEntryIndex(account).getEntries(descending)) {
+				sortedEntries.addKey(entryKey);
+			}
+			return Collections.unmodifiableCollection(sortedEntries);
+		}
+
+		Vector<Entry> sortedEntries = new Vector<Entry>(getEntries(account));
+
+		final ScalarPropertyAccessor<?> scalarSortProperty = (ScalarPropertyAccessor<?>)sortProperty;
+		Comparator<Entry> entryComparator;
+		if (sortProperty.getPropertySet() == EntryInfo.getPropertySet()) {
+			entryComparator = new Comparator<Entry>() {
+				public int compare(Entry entry1, Entry entry2) {
+					return scalarSortProperty.getComparator().compare(entry1, entry2);
+				}
+			};
+		} else if (sortProperty.getPropertySet() == TransactionInfo.getPropertySet()) {
+			entryComparator = new Comparator<Entry>() {
+				public int compare(Entry entry1, Entry entry2) {
+					return scalarSortProperty.getComparator().compare(entry1.getTransaction(), entry2.getTransaction());
+				}
+			};
+		} else if (sortProperty.getPropertySet() == AccountInfo.getPropertySet()) {
+			entryComparator = new Comparator<Entry>() {
+				public int compare(Entry entry1, Entry entry2) {
+					return scalarSortProperty.getComparator().compare(entry1.getAccount(), entry2.getAccount());
+				}
+			};
+		} else {
+			throw new RuntimeException("given property cannot be used for entry sorting"); //$NON-NLS-1$
+		}
+
+		if (descending) {
+			final Comparator<Entry> ascendingComparator = entryComparator;
+			entryComparator = new Comparator<Entry>() {
+				public int compare(Entry entry1, Entry entry2) {
+					return ascendingComparator.compare(entry2, entry1);
+				}
+			};
+		}
+
+		Collections.sort(sortedEntries, entryComparator);
+
+		return Collections.unmodifiableCollection(sortedEntries);
+	}
+
+	public long[] getEntryTotalsByMonth(CapitalAccount account, int startYear, int startMonth, int numberOfMonths, boolean includeSubAccounts) {
+		Vector<EntryDateIndex<SimpleObjectKey>> indexes = new Vector<EntryDateIndex<SimpleObjectKey>>();
+		indexes.add(getEntryIndex(account));
+		if (includeSubAccounts) {
+			addIndexesOfSubAccounts(account, indexes);
+		}
+
+		long [] totals = new long[numberOfMonths];
+
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.setLenient(false);
+		calendar.set(startYear, startMonth - 1, 1, 0, 0, 0);
+		Date startOfMonth = calendar.getTime();
+		for (int i = 0; i < numberOfMonths; i++) {
+			calendar.add(Calendar.MONTH, 1);
+			Date endOfMonth = calendar.getTime();
+
+			for (EntryDateIndex<SimpleObjectKey> index: indexes) {
+				totals[i] += index.sumOfAmountsBefore(startOfMonth, endOfMonth);
+			}
+
+			startOfMonth = endOfMonth;
+		}
+
+		return totals;
+	}
+
+	private void addIndexesOfSubAccounts(CapitalAccount account, Vector<EntryDateIndex<SimpleObjectKey>> indexes) {
+		for (CapitalAccount subAccount: account.getSubAccountCollection()) {
+			indexes.add(getEntryIndex(subAccount));
+			addIndexesOfSubAccounts(subAccount, indexes);
+		}
+	}
+
 	@Override
 	public void startTransaction() {
 		// Nothing to do
@@ -0,0 +1,313 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.serializeddatastore;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.jmoney.model2.ExtendableObject;
+import net.sf.jmoney.model2.ExtendablePropertySet;
+import net.sf.jmoney.model2.ExtensionPropertySet;
+import net.sf.jmoney.model2.IListManager;
+import net.sf.jmoney.model2.IObjectKey;
+import net.sf.jmoney.model2.IValues;
+import net.sf.jmoney.model2.ListKey;
+import net.sf.jmoney.model2.ListPropertyAccessor;
+import net.sf.jmoney.model2.PropertySet;
+import net.sf.jmoney.model2.ReferencePropertyAccessor;
+import net.sf.jmoney.model2.ScalarPropertyAccessor;
+import net.sf.jmoney.model2.Session;
+
+import org.eclipse.core.runtime.Assert;
+
+/**
+ * A copy of a session that is not changed when the session is changed, so
+ * that the copy can be written to file by a background thread while the user
+ * continues to make changes to the session.
+ * <P>
+ * The copy is made in the same way that the file formats read a session,
+ * constructing each object from the values in the original object. No
+ * change events are fired and nothing is recorded in the journal.
+ * <P>
+ * The objects that have been read into memory are copied on the user
+ * interface thread when the snapshot is taken, because the user may change
+ * them as soon as the snapshot has been taken. This takes only a small part
+ * of the time taken to write the session to file, but it does take time
+ * proportional to the number of objects in memory, and the copies take as
+ * much memory as the originals until the session has been written.
+ * <P>
+ * Objects that were left in the session file when the session was opened,
+ * and that have not since been read, are not copied when the snapshot is
+ * taken. Such objects cannot have been changed, and the file from which they
+ * are read does not change, so they are copied from the file when the
+ * background thread writes them. The original objects are never read, so
+ * taking a snapshot does not read into memory objects that the user has not
+ * looked at.
+ *
+ * @author Nigel Westbury
+ */
+class SessionSnapshot {
+
+	/**
+	 * The values of an object in the session, with references being to the
+	 * keys of the objects in the copy.
+	 */
+	private class CopiedValues implements IValues {
+		private ExtendableObject object;
+
+		CopiedValues(ExtendableObject object) {
+			this.object = object;
+		}
+
+		public <V> V getScalarValue(ScalarPropertyAccessor<V> propertyAccessor) {
+			return object.getPropertyValue(propertyAccessor);
+		}
+
+		public IObjectKey getReferencedObjectKey(
+				ReferencePropertyAccessor<? extends ExtendableObject> propertyAccessor) {
+			// Get the key rather than the object so a deferred object is not read.
+			IObjectKey referencedKey = propertyAccessor.invokeObjectKeyField(object);
+			return (referencedKey == null) ? null : getKey((SimpleObjectKey)referencedKey);
+		}
+
+		public <E extends ExtendableObject> IListManager<E> getListManager(
+				IObjectKey listOwnerKey, ListPropertyAccessor<E> listAccessor) {
+			return new SimpleListManager<E>(snapshotManager, new ListKey<E>(listOwnerKey, listAccessor));
+		}
+
+		public Collection<ExtensionPropertySet<?>> getNonDefaultExtensions() {
+			return object.getExtensions();
+		}
+	}
+
+	/**
+	 * The values of an object that is still in the session file, with
+	 * references being to the keys of the objects in the copy.
+	 */
+	private class DeferredValues implements IValues {
+		private int id;
+
+		DeferredValues(int id) {
+			this.id = id;
+		}
+
+		public <V> V getScalarValue(ScalarPropertyAccessor<V> propertyAccessor) {
+			return fileLoader.getPropertyValue(id, propertyAccessor);
+		}
+
+		public IObjectKey getReferencedObjectKey(
+				ReferencePropertyAccessor<? extends ExtendableObject> propertyAccessor) {
+			int referencedId = fileLoader.getReferencedId(id, propertyAccessor);
+			return (referencedId == -1) ? null : deferredLoader.getKey(referencedId);
+		}
+
+		public <E extends ExtendableObject> IListManager<E> getListManager(
+				IObjectKey listOwnerKey, ListPropertyAccessor<E> listAccessor) {
+			return new SimpleListManager<E>(snapshotManager, new ListKey<E>(listOwnerKey, listAccessor));
+		}
+
+		public Collection<ExtensionPropertySet<?>> getNonDefaultExtensions() {
+			return fileLoader.getNonDefaultExtensions(id);
+		}
+	}
+
+	/**
+	 * Copies the objects that are still in the session file when they are
+	 * needed by the background thread. The ids are the ids used by the
+	 * loader of the original objects. This loader is used only by the
+	 * background thread.
+	 */
+	private class DeferredCopyLoader implements IObjectLoader {
+
+		public ExtendableObject loadObject(SimpleObjectKey key, int id) {
+			// Constructing the parent creates the list that contains this object.
+			SimpleObjectKey parentKey = getKey(getParentId(id));
+			parentKey.getObject();
+			ListKey listKey = parentKey.getListManager(getParentList(id)).getListKey();
+
+			ExtendableObject copy = getPropertySet(id).constructImplementationObject(key, listKey, new DeferredValues(id));
+			key.setObject(copy);
+
+			for (int childId: getChildIds(id)) {
+				key.getListManager(getParentList(childId)).addKey(getKey(childId));
+			}
+
+			return copy;
+		}
+
+		public <V> V getPropertyValue(int id, ScalarPropertyAccessor<V> propertyAccessor) {
+			return fileLoader.getPropertyValue(id, propertyAccessor);
+		}
+
+		public SimpleObjectKey getKey(int id) {
+			/*
+			 * An object that is not in the map was still in the session file
+			 * when the snapshot was taken, because all other objects were
+			 * copied then.
+			 */
+			SimpleObjectKey originalKey = fileLoader.getKey(id);
+			SimpleObjectKey key = keys.get(originalKey);
+			if (key == null) {
+				key = new SimpleObjectKey(snapshotManager);
+				key.setLoader(this, id);
+				keys.put(originalKey, key);
+			}
+			return key;
+		}
+
+		public int getParentId(int id) {
+			return fileLoader.getParentId(id);
+		}
+
+		public ListPropertyAccessor<?> getParentList(int id) {
+			return fileLoader.getParentList(id);
+		}
+
+		public int[] getChildIds(int id) {
+			return fileLoader.getChildIds(id);
+		}
+
+		public ExtendablePropertySet<?> getPropertySet(int id) {
+			return fileLoader.getPropertySet(id);
+		}
+
+		public int getReferencedId(int id, ReferencePropertyAccessor<?> propertyAccessor) {
+			return fileLoader.getReferencedId(id, propertyAccessor);
+		}
+
+		public Collection<ExtensionPropertySet<?>> getNonDefaultExtensions(int id) {
+			return fileLoader.getNonDefaultExtensions(id);
+		}
+	}
+
+	private SessionManager snapshotManager;
+
+	/**
+	 * Maps the key of each object in the session to the key of its copy. A
+	 * key is created when the object is first copied or first referenced, so
+	 * a reference may be copied before the object it references.
+	 * <P>
+	 * Keys are added by the background thread when objects that were still
+	 * in the session file are copied, but the map is not used by the user
+	 * interface thread once the snapshot has been taken.
+	 */
+	private Map<SimpleObjectKey, SimpleObjectKey> keys = new HashMap<SimpleObjectKey, SimpleObjectKey>();
+
+	/**
+	 * The loader of the objects that were still in the session file when the
+	 * snapshot was taken, or null if there were no such objects.
+	 */
+	private IObjectLoader fileLoader = null;
+
+	private DeferredCopyLoader deferredLoader = new DeferredCopyLoader();
+
+	private SessionSnapshot(SessionManager sessionManager) {
+		snapshotManager = new SessionManager(sessionManager.fileDatastoreId, sessionManager.fileDatastore, sessionManager.getFile());
+	}
+
+	/**
+	 * Copies the session in the given session manager. This must be called
+	 * on the thread that makes changes to the session.
+	 *
+	 * @return a session manager that contains the copy of the session and
+	 * 			that is not used other than to write the copy
+	 */
+	static SessionManager takeSnapshot(SessionManager sessionManager) {
+		SessionSnapshot snapshot = new SessionSnapshot(sessionManager);
+		Session session = (Session)snapshot.copyObject(sessionManager.getSession(), null);
+		snapshot.snapshotManager.setSession(session);
+		return snapshot.snapshotManager;
+	}
+
+	/**
+	 * @param originalKey the key of an object in the session
+	 * @return the key of the copy of the object
+	 */
+	private SimpleObjectKey getKey(SimpleObjectKey originalKey) {
+		SimpleObjectKey key = keys.get(originalKey);
+		if (key == null) {
+			IObjectLoader loader = originalKey.getLoader();
+			if (loader != null) {
+				/*
+				 * The object is still in the session file, so it is copied
+				 * from the file when needed.
+				 */
+				Assert.isTrue(fileLoader == null || fileLoader == loader);
+				fileLoader = loader;
+				key = deferredLoader.getKey(originalKey.getLoaderId());
+			} else {
+				key = new SimpleObjectKey(snapshotManager);
+				keys.put(originalKey, key);
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Copies the given object and then all objects in its lists, in order.
+	 * Objects in the lists that are still in the session file are not read,
+	 * but are added to the lists in the copy to be copied when needed.
+	 *
+	 * @param list the list in the copy to which the copied object is to be
+	 * 			added, or null if the object is the session
+	 */
+	@SuppressWarnings("unchecked")
+	private ExtendableObject copyObject(ExtendableObject object, SimpleListManager list) {
+		SimpleObjectKey originalKey = (SimpleObjectKey)object.getObjectKey();
+		SimpleObjectKey key = getKey(originalKey);
+		ListKey listKey = (list == null) ? null : list.getListKey();
+
+		ExtendablePropertySet<?> propertySet = PropertySet.getPropertySet(object.getClass());
+		ExtendableObject copy = propertySet.constructImplementationObject(key, listKey, new CopiedValues(object));
+		key.setObject(copy);
+
+		if (list != null) {
+			list.add(copy);
+		}
+
+		for (ListPropertyAccessor<?> listAccessor : propertySet.getListProperties3()) {
+			PropertySet<?> propertySet2 = listAccessor.getPropertySet();
+			if (!propertySet2.isExtension()
+					|| object.getExtension((ExtensionPropertySet<?>) propertySet2, false) != null) {
+				/*
+				 * The list is iterated by key, because iterating the list
+				 * itself would read the objects that are still in the file.
+				 */
+				SimpleListManager<?> originalList = originalKey.getListManager(listAccessor);
+				SimpleListManager copiedList = key.getListManager(listAccessor);
+				if (originalList != null) {
+					for (SimpleObjectKey elementKey : originalList.getKeys()) {
+						if (elementKey.getLoader() == null) {
+							copyObject(elementKey.getObject(), copiedList);
+						} else {
+							copiedList.addKey(getKey(elementKey));
+						}
+					}
+				}
+			}
+		}
+
+		return copy;
+	}
+}
@@ -22,8 +22,6 @@
 
 package net.sf.jmoney.serializeddatastore;
 
-import java.util.Vector;
-
 import net.sf.jmoney.model2.Account;
 import net.sf.jmoney.model2.Entry;
 import net.sf.jmoney.model2.ExtendableObject;
@@ -31,17 +29,16 @@ import net.sf.jmoney.model2.ExtendablePropertySet;
 import net.sf.jmoney.model2.IListManager;
 import net.sf.jmoney.model2.IValues;
 import net.sf.jmoney.model2.ListKey;
+import net.sf.jmoney.model2.Transaction;
 
 /**
  * Every datastore implementation must provide an implementation
  * of the IListManager interface.  This implementation simply
- * uses the Vector class to keep a list of objects.
+ * keeps a list of the keys of the objects.
  *
  * @author Nigel Westbury
  */
-public class SimpleListManager<E extends ExtendableObject> extends Vector<E> implements IListManager<E> {
-
-	private static final long serialVersionUID = 2090027937924066725L;
+public class SimpleListManager<E extends ExtendableObject> extends ObjectKeyList<E> implements IListManager<E> {
 
 	private SessionManager sessionManager;
 	
@@ -54,6 +51,7 @@ public class SimpleListManager<E extends ExtendableObject> extends Vector<E> imp
 	public SimpleListManager(SessionManager sessionManager, ListKey<E> listKey) {
 	 	this.sessionManager = sessionManager;
 	 	this.listKey = listKey;
+	 	((SimpleObjectKey)listKey.getParentKey()).addListManager(this);
 	 }
 
 	public ListKey<E> getListKey() {
@@ -84,6 +82,8 @@ public class SimpleListManager<E extends ExtendableObject> extends Vector<E> imp
 			}
 		}
 		
+		sessionManager.getJournal().objectCreated(extendableObject);
+
         // This plug-in needs to know if a session has been
 		// modified so it knows whether the session needs to
 		// be saved.  Mark the session as modified now.
@@ -116,6 +116,8 @@ public class SimpleListManager<E extends ExtendableObject> extends Vector<E> imp
 			}
 		}
 		
+		sessionManager.getJournal().objectCreated(extendableObject);
+
         // This plug-in needs to know if a session has been
 		// modified so it knows whether the session needs to
 		// be saved.  Mark the session as modified now.
@@ -128,10 +130,24 @@ public class SimpleListManager<E extends ExtendableObject> extends Vector<E> imp
 		/*
 		 * This method moves the object in the underlying datastore.  However, the datastore
 		 * is a serialized datastore, so changes are not made to the datastore at this time.
+		 * The move is recorded in the journal while the object is still in
+		 * its original list.
 		 */
+		sessionManager.getJournal().objectMoved(extendableObject, listKey);
+
+		// An entry moved to another transaction may now have a different date.
+		if (extendableObject instanceof Entry
+				&& listKey.getParentKey().getObject() instanceof Transaction) {
+			Transaction newTransaction = (Transaction)listKey.getParentKey().getObject();
+			sessionManager.updateEntryIndex((Entry)extendableObject, newTransaction.getDate());
+		}
+
+		sessionManager.setModified();
 	}
 
 	public void deleteElement(E extendableObject) {
+		sessionManager.getJournal().objectDeleted(extendableObject);
+
 		// If an account is removed then we
 		// clear out the list.
 		if (extendableObject instanceof Account) {
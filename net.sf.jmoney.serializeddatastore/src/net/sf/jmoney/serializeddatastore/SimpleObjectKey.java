@@ -22,6 +22,8 @@
 
 package net.sf.jmoney.serializeddatastore;
 
+import java.util.Vector;
+
 import net.sf.jmoney.JMoneyPlugin;
 import net.sf.jmoney.model2.Account;
 import net.sf.jmoney.model2.DataManager;
@@ -35,6 +37,8 @@ import net.sf.jmoney.model2.ListKey;
 import net.sf.jmoney.model2.ListPropertyAccessor;
 import net.sf.jmoney.model2.ScalarPropertyAccessor;
 import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.model2.Transaction;
+import net.sf.jmoney.model2.TransactionInfo;
 
 /**
  * This class provides the IObjectKey implementation.
@@ -47,6 +51,24 @@ import net.sf.jmoney.model2.Session;
 public class SimpleObjectKey implements IObjectKey {
 	private SessionManager sessionManager;
 	private ExtendableObject extendableObject;
+
+	/**
+	 * The lists owned by this object, or null if this object owns no lists.
+	 * These are kept so that an object can be found from its position in
+	 * a list when the session journal is applied.
+	 */
+	private Vector<SimpleListManager<?>> listManagers = null;
+
+	/**
+	 * If the object has not yet been read from the session file then the
+	 * loader that will read the object when it is needed, otherwise null.
+	 */
+	private IObjectLoader loader = null;
+
+	/**
+	 * The id that identifies the object to the loader.
+	 */
+	private int loaderId;
 	
 	// TODO: make this default protection
 	public SimpleObjectKey(SessionManager sessionManager) {
@@ -54,27 +76,127 @@ public class SimpleObjectKey implements IObjectKey {
 	}
 	
 	public ExtendableObject getObject() {
+		if (loader != null) {
+			IObjectLoader objectLoader = loader;
+			loader = null;
+			extendableObject = objectLoader.loadObject(this, loaderId);
+		}
 		return extendableObject;
 	}
 
+	/**
+	 * Gets the value of a property of the object without reading the object
+	 * from the session file if it has not yet been read.
+	 */
+	public <V> V getPropertyValue(ScalarPropertyAccessor<V> propertyAccessor) {
+		if (loader != null) {
+			return loader.getPropertyValue(loaderId, propertyAccessor);
+		}
+		return extendableObject.getPropertyValue(propertyAccessor);
+	}
+
+	/**
+	 * Gets the key of the parent of the object without reading the object
+	 * from the session file if it has not yet been read.
+	 */
+	public SimpleObjectKey getParentKey() {
+		if (loader != null) {
+			return loader.getKey(loader.getParentId(loaderId));
+		}
+		return (SimpleObjectKey)extendableObject.getParentKey();
+	}
+
+	/**
+	 * Sets the loader that reads the object for this key when the object is
+	 * first needed.
+	 */
+	public void setLoader(IObjectLoader loader, int loaderId) {
+		this.loader = loader;
+		this.loaderId = loaderId;
+	}
+
+	/**
+	 * @return the loader that will read the object for this key, or null if
+	 * 			the object has been read or was never in the session file
+	 */
+	IObjectLoader getLoader() {
+		return loader;
+	}
+
+	/**
+	 * @return the id that identifies the object to the loader
+	 */
+	int getLoaderId() {
+		return loaderId;
+	}
+
 	// TODO: make this default protection
 	public void setObject(ExtendableObject extendableObject) {
 		this.extendableObject = extendableObject;
 	}
 
+	/**
+	 * Called when a list owned by this object is constructed.
+	 */
+	void addListManager(SimpleListManager<?> listManager) {
+		if (listManagers == null) {
+			listManagers = new Vector<SimpleListManager<?>>(1);
+		}
+		listManagers.add(listManager);
+	}
+
+	/**
+	 * @return the given list owned by this object, or null if the list
+	 * 			has not been constructed
+	 */
+	public SimpleListManager<?> getListManager(ListPropertyAccessor<?> listAccessor) {
+		if (listManagers != null) {
+			for (SimpleListManager<?> listManager: listManagers) {
+				if (listManager.getListKey().getListPropertyAccessor() == listAccessor) {
+					return listManager;
+				}
+			}
+		}
+		return null;
+	}
+
 	public void updateProperties(ExtendablePropertySet<?> actualPropertySet, Object[] oldValues, Object[] newValues) {
 		// If the account property of an entry is changed then we
 		// must update the lists of entries in each account.
+		// If the amount is changed then we must update the date
+		// index of the account.
 		if (extendableObject instanceof Entry) {
+			Entry entry = (Entry)extendableObject;
 			int i = 0;
 			for (ScalarPropertyAccessor propertyAccessor2: actualPropertySet.getScalarProperties3()) {
 				if (propertyAccessor2 == EntryInfo.getAccountAccessor()) {
 					if (!JMoneyPlugin.areEqual(oldValues[i], newValues[i])) {
 						if (oldValues[i] != null) {
-							sessionManager.removeEntryFromList((Account)oldValues[i], (Entry)extendableObject);
+							sessionManager.removeEntryFromList((Account)oldValues[i], entry);
 						}
 						if (newValues[i] != null) {
-							sessionManager.addEntryToList((Account)newValues[i], (Entry)extendableObject);
+							sessionManager.addEntryToList((Account)newValues[i], entry);
+						}
+					}
+				} else if (propertyAccessor2 == EntryInfo.getAmountAccessor()) {
+					if (!JMoneyPlugin.areEqual(oldValues[i], newValues[i])) {
+						sessionManager.updateEntryIndex(entry, entry.getTransaction().getDate());
+					}
+				}
+				i++;
+			}
+		}
+
+		// If the date of a transaction is changed then we must update
+		// the date indexes of the accounts of the entries.
+		if (extendableObject instanceof Transaction) {
+			Transaction transaction = (Transaction)extendableObject;
+			int i = 0;
+			for (ScalarPropertyAccessor propertyAccessor2: actualPropertySet.getScalarProperties3()) {
+				if (propertyAccessor2 == TransactionInfo.getDateAccessor()) {
+					if (!JMoneyPlugin.areEqual(oldValues[i], newValues[i])) {
+						for (Entry entry: transaction.getEntryCollection()) {
+							sessionManager.updateEntryIndex(entry, transaction.getDate());
 						}
 					}
 					break;
@@ -85,9 +207,11 @@ public class SimpleObjectKey implements IObjectKey {
 		
 		/*
 		 * There is no back-end datastore that needs updating, so we have
-		 * nothing more to do except to mark the session as modified.
+		 * nothing more to do except to record the change in the journal and
+		 * to mark the session as modified.
 		 */
 		
+		sessionManager.getJournal().propertiesChanged(extendableObject, actualPropertySet, oldValues, newValues);
 		sessionManager.setModified();
 	}
 
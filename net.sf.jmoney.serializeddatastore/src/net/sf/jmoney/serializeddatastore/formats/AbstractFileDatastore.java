@@ -0,0 +1,375 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.serializeddatastore.formats;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.text.MessageFormat;
+
+import net.sf.jmoney.JMoneyPlugin;
+import net.sf.jmoney.serializeddatastore.IFileDatastore;
+import net.sf.jmoney.serializeddatastore.Messages;
+import net.sf.jmoney.serializeddatastore.SessionManager;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.dialogs.ProgressMonitorDialog;
+import org.eclipse.jface.operation.IRunnableWithProgress;
+import org.eclipse.ui.IWorkbenchWindow;
+
+/**
+ * Base class for the file formats provided by this plug-in. This class
+ * provides the user interface for reading and writing a session, showing
+ * progress and reporting errors. Subclasses provide the methods that read
+ * and write the file without any user interaction.
+ * 
+ * @author Nigel Westbury
+ */
+public abstract class AbstractFileDatastore implements IFileDatastore {
+
+	/**
+	 * Read session from file. The session is set as the open session in the
+	 * given session manager.
+	 * <P>
+	 * The opened session is set as the current open JMoney session. If no
+	 * session can be opened then an appropriate message is displayed to the
+	 * user and the previous session, if any, is left open.
+	 * <P>
+	 * If this method returns false then any previous session will be left open.
+	 * The caller will not display any error message. This method must display
+	 * an appropriate error message if the file cannot be read.
+	 * 
+	 * @return true if the file was successfully read and the session was set in
+	 *         the given session manager, false if the user cancelled the
+	 *         operation or if a failure occurred
+	 */
+	public boolean readSession(final File sessionFile,
+			final SessionManager sessionManager, final IWorkbenchWindow window) {
+		try {
+			if (sessionFile.length() < 500000) {
+				// If the file is smaller than 500K then it is
+				// not worthwhile using a progress monitor.
+				// The monitor would flash up so quickly that the
+				// user could not read it.
+				readSessionQuietly(sessionFile, sessionManager, null);
+			} else {
+				IRunnableWithProgress readSessionRunnable = new IRunnableWithProgress() {
+
+					public void run(IProgressMonitor monitor)
+							throws InvocationTargetException {
+						// Set the number of work units in the monitor where
+						// one work unit is reading 100 Kbytes.
+						int workUnits = (int) (sessionFile.length() / 100000);
+
+						monitor.beginTask(MessageFormat.format(
+								Messages.JMoneyXmlFormat_OpeningFile,
+								sessionFile), workUnits);
+
+						try {
+							readSessionQuietly(sessionFile, sessionManager,
+									monitor);
+						} catch (Exception ex) {
+							throw new InvocationTargetException(ex);
+						} finally {
+							monitor.done();
+						}
+					}
+
+				};
+
+				ProgressMonitorDialog progressDialog = new ProgressMonitorDialog(
+						window.getShell());
+
+				try {
+					progressDialog.run(true, false, readSessionRunnable);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		} catch (InterruptedException e) {
+			/*
+			 * If the user interrupted the read then no error message is
+			 * displayed. Currently this cannot happen because the cancel button
+			 * is not enabled in the progress dialog, but if the cancel button
+			 * is enabled then we do nothing here, leaving the previous session,
+			 * if any, open.
+			 */
+			return false;
+		} catch (Throwable ex) {
+			JMoneyPlugin.log(ex);
+
+			String message = MessageFormat.format(
+					Messages.JMoneyXmlFormat_ReadErrorMessage, sessionFile.getPath());
+			String title = Messages.JMoneyXmlFormat_ReadErrorTitle;
+			MessageDialog.openError(window.getShell(), title, message);
+
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * This class extends FileInputStream and overrides the various read
+	 * methods, counting the total number of bytes read and updating the
+	 * progress monitor.
+	 * <P>
+	 * This stream is used as input to BufferedInputStream, either directly or
+	 * through GZIPInputStream. Of all the read methods, only read(byte b[], int
+	 * off, int len) is used by BufferedInputStream, and read() is used
+	 * occassionally by GZIPInputStream. However, for completeness, all the read
+	 * methods have been overridden to update the byte count. Other methods that
+	 * may affect the progress, such as skip(n), do not appear to be called by
+	 * the above consumers of the stream.
+	 */
+	protected class FileInputStreamWithMonitor extends FileInputStream {
+
+		private IProgressMonitor monitor;
+		private long totalBytes = 0;
+		private int previousTotalWork = 0;
+
+		/**
+		 * @param monitor
+		 *            The monitor to be updated. This parameter must be
+		 *            non-null. The monitor must have been initialized for an
+		 *            expected amount of total work units where one work unit is
+		 *            reading 100 KBytes of the input stream.
+		 */
+		protected FileInputStreamWithMonitor(File sessionFile, IProgressMonitor monitor)
+				throws FileNotFoundException {
+			super(sessionFile);
+			this.monitor = monitor;
+		}
+
+		/*
+		 * This method reads a single byte at a time. GZIPInputStream uses this
+		 * method occassionally, so we increment the count of bytes read just to
+		 * stop errors creeping in. However, we don't bother to update the
+		 * monitor.
+		 */
+		@Override
+		public int read() throws IOException {
+			totalBytes++;
+			return super.read();
+		}
+
+		@Override
+		public int read(byte b[]) throws IOException {
+			int bytesRead = super.read(b);
+			updateProgress(bytesRead);
+			return bytesRead;
+		}
+
+		@Override
+		public int read(byte b[], int off, int len) throws IOException {
+			int bytesRead = super.read(b, off, len);
+			updateProgress(bytesRead);
+			return bytesRead;
+		}
+
+		/**
+		 * Update the progress monitor. The number of bytes read from the input
+		 * stream is passed to this method and used to measure the progress.
+		 * 
+		 * @param bytesRead
+		 *            the number of bytes read from the input stream.
+		 */
+		private void updateProgress(int bytesRead) {
+			if (bytesRead > 0) {
+				totalBytes += bytesRead;
+				int newTotalWork = (int) (totalBytes / 100000);
+				if (newTotalWork > previousTotalWork) {
+					monitor.worked(newTotalWork - previousTotalWork);
+					previousTotalWork = newTotalWork;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write session to file.
+	 * 
+	 * @return true if the file was written, false if the user cancelled the
+	 *         operation or if a failure occurred
+	 */
+	public boolean writeSession(final SessionManager sessionManager,
+			final File sessionFile, IWorkbenchWindow window) {
+		// If there is any modified data in the controls in any of the
+		// views, then commit these to the database now.
+		// TODO: How do we do this? Should framework call first
+		// commitRemainingUserChanges();
+
+		try {
+			if (/* session.getTransactionCount() < 1000 */false) {
+				// If the session has less than 1000 transactions then it is
+				// not worthwhile using a progress monitor.
+				// The monitor would flash up so quickly that the
+				// user could not read it.
+				writeSessionQuietly(sessionManager, sessionFile, null);
+			} else {
+				IRunnableWithProgress writeSessionRunnable = new IRunnableWithProgress() {
+
+					public void run(IProgressMonitor monitor)
+							throws InvocationTargetException {
+						// Set the number of work units in the monitor where
+						// one work unit is writing 500 transactions
+						// int workUnits =
+						// (int)(session.getTransactionCount()/500);
+						int workUnits = IProgressMonitor.UNKNOWN;
+
+						monitor.beginTask(MessageFormat.format(
+								Messages.JMoneyXmlFormat_SavingFile,
+								sessionFile), workUnits);
+
+						try {
+							writeSessionQuietly(sessionManager, sessionFile,
+									monitor);
+						} catch (Exception ex) {
+							throw new InvocationTargetException(ex);
+						} finally {
+							monitor.done();
+						}
+					}
+
+				};
+
+				ProgressMonitorDialog progressDialog = new ProgressMonitorDialog(
+						window.getShell());
+
+				try {
+					progressDialog.run(true, false, writeSessionRunnable);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		} catch (InterruptedException e) {
+			// If the user inturrupted the write then we do nothing.
+			// Currently this cannot happen because the cancel button is not
+			// enabled in the progress dialog, but if the cancel button is
+			// enabled
+			// then a message should perhaps be displayed here indicating that
+			// the
+			// file is unusable.
+			return false;
+		} catch (Throwable ex) {
+			JMoneyPlugin.log(ex);
+			fileWriteError(sessionFile, window);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * This method is used when writing a session.
+	 */
+	public void fileWriteError(File file, IWorkbenchWindow window) {
+		String message = MessageFormat.format(
+				Messages.JMoneyXmlFormat_WriteErrorMessage, file.getPath());
+		String title = Messages.JMoneyXmlFormat_WriteErrorTitle;
+
+		MessageDialog.openError(window.getShell(), title, message);
+	}
+
+	/**
+	 * Write session to file without any user interaction, replacing the file
+	 * only when the session has been written in full. The session is written
+	 * to a temporary file in the same directory which is then renamed to the
+	 * given file, so the previous file is left intact if the write fails.
+	 * <P>
+	 * This method may be called on any thread, provided the session is not
+	 * changed while it is being written.
+	 *
+	 * @param monitor
+	 *            Monitor into which this method will update the progress.
+	 *            This parameter may be null.
+	 */
+	public void writeSessionReplacingFile(SessionManager sessionManager,
+			File sessionFile, IProgressMonitor monitor) throws Exception {
+		/*
+		 * The temporary file has the same extension as the session file
+		 * because the formats may use the extension to determine whether
+		 * to compress the file.
+		 */
+		File directory = sessionFile.getAbsoluteFile().getParentFile();
+		File tempFile = new File(directory, "~" + sessionFile.getName()); //$NON-NLS-1$
+
+		try {
+			writeSessionQuietly(sessionManager, tempFile, monitor);
+		} catch (Exception e) {
+			tempFile.delete();
+			throw e;
+		}
+
+		/*
+		 * On some platforms, such as Windows, a file cannot be renamed over
+		 * an existing file. The existing file is then renamed out of the way
+		 * first, and renamed back if the new file cannot be renamed, so that
+		 * a complete session file exists under one of the names at all times.
+		 */
+		if (!tempFile.renameTo(sessionFile)) {
+			File backupFile = new File(directory, sessionFile.getName() + ".bak"); //$NON-NLS-1$
+			backupFile.delete();
+			if (!sessionFile.renameTo(backupFile)) {
+				/*
+				 * The file is in use, perhaps by another program. The
+				 * previous file is left as it is.
+				 */
+				tempFile.delete();
+				throw new IOException("Could not replace " + sessionFile.getPath() + " because it is in use"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			if (!tempFile.renameTo(sessionFile)) {
+				backupFile.renameTo(sessionFile);
+				throw new IOException("Could not rename " + tempFile.getPath() + " to " + sessionFile.getPath()); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			backupFile.delete();
+		}
+	}
+
+	/**
+	 * Read a session from file, creating a session manager and a session.
+	 * 
+	 * @param monitor
+	 *            Monitor into which this method will call the beginTask method
+	 *            and update the progress. This parameter may be null in which
+	 *            this method will read the session without feedback on the
+	 *            progress.
+	 */
+	public abstract void readSessionQuietly(File sessionFile,
+			SessionManager sessionManager, IProgressMonitor monitor)
+			throws Exception;
+
+	/**
+	 * Write session to file.
+	 * 
+	 * @param monitor
+	 *            Monitor into which this method will call the beginTask method
+	 *            and update the progress. This parameter may be null in which
+	 *            this method will write the session without feedback on the
+	 *            progress.
+	 */
+	public abstract void writeSessionQuietly(SessionManager sessionManager,
+			File sessionFile, IProgressMonitor monitor) throws Exception;
+}
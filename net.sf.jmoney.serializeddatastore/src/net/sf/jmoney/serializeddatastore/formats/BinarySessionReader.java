@@ -0,0 +1,656 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.serializeddatastore.formats;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import net.sf.jmoney.JMoneyPlugin;
+import net.sf.jmoney.model2.Account;
+import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.EntryInfo;
+import net.sf.jmoney.model2.ExtendableObject;
+import net.sf.jmoney.model2.ExtendablePropertySet;
+import net.sf.jmoney.model2.ExtensionPropertySet;
+import net.sf.jmoney.model2.IListManager;
+import net.sf.jmoney.model2.IObjectKey;
+import net.sf.jmoney.model2.IValues;
+import net.sf.jmoney.model2.ListKey;
+import net.sf.jmoney.model2.ListPropertyAccessor;
+import net.sf.jmoney.model2.PropertySet;
+import net.sf.jmoney.model2.PropertySetNotFoundException;
+import net.sf.jmoney.model2.ReferencePropertyAccessor;
+import net.sf.jmoney.model2.ScalarPropertyAccessor;
+import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.model2.SessionInfo;
+import net.sf.jmoney.model2.TransactionInfo;
+import net.sf.jmoney.serializeddatastore.IObjectLoader;
+import net.sf.jmoney.serializeddatastore.SessionManager;
+import net.sf.jmoney.serializeddatastore.SimpleListManager;
+import net.sf.jmoney.serializeddatastore.SimpleObjectKey;
+
+/**
+ * Reads a session from the contents of a file in the JMoney binary format.
+ * <P>
+ * An index is first built that gives the position in the buffer of the values
+ * of each property. The values of an object are read from the buffer only when
+ * the object is constructed. If the buffer is mapped to the file then
+ * transactions that are not constructed when the session is opened remain in
+ * the file, with only their keys in memory, until they are needed.
+ * 
+ * @see JMoneyBinaryFormat
+ * @author Nigel Westbury
+ */
+class BinarySessionReader implements IObjectLoader {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+	/**
+	 * The position in the buffer of the values of one property of all the
+	 * objects in a block.
+	 */
+	private static class Column {
+		byte type;
+		int width;
+		int bitmapOffset;
+		int valuesOffset;
+
+		/**
+		 * The number of non-null values before every 32nd row, so the position
+		 * of a value can be found without counting all the preceding bits in
+		 * the null bitmap.
+		 */
+		int[] ranks;
+
+		/**
+		 * The constructor from a string, used only for values of type
+		 * TYPE_OTHER.
+		 */
+		Constructor<?> constructor;
+	}
+
+	/**
+	 * The objects of one property set.
+	 */
+	private static class Block {
+		ExtendablePropertySet<?> propertySet;
+		Map<ScalarPropertyAccessor<?>, Column> columns = new HashMap<ScalarPropertyAccessor<?>, Column>();
+	}
+
+	/**
+	 * Supplies the values of an object being constructed.
+	 */
+	private class ObjectValues implements IValues {
+		private int id;
+		private Block block;
+		private int row;
+		private Set<ExtensionPropertySet<?>> listExtensions;
+
+		ObjectValues(int id) {
+			this.id = id;
+			this.block = blockOfObject[id];
+			this.row = rowOfObject[id];
+			this.listExtensions = BinarySessionReader.this.listExtensions.get(id);
+		}
+
+		public <V> V getScalarValue(ScalarPropertyAccessor<V> propertyAccessor) {
+			return getPropertyValue(id, propertyAccessor);
+		}
+
+		public IObjectKey getReferencedObjectKey(
+				ReferencePropertyAccessor<?> propertyAccessor) {
+			Column column = block.columns.get(propertyAccessor);
+			return (column == null) ? null : (IObjectKey)getValue(column, row);
+		}
+
+		public <E extends ExtendableObject> IListManager<E> getListManager(
+				IObjectKey listOwnerKey, ListPropertyAccessor<E> listAccessor) {
+			return new SimpleListManager<E>(sessionManager, new ListKey<E>(listOwnerKey, listAccessor));
+		}
+
+		public Collection<ExtensionPropertySet<?>> getNonDefaultExtensions() {
+			Set<ExtensionPropertySet<?>> nonDefaultExtensions = new HashSet<ExtensionPropertySet<?>>();
+			for (Map.Entry<ScalarPropertyAccessor<?>, Column> mapEntry: block.columns.entrySet()) {
+				PropertySet<?> propertySet = mapEntry.getKey().getPropertySet();
+				if (propertySet.isExtension() && !isNull(mapEntry.getValue(), row)) {
+					nonDefaultExtensions.add((ExtensionPropertySet<?>)propertySet);
+				}
+			}
+			if (listExtensions != null) {
+				nonDefaultExtensions.addAll(listExtensions);
+			}
+			return nonDefaultExtensions;
+		}
+	}
+
+	private SessionManager sessionManager;
+
+	private ByteBuffer buffer;
+
+	private int[] stringOffsets;
+
+	/**
+	 * The keys of all the objects, indexed by object id.
+	 */
+	private SimpleObjectKey[] keys;
+
+	private Block[] blockOfObject;
+
+	private int[] rowOfObject;
+
+	private int[] parentIds;
+
+	/**
+	 * The list property containing each object, or null for the session.
+	 */
+	private ListPropertyAccessor[] parentLists;
+
+	/**
+	 * For each object with objects in a list property in an extension, the
+	 * extensions containing those list properties. Such extensions must be
+	 * created even if all their scalar properties are null.
+	 */
+	private Map<Integer, Set<ExtensionPropertySet<?>>> listExtensions = new HashMap<Integer, Set<ExtensionPropertySet<?>>>();
+
+	/**
+	 * @param buffer the contents of the file, being either a heap buffer or
+	 * 			a buffer mapped to the file, positioned at the start of the
+	 * 			file
+	 */
+	BinarySessionReader(SessionManager sessionManager, ByteBuffer buffer) throws IOException {
+		this.sessionManager = sessionManager;
+		this.buffer = buffer;
+		readIndex();
+	}
+
+	private void readIndex() throws IOException {
+		if (buffer.limit() < 12 || buffer.getInt(0) != JMoneyBinaryFormat.MAGIC) {
+			throw new IOException("Not a JMoney binary file."); //$NON-NLS-1$
+		}
+		int version = buffer.getInt(4);
+		if (version != JMoneyBinaryFormat.VERSION) {
+			throw new IOException("Unsupported JMoney binary file version: " + version); //$NON-NLS-1$
+		}
+
+		int objectCount = buffer.getInt(8);
+		int position = 12;
+
+		stringOffsets = new int[buffer.getInt(position)];
+		position += 4;
+		for (int i = 0; i < stringOffsets.length; i++) {
+			stringOffsets[i] = position;
+			position += 4 + buffer.getInt(position);
+		}
+
+		/*
+		 * The keys are all created before the objects are constructed so that
+		 * an object can be constructed with references to objects that come
+		 * later in the file.
+		 */
+		keys = new SimpleObjectKey[objectCount];
+		for (int id = 0; id < objectCount; id++) {
+			keys[id] = new SimpleObjectKey(sessionManager);
+		}
+
+		blockOfObject = new Block[objectCount];
+		rowOfObject = new int[objectCount];
+		parentIds = new int[objectCount];
+		int[] parentListNames = new int[objectCount];
+
+		int blockCount = buffer.getInt(position);
+		position += 4;
+		for (int b = 0; b < blockCount; b++) {
+			Block block = new Block();
+			String propertySetId = getString(buffer.getInt(position));
+			position += 4;
+			try {
+				block.propertySet = PropertySet.getExtendablePropertySet(propertySetId);
+			} catch (PropertySetNotFoundException e) {
+				throw new IOException("Unknown property set: " + propertySetId); //$NON-NLS-1$
+			}
+
+			int n = buffer.getInt(position);
+			position += 4;
+			int[] ids = new int[n];
+			for (int row = 0; row < n; row++) {
+				ids[row] = buffer.getInt(position + 4 * row);
+				if (ids[row] < 0 || ids[row] >= objectCount) {
+					throw new IOException("Invalid object id: " + ids[row]); //$NON-NLS-1$
+				}
+				blockOfObject[ids[row]] = block;
+				rowOfObject[ids[row]] = row;
+			}
+			position += 4 * n;
+			for (int row = 0; row < n; row++) {
+				parentIds[ids[row]] = buffer.getInt(position + 4 * row);
+			}
+			position += 4 * n;
+			for (int row = 0; row < n; row++) {
+				parentListNames[ids[row]] = buffer.getInt(position + 4 * row);
+			}
+			position += 4 * n;
+
+			int propertyCount = buffer.getInt(position);
+			position += 4;
+			for (int p = 0; p < propertyCount; p++) {
+				Column column = new Column();
+				String propertyName = getString(buffer.getInt(position));
+				column.type = buffer.get(position + 4);
+				column.width = getWidth(column.type);
+				position += 5;
+
+				column.bitmapOffset = position;
+				int bitmapLength = (n + 7) / 8;
+				column.ranks = new int[(n + 31) / 32];
+				int count = 0;
+				for (int i = 0; i < bitmapLength; i++) {
+					if (i % 4 == 0) {
+						column.ranks[i / 4] = count;
+					}
+					count += Integer.bitCount(buffer.get(position + i) & 0xFF);
+				}
+				position += bitmapLength;
+
+				column.valuesOffset = position;
+				position += count * column.width;
+
+				/*
+				 * Values of properties that no longer exist, perhaps because
+				 * the plug-in that added the property has been uninstalled,
+				 * are dropped.
+				 */
+				ScalarPropertyAccessor<?> propertyAccessor = block.propertySet.getScalarProperty(propertyName);
+				if (propertyAccessor != null && JMoneyBinaryFormat.getType(propertyAccessor) == column.type) {
+					if (column.type == JMoneyBinaryFormat.TYPE_OTHER) {
+						try {
+							column.constructor = propertyAccessor.getClassOfValueObject().getConstructor(new Class[] { String.class });
+						} catch (NoSuchMethodException e) {
+							throw new IOException("No constructor from a string for property " + propertyName); //$NON-NLS-1$
+						}
+					}
+					block.columns.put(propertyAccessor, column);
+				}
+			}
+		}
+
+		if (position > buffer.limit()) {
+			throw new IOException("File is truncated."); //$NON-NLS-1$
+		}
+
+		/*
+		 * Find the list containing each object. Objects are numbered in
+		 * pre-order, so each parent comes before its children.
+		 */
+		parentLists = new ListPropertyAccessor[objectCount];
+		for (int id = 0; id < objectCount; id++) {
+			if (blockOfObject[id] == null) {
+				throw new IOException("No values found for object " + id); //$NON-NLS-1$
+			}
+			int parentId = parentIds[id];
+			if (parentId == JMoneyBinaryFormat.NO_PARENT) {
+				if (id != 0) {
+					throw new IOException("Object " + id + " has no parent"); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				continue;
+			}
+			if (parentId < 0 || parentId >= id) {
+				throw new IOException("Invalid parent for object " + id); //$NON-NLS-1$
+			}
+
+			String listName = getString(parentListNames[id]);
+			parentLists[id] = blockOfObject[parentId].propertySet.getListProperty(listName);
+			if (parentLists[id] == null) {
+				throw new IOException("Unknown list property: " + listName); //$NON-NLS-1$
+			}
+			PropertySet<?> listPropertySet = parentLists[id].getPropertySet();
+			if (listPropertySet.isExtension()) {
+				Set<ExtensionPropertySet<?>> extensions = listExtensions.get(parentId);
+				if (extensions == null) {
+					extensions = new HashSet<ExtensionPropertySet<?>>();
+					listExtensions.put(parentId, extensions);
+				}
+				extensions.add((ExtensionPropertySet<?>)listPropertySet);
+			}
+		}
+	}
+
+	/**
+	 * Constructs the session and sets it into the session manager.
+	 * 
+	 * @param eagerMonths the number of months of transactions, counting back
+	 * 			from the latest transaction, that are constructed now. Older
+	 * 			transactions, and the entries in them, are constructed when
+	 * 			first needed. If zero then all objects are constructed now.
+	 */
+	@SuppressWarnings("unchecked")
+	void readSession(int eagerMonths) throws IOException {
+		if (keys.length == 0) {
+			throw new IOException("File does not contain a session."); //$NON-NLS-1$
+		}
+
+		/*
+		 * Find the transactions to be left in the file. The objects in the
+		 * lists of those transactions are also left in the file.
+		 */
+		boolean[] deferred = new boolean[keys.length];
+		if (eagerMonths > 0) {
+			Date cutoffDate = getCutoffDate(eagerMonths);
+			if (cutoffDate != null) {
+				for (int id = 1; id < keys.length; id++) {
+					if (deferred[parentIds[id]]) {
+						deferred[id] = true;
+					} else if (isTransaction(id)) {
+						Date date = getTransactionDate(id);
+						deferred[id] = (date != null && date.before(cutoffDate));
+					}
+				}
+			}
+		}
+
+		/*
+		 * Construct the objects in id order. Each object is constructed after
+		 * its parent, so the list that is to contain the object has already been
+		 * created by the parent's constructor.
+		 */
+		for (int id = 0; id < keys.length; id++) {
+			if (deferred[id]) {
+				keys[id].setLoader(this, id);
+				if (!deferred[parentIds[id]]) {
+					getParentListManager(id).addKey(keys[id]);
+				}
+			} else {
+				SimpleListManager list = null;
+				ListKey listKey = null;
+				if (parentLists[id] != null) {
+					list = getParentListManager(id);
+					listKey = list.getListKey();
+				}
+
+				ExtendableObject extendableObject = blockOfObject[id].propertySet
+						.constructImplementationObject(keys[id], listKey, new ObjectValues(id));
+
+				keys[id].setObject(extendableObject);
+
+				if (list != null) {
+					list.add(extendableObject);
+				}
+
+				if (extendableObject instanceof Account) {
+					Account account = (Account) extendableObject;
+					sessionManager.addAccountList(account);
+				}
+			}
+		}
+
+		/*
+		 * Entries are added to the entry lists of their accounts only when all
+		 * accounts have been constructed, because an account may come after
+		 * entries in the account. Entries that are left in the file are added
+		 * using the account in the file.
+		 */
+		for (int id = 0; id < keys.length; id++) {
+			if (Entry.class.isAssignableFrom(blockOfObject[id].propertySet.getImplementationClass())) {
+				if (deferred[id]) {
+					Column column = blockOfObject[id].columns.get(EntryInfo.getAccountAccessor());
+					SimpleObjectKey accountKey = (column == null) ? null : (SimpleObjectKey)getValue(column, rowOfObject[id]);
+					if (accountKey != null) {
+						sessionManager.addEntryKeyToList((Account)accountKey.getObject(), keys[id]);
+					}
+				} else {
+					Entry entry = (Entry)keys[id].getObject();
+					if (entry.getAccount() != null) {
+						sessionManager.addEntryToList(entry.getAccount(), entry);
+					}
+				}
+			}
+		}
+
+		if (!(keys[0].getObject() instanceof Session)) {
+			throw new IOException("File does not contain a session."); //$NON-NLS-1$
+		}
+		sessionManager.setSession((Session)keys[0].getObject());
+	}
+
+	/**
+	 * Constructs an object that was left in the file when the session was
+	 * opened.
+	 */
+	public ExtendableObject loadObject(SimpleObjectKey key, int id) {
+		try {
+			// Constructing the parent creates the list that contains this object.
+			keys[parentIds[id]].getObject();
+			ListKey listKey = getParentListManager(id).getListKey();
+
+			ExtendableObject extendableObject = blockOfObject[id].propertySet
+					.constructImplementationObject(key, listKey, new ObjectValues(id));
+			key.setObject(extendableObject);
+
+			for (int childId: getChildIds(id)) {
+				getParentListManager(childId).addKey(keys[childId]);
+			}
+
+			return extendableObject;
+		} catch (IOException e) {
+			JMoneyPlugin.log(e);
+			throw new RuntimeException("Session file cannot be read: " + e.getMessage(), e); //$NON-NLS-1$
+		}
+	}
+
+	public <V> V getPropertyValue(int id, ScalarPropertyAccessor<V> propertyAccessor) {
+		Column column = blockOfObject[id].columns.get(propertyAccessor);
+		Object value = (column == null) ? null : getValue(column, rowOfObject[id]);
+		if (value == null) {
+			return propertyAccessor.getDefaultValue();
+		}
+		return propertyAccessor.getClassOfValueObject().cast(value);
+	}
+
+	public SimpleObjectKey getKey(int id) {
+		return keys[id];
+	}
+
+	public int getParentId(int id) {
+		return parentIds[id];
+	}
+
+	public ListPropertyAccessor<?> getParentList(int id) {
+		return parentLists[id];
+	}
+
+	public int[] getChildIds(int id) {
+		/*
+		 * The objects in the lists of an object come next in the file,
+		 * being all objects up to the first object that is not a
+		 * descendant of the object.
+		 */
+		Vector<Integer> childIds = new Vector<Integer>();
+		for (int childId = id + 1; childId < keys.length && isDescendant(childId, id); childId++) {
+			if (parentIds[childId] == id) {
+				childIds.add(childId);
+			}
+		}
+		int[] result = new int[childIds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = childIds.get(i);
+		}
+		return result;
+	}
+
+	public ExtendablePropertySet<?> getPropertySet(int id) {
+		return blockOfObject[id].propertySet;
+	}
+
+	public int getReferencedId(int id, ReferencePropertyAccessor<?> propertyAccessor) {
+		Column column = blockOfObject[id].columns.get(propertyAccessor);
+		if (column == null || isNull(column, rowOfObject[id])) {
+			return -1;
+		}
+		return buffer.getInt(getPosition(column, rowOfObject[id]));
+	}
+
+	public Collection<ExtensionPropertySet<?>> getNonDefaultExtensions(int id) {
+		return new ObjectValues(id).getNonDefaultExtensions();
+	}
+
+	private boolean isDescendant(int id, int ancestorId) {
+		int ancestor = id;
+		while (ancestor > ancestorId) {
+			ancestor = parentIds[ancestor];
+		}
+		return ancestor == ancestorId;
+	}
+
+	private SimpleListManager getParentListManager(int id) throws IOException {
+		SimpleListManager list = keys[parentIds[id]].getListManager(parentLists[id]);
+		if (list == null) {
+			throw new IOException("List not created: " + parentLists[id].getName()); //$NON-NLS-1$
+		}
+		return list;
+	}
+
+	private boolean isTransaction(int id) {
+		return parentIds[id] == 0
+			&& parentLists[id] == SessionInfo.getTransactionsAccessor();
+	}
+
+	private Date getTransactionDate(int id) {
+		Column column = blockOfObject[id].columns.get(TransactionInfo.getDateAccessor());
+		return (column == null) ? null : (Date)getValue(column, rowOfObject[id]);
+	}
+
+	/**
+	 * @return the date before which transactions are left in the file, or
+	 * 			null if the session has no dated transactions
+	 */
+	private Date getCutoffDate(int eagerMonths) {
+		Date latestDate = null;
+		for (int id = 1; id < keys.length; id++) {
+			if (isTransaction(id)) {
+				Date date = getTransactionDate(id);
+				if (date != null && (latestDate == null || date.after(latestDate))) {
+					latestDate = date;
+				}
+			}
+		}
+		if (latestDate == null) {
+			return null;
+		}
+
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(latestDate);
+		calendar.add(Calendar.MONTH, -eagerMonths);
+		return calendar.getTime();
+	}
+
+	private boolean isNull(Column column, int row) {
+		return (buffer.get(column.bitmapOffset + row / 8) & (1 << (row % 8))) == 0;
+	}
+
+	/**
+	 * @return the value of the given property in the given row, or null if
+	 * 			the value is null
+	 */
+	private Object getValue(Column column, int row) {
+		if (isNull(column, row)) {
+			return null;
+		}
+
+		int position = getPosition(column, row);
+		switch (column.type) {
+		case JMoneyBinaryFormat.TYPE_INTEGER:
+			return buffer.getInt(position);
+		case JMoneyBinaryFormat.TYPE_LONG:
+			return buffer.getLong(position);
+		case JMoneyBinaryFormat.TYPE_BOOLEAN:
+			return buffer.get(position) != 0;
+		case JMoneyBinaryFormat.TYPE_CHARACTER:
+			return buffer.getChar(position);
+		case JMoneyBinaryFormat.TYPE_DATE:
+			return new Date(buffer.getLong(position));
+		case JMoneyBinaryFormat.TYPE_STRING:
+			return getString(buffer.getInt(position));
+		case JMoneyBinaryFormat.TYPE_REFERENCE:
+			return keys[buffer.getInt(position)];
+		default:
+			String text = getString(buffer.getInt(position));
+			try {
+				return column.constructor.newInstance(new Object[] { text });
+			} catch (Exception e) {
+				JMoneyPlugin.log(e);
+				throw new RuntimeException("Cannot construct value from " + text, e); //$NON-NLS-1$
+			}
+		}
+	}
+
+	/**
+	 * @return the position in the buffer of the value of the given property
+	 * 			in the given row, the value not being null
+	 */
+	private int getPosition(Column column, int row) {
+		int rank = column.ranks[row / 32];
+		for (int i = (row / 32) * 4; i < row / 8; i++) {
+			rank += Integer.bitCount(buffer.get(column.bitmapOffset + i) & 0xFF);
+		}
+		int lastByte = buffer.get(column.bitmapOffset + row / 8) & 0xFF;
+		rank += Integer.bitCount(lastByte & ((1 << (row % 8)) - 1));
+
+		return column.valuesOffset + rank * column.width;
+	}
+
+	private String getString(int index) {
+		int offset = stringOffsets[index];
+		byte[] bytes = new byte[buffer.getInt(offset)];
+		ByteBuffer stringBuffer = buffer.duplicate();
+		stringBuffer.position(offset + 4);
+		stringBuffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private static int getWidth(byte type) throws IOException {
+		switch (type) {
+		case JMoneyBinaryFormat.TYPE_INTEGER:
+		case JMoneyBinaryFormat.TYPE_STRING:
+		case JMoneyBinaryFormat.TYPE_REFERENCE:
+		case JMoneyBinaryFormat.TYPE_OTHER:
+			return 4;
+		case JMoneyBinaryFormat.TYPE_LONG:
+		case JMoneyBinaryFormat.TYPE_DATE:
+			return 8;
+		case JMoneyBinaryFormat.TYPE_BOOLEAN:
+			return 1;
+		case JMoneyBinaryFormat.TYPE_CHARACTER:
+			return 2;
+		default:
+			throw new IOException("Unknown value type: " + type); //$NON-NLS-1$
+		}
+	}
+}
@@ -0,0 +1,300 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.serializeddatastore.formats;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream that writes gzip compressed data, compressing blocks of
+ * the data on several threads.
+ * <P>
+ * The output is a single gzip member containing a single deflate stream, so
+ * it can be read by any gzip reader, including the GZIPInputStream used by
+ * older versions of JMoney. This is done in the same way as pigz. Each block
+ * is compressed with the end of the previous block as the preset dictionary,
+ * and is ended with a sync flush rather than by finishing the deflate stream,
+ * except for the last block. The compressed blocks are then written in
+ * order, giving a deflate stream that is the same as one compressed on a
+ * single thread with a sync flush after each block. The compression is
+ * slightly worse than that of GZIPOutputStream, but the blocks are large so
+ * the difference is small.
+ * <P>
+ * A sync flush is not possible with the Deflater in Java 6. This stream is
+ * therefore available only when running on Java 7 or later, which should be
+ * checked using <code>isAvailable</code>. GZIPOutputStream should be used
+ * otherwise.
+ * <P>
+ * The blocks are compressed by a pool of threads, one for each processor,
+ * that is shared by all streams. The number of blocks of each stream that
+ * are waiting to be written is limited so that the memory used does not
+ * depend on the amount of data.
+ *
+ * @author Nigel Westbury
+ */
+class BlockGZIPOutputStream extends OutputStream {
+
+	/**
+	 * The size of the uncompressed blocks.
+	 */
+	private static final int BLOCK_SIZE = 1 << 20;
+
+	/**
+	 * The size of the deflate window, being the most of the previous block
+	 * that can be used as the preset dictionary.
+	 */
+	private static final int DICTIONARY_SIZE = 1 << 15;
+
+	/**
+	 * The value of Deflater.SYNC_FLUSH, which does not exist in Java 6.
+	 */
+	private static final int SYNC_FLUSH = 2;
+
+	private static final byte[] HEADER = {
+		0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+	};
+
+	/**
+	 * The Deflater.deflate method that takes a flush mode, or null if not
+	 * running on Java 7 or later.
+	 */
+	private static final Method deflateWithFlush = getDeflateWithFlush();
+
+	private static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+	private static ThreadPoolExecutor executor = null;
+
+	private OutputStream out;
+
+	private int maximumPendingBlocks = THREAD_COUNT * 2;
+
+	/**
+	 * The blocks that have been passed to the executor to be compressed but
+	 * have not yet been written, in the order in which they are to be
+	 * written.
+	 */
+	private LinkedList<Future<byte[]>> pendingBlocks = new LinkedList<Future<byte[]>>();
+
+	private byte[] block = new byte[BLOCK_SIZE];
+
+	private int blockLength = 0;
+
+	/**
+	 * The previous block, whose end is the dictionary for the current block,
+	 * or null if the current block is the first block.
+	 */
+	private byte[] previousBlock = null;
+
+	private CRC32 crc = new CRC32();
+
+	private long totalLength = 0;
+
+	private boolean closed = false;
+
+	public BlockGZIPOutputStream(OutputStream out) throws IOException {
+		this.out = out;
+		out.write(HEADER);
+	}
+
+	/**
+	 * @return true if this stream can be used, false if running on a version
+	 * 			of Java that does not support a sync flush
+	 */
+	static boolean isAvailable() {
+		return deflateWithFlush != null;
+	}
+
+	private static Method getDeflateWithFlush() {
+		try {
+			return Deflater.class.getMethod("deflate", new Class[] { byte[].class, int.class, int.class, int.class }); //$NON-NLS-1$
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * The threads are created when first needed and stop when they have been
+	 * idle for a while. The threads are daemon threads so that they do not
+	 * prevent the application from exiting.
+	 */
+	private static synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "JMoney compression"); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (blockLength == BLOCK_SIZE) {
+			submitBlock(false);
+		}
+		block[blockLength++] = (byte)b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (blockLength == BLOCK_SIZE) {
+				submitBlock(false);
+			}
+			int count = Math.min(len, BLOCK_SIZE - blockLength);
+			System.arraycopy(b, off, block, blockLength, count);
+			blockLength += count;
+			off += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * Passes the current block to the executor to be compressed, first
+	 * writing the oldest compressed blocks if too many are waiting.
+	 *
+	 * @param last true if this is the last block, in which case the deflate
+	 * 			stream is finished, false if more blocks follow, in which
+	 * 			case the block ends with a sync flush
+	 */
+	private void submitBlock(final boolean last) throws IOException {
+		while (pendingBlocks.size() >= maximumPendingBlocks) {
+			writeOldestBlock();
+		}
+
+		crc.update(block, 0, blockLength);
+		totalLength += blockLength;
+
+		final byte[] data = block;
+		final int length = blockLength;
+		final byte[] dictionary = previousBlock;
+		pendingBlocks.add(getExecutor().submit(new Callable<byte[]>() {
+			public byte[] call() throws Exception {
+				return compress(data, length, dictionary, last);
+			}
+		}));
+
+		previousBlock = block;
+		block = new byte[BLOCK_SIZE];
+		blockLength = 0;
+	}
+
+	private static byte[] compress(byte[] data, int length, byte[] dictionary, boolean last) throws Exception {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			if (dictionary != null) {
+				deflater.setDictionary(dictionary, BLOCK_SIZE - DICTIONARY_SIZE, DICTIONARY_SIZE);
+			}
+			deflater.setInput(data, 0, length);
+
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4 + 64);
+			byte[] buffer = new byte[1 << 16];
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					int count = deflater.deflate(buffer);
+					compressed.write(buffer, 0, count);
+				}
+			} else {
+				/*
+				 * All input has been compressed and flushed when the output
+				 * does not fill the buffer.
+				 */
+				int count;
+				do {
+					count = (Integer)deflateWithFlush.invoke(deflater, new Object[] { buffer, 0, buffer.length, SYNC_FLUSH });
+					compressed.write(buffer, 0, count);
+				} while (count == buffer.length);
+			}
+			return compressed.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private void writeOldestBlock() throws IOException {
+		try {
+			out.write(pendingBlocks.removeFirst().get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing"); //$NON-NLS-1$
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw new IOException("Compression failed", e.getCause()); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Writes the remaining data and the gzip trailer and closes the
+	 * underlying stream. Blocks that are waiting to be compressed are
+	 * cancelled if the data cannot be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		try {
+			submitBlock(true);
+			while (!pendingBlocks.isEmpty()) {
+				writeOldestBlock();
+			}
+			writeIntLE((int)crc.getValue());
+			writeIntLE((int)totalLength);
+		} finally {
+			for (Future<byte[]> pendingBlock: pendingBlocks) {
+				pendingBlock.cancel(false);
+			}
+			pendingBlocks.clear();
+			out.close();
+		}
+	}
+
+	private void writeIntLE(int value) throws IOException {
+		out.write(value & 0xFF);
+		out.write((value >> 8) & 0xFF);
+		out.write((value >> 16) & 0xFF);
+		out.write((value >> 24) & 0xFF);
+	}
+}
@@ -0,0 +1,420 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.serializeddatastore.formats;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import net.sf.jmoney.model2.ExtendableObject;
+import net.sf.jmoney.model2.ExtendablePropertySet;
+import net.sf.jmoney.model2.ExtensionPropertySet;
+import net.sf.jmoney.model2.IObjectKey;
+import net.sf.jmoney.model2.ListKey;
+import net.sf.jmoney.model2.ListPropertyAccessor;
+import net.sf.jmoney.model2.PropertySet;
+import net.sf.jmoney.model2.ScalarPropertyAccessor;
+import net.sf.jmoney.serializeddatastore.PreferenceInitializer;
+import net.sf.jmoney.serializeddatastore.SerializedDatastorePlugin;
+import net.sf.jmoney.serializeddatastore.SessionManager;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.Platform;
+
+/**
+ * Implementation of the IFileDatastore extension for the JMoney binary
+ * format.
+ * <P>
+ * The file is not compressed. It contains a table of all the strings used in
+ * the session followed by one block for each property set that has objects in
+ * the session. Objects are identified by integer ids, being the position of
+ * the object in a pre-order traversal of the session, so the order of the
+ * objects in each list is given by the ids. Within a block, the values of each
+ * property are written together for all the objects in the block. A file can
+ * be read in a single sequential pass and without parsing any text.
+ * <P>
+ * The layout is:
+ * <pre>
+ * magic, version, object count
+ * string count, then for each string: byte count, UTF-8 bytes
+ * block count, then for each block:
+ *     property set id (string index), object count n
+ *     n object ids, n parent ids, n parent list property names (string index)
+ *     property count, then for each property:
+ *         property name (string index), type, null bitmap, non-null values
+ * </pre>
+ * The session has no parent, so its parent id and parent list property name
+ * are both -1. Properties that are null in every object in a block are not
+ * written. All values have a fixed size, so the position of any value can be
+ * found from the null bitmap without reading the preceding values.
+ * <P>
+ * If the preference for the number of months of transactions to read is
+ * set then the file is mapped into memory and older transactions are
+ * constructed only when they are needed.  This applies to this format only.
+ * The XML formats are always read in full.
+ * 
+ * @author Nigel Westbury
+ */
+public class JMoneyBinaryFormat extends AbstractFileDatastore {
+
+	public static String ID_FILE_FORMAT = "net.sf.jmoney.serializeddatastore.binaryFormat"; //$NON-NLS-1$
+
+	static final int MAGIC = 0x4A4D4246;
+
+	static final int VERSION = 1;
+
+	static final int NO_PARENT = -1;
+
+	static final byte TYPE_INTEGER = 1;
+	static final byte TYPE_LONG = 2;
+	static final byte TYPE_BOOLEAN = 3;
+	static final byte TYPE_CHARACTER = 4;
+	static final byte TYPE_DATE = 5;
+	static final byte TYPE_STRING = 6;
+	static final byte TYPE_REFERENCE = 7;
+
+	/**
+	 * Values of any other class are written as a string and constructed from
+	 * the string when read, as in the XML format.
+	 */
+	static final byte TYPE_OTHER = 8;
+
+	/**
+	 * The number of months of transactions read when a file is opened, or
+	 * -1 if this is to be taken from the preferences.
+	 */
+	private int eagerMonths = -1;
+
+	/**
+	 * The strings being written, each of which is written once to the file
+	 * and referenced by its index.
+	 */
+	private static class StringTable {
+		private Vector<String> strings = new Vector<String>();
+		private Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+		int getIndex(String string) {
+			Integer index = indexes.get(string);
+			if (index == null) {
+				index = strings.size();
+				strings.add(string);
+				indexes.put(string, index);
+			}
+			return index;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(strings.size());
+			for (String string: strings) {
+				byte[] bytes = string.getBytes("UTF-8"); //$NON-NLS-1$
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+		}
+	}
+
+	/**
+	 * Sets the number of months of transactions, counting back from the
+	 * latest transaction, that are read when a file is opened. Zero means
+	 * all transactions are read.  This overrides the preference.
+	 */
+	public void setEagerMonths(int eagerMonths) {
+		this.eagerMonths = eagerMonths;
+	}
+
+	/**
+	 * Read a session from file, creating a session manager and a session.
+	 * 
+	 * @param monitor
+	 *            Monitor into which this method will call the beginTask method
+	 *            and update the progress. This parameter may be null in which
+	 *            this method will read the session without feedback on the
+	 *            progress.
+	 */
+	@Override
+	public void readSessionQuietly(File sessionFile,
+			SessionManager sessionManager, IProgressMonitor monitor)
+			throws IOException {
+		int eagerMonths = this.eagerMonths;
+		if (eagerMonths == -1) {
+			eagerMonths = SerializedDatastorePlugin.getDefault().getPreferenceStore().getInt(PreferenceInitializer.EAGER_MONTHS);
+		}
+
+		ByteBuffer buffer;
+		if (eagerMonths > 0 && !Platform.OS_WIN32.equals(Platform.getOS())) {
+			/*
+			 * Older transactions are read from the file only when needed, so
+			 * the file is mapped into memory rather than read.
+			 * 
+			 * On Windows a file that is mapped cannot be replaced or deleted,
+			 * and a mapping cannot be released other than by the garbage
+			 * collector, so the session could not be saved. The file is
+			 * therefore read into memory on Windows. The older transactions
+			 * are still constructed only when needed.
+			 */
+			FileInputStream fin = new FileInputStream(sessionFile);
+			try {
+				FileChannel channel = fin.getChannel();
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} finally {
+				fin.close();
+			}
+		} else {
+			InputStream fin;
+			if (monitor == null) {
+				fin = new FileInputStream(sessionFile);
+			} else {
+				fin = new FileInputStreamWithMonitor(sessionFile, monitor);
+			}
+			DataInputStream in = new DataInputStream(fin);
+			try {
+				byte[] bytes = new byte[(int)sessionFile.length()];
+				in.readFully(bytes);
+				buffer = ByteBuffer.wrap(bytes);
+			} finally {
+				in.close();
+			}
+		}
+
+		BinarySessionReader reader = new BinarySessionReader(sessionManager, buffer);
+		reader.readSession(eagerMonths);
+	}
+	/**
+	 * Write session to file.
+	 * 
+	 * @param monitor
+	 *            Monitor into which this method will call the beginTask method
+	 *            and update the progress. This parameter may be null in which
+	 *            this method will write the session without feedback on the
+	 *            progress.
+	 */
+	// TODO: update the monitor, perhaps by counting the transactions.
+	@Override
+	public void writeSessionQuietly(SessionManager sessionManager,
+			File sessionFile, IProgressMonitor monitor) throws IOException {
+
+		/*
+		 * Number all the objects before any values are written, because a
+		 * reference may be to an object that comes later in the session.
+		 */
+		Vector<ExtendableObject> objects = new Vector<ExtendableObject>();
+		Map<ExtendableObject, Integer> objectToIdMap = new HashMap<ExtendableObject, Integer>();
+		addObject(sessionManager.getSession(), objects, objectToIdMap);
+
+		Map<ExtendablePropertySet<?>, Vector<ExtendableObject>> objectsByPropertySet = new LinkedHashMap<ExtendablePropertySet<?>, Vector<ExtendableObject>>();
+		for (ExtendableObject object: objects) {
+			ExtendablePropertySet<?> propertySet = PropertySet.getPropertySet(object.getClass());
+			Vector<ExtendableObject> blockObjects = objectsByPropertySet.get(propertySet);
+			if (blockObjects == null) {
+				blockObjects = new Vector<ExtendableObject>();
+				objectsByPropertySet.put(propertySet, blockObjects);
+			}
+			blockObjects.add(object);
+		}
+
+		/*
+		 * The string table comes before the blocks in the file but is not
+		 * complete until the blocks have been written, so the blocks are
+		 * written to memory first.
+		 */
+		StringTable strings = new StringTable();
+		ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+		DataOutputStream blockOut = new DataOutputStream(blockBytes);
+		for (Map.Entry<ExtendablePropertySet<?>, Vector<ExtendableObject>> mapEntry: objectsByPropertySet.entrySet()) {
+			writeBlock(blockOut, mapEntry.getKey(), mapEntry.getValue(), objectToIdMap, strings);
+		}
+		blockOut.close();
+
+		FileOutputStream fout = new FileOutputStream(sessionFile);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(objects.size());
+			strings.write(out);
+			out.writeInt(objectsByPropertySet.size());
+			blockBytes.writeTo(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Adds the given object and then all objects in its lists, in order.
+	 */
+	private void addObject(ExtendableObject object, Vector<ExtendableObject> objects, Map<ExtendableObject, Integer> objectToIdMap) {
+		objectToIdMap.put(object, objects.size());
+		objects.add(object);
+
+		ExtendablePropertySet<?> propertySet = PropertySet.getPropertySet(object.getClass());
+		for (ListPropertyAccessor<?> listAccessor : propertySet.getListProperties3()) {
+			PropertySet<?> propertySet2 = listAccessor.getPropertySet();
+			if (!propertySet2.isExtension()
+					|| object.getExtension((ExtensionPropertySet<?>) propertySet2, false) != null) {
+				for (ExtendableObject listElement : object.getListPropertyValue(listAccessor)) {
+					addObject(listElement, objects, objectToIdMap);
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void writeBlock(DataOutputStream out, ExtendablePropertySet<?> propertySet, Vector<ExtendableObject> blockObjects, Map<ExtendableObject, Integer> objectToIdMap, StringTable strings) throws IOException {
+		int n = blockObjects.size();
+
+		out.writeInt(strings.getIndex(propertySet.getId()));
+		out.writeInt(n);
+		for (ExtendableObject object: blockObjects) {
+			out.writeInt(objectToIdMap.get(object));
+		}
+		for (ExtendableObject object: blockObjects) {
+			IObjectKey parentKey = object.getParentKey();
+			out.writeInt(parentKey == null ? NO_PARENT : objectToIdMap.get(parentKey.getObject()));
+		}
+		for (ExtendableObject object: blockObjects) {
+			ListKey listKey = object.getParentListKey();
+			out.writeInt(listKey == null ? NO_PARENT : strings.getIndex(listKey.getListPropertyAccessor().getName()));
+		}
+
+		Vector<ScalarPropertyAccessor> properties = new Vector<ScalarPropertyAccessor>();
+		Vector<Object[]> columns = new Vector<Object[]>();
+		for (ScalarPropertyAccessor propertyAccessor : propertySet.getScalarProperties3()) {
+			PropertySet<?> propertySet2 = propertyAccessor.getPropertySet();
+			Object[] column = new Object[n];
+			boolean hasValue = false;
+			for (int row = 0; row < n; row++) {
+				ExtendableObject object = blockObjects.get(row);
+				if (!propertySet2.isExtension()
+						|| object.getExtension((ExtensionPropertySet<?>) propertySet2, false) != null) {
+					Object value = object.getPropertyValue(propertyAccessor);
+
+					/*
+					 * As in the XML format, empty strings are treated as null.
+					 */
+					if (value instanceof String && ((String) value).length() == 0) {
+						value = null;
+					}
+
+					column[row] = value;
+					if (value != null) {
+						hasValue = true;
+					}
+				}
+			}
+			if (hasValue) {
+				properties.add(propertyAccessor);
+				columns.add(column);
+			}
+		}
+
+		out.writeInt(properties.size());
+		for (int p = 0; p < properties.size(); p++) {
+			ScalarPropertyAccessor<?> propertyAccessor = properties.get(p);
+			Object[] column = columns.get(p);
+			byte type = getType(propertyAccessor);
+
+			out.writeInt(strings.getIndex(propertyAccessor.getName()));
+			out.writeByte(type);
+
+			byte[] nullBitmap = new byte[(n + 7) / 8];
+			for (int row = 0; row < n; row++) {
+				if (column[row] != null) {
+					nullBitmap[row >> 3] |= 1 << (row & 7);
+				}
+			}
+			out.write(nullBitmap);
+
+			for (int row = 0; row < n; row++) {
+				if (column[row] != null) {
+					writeValue(out, type, column[row], objectToIdMap, strings);
+				}
+			}
+		}
+	}
+
+	private void writeValue(DataOutputStream out, byte type, Object value, Map<ExtendableObject, Integer> objectToIdMap, StringTable strings) throws IOException {
+		switch (type) {
+		case TYPE_INTEGER:
+			out.writeInt((Integer)value);
+			break;
+		case TYPE_LONG:
+			out.writeLong((Long)value);
+			break;
+		case TYPE_BOOLEAN:
+			out.writeBoolean((Boolean)value);
+			break;
+		case TYPE_CHARACTER:
+			out.writeChar((Character)value);
+			break;
+		case TYPE_DATE:
+			out.writeLong(((Date)value).getTime());
+			break;
+		case TYPE_STRING:
+			out.writeInt(strings.getIndex((String)value));
+			break;
+		case TYPE_REFERENCE:
+			Integer id = objectToIdMap.get(value);
+			if (id == null) {
+				throw new IOException("Reference to an object that is not in the session."); //$NON-NLS-1$
+			}
+			out.writeInt(id);
+			break;
+		default:
+			out.writeInt(strings.getIndex(value.toString()));
+			break;
+		}
+	}
+
+	static byte getType(ScalarPropertyAccessor<?> propertyAccessor) {
+		Class<?> valueClass = propertyAccessor.getClassOfValueObject();
+		if (valueClass == Integer.class) {
+			return TYPE_INTEGER;
+		} else if (valueClass == Long.class) {
+			return TYPE_LONG;
+		} else if (valueClass == Boolean.class) {
+			return TYPE_BOOLEAN;
+		} else if (valueClass == Character.class) {
+			return TYPE_CHARACTER;
+		} else if (valueClass == Date.class) {
+			return TYPE_DATE;
+		} else if (valueClass == String.class) {
+			return TYPE_STRING;
+		} else if (ExtendableObject.class.isAssignableFrom(valueClass)) {
+			return TYPE_REFERENCE;
+		} else {
+			return TYPE_OTHER;
+		}
+	}
+}
@@ -30,12 +30,14 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.InvocationTargetException;
+import java.io.OutputStream;
 import java.text.DateFormat;
-import java.text.MessageFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -45,7 +47,6 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -86,7 +87,6 @@ import net.sf.jmoney.model2.ScalarPropertyAccessor;
 import net.sf.jmoney.model2.Session;
 import net.sf.jmoney.model2.SessionInfo;
 import net.sf.jmoney.model2.Transaction;
-import net.sf.jmoney.serializeddatastore.IFileDatastore;
 import net.sf.jmoney.serializeddatastore.Messages;
 import net.sf.jmoney.serializeddatastore.SessionManager;
 import net.sf.jmoney.serializeddatastore.SimpleListManager;
@@ -96,10 +96,6 @@ import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.Status;
-import org.eclipse.jface.dialogs.MessageDialog;
-import org.eclipse.jface.dialogs.ProgressMonitorDialog;
-import org.eclipse.jface.operation.IRunnableWithProgress;
-import org.eclipse.ui.IWorkbenchWindow;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
@@ -111,7 +107,7 @@ import org.xml.sax.helpers.DefaultHandler;
  * 
  * @author Nigel Westbury
  */
-public class JMoneyXmlFormat implements IFileDatastore {
+public class JMoneyXmlFormat extends AbstractFileDatastore {
 	public static String ID_FILE_FORMAT = "net.sf.jmoney.serializeddatastore.jmxFormat"; //$NON-NLS-1$
 
 	/**
@@ -165,165 +161,6 @@ public class JMoneyXmlFormat implements IFileDatastore {
 	 */
 	Map<ExtendablePropertySet, IdGenerator> idGenerators = new HashMap<ExtendablePropertySet, IdGenerator>();
 
-	/**
-	 * Read session from file. The session is set as the open session in the
-	 * given session manager.
-	 * <P>
-	 * The opened session is set as the current open JMoney session. If no
-	 * session can be opened then an appropriate message is displayed to the
-	 * user and the previous session, if any, is left open.
-	 * <P>
-	 * If this method returns false then any previous session will be left open.
-	 * The caller will not display any error message. This method must display
-	 * an appropriate error message if the file cannot be read.
-	 * 
-	 * @return true if the file was successfully read and the session was set in
-	 *         the given session manager, false if the user cancelled the
-	 *         operation or if a failure occurred
-	 */
-	public boolean readSession(final File sessionFile,
-			final SessionManager sessionManager, final IWorkbenchWindow window) {
-		try {
-			if (sessionFile.length() < 500000) {
-				// If the file is smaller than 500K then it is
-				// not worthwhile using a progress monitor.
-				// The monitor would flash up so quickly that the
-				// user could not read it.
-				readSessionQuietly(sessionFile, sessionManager, null);
-			} else {
-				IRunnableWithProgress readSessionRunnable = new IRunnableWithProgress() {
-
-					public void run(IProgressMonitor monitor)
-							throws InvocationTargetException {
-						// Set the number of work units in the monitor where
-						// one work unit is reading 100 Kbytes.
-						int workUnits = (int) (sessionFile.length() / 100000);
-
-						monitor.beginTask(MessageFormat.format(
-								Messages.JMoneyXmlFormat_OpeningFile,
-								sessionFile), workUnits);
-
-						try {
-							readSessionQuietly(sessionFile, sessionManager,
-									monitor);
-						} catch (Exception ex) {
-							throw new InvocationTargetException(ex);
-						} finally {
-							monitor.done();
-						}
-					}
-
-				};
-
-				ProgressMonitorDialog progressDialog = new ProgressMonitorDialog(
-						window.getShell());
-
-				try {
-					progressDialog.run(true, false, readSessionRunnable);
-				} catch (InvocationTargetException e) {
-					throw e.getCause();
-				}
-			}
-		} catch (InterruptedException e) {
-			/*
-			 * If the user interrupted the read then no error message is
-			 * displayed. Currently this cannot happen because the cancel button
-			 * is not enabled in the progress dialog, but if the cancel button
-			 * is enabled then we do nothing here, leaving the previous session,
-			 * if any, open.
-			 */
-			return false;
-		} catch (Throwable ex) {
-			JMoneyPlugin.log(ex);
-
-			String message = MessageFormat.format(
-					Messages.JMoneyXmlFormat_ReadErrorMessage, sessionFile.getPath());
-			String title = Messages.JMoneyXmlFormat_ReadErrorTitle;
-			MessageDialog.openError(window.getShell(), title, message);
-
-			return false;
-		}
-
-		return true;
-	}
-
-	/**
-	 * This class extends FileInputStream and overrides the various read
-	 * methods, counting the total number of bytes read and updating the
-	 * progress monitor.
-	 * <P>
-	 * This stream is used as input to BufferedInputStream, either directly or
-	 * through GZIPInputStream. Of all the read methods, only read(byte b[], int
-	 * off, int len) is used by BufferedInputStream, and read() is used
-	 * occassionally by GZIPInputStream. However, for completeness, all the read
-	 * methods have been overridden to update the byte count. Other methods that
-	 * may affect the progress, such as skip(n), do not appear to be called by
-	 * the above consumers of the stream.
-	 */
-	private class FileInputStreamWithMonitor extends FileInputStream {
-
-		private IProgressMonitor monitor;
-		private long totalBytes = 0;
-		private int previousTotalWork = 0;
-
-		/**
-		 * @param monitor
-		 *            The monitor to be updated. This parameter must be
-		 *            non-null. The monitor must have been initialized for an
-		 *            expected amount of total work units where one work unit is
-		 *            reading 100 KBytes of the input stream.
-		 */
-		FileInputStreamWithMonitor(File sessionFile, IProgressMonitor monitor)
-				throws FileNotFoundException {
-			super(sessionFile);
-			this.monitor = monitor;
-		}
-
-		/*
-		 * This method reads a single byte at a time. GZIPInputStream uses this
-		 * method occassionally, so we increment the count of bytes read just to
-		 * stop errors creeping in. However, we don't bother to update the
-		 * monitor.
-		 */
-		@Override
-		public int read() throws IOException {
-			totalBytes++;
-			return super.read();
-		}
-
-		@Override
-		public int read(byte b[]) throws IOException {
-			int bytesRead = super.read(b);
-			updateProgress(bytesRead);
-			return bytesRead;
-		}
-
-		@Override
-		public int read(byte b[], int off, int len) throws IOException {
-			int bytesRead = super.read(b, off, len);
-			updateProgress(bytesRead);
-			return bytesRead;
-		}
-
-		/**
-		 * Update the progress monitor. The number of bytes read from the input
-		 * stream is passed to this method and used to measure the progress.
-		 * 
-		 * @param bytesRead
-		 *            the number of bytes read from the input stream.
-		 */
-		private void updateProgress(int bytesRead) {
-			if (bytesRead > 0) {
-				totalBytes += bytesRead;
-				int newTotalWork = (int) (totalBytes / 100000);
-				if (newTotalWork > previousTotalWork) {
-					monitor.worked(newTotalWork - previousTotalWork);
-					previousTotalWork = newTotalWork;
-				}
-			}
-		}
-	}
-
 	/**
 	 * Read a session from file, creating a session manager and a session.
 	 * 
@@ -333,6 +170,7 @@ public class JMoneyXmlFormat implements IFileDatastore {
 	 *            this method will read the session without feedback on the
 	 *            progress.
 	 */
+	@Override
 	public void readSessionQuietly(File sessionFile,
 			SessionManager sessionManager, IProgressMonitor monitor)
 			throws FileNotFoundException, IOException, CoreException {
@@ -345,12 +183,12 @@ public class JMoneyXmlFormat implements IFileDatastore {
 
 		// If the extension is 'xml' then no compression is used.
 		// If the extension is 'jmx' then compression is used.
-		GZIPInputStream gin = null;
+		InputStream gin = null;
 		BufferedInputStream bin;
 		if (sessionFile.getName().endsWith(".xml")) { //$NON-NLS-1$
 			bin = new BufferedInputStream(fin);
 		} else {
-			gin = new GZIPInputStream(fin);
+			gin = new ReadAheadGZIPInputStream(fin);
 			bin = new BufferedInputStream(gin);
 		}
 
@@ -360,7 +198,9 @@ public class JMoneyXmlFormat implements IFileDatastore {
 		SAXParserFactory factory = SAXParserFactory.newInstance();
 		try {
 			try {
-				idToObjectMap = new HashMap<String, SimpleObjectKey>();
+				objectIds = new ObjectIdMap(sessionManager);
+				elementTables = new HashMap<ExtendablePropertySet<?>, PropertyElementTable>();
+				propertyProcessor = new PropertyProcessor(sessionManager);
 				currentSAXEventProcessor = null;
 
 				factory.setValidating(false);
@@ -407,7 +247,7 @@ public class JMoneyXmlFormat implements IFileDatastore {
 			if (sessionFile.getName().endsWith(".xml")) { //$NON-NLS-1$
 				bin = new BufferedInputStream(fin);
 			} else {
-				gin = new GZIPInputStream(fin);
+				gin = new ReadAheadGZIPInputStream(fin);
 				bin = new BufferedInputStream(gin);
 			}
 
@@ -666,6 +506,8 @@ public class JMoneyXmlFormat implements IFileDatastore {
 
 		private ExtendablePropertySet<?> propertySet;
 
+		private PropertyElementTable elementTable;
+
 		/**
 		 * If we have processed the start of an element representing a property
 		 * but have not yet processed the end of the element then this field is
@@ -675,6 +517,12 @@ public class JMoneyXmlFormat implements IFileDatastore {
 		 */
 		private PropertyAccessor propertyAccessor = null;
 
+		/**
+		 * The index of <code>propertyAccessor</code> into the scalar values
+		 * or into the lists, as appropriate.
+		 */
+		private int propertyIndex;
+
 		/**
 		 * Key to the object being parsed by this ObjectProcessor.
 		 * 
@@ -691,12 +539,23 @@ public class JMoneyXmlFormat implements IFileDatastore {
 		ListKey listKey;
 
 		/**
-		 * The list of parameters to be passed to the constructor of this
-		 * object.
+		 * The values of the scalar properties to be passed to the constructor
+		 * of this object, indexed as given by the element table. A value is
+		 * null if no element was found for the property.
+		 */
+		Object[] scalarValues;
+
+		/**
+		 * The lists to be passed to the constructor of this object, indexed
+		 * as given by the element table.
 		 */
-		Map<PropertyAccessor, Object> propertyValueMap = new HashMap<PropertyAccessor, Object>();
+		SimpleListManager[] lists;
 
-		Set<ExtensionPropertySet<?>> nonDefaultExtensions = new HashSet<ExtensionPropertySet<?>>();
+		/**
+		 * The extensions for which a property value has been set, or null if
+		 * there are none.
+		 */
+		Set<ExtensionPropertySet<?>> nonDefaultExtensions = null;
 
 		Object value;
 
@@ -716,23 +575,33 @@ public class JMoneyXmlFormat implements IFileDatastore {
 			this.listKey = listKey;
 			this.propertySet = propertySet;
 
+			elementTable = elementTables.get(propertySet);
+			if (elementTable == null) {
+				elementTable = new PropertyElementTable(propertySet);
+				elementTables.put(propertySet, elementTable);
+			}
+
 			/*
 			 * Create the object key now and put it in the id map, unless the object key has already
 			 * been created because it was referenced by a previous idref.
+			 * Objects that are never referenced have no id.
 			 * 
 			 * Either way, the object will be set into the key later.
 			 */
-			objectKey = idToObjectMap.get(id);
-			if (objectKey == null) {
+			if (id == null) {
 				objectKey = new SimpleObjectKey(sessionManager);
-				idToObjectMap.put(id, objectKey);
+			} else {
+				objectKey = objectIds.getKey(id);
 			}
 
-			for (ListPropertyAccessor propertyAccessor : propertySet
-					.getListProperties3()) {
-				propertyValueMap.put(propertyAccessor, new SimpleListManager(
+			scalarValues = new Object[elementTable.getScalarPropertyCount()];
+
+			ListPropertyAccessor[] listProperties = elementTable.getListProperties();
+			lists = new SimpleListManager[listProperties.length];
+			for (int i = 0; i < listProperties.length; i++) {
+				lists[i] = new SimpleListManager(
 						sessionManager,
-						new ListKey(objectKey, propertyAccessor)));
+						new ListKey(objectKey, listProperties[i]));
 			}
 		}
 
@@ -763,46 +632,9 @@ public class JMoneyXmlFormat implements IFileDatastore {
 			// "http://jmoney.sf.net". If the element is a property in an
 			// extension property set then the id of the extension property
 			// set will be appended.
-			String namespace;
-			if (uri.length() == 20) {
-				namespace = null;
-			} else {
-				namespace = uri.substring(21);
-			}
-
-			try {
-				// Find the property accessor for this property.
-				// The property may be in the property set for the
-				// object or in the property set for any base objects,
-				// or may be in extensions of this or any base object.
-				// If no namespace is specified then we search only
-				// this and the base property sets.
-
-				if (namespace == null) {
-					// Search this property set and base property sets,
-					// but exclude extensions.
-					propertyAccessor = propertySet
-							.getPropertyAccessorGivenLocalNameAndExcludingExtensions(localName);
-				} else {
-					ExtensionPropertySet<?> propertySet = PropertySet
-							.getExtensionPropertySet(namespace);
-					propertyAccessor = propertySet.getProperty(localName);
-				}
-			} catch (PropertySetNotFoundException e) {
-				// The property no longer exists.
-				// TODO: Log this. When changing the properties,
-				// one is supposed to provide upgrader properties
-				// for all obsoleted properties.
-				// We drop the value.
-				// Ignore content
-				currentSAXEventProcessor = new IgnoreElementProcessor(
-						sessionManager, this, null);
-				return;
-			} catch (PropertyNotFoundException e) {
+			propertyAccessor = elementTable.getPropertyAccessor(uri, localName);
+			if (propertyAccessor == null) {
 				// The property no longer exists.
-				// TODO: Log this. When changing the properties,
-				// one is supposed to provide upgrader properties
-				// for all obsoleted properties.
 				// We drop the value.
 				// Ignore content
 				currentSAXEventProcessor = new IgnoreElementProcessor(
@@ -813,15 +645,12 @@ public class JMoneyXmlFormat implements IFileDatastore {
 			if (propertyAccessor.isScalar()) {
 				Class propertyClass = ((ScalarPropertyAccessor<?>) propertyAccessor)
 						.getClassOfValueObject();
+				propertyIndex = elementTable.getScalarIndex((ScalarPropertyAccessor<?>) propertyAccessor);
 
 				// See if the 'idref' attribute is specified.
 				String idref = atts.getValue("idref"); //$NON-NLS-1$
 				if (idref != null) {
-					SimpleObjectKey value = idToObjectMap.get(idref);
-					if (value == null) {
-						value = new SimpleObjectKey(sessionManager);
-						idToObjectMap.put(idref, value);
-					}
+					SimpleObjectKey value = objectIds.getKey(idref);
 
 					/*
 					 * Process this element.
@@ -844,8 +673,8 @@ public class JMoneyXmlFormat implements IFileDatastore {
 							.isAssignableFrom(propertyClass));
 
 					// Property class is primitive or primitive class
-					currentSAXEventProcessor = new PropertyProcessor(
-							sessionManager, this, propertyClass);
+					propertyProcessor.start(this, propertyClass);
+					currentSAXEventProcessor = propertyProcessor;
 				}
 			} else {
 				ListPropertyAccessor<?> listProperty = (ListPropertyAccessor<?>) propertyAccessor;
@@ -883,8 +712,8 @@ public class JMoneyXmlFormat implements IFileDatastore {
 					actualPropertySet = typedPropertySet;
 				}
 
-				SimpleListManager list = (SimpleListManager) propertyValueMap
-						.get(propertyAccessor);
+				propertyIndex = elementTable.getListIndex(listProperty);
+				SimpleListManager list = lists[propertyIndex];
 				String id = atts.getValue("id"); //$NON-NLS-1$
 				currentSAXEventProcessor = new ObjectProcessor(sessionManager,
 						this, list.getListKey(), actualPropertySet, id);
@@ -922,9 +751,10 @@ public class JMoneyXmlFormat implements IFileDatastore {
 
 				public <V> V getScalarValue(
 						ScalarPropertyAccessor<V> propertyAccessor) {
-					if (propertyValueMap.containsKey(propertyAccessor)) {
+					int index = elementTable.getScalarIndex(propertyAccessor);
+					if (index != -1 && scalarValues[index] != null) {
 						return propertyAccessor.getClassOfValueObject().cast(
-								propertyValueMap.get(propertyAccessor));
+								scalarValues[index]);
 					} else {
 						return propertyAccessor.getDefaultValue();
 					}
@@ -932,8 +762,9 @@ public class JMoneyXmlFormat implements IFileDatastore {
 
 				public IObjectKey getReferencedObjectKey(
 						ReferencePropertyAccessor<?> propertyAccessor) {
-					if (propertyValueMap.containsKey(propertyAccessor)) {
-						return (IObjectKey)propertyValueMap.get(propertyAccessor);
+					int index = elementTable.getScalarIndex(propertyAccessor);
+					if (index != -1) {
+						return (IObjectKey)scalarValues[index];
 					} else {
 						return null;
 					}
@@ -942,10 +773,13 @@ public class JMoneyXmlFormat implements IFileDatastore {
 				public <E extends ExtendableObject> IListManager<E> getListManager(
 						IObjectKey listOwnerKey,
 						ListPropertyAccessor<E> listAccessor) {
-					return (IListManager<E>) propertyValueMap.get(listAccessor);
+					return lists[elementTable.getListIndex(listAccessor)];
 				}
 
 				public Collection<ExtensionPropertySet<?>> getNonDefaultExtensions() {
+					if (nonDefaultExtensions == null) {
+						return Collections.emptySet();
+					}
 					return nonDefaultExtensions;
 				}
 			};
@@ -1009,12 +843,10 @@ public class JMoneyXmlFormat implements IFileDatastore {
 			// is a list property then the object is added to
 			// the list.
 			if (propertyAccessor.isScalar()) {
-				propertyValueMap.put(propertyAccessor, value);
+				scalarValues[propertyIndex] = value;
 			} else {
 				// Must be an element in an array.
-				SimpleListManager list = (SimpleListManager) propertyValueMap
-						.get(propertyAccessor);
-				list.add(value);
+				lists[propertyIndex].add(value);
 			}
 
 			/*
@@ -1022,6 +854,9 @@ public class JMoneyXmlFormat implements IFileDatastore {
 			 * set.
 			 */
 			if (propertyAccessor.getPropertySet() instanceof ExtensionPropertySet) {
+				if (nonDefaultExtensions == null) {
+					nonDefaultExtensions = new HashSet<ExtensionPropertySet<?>>();
+				}
 				nonDefaultExtensions
 						.add((ExtensionPropertySet) propertyAccessor
 								.getPropertySet());
@@ -1044,6 +879,10 @@ public class JMoneyXmlFormat implements IFileDatastore {
 	 * An event processor that takes over processing while we are inside a
 	 * scalar property. The processor looks for the character content of the
 	 * element (which gives the value of the property).
+	 * <P>
+	 * A single instance is used for all scalar properties. The character
+	 * content is collected in a buffer that is kept from one property to the
+	 * next, and numbers and dates are parsed directly from the buffer.
 	 */
 	private class PropertyProcessor extends SAXEventProcessor {
 		/**
@@ -1057,34 +896,38 @@ public class JMoneyXmlFormat implements IFileDatastore {
 		 */
 		Object value = null;
 
-		String s = ""; //$NON-NLS-1$
+		char[] text = new char[100];
+
+		int textLength = 0;
+
+		/**
+		 * Calendar used to construct dates, being a copy of the calendar in
+		 * the date format so dates are the same as would be parsed by the
+		 * date format.
+		 */
+		Calendar calendar = (Calendar)dateFormat.getCalendar().clone();
+
+		PropertyProcessor(SessionManager sessionManager) {
+			super(sessionManager, null);
+		}
 
 		/**
+		 * Starts the processing of an element.
 		 * 
 		 * @param parent
-		 *            The event processor that was in effect. This newly created
-		 *            event processor will take over and will process the
+		 *            The event processor that was in effect. This event
+		 *            processor will take over and will process the
 		 *            contents of an element. When the end tag for the element
 		 *            is found then this original event processor must be
 		 *            restored as the active event processor.
 		 */
-		PropertyProcessor(SessionManager sessionManager,
-				SAXEventProcessor parent, Class<?> propertyClass) {
-			super(sessionManager, parent);
+		void start(SAXEventProcessor parent, Class<?> propertyClass) {
+			this.parent = parent;
 			this.propertyClass = propertyClass;
+			this.value = null;
+			this.textLength = 0;
 		}
 
-		/**
-		 * DOCUMENT ME!
-		 * 
-		 * @param name
-		 *            DOCUMENT ME!
-		 * @param atts
-		 *            DOCUMENT ME!
-		 * 
-		 * @throws SAXException
-		 *             DOCUMENT ME!
-		 */
 		@Override
 		public void startElement(String uri, String localName, Attributes atts)
 				throws SAXException {
@@ -1092,22 +935,13 @@ public class JMoneyXmlFormat implements IFileDatastore {
 					"element not expected inside scalar property"); //$NON-NLS-1$
 		}
 
-		/**
-		 * DOCUMENT ME!
-		 * 
-		 * @param ch
-		 *            DOCUMENT ME!
-		 * @param start
-		 *            DOCUMENT ME!
-		 * @param length
-		 *            DOCUMENT ME!
-		 * 
-		 * @throws SAXException
-		 *             DOCUMENT ME!
-		 */
 		@Override
 		public void characters(char ch[], int start, int length) {
-			s += new String(ch, start, length);
+			if (textLength + length > text.length) {
+				text = Arrays.copyOf(text, Math.max(textLength + length, text.length * 2));
+			}
+			System.arraycopy(ch, start, text, textLength, length);
+			textLength += length;
 		}
 
 		@SuppressWarnings("unchecked")
@@ -1115,24 +949,25 @@ public class JMoneyXmlFormat implements IFileDatastore {
 		public SAXEventProcessor endElement() {
 			// TODO: change this. Find a constructor from string.
 			if (propertyClass.equals(Integer.class)) {
-				value = new Integer(s);
+				long number = parseLong();
+				if (number != (int)number) {
+					throw new NumberFormatException("Value out of range: " + getText()); //$NON-NLS-1$
+				}
+				value = Integer.valueOf((int)number);
 			} else if (propertyClass.equals(Long.class)) {
-				value = new Long(s);
+				value = Long.valueOf(parseLong());
 			} else if (propertyClass.equals(String.class)) {
-				value = s;
+				value = getText();
 			} else if (propertyClass.equals(Character.class)) {
-				value = new Character(s.charAt(0));
+				value = Character.valueOf(getText().charAt(0));
 			} else if (propertyClass.equals(Boolean.class)) {
-				value = new Boolean(s);
+				value = Boolean.valueOf(textLength == 4
+						&& Character.toLowerCase(text[0]) == 't'
+						&& Character.toLowerCase(text[1]) == 'r'
+						&& Character.toLowerCase(text[2]) == 'u'
+						&& Character.toLowerCase(text[3]) == 'e');
 			} else if (propertyClass.equals(Date.class)) {
-				try {
-					value = dateFormat.parse(s);
-				} catch (ParseException e) {
-					// If the date does not parse then the file is not
-					// valid, so throw an exception to cause a file read
-					// failure.
-					throw new RuntimeException("file contains invalid date"); //$NON-NLS-1$
-				}
+				value = parseDate();
 			} else {
 				// The property value is an class that is in none of the above
 				// categories. We therefore use the string constructor to
@@ -1141,7 +976,7 @@ public class JMoneyXmlFormat implements IFileDatastore {
 				try {
 					value = propertyClass.getConstructor(
 							new Class[] { String.class }).newInstance(
-							new Object[] { s });
+							new Object[] { getText() });
 				} catch (Exception e) {
 					// The classes used in the data model are checked when the
 					// PropertySet and PropertyAccessor static fields are
@@ -1160,6 +995,79 @@ public class JMoneyXmlFormat implements IFileDatastore {
 			return parent;
 		}
 
+		private String getText() {
+			return new String(text, 0, textLength);
+		}
+
+		/**
+		 * Parses the text as a decimal number. Text that is not simply an
+		 * optional sign followed by digits is parsed by Long, which throws
+		 * the same exception as it did before numbers were parsed here.
+		 */
+		private long parseLong() {
+			int i = 0;
+			boolean negative = false;
+			if (textLength > 0 && (text[0] == '-' || text[0] == '+')) {
+				negative = (text[0] == '-');
+				i = 1;
+			}
+
+			// Up to 18 digits cannot overflow a long.
+			if (i == textLength || textLength - i > 18) {
+				return Long.parseLong(getText());
+			}
+
+			long number = 0;
+			for (; i < textLength; i++) {
+				char c = text[i];
+				if (c < '0' || c > '9') {
+					return Long.parseLong(getText());
+				}
+				number = number * 10 + (c - '0');
+			}
+			return negative ? -number : number;
+		}
+
+		/**
+		 * Parses the text as a date in the form yyyy.MM.dd. Text in any other
+		 * form is parsed by the date format.
+		 */
+		private Date parseDate() {
+			int[] fields = new int[3];
+			int field = 0;
+			int digitCount = 0;
+			for (int i = 0; i < textLength; i++) {
+				char c = text[i];
+				if (c >= '0' && c <= '9' && digitCount < 4) {
+					fields[field] = fields[field] * 10 + (c - '0');
+					digitCount++;
+				} else if (c == '.' && digitCount > 0 && field < 2) {
+					field++;
+					digitCount = 0;
+				} else {
+					return parseDateUsingFormat();
+				}
+			}
+			if (field != 2 || digitCount == 0) {
+				return parseDateUsingFormat();
+			}
+
+			calendar.clear();
+			calendar.set(fields[0], fields[1] - 1, fields[2]);
+			return calendar.getTime();
+		}
+
+		private Date parseDateUsingFormat() {
+			try {
+				return dateFormat.parse(getText());
+			} catch (ParseException e) {
+				// If the date does not parse then the file is not
+				// valid, so throw an exception to cause a file read
+				// failure.
+				throw new RuntimeException("file contains invalid date"); //$NON-NLS-1$
+			}
+		}
+
 		/*
 		 * (non-Javadoc)
 		 * 
@@ -1265,7 +1173,16 @@ public class JMoneyXmlFormat implements IFileDatastore {
 	Map<ExtendableObject, String> objectToIdMap;
 
 	// Used for reading
-	Map<String, SimpleObjectKey> idToObjectMap;
+	ObjectIdMap objectIds;
+
+	Map<ExtendablePropertySet<?>, PropertyElementTable> elementTables;
+
+	/**
+	 * The processor for scalar property elements. Scalar property elements
+	 * do not contain other elements, so a single processor is used for all
+	 * of them.
+	 */
+	PropertyProcessor propertyProcessor;
 
 	/**
 	 * Current event processor. A stack of event processors is maintained as the
@@ -1274,73 +1191,6 @@ public class JMoneyXmlFormat implements IFileDatastore {
 	 */
 	public SAXEventProcessor currentSAXEventProcessor;
 
-	/**
-	 * Write session to file.
-	 */
-	public void writeSession(final SessionManager sessionManager,
-			final File sessionFile, IWorkbenchWindow window) {
-		// If there is any modified data in the controls in any of the
-		// views, then commit these to the database now.
-		// TODO: How do we do this? Should framework call first
-		// commitRemainingUserChanges();
-
-		try {
-			if (/* session.getTransactionCount() < 1000 */false) {
-				// If the session has less than 1000 transactions then it is
-				// not worthwhile using a progress monitor.
-				// The monitor would flash up so quickly that the
-				// user could not read it.
-				writeSessionQuietly(sessionManager, sessionFile, null);
-			} else {
-				IRunnableWithProgress writeSessionRunnable = new IRunnableWithProgress() {
-
-					public void run(IProgressMonitor monitor)
-							throws InvocationTargetException {
-						// Set the number of work units in the monitor where
-						// one work unit is writing 500 transactions
-						// int workUnits =
-						// (int)(session.getTransactionCount()/500);
-						int workUnits = IProgressMonitor.UNKNOWN;
-
-						monitor.beginTask(MessageFormat.format(
-								Messages.JMoneyXmlFormat_SavingFile,
-								sessionFile), workUnits);
-
-						try {
-							writeSessionQuietly(sessionManager, sessionFile,
-									monitor);
-						} catch (Exception ex) {
-							throw new InvocationTargetException(ex);
-						} finally {
-							monitor.done();
-						}
-					}
-
-				};
-
-				ProgressMonitorDialog progressDialog = new ProgressMonitorDialog(
-						window.getShell());
-
-				try {
-					progressDialog.run(true, false, writeSessionRunnable);
-				} catch (InvocationTargetException e) {
-					throw e.getCause();
-				}
-			}
-		} catch (InterruptedException e) {
-			// If the user inturrupted the write then we do nothing.
-			// Currently this cannot happen because the cancel button is not
-			// enabled in the progress dialog, but if the cancel button is
-			// enabled
-			// then a message should perhaps be displayed here indicating that
-			// the
-			// file is unusable.
-		} catch (Throwable ex) {
-			JMoneyPlugin.log(ex);
-			fileWriteError(sessionFile, window);
-		}
-	}
-
 	/**
 	 * Write session to file.
 	 * 
@@ -1351,6 +1201,7 @@ public class JMoneyXmlFormat implements IFileDatastore {
 	 *            progress.
 	 */
 	// TODO: update the monitor, perhaps by counting the transactions.
+	@Override
 	public void writeSessionQuietly(SessionManager sessionManager,
 			File sessionFile, IProgressMonitor monitor) throws IOException,
 			SAXException, TransformerConfigurationException {
@@ -1383,7 +1234,13 @@ public class JMoneyXmlFormat implements IFileDatastore {
 		if (sessionFile.getName().endsWith(".xml")) { //$NON-NLS-1$
 			bout = new BufferedOutputStream(fout);
 		} else {
-			GZIPOutputStream gout = new GZIPOutputStream(fout);
+			// The data is compressed on several threads where the Java version allows.
+			OutputStream gout;
+			if (BlockGZIPOutputStream.isAvailable()) {
+				gout = new BlockGZIPOutputStream(fout);
+			} else {
+				gout = new GZIPOutputStream(fout);
+			}
 			bout = new BufferedOutputStream(gout);
 		}
 
@@ -1575,17 +1432,6 @@ public class JMoneyXmlFormat implements IFileDatastore {
 		return id;
 	}
 
-	/**
-	 * This method is used when writing a session.
-	 */
-	public void fileWriteError(File file, IWorkbenchWindow window) {
-		String message = MessageFormat.format(
-				Messages.JMoneyXmlFormat_WriteErrorMessage, file.getPath());
-		String title = Messages.JMoneyXmlFormat_WriteErrorTitle;
-
-		MessageDialog.openError(window.getShell(), title, message);
-	}
-
 	/**
 	 * Converts an old format session (net.sf.jmoney.model.Session) to the
 	 * latest format session (net.sf.jmoney.model2.Session). The current model
@@ -0,0 +1,118 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.serializeddatastore.formats;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import net.sf.jmoney.serializeddatastore.SessionManager;
+import net.sf.jmoney.serializeddatastore.SimpleObjectKey;
+
+/**
+ * Maps the id and idref attributes in the XML to the keys of the objects,
+ * used when reading a session.
+ * <P>
+ * Almost all ids are written as a prefix followed by a number, the numbers
+ * for each prefix being allocated in sequence from one. The keys for such
+ * ids are kept in an array for each prefix, indexed by the number. Other
+ * ids, such as currency codes, are kept in a map.
+ *
+ * @author Nigel Westbury
+ */
+class ObjectIdMap {
+
+	/**
+	 * The largest number of digits in an id that is looked up by number.
+	 * Longer numbers could overflow an int.
+	 */
+	private static final int MAXIMUM_DIGITS = 7;
+
+	private SessionManager sessionManager;
+
+	private Vector<String> prefixes = new Vector<String>();
+
+	private Vector<SimpleObjectKey[]> numberedKeys = new Vector<SimpleObjectKey[]>();
+
+	private Map<String, SimpleObjectKey> otherKeys = new HashMap<String, SimpleObjectKey>();
+
+	ObjectIdMap(SessionManager sessionManager) {
+		this.sessionManager = sessionManager;
+	}
+
+	/**
+	 * Returns the key for the object with the given id. The key is created
+	 * when the id is first found, which may be in an idref that comes before
+	 * the object.
+	 */
+	SimpleObjectKey getKey(String id) {
+		int digitsStart = id.length();
+		while (digitsStart > 0 && id.charAt(digitsStart - 1) >= '0' && id.charAt(digitsStart - 1) <= '9') {
+			digitsStart--;
+		}
+		int digitCount = id.length() - digitsStart;
+
+		/*
+		 * Numbers with leading zeros go in the map, as otherwise "id07" and
+		 * "id7" would be the same object.
+		 */
+		if (digitCount == 0 || digitCount > MAXIMUM_DIGITS
+				|| (digitCount > 1 && id.charAt(digitsStart) == '0')) {
+			SimpleObjectKey key = otherKeys.get(id);
+			if (key == null) {
+				key = new SimpleObjectKey(sessionManager);
+				otherKeys.put(id, key);
+			}
+			return key;
+		}
+
+		int number = 0;
+		for (int i = digitsStart; i < id.length(); i++) {
+			number = number * 10 + (id.charAt(i) - '0');
+		}
+
+		int prefixIndex = getPrefixIndex(id, digitsStart);
+		SimpleObjectKey[] keys = numberedKeys.get(prefixIndex);
+		if (number >= keys.length) {
+			keys = Arrays.copyOf(keys, Math.max(number + 1, keys.length * 2));
+			numberedKeys.set(prefixIndex, keys);
+		}
+		if (keys[number] == null) {
+			keys[number] = new SimpleObjectKey(sessionManager);
+		}
+		return keys[number];
+	}
+
+	private int getPrefixIndex(String id, int prefixLength) {
+		for (int i = 0; i < prefixes.size(); i++) {
+			String prefix = prefixes.get(i);
+			if (prefix.length() == prefixLength && id.startsWith(prefix)) {
+				return i;
+			}
+		}
+		prefixes.add(id.substring(0, prefixLength));
+		numberedKeys.add(new SimpleObjectKey[256]);
+		return prefixes.size() - 1;
+	}
+}
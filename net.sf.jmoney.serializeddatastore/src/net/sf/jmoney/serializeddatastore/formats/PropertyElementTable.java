@@ -0,0 +1,185 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.serializeddatastore.formats;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.jmoney.model2.ExtendablePropertySet;
+import net.sf.jmoney.model2.ExtensionPropertySet;
+import net.sf.jmoney.model2.ListPropertyAccessor;
+import net.sf.jmoney.model2.PropertyAccessor;
+import net.sf.jmoney.model2.PropertyNotFoundException;
+import net.sf.jmoney.model2.PropertySet;
+import net.sf.jmoney.model2.PropertySetNotFoundException;
+import net.sf.jmoney.model2.ScalarPropertyAccessor;
+
+/**
+ * The properties of a property set as they appear in the XML, used when
+ * reading a session.
+ * <P>
+ * Each property of an object is an element in the XML. The property for an
+ * element is found from the element's namespace and local name when the
+ * element is first found in an object of the property set, and is then
+ * kept so that later elements with the same name need only a map lookup.
+ * The values of the properties of an object being read are kept in arrays,
+ * each property having an index into the arrays for its property set.
+ *
+ * @author Nigel Westbury
+ */
+class PropertyElementTable {
+
+	/**
+	 * The length of the namespace for properties that are not in extensions.
+	 * The namespace for properties in an extension has the extension
+	 * property set id appended after a '/'.
+	 */
+	private static final int BASE_NAMESPACE_LENGTH = "http://jmoney.sf.net".length(); //$NON-NLS-1$
+
+	private ExtendablePropertySet<?> propertySet;
+
+	private int scalarPropertyCount = 0;
+
+	private Map<ScalarPropertyAccessor<?>, Integer> scalarIndexes = new HashMap<ScalarPropertyAccessor<?>, Integer>();
+
+	private ListPropertyAccessor<?>[] listProperties;
+
+	private Map<ListPropertyAccessor<?>, Integer> listIndexes = new HashMap<ListPropertyAccessor<?>, Integer>();
+
+	/**
+	 * Maps namespace and then local name to the property accessor. The
+	 * accessor is null if the element is not a property of this property
+	 * set, in which case the element is ignored.
+	 */
+	private Map<String, Map<String, PropertyAccessor>> elements = new HashMap<String, Map<String, PropertyAccessor>>();
+
+	PropertyElementTable(ExtendablePropertySet<?> propertySet) {
+		this.propertySet = propertySet;
+
+		for (ScalarPropertyAccessor<?> propertyAccessor : propertySet.getScalarProperties3()) {
+			scalarIndexes.put(propertyAccessor, scalarPropertyCount++);
+		}
+
+		listProperties = propertySet.getListProperties3().toArray(new ListPropertyAccessor<?>[0]);
+		for (int i = 0; i < listProperties.length; i++) {
+			listIndexes.put(listProperties[i], i);
+		}
+	}
+
+	/**
+	 * @return the number of scalar properties, being the length of the array
+	 * 			that holds the scalar values of an object
+	 */
+	int getScalarPropertyCount() {
+		return scalarPropertyCount;
+	}
+
+	/**
+	 * @return the list properties, in the order of the indexes of the list
+	 * 			properties
+	 */
+	ListPropertyAccessor<?>[] getListProperties() {
+		return listProperties;
+	}
+
+	/**
+	 * @return the index of the given scalar property, or -1 if the property
+	 * 			is not a property of this property set
+	 */
+	int getScalarIndex(ScalarPropertyAccessor<?> propertyAccessor) {
+		Integer index = scalarIndexes.get(propertyAccessor);
+		return (index == null) ? -1 : index;
+	}
+
+	/**
+	 * @return the index of the given list property, or -1 if the property
+	 * 			is not a property of this property set
+	 */
+	int getListIndex(ListPropertyAccessor<?> propertyAccessor) {
+		Integer index = listIndexes.get(propertyAccessor);
+		return (index == null) ? -1 : index;
+	}
+
+	/**
+	 * Finds the property whose value is contained in an element.
+	 * <P>
+	 * The property may be in the property set for the object or in the
+	 * property set for any base objects, or may be in extensions of this or
+	 * any base object. If the element is not in an extension namespace then
+	 * we search only this and the base property sets.
+	 *
+	 * @return the property accessor, or null if the property no longer
+	 * 			exists, in which case the value is dropped
+	 */
+	PropertyAccessor getPropertyAccessor(String uri, String localName) {
+		Map<String, PropertyAccessor> localNames = elements.get(uri);
+		if (localNames == null) {
+			localNames = new HashMap<String, PropertyAccessor>();
+			elements.put(uri, localNames);
+		}
+
+		PropertyAccessor propertyAccessor = localNames.get(localName);
+		if (propertyAccessor == null && !localNames.containsKey(localName)) {
+			propertyAccessor = findPropertyAccessor(uri, localName);
+			localNames.put(localName, propertyAccessor);
+		}
+		return propertyAccessor;
+	}
+
+	private PropertyAccessor findPropertyAccessor(String uri, String localName) {
+		try {
+			PropertyAccessor propertyAccessor;
+			if (uri.length() == BASE_NAMESPACE_LENGTH) {
+				// Search this property set and base property sets,
+				// but exclude extensions.
+				propertyAccessor = propertySet
+						.getPropertyAccessorGivenLocalNameAndExcludingExtensions(localName);
+			} else {
+				String namespace = uri.substring(BASE_NAMESPACE_LENGTH + 1);
+				ExtensionPropertySet<?> extensionPropertySet = PropertySet
+						.getExtensionPropertySet(namespace);
+				propertyAccessor = extensionPropertySet.getProperty(localName);
+			}
+
+			/*
+			 * Properties that are not in the arrays for this property set
+			 * would never be passed to the constructor, so they are dropped.
+			 */
+			if (propertyAccessor.isScalar()
+					? !scalarIndexes.containsKey(propertyAccessor)
+					: !listIndexes.containsKey(propertyAccessor)) {
+				return null;
+			}
+			return propertyAccessor;
+		} catch (PropertySetNotFoundException e) {
+			// The property no longer exists.
+			// TODO: Log this. When changing the properties,
+			// one is supposed to provide upgrader properties
+			// for all obsoleted properties.
+			return null;
+		} catch (PropertyNotFoundException e) {
+			// The property no longer exists.
+			return null;
+		}
+	}
+}
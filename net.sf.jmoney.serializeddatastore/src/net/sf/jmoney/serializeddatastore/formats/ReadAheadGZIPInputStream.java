@@ -0,0 +1,336 @@
+/*
+*
+*  JMoney - A Personal Finance Manager
+*  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+*
+*
+*  This program is free software; you can redistribute it and/or modify
+*  it under the terms of the GNU General Public License as published by
+*  the Free Software Foundation; either version 2 of the License, or
+*  (at your option) any later version.
+*
+*  This program is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*  GNU General Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License
+*  along with this program; if not, write to the Free Software
+*  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+*
+*/
+
+package net.sf.jmoney.serializeddatastore.formats;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * An input stream that reads gzip compressed data, decompressing the data
+ * on a separate thread ahead of the reads from this stream.
+ * <P>
+ * The decompression thread passes the data to the reading thread in chunks
+ * through a queue of limited size, so the amount of decompressed data held
+ * in memory does not depend on the size of the file. The reading thread is
+ * thus parsing the data while the next chunks are being decompressed.
+ * <P>
+ * The compressed data may contain several gzip members, as written by some
+ * gzip tools, in which case the data read is the concatenation of the
+ * members. The members are read here rather than by GZIPInputStream
+ * because GZIPInputStream in some older versions of Java reads only the
+ * first member.
+ *
+ * @author Nigel Westbury
+ */
+class ReadAheadGZIPInputStream extends InputStream {
+
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private static final int MAXIMUM_PENDING_CHUNKS = 16;
+
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	/**
+	 * The chunk put in the queue after the last chunk of data.
+	 */
+	private static final byte[] END = new byte[0];
+
+	private BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<byte[]>(MAXIMUM_PENDING_CHUNKS);
+
+	/**
+	 * The exception that stopped the decompression thread, or null if the
+	 * decompression did not fail.
+	 */
+	private volatile Throwable failure = null;
+
+	private Thread decompressionThread;
+
+	/*
+	 * Fields used by the reading thread
+	 */
+
+	private byte[] currentChunk = null;
+
+	private int position = 0;
+
+	private boolean ended = false;
+
+	/*
+	 * Fields used by the decompression thread
+	 */
+
+	private InputStream in;
+
+	private byte[] inputBuffer = new byte[CHUNK_SIZE];
+
+	private int inputPosition = 0;
+
+	private int inputLength = 0;
+
+	public ReadAheadGZIPInputStream(InputStream in) {
+		this.in = in;
+
+		decompressionThread = new Thread("JMoney decompression") { //$NON-NLS-1$
+			@Override
+			public void run() {
+				try {
+					decompress();
+				} catch (InterruptedException e) {
+					// The stream was closed before all the data was read.
+					return;
+				} catch (Throwable e) {
+					failure = e;
+				} finally {
+					try {
+						ReadAheadGZIPInputStream.this.in.close();
+					} catch (IOException e) {
+						// Ignore, as we have all the data we need.
+					}
+				}
+
+				try {
+					chunks.put(END);
+				} catch (InterruptedException e) {
+					// The stream was closed, so the end is not needed.
+				}
+			}
+		};
+		decompressionThread.setDaemon(true);
+		decompressionThread.start();
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextChunkIfNeeded()) {
+			return -1;
+		}
+		return currentChunk[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!nextChunkIfNeeded()) {
+			return -1;
+		}
+		int count = Math.min(len, currentChunk.length - position);
+		System.arraycopy(currentChunk, position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	/**
+	 * Waits for the next chunk from the decompression thread if all the data
+	 * in the current chunk has been read.
+	 *
+	 * @return true if there is data to be read, false if the end of the data
+	 * 			has been reached
+	 */
+	private boolean nextChunkIfNeeded() throws IOException {
+		while (currentChunk == null || position == currentChunk.length) {
+			if (ended) {
+				return false;
+			}
+
+			try {
+				currentChunk = chunks.take();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			position = 0;
+
+			if (currentChunk == END) {
+				ended = true;
+				if (failure != null) {
+					throw new IOException(failure.getMessage(), failure);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stops the decompression thread, which closes the underlying stream.
+	 */
+	@Override
+	public void close() {
+		ended = true;
+		decompressionThread.interrupt();
+	}
+
+	/**
+	 * Decompresses all the members, putting the data in the queue.
+	 */
+	private void decompress() throws IOException, InterruptedException {
+		Inflater inflater = new Inflater(true);
+		CRC32 crc = new CRC32();
+
+		byte[] chunk = new byte[CHUNK_SIZE];
+		int chunkLength = 0;
+
+		try {
+			readHeader();
+			do {
+				inflater.reset();
+				crc.reset();
+				long memberLength = 0;
+
+				inflater.setInput(inputBuffer, inputPosition, inputLength - inputPosition);
+				while (!inflater.finished()) {
+					if (inflater.needsInput()) {
+						if (!fillInputBuffer()) {
+							throw new EOFException("Unexpected end of ZLIB input stream"); //$NON-NLS-1$
+						}
+						inflater.setInput(inputBuffer, 0, inputLength);
+					}
+
+					int count;
+					try {
+						count = inflater.inflate(chunk, chunkLength, CHUNK_SIZE - chunkLength);
+					} catch (DataFormatException e) {
+						throw new ZipException(e.getMessage());
+					}
+					if (count == 0 && inflater.needsDictionary()) {
+						throw new ZipException("Dictionary needed"); //$NON-NLS-1$
+					}
+
+					crc.update(chunk, chunkLength, count);
+					chunkLength += count;
+					memberLength += count;
+
+					if (chunkLength == CHUNK_SIZE) {
+						chunks.put(chunk);
+						chunk = new byte[CHUNK_SIZE];
+						chunkLength = 0;
+					}
+				}
+				inputPosition = inputLength - inflater.getRemaining();
+
+				long expectedCrc = readIntLittleEndian();
+				long expectedLength = readIntLittleEndian();
+				if (expectedCrc != crc.getValue() || expectedLength != (memberLength & 0xFFFFFFFFL)) {
+					throw new ZipException("Corrupt GZIP trailer"); //$NON-NLS-1$
+				}
+			} while (isNextMember());
+		} finally {
+			inflater.end();
+		}
+
+		if (chunkLength > 0) {
+			chunks.put(Arrays.copyOf(chunk, chunkLength));
+		}
+	}
+
+	/**
+	 * Reads the header of a member, leaving the input positioned at the
+	 * compressed data.
+	 */
+	private void readHeader() throws IOException {
+		if (readByte() != 0x1F || readByte() != 0x8B) {
+			throw new ZipException("Not in GZIP format"); //$NON-NLS-1$
+		}
+		if (readByte() != 8) {
+			throw new ZipException("Unsupported compression method"); //$NON-NLS-1$
+		}
+		int flags = readByte();
+
+		// Skip the modification time, extra flags and operating system.
+		skipBytes(6);
+
+		if ((flags & FEXTRA) != 0) {
+			int extraLength = readByte() | (readByte() << 8);
+			skipBytes(extraLength);
+		}
+		if ((flags & FNAME) != 0) {
+			while (readByte() != 0) {
+				// Skip the file name
+			}
+		}
+		if ((flags & FCOMMENT) != 0) {
+			while (readByte() != 0) {
+				// Skip the comment
+			}
+		}
+		if ((flags & FHCRC) != 0) {
+			skipBytes(2);
+		}
+	}
+
+	/**
+	 * Indicates whether another member follows, reading its header if so.
+	 * Anything other than a member header following a member is ignored, as
+	 * it is by GZIPInputStream.
+	 */
+	private boolean isNextMember() throws IOException {
+		if (inputPosition == inputLength && !fillInputBuffer()) {
+			return false;
+		}
+		if ((inputBuffer[inputPosition] & 0xFF) != 0x1F) {
+			return false;
+		}
+		readHeader();
+		return true;
+	}
+
+	private boolean fillInputBuffer() throws IOException {
+		int count = in.read(inputBuffer, 0, inputBuffer.length);
+		inputPosition = 0;
+		inputLength = Math.max(count, 0);
+		return count > 0;
+	}
+
+	private int readByte() throws IOException {
+		if (inputPosition == inputLength && !fillInputBuffer()) {
+			throw new EOFException();
+		}
+		return inputBuffer[inputPosition++] & 0xFF;
+	}
+
+	private void skipBytes(int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			readByte();
+		}
+	}
+
+	private long readIntLittleEndian() throws IOException {
+		long value = 0;
+		for (int i = 0; i < 4; i++) {
+			value |= ((long)readByte()) << (8 * i);
+		}
+		return value;
+	}
+}
@@ -1,6 +1,7 @@
 package net.sf.jmoney.serializeddatastore.handlers;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 
 import net.sf.jmoney.JMoneyPlugin;
@@ -216,6 +217,12 @@ public class OpenSessionHandler extends AbstractHandler {
 				throw new OperationCanceledException();
 			}
 
+			try {
+				sessionManager.replayJournal();
+			} catch (IOException e) {
+				throw new OpenSessionException(e);
+			}
+
 			return sessionManager;
 		} else {
 			return null;
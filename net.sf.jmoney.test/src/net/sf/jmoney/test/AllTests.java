@@ -33,6 +33,8 @@ public class AllTests {
     public static Test suite() {
         TestSuite suite = new TestSuite("General JMoney Test Suite");
         suite.addTestSuite(OpenSessionTest.class);
+        suite.addTestSuite(EntryDateIndexTest.class);
+        suite.addTestSuite(JdbcBulkInsertTest.class);
         return suite;
     }
 
@@ -0,0 +1,139 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.test;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+
+import junit.framework.TestCase;
+import net.sf.jmoney.serializeddatastore.EntryDateIndex;
+
+/**
+ * Tests the index of entries by date that is used by the serialized
+ * datastore to find account balances.
+ *
+ * @author Nigel Westbury
+ */
+public class EntryDateIndexTest extends TestCase {
+
+    private EntryDateIndex<String> index;
+
+    @Override
+    public void setUp() {
+        index = new EntryDateIndex<String>();
+    }
+
+    public void testSumOfAmounts() {
+        index.add("a", date(2008, 1, 10), 100);
+        index.add("b", date(2008, 2, 15), 20);
+        index.add("c", date(2008, 2, 15), 3);
+        index.add("d", date(2008, 3, 1), -50);
+
+        assertEquals(73, index.sumOfAmounts(null, null));
+        assertEquals(123, index.sumOfAmounts(null, date(2008, 2, 15)));
+        assertEquals(23, index.sumOfAmounts(date(2008, 2, 15), date(2008, 2, 15)));
+        assertEquals(-27, index.sumOfAmounts(date(2008, 1, 11), null));
+        assertEquals(0, index.sumOfAmounts(date(2008, 1, 11), date(2008, 2, 14)));
+        assertEquals(100, index.sumOfAmountsBefore(date(2008, 1, 1), date(2008, 2, 15)));
+        assertEquals(23, index.sumOfAmountsBefore(date(2008, 2, 1), date(2008, 3, 1)));
+    }
+
+    public void testOrder() {
+        index.add("c", date(2008, 3, 1), 1);
+        index.add("a", date(2008, 1, 1), 1);
+        index.add("undated", null, 1000);
+        index.add("b1", date(2008, 2, 1), 1);
+        index.add("b2", date(2008, 2, 1), 1);
+
+        assertEquals(Arrays.asList("undated", "a", "b1", "b2", "c"), index.getEntries(false));
+        assertEquals(Arrays.asList("c", "b1", "b2", "a", "undated"), index.getEntries(true));
+
+        // Entries in transactions with no date are not in any total.
+        assertEquals(4, index.sumOfAmounts(null, null));
+    }
+
+    public void testRemoveAndUpdate() {
+        index.add("a", date(2008, 1, 1), 10);
+        index.add("b", date(2008, 6, 1), 20);
+
+        index.update("a", date(2008, 7, 1), 15);
+        assertEquals(0, index.sumOfAmounts(null, date(2008, 5, 31)));
+        assertEquals(35, index.sumOfAmounts(null, date(2008, 7, 1)));
+        assertEquals(Arrays.asList("b", "a"), index.getEntries(false));
+
+        index.update("b", null, 20);
+        assertEquals(15, index.sumOfAmounts(null, null));
+
+        index.remove("a");
+        index.remove("a");
+        assertEquals(0, index.sumOfAmounts(null, null));
+        assertEquals(Arrays.asList("b"), index.getEntries(false));
+    }
+
+    /**
+     * Dates far apart, such as a year mistyped as 1 or 9999, must not make
+     * the index allocate an array for every day between them.
+     */
+    public void testOutlyingDates() {
+        index.add("modern", date(2008, 6, 1), 1);
+        index.add("early", date(1, 1, 1), 10);
+        index.add("late", date(9999, 12, 31), 100);
+        index.add("modern2", date(2009, 6, 1), 1000);
+
+        assertEquals(1111, index.sumOfAmounts(null, null));
+        assertEquals(10, index.sumOfAmounts(null, date(1000, 1, 1)));
+        assertEquals(11, index.sumOfAmounts(null, date(2008, 6, 1)));
+        assertEquals(1001, index.sumOfAmounts(date(2000, 1, 1), date(2010, 1, 1)));
+        assertEquals(100, index.sumOfAmounts(date(2010, 1, 1), null));
+        assertEquals(Arrays.asList("early", "modern", "modern2", "late"), index.getEntries(false));
+
+        index.remove("early");
+        index.update("late", date(2009, 6, 1), 100);
+        assertEquals(1101, index.sumOfAmounts(null, null));
+        assertEquals(1100, index.sumOfAmounts(date(2009, 6, 1), date(2009, 6, 1)));
+    }
+
+    /**
+     * The dates of the entries are spread over more days than the index
+     * covers without looking at each day with entries.
+     */
+    public void testWideRange() {
+        long expectedTotal = 0;
+        for (int year = 1000; year <= 3000; year += 7) {
+            index.add("entry" + year, date(year, 3, 1), year);
+            expectedTotal += year;
+        }
+
+        assertEquals(expectedTotal, index.sumOfAmounts(null, null));
+        assertEquals(1000 + 1007, index.sumOfAmounts(null, date(1007, 3, 1)));
+        assertEquals(2995, index.sumOfAmounts(date(2995, 3, 1), null));
+        assertEquals(1994 + 2001, index.sumOfAmountsBefore(date(1990, 1, 1), date(2008, 1, 1)));
+    }
+
+    private static Date date(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day);
+        return calendar.getTime();
+    }
+}
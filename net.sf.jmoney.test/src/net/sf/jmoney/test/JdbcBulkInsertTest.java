@@ -0,0 +1,120 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.test;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+import net.sf.jmoney.jdbcdatastore.SessionManager;
+import net.sf.jmoney.model2.Account;
+import net.sf.jmoney.model2.BankAccount;
+import net.sf.jmoney.model2.BankAccountInfo;
+import net.sf.jmoney.model2.Entry;
+import net.sf.jmoney.model2.EntryInfo;
+import net.sf.jmoney.model2.ExtendableObject;
+import net.sf.jmoney.model2.ExtensionPropertySet;
+import net.sf.jmoney.model2.IListManager;
+import net.sf.jmoney.model2.IObjectKey;
+import net.sf.jmoney.model2.IValues;
+import net.sf.jmoney.model2.ListPropertyAccessor;
+import net.sf.jmoney.model2.ReferencePropertyAccessor;
+import net.sf.jmoney.model2.ScalarPropertyAccessor;
+import net.sf.jmoney.model2.Session;
+import net.sf.jmoney.model2.Transaction;
+import net.sf.jmoney.model2.TransactionInfo;
+
+import org.eclipse.core.runtime.Platform;
+
+/**
+ * Tests the inserts that the JDBC datastore queues in a bulk transaction.
+ * The tests use an in-memory HSQLDB database.
+ *
+ * @author Nigel Westbury
+ */
+public class JdbcBulkInsertTest extends TestCase {
+
+    private SessionManager manager;
+
+    @Override
+    public void setUp() throws Exception {
+        // The driver is in a fragment of the JDBC datastore plug-in.
+        Platform.getBundle("net.sf.jmoney.jdbcdatastore").loadClass("org.hsqldb.jdbcDriver");
+        manager = new SessionManager("jdbc:hsqldb:mem:bulkInsertTest", "sa", "");
+    }
+
+    @Override
+    public void tearDown() {
+        manager.close();
+    }
+
+    /**
+     * An entry may reference an account whose rows were queued after the
+     * first entry was queued, as happens when an import creates categories
+     * as it goes.  The account must still be written before the entry.
+     */
+    public void testEntryQueuedBeforeReferencedAccount() {
+        Session session = manager.getSession();
+
+        manager.startBulkTransaction();
+
+        Transaction transaction1 = session.getTransactionCollection().createNewElement(TransactionInfo.getPropertySet());
+        transaction1.createEntry();
+
+        BankAccount account = session.getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+
+        Transaction transaction2 = session.getTransactionCollection().createNewElement(TransactionInfo.getPropertySet());
+        Entry entry = transaction2.getEntryCollection().createNewElement(EntryInfo.getPropertySet(), new EntryValues(account), false);
+
+        manager.commitTransaction();
+
+        assertSame(account, entry.getAccount());
+        assertEquals(1, account.getEntries().size());
+    }
+
+    /**
+     * The values of a new entry, all defaults except for the account.
+     */
+    private static class EntryValues implements IValues {
+        private Account account;
+
+        EntryValues(Account account) {
+            this.account = account;
+        }
+
+        public <V> V getScalarValue(ScalarPropertyAccessor<V> propertyAccessor) {
+            return propertyAccessor.getDefaultValue();
+        }
+
+        public IObjectKey getReferencedObjectKey(ReferencePropertyAccessor<? extends ExtendableObject> propertyAccessor) {
+            return (propertyAccessor == EntryInfo.getAccountAccessor()) ? account.getObjectKey() : null;
+        }
+
+        public <E extends ExtendableObject> IListManager<E> getListManager(IObjectKey listOwnerKey, ListPropertyAccessor<E> listAccessor) {
+            return listOwnerKey.constructListManager(listAccessor);
+        }
+
+        public Collection<ExtensionPropertySet<?>> getNonDefaultExtensions() {
+            return Collections.emptyList();
+        }
+    }
+}
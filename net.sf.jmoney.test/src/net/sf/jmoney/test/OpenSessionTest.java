@@ -24,17 +24,21 @@ package net.sf.jmoney.test;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Calendar;
 
 import javax.xml.transform.TransformerConfigurationException;
 
 import junit.framework.TestCase;
+import net.sf.jmoney.model2.Account;
 import net.sf.jmoney.model2.BankAccountInfo;
 import net.sf.jmoney.model2.TransactionInfo;
 import net.sf.jmoney.model2.BankAccount;
 import net.sf.jmoney.model2.Entry;
 import net.sf.jmoney.model2.Session;
 import net.sf.jmoney.model2.Transaction;
+import net.sf.jmoney.serializeddatastore.SessionJournal;
 import net.sf.jmoney.serializeddatastore.SessionManager;
+import net.sf.jmoney.serializeddatastore.formats.JMoneyBinaryFormat;
 import net.sf.jmoney.serializeddatastore.formats.JMoneyXmlFormat;
 
 import org.eclipse.core.runtime.CoreException;
@@ -205,6 +209,160 @@ public class OpenSessionTest extends TestCase {
         assertEquals(1, session2.getTransactionCollection().size());
     }
 
+    /**
+     * Test that a session written in the binary format is read back
+     * with the same objects and references.
+     * 
+     * @throws CoreException
+     * @throws IOException
+     */
+    public void testBinaryFormatSaveCycle() throws IOException, CoreException {
+        File inputFile = getSessionFile("new_empty_session.jmx");
+        File outputFile = new File("test1.jmb");
+
+        JMoneyXmlFormat reader = new JMoneyXmlFormat();
+        SessionManager manager = new SessionManager(JMoneyXmlFormat.ID_FILE_FORMAT, reader, inputFile);
+        reader.readSessionQuietly(inputFile, manager, null);
+        Session session = manager.getSession();
+
+        BankAccount account1 = session.getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+        BankAccount account2 = session.getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+        account1.setName("My Checking Account");
+        account2.setName("My Savings Account");
+
+        Transaction trans = session.getTransactionCollection().createNewElement(TransactionInfo.getPropertySet());
+        Entry entry1 = trans.getEntryCollection().createEntry();
+        Entry entry2 = trans.getEntryCollection().createEntry();
+        entry1.setAccount(account1);
+        entry2.setAccount(account2);
+        entry1.setAmount(1234);
+        entry2.setAmount(-1234);
+        entry1.setMemo("transfer from savings");
+
+        JMoneyBinaryFormat binaryFormat = new JMoneyBinaryFormat();
+        binaryFormat.writeSessionQuietly(manager, outputFile, null);
+
+        SessionManager manager2 = new SessionManager(JMoneyBinaryFormat.ID_FILE_FORMAT, binaryFormat, outputFile);
+        binaryFormat.readSessionQuietly(outputFile, manager2, null);
+        Session session2 = manager2.getSession();
+        assertNotNull(session2);
+        assertEquals(session.getCommodityCollection().size(), session2.getCommodityCollection().size());
+        assertEquals(2, session2.getAccountCollection().size());
+        assertEquals(1, session2.getTransactionCollection().size());
+
+        Transaction trans2 = session2.getTransactionCollection().iterator().next();
+        Entry[] entries2 = trans2.getEntryCollection().toArray(new Entry[0]);
+        assertEquals(2, entries2.length);
+        assertEquals(1234, entries2[0].getAmount());
+        assertEquals(-1234, entries2[1].getAmount());
+        assertEquals("transfer from savings", entries2[0].getMemo());
+        assertNull(entries2[1].getMemo());
+        assertEquals("My Checking Account", entries2[0].getAccount().getName());
+        assertSame(session2, entries2[1].getAccount().getSession());
+
+        outputFile.delete();
+    }
+
+    /**
+     * Test that transactions older than the given number of months are
+     * read from a binary file only when they are needed.
+     * 
+     * @throws CoreException
+     * @throws IOException
+     */
+    public void testBinaryFormatDeferredTransactions() throws IOException, CoreException {
+        File inputFile = getSessionFile("new_empty_session.jmx");
+        File outputFile = new File("test2.jmb");
+
+        JMoneyXmlFormat reader = new JMoneyXmlFormat();
+        SessionManager manager = new SessionManager(JMoneyXmlFormat.ID_FILE_FORMAT, reader, inputFile);
+        reader.readSessionQuietly(inputFile, manager, null);
+        Session session = manager.getSession();
+
+        BankAccount account = session.getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+        Calendar calendar = Calendar.getInstance();
+        for (int year = 0; year < 3; year++) {
+            Transaction trans = session.getTransactionCollection().createNewElement(TransactionInfo.getPropertySet());
+            trans.setDate(calendar.getTime());
+            Entry entry = trans.getEntryCollection().createEntry();
+            entry.setAccount(account);
+            entry.setAmount(100 + year);
+            calendar.add(Calendar.YEAR, -1);
+        }
+
+        JMoneyBinaryFormat binaryFormat = new JMoneyBinaryFormat();
+        binaryFormat.writeSessionQuietly(manager, outputFile, null);
+
+        binaryFormat.setEagerMonths(18);
+        SessionManager manager2 = new SessionManager(JMoneyBinaryFormat.ID_FILE_FORMAT, binaryFormat, outputFile);
+        binaryFormat.readSessionQuietly(outputFile, manager2, null);
+        Session session2 = manager2.getSession();
+
+        assertEquals(3, session2.getTransactionCollection().size());
+        Account account2 = session2.getAccountCollection().iterator().next();
+        long total = 0;
+        for (Entry entry : account2.getEntries()) {
+            assertSame(account2, entry.getAccount());
+            total += entry.getAmount();
+        }
+        assertEquals(303, total);
+
+        outputFile.delete();
+    }
+
+    /**
+     * Test that a journal is not applied, and is set aside rather than
+     * deleted, if the session file has changed since the journal was
+     * started.
+     * 
+     * @throws CoreException
+     * @throws IOException
+     */
+    public void testJournalForChangedSessionFile() throws IOException, CoreException {
+        File inputFile = getSessionFile("new_empty_session.jmx");
+        File sessionFile = new File("test3.jmb");
+        File journalFile = SessionJournal.getJournalFile(sessionFile);
+        File staleFile = new File(journalFile.getPath() + ".stale");
+        journalFile.delete();
+        staleFile.delete();
+
+        JMoneyXmlFormat reader = new JMoneyXmlFormat();
+        SessionManager manager = new SessionManager(JMoneyXmlFormat.ID_FILE_FORMAT, reader, inputFile);
+        reader.readSessionQuietly(inputFile, manager, null);
+
+        // Make the session file large enough for a save to go to the journal.
+        for (int i = 0; i < 100; i++) {
+            BankAccount account = manager.getSession().getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+            account.setName("Account " + i);
+        }
+
+        JMoneyBinaryFormat binaryFormat = new JMoneyBinaryFormat();
+        binaryFormat.writeSessionQuietly(manager, sessionFile, null);
+
+        SessionManager manager2 = new SessionManager(JMoneyBinaryFormat.ID_FILE_FORMAT, binaryFormat, sessionFile);
+        binaryFormat.readSessionQuietly(sessionFile, manager2, null);
+        manager2.replayJournal();
+        BankAccount account = manager2.getSession().getAccountCollection().createNewElement(BankAccountInfo.getPropertySet());
+        account.setName("Saved in journal");
+        manager2.saveSession(null);
+        assertTrue(journalFile.exists());
+        long journalLength = journalFile.length();
+
+        // The session file changes, for example because a backup is restored.
+        assertTrue(sessionFile.setLastModified(sessionFile.lastModified() - 60000));
+
+        SessionManager manager3 = new SessionManager(JMoneyBinaryFormat.ID_FILE_FORMAT, binaryFormat, sessionFile);
+        binaryFormat.readSessionQuietly(sessionFile, manager3, null);
+        manager3.replayJournal();
+        assertEquals(100, manager3.getSession().getAccountCollection().size());
+        assertFalse(journalFile.exists());
+        assertTrue(staleFile.exists());
+        assertEquals(journalLength, staleFile.length());
+
+        sessionFile.delete();
+        staleFile.delete();
+    }
+
     protected File getSessionFile(String filename) throws IOException {
         Bundle bundle = Platform.getBundle("net.sf.jmoney.test");
         URL url = bundle.getEntry("resources/" + filename);
@@ -56,6 +56,7 @@ import net.sf.jmoney.model2.SessionChangeListener;
 import net.sf.jmoney.model2.SessionInfo;
 import net.sf.jmoney.model2.Transaction;
 import net.sf.jmoney.model2.TransactionInfo;
+import net.sf.jmoney.model2.UpdateConflictException;
 
 import org.eclipse.core.commands.ExecutionException;
 import org.eclipse.core.commands.operations.IOperationHistory;
@@ -64,6 +65,8 @@ import org.eclipse.core.commands.operations.IUndoableOperation;
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.ui.PlatformUI;
 
 /**
  * A transaction manager must be set before the datastore can be modified.
@@ -151,6 +154,13 @@ public class TransactionManager extends DataManager {
 	@SuppressWarnings("unused")
 	private boolean insideTransaction = false;
 
+	/**
+	 * True if a large number of objects are expected to be added by this
+	 * transaction manager, in which case the changes are committed in a
+	 * bulk transaction.
+	 */
+	private boolean bulkInsert = false;
+
 	/**
 	 * This listener is used to listen for changes in the base session. By
 	 * listening for such changes, we ensure that our view of the session is
@@ -369,6 +379,18 @@ public class TransactionManager extends DataManager {
 		return new ModifiedAccountEntriesList(account);
 	}
 
+	/**
+	 * Indicates that a large number of objects are to be added by this
+	 * transaction manager, such as when data is imported.  The datastore
+	 * may then write the objects more efficiently when the changes are
+	 * committed.
+	 * 
+	 * @see DataManager#startBulkTransaction()
+	 */
+	public void setBulkInsert(boolean bulkInsert) {
+		this.bulkInsert = bulkInsert;
+	}
+
 	/**
 	 * Apply the changes that are stored in this transaction manager.
 	 * <P>
@@ -381,8 +403,44 @@ public class TransactionManager extends DataManager {
 	 * 
 	 */
 	public void commit() {
-		baseDataManager.startTransaction();
+		if (bulkInsert) {
+			baseDataManager.startBulkTransaction();
+		} else {
+			baseDataManager.startTransaction();
+		}
+		try {
+			applyChanges();
+			baseDataManager.commitTransaction();
+		} catch (RuntimeException e) {
+			/*
+			 * The datastore leaves it to us to decide what to do with the
+			 * changes already made in the transaction.  None of our changes
+			 * can be saved if any one fails, so roll them all back.  The
+			 * changes are left in this transaction manager.
+			 */
+			baseDataManager.rollbackTransaction();
+			throw e;
+		}
 		
+		// Clear out the changes in the object. These changes are the
+		// delta between the datastore and the uncommitted view.
+		// Now that the changes have been committed, these changes
+		// must be cleared.
+		
+		// TODO: Is this loop needed if the outer list is being cleared anyway?
+		for (DeltaListManager<?> modifiedList: modifiedLists) {
+			modifiedList.addedObjects.clear();
+			modifiedList.deletedObjects.clear();
+		}
+		modifiedLists.clear();
+		modifiedObjects.clear();
+	}
+
+	/**
+	 * Applies the changes to the base data manager.  This is called
+	 * within a datastore transaction.
+	 */
+	private void applyChanges() {
 		// Add all the new objects, but set references to other
 		// new objects to null because the other new object may
 		// not have yet been added to the database and thus no
@@ -525,21 +583,6 @@ public class TransactionManager extends DataManager {
 		for (DeltaListManager<?> modifiedList: modifiedLists) {
 			deleteObjectsInList(modifiedList);
 		}
-		
-		baseDataManager.commitTransaction();
-		
-		// Clear out the changes in the object. These changes are the
-		// delta between the datastore and the uncommitted view.
-		// Now that the changes have been committed, these changes
-		// must be cleared.
-		
-		// TODO: Is this loop needed if the outer list is being cleared anyway?
-		for (DeltaListManager<?> modifiedList: modifiedLists) {
-			modifiedList.addedObjects.clear();
-			modifiedList.deletedObjects.clear();
-		}
-		modifiedLists.clear();
-		modifiedObjects.clear();
 	}
 
 	private <E extends ExtendableObject> void deleteObjectsInList(DeltaListManager<E> modifiedList) {
@@ -604,7 +647,15 @@ public class TransactionManager extends DataManager {
 		IUndoableOperation operation = new AbstractDataOperation(baseDataManager.getSession(), label) {
 			@Override
 			public IStatus execute() throws ExecutionException {
-				commit();
+				try {
+					commit();
+				} catch (UpdateConflictException e) {
+					MessageDialog.openError(PlatformUI.getWorkbench().getActiveWorkbenchWindow().getShell(), "Update Failed", 
+							"Another user has changed or deleted a '" + e.getPropertySet().getObjectDescription()
+							+ "' that was changed here.  Your changes have not been saved.  "
+							+ "Close and re-open the accounts to see the changes made by the other user.");
+					return Status.CANCEL_STATUS;
+				}
 				return Status.OK_STATUS;
 			}
 		};
@@ -58,7 +58,14 @@ public class AccountInfo implements IPropertySetInfo {
 	public PropertySet registerProperties() {
 		IPropertyControlFactory<String> textControlFactory = new TextControlFactory();
 		
-		nameAccessor = propertySet.addProperty("name", Messages.AccountInfo_Name, String.class, 5, 100, textControlFactory, null); //$NON-NLS-1$
+		nameAccessor = propertySet.addProperty("name", Messages.AccountInfo_Name, String.class, 5, 100, textControlFactory, null, new IPropertyValueAccessor<Account, String>() { //$NON-NLS-1$
+			public String getValue(Account account) {
+				return account.getName();
+			}
+			public void setValue(Account account, String value) {
+				account.setName(value);
+			}
+		});
 		
 		return propertySet;
 	}
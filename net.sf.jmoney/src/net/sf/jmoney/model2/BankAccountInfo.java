@@ -81,9 +81,30 @@ public class BankAccountInfo implements IPropertySetInfo {
 		IPropertyControlFactory<String> textControlFactory = new TextControlFactory();
 		IPropertyControlFactory<Long> amountControlFactory = new AmountInCurrencyAccountControlFactory();
 		
-		bankAccessor          = propertySet.addProperty("bank", Messages.BankAccountInfo_Bank, String.class, 5, 100, textControlFactory, null); //$NON-NLS-1$ 
-		accountNumberAccessor = propertySet.addProperty("accountNumber", Messages.BankAccountInfo_AccountNumber, String.class, 2, 70, textControlFactory, null); //$NON-NLS-1$ 
-		minBalanceAccessor    = propertySet.addProperty("minBalance", Messages.BankAccountInfo_MinimalBalance, Long.class, 2, 40, amountControlFactory, null); //$NON-NLS-1$ 
+		bankAccessor          = propertySet.addProperty("bank", Messages.BankAccountInfo_Bank, String.class, 5, 100, textControlFactory, null, new IPropertyValueAccessor<BankAccount, String>() { //$NON-NLS-1$
+			public String getValue(BankAccount account) {
+				return account.getBank();
+			}
+			public void setValue(BankAccount account, String value) {
+				account.setBank(value);
+			}
+		});
+		accountNumberAccessor = propertySet.addProperty("accountNumber", Messages.BankAccountInfo_AccountNumber, String.class, 2, 70, textControlFactory, null, new IPropertyValueAccessor<BankAccount, String>() { //$NON-NLS-1$
+			public String getValue(BankAccount account) {
+				return account.getAccountNumber();
+			}
+			public void setValue(BankAccount account, String value) {
+				account.setAccountNumber(value);
+			}
+		});
+		minBalanceAccessor    = propertySet.addProperty("minBalance", Messages.BankAccountInfo_MinimalBalance, Long.class, 2, 40, amountControlFactory, null, new IPropertyValueAccessor<BankAccount, Long>() { //$NON-NLS-1$
+			public Long getValue(BankAccount account) {
+				return account.getMinBalance();
+			}
+			public void setValue(BankAccount account, Long value) {
+				account.setMinBalance(value);
+			}
+		});
 		
 		return propertySet;
 	}
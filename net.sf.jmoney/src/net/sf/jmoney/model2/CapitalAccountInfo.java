@@ -63,8 +63,22 @@ public class CapitalAccountInfo implements IPropertySetInfo {
 		};
 		
 		subAccountAccessor = propertySet.addPropertyList("subAccount", Messages.CapitalAccountInfo_subAccount, CapitalAccountInfo.getPropertySet(), accountGetter); //$NON-NLS-1$
-		abbreviationAccessor = propertySet.addProperty("abbreviation", Messages.CapitalAccountInfo_Abbreviation, String.class, 5, 70, textControlFactory, null); //$NON-NLS-1$
-		commentAccessor      = propertySet.addProperty("comment", Messages.CapitalAccountInfo_Comment, String.class, 5, 150, commentControlFactory, null); //$NON-NLS-1$
+		abbreviationAccessor = propertySet.addProperty("abbreviation", Messages.CapitalAccountInfo_Abbreviation, String.class, 5, 70, textControlFactory, null, new IPropertyValueAccessor<CapitalAccount, String>() { //$NON-NLS-1$
+			public String getValue(CapitalAccount account) {
+				return account.getAbbreviation();
+			}
+			public void setValue(CapitalAccount account, String value) {
+				account.setAbbreviation(value);
+			}
+		});
+		commentAccessor      = propertySet.addProperty("comment", Messages.CapitalAccountInfo_Comment, String.class, 5, 150, commentControlFactory, null, new IPropertyValueAccessor<CapitalAccount, String>() { //$NON-NLS-1$
+			public String getValue(CapitalAccount account) {
+				return account.getComment();
+			}
+			public void setValue(CapitalAccount account, String value) {
+				account.setComment(value);
+			}
+		});
 		
 		propertySet.setIcon(JMoneyPlugin.createImageDescriptor("account.gif")); //$NON-NLS-1$
 		
@@ -51,7 +51,14 @@ public class CommodityInfo implements IPropertySetInfo {
 	public PropertySet registerProperties() {
 		IPropertyControlFactory<String> textControlFactory = new TextControlFactory();
 		
-		nameAccessor = propertySet.addProperty("name", Messages.CommodityInfo_Name, String.class, 3, 20, textControlFactory, null); //$NON-NLS-1$
+		nameAccessor = propertySet.addProperty("name", Messages.CommodityInfo_Name, String.class, 3, 20, textControlFactory, null, new IPropertyValueAccessor<Commodity, String>() { //$NON-NLS-1$
+			public String getValue(Commodity commodity) {
+				return commodity.getName();
+			}
+			public void setValue(Commodity commodity, String value) {
+				commodity.setName(value);
+			}
+		});
 
 		return propertySet;
 	}
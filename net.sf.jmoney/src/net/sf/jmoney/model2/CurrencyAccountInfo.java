@@ -58,8 +58,22 @@ public class CurrencyAccountInfo implements IPropertySetInfo {
 			}
 		};
 		
-		currencyAccessor = propertySet.addProperty("currency", Messages.CurrencyAccountInfo_Currency, Currency.class, 3, 30, currencyControlFactory, null); //$NON-NLS-1$
-		startBalanceAccessor = propertySet.addProperty("startBalance", Messages.CurrencyAccountInfo_StartBalance, Long.class, 2, 40, amountControlFactory, null); //$NON-NLS-1$
+		currencyAccessor = propertySet.addProperty("currency", Messages.CurrencyAccountInfo_Currency, Currency.class, 3, 30, currencyControlFactory, null, new IPropertyValueAccessor<CurrencyAccount, Currency>() { //$NON-NLS-1$
+			public Currency getValue(CurrencyAccount account) {
+				return account.getCurrency();
+			}
+			public void setValue(CurrencyAccount account, Currency value) {
+				account.setCurrency(value);
+			}
+		});
+		startBalanceAccessor = propertySet.addProperty("startBalance", Messages.CurrencyAccountInfo_StartBalance, Long.class, 2, 40, amountControlFactory, null, new IPropertyValueAccessor<CurrencyAccount, Long>() { //$NON-NLS-1$
+			public Long getValue(CurrencyAccount account) {
+				return account.getStartBalance();
+			}
+			public void setValue(CurrencyAccount account, Long value) {
+				account.setStartBalance(value);
+			}
+		});
 		
 		return propertySet;
 	}
@@ -89,8 +89,22 @@ public class CurrencyInfo implements IPropertySetInfo {
 			}
 		};
 
-		codeAccessor = propertySet.addProperty("code", Messages.CurrencyInfo_Code, String.class, 0, 8, textControlFactory, null); //$NON-NLS-1$
-		decimalsAccessor = propertySet.addProperty("decimals", Messages.CurrencyInfo_DecimalPlace, Integer.class, 0, 8, numberControlFactory, null); //$NON-NLS-1$
+		codeAccessor = propertySet.addProperty("code", Messages.CurrencyInfo_Code, String.class, 0, 8, textControlFactory, null, new IPropertyValueAccessor<Currency, String>() { //$NON-NLS-1$
+			public String getValue(Currency currency) {
+				return currency.getCode();
+			}
+			public void setValue(Currency currency, String value) {
+				currency.setCode(value);
+			}
+		});
+		decimalsAccessor = propertySet.addProperty("decimals", Messages.CurrencyInfo_DecimalPlace, Integer.class, 0, 8, numberControlFactory, null, new IPropertyValueAccessor<Currency, Integer>() { //$NON-NLS-1$
+			public Integer getValue(Currency currency) {
+				return currency.getDecimals();
+			}
+			public void setValue(Currency currency, Integer value) {
+				currency.setDecimals(value);
+			}
+		});
 		
 		return propertySet;
 	}
@@ -255,6 +255,22 @@ public abstract class DataManager {
 	 */
 	public abstract void startTransaction();
 
+	/**
+	 * This method is called instead of <code>startTransaction</code> when a
+	 * large number of objects are about to be added in the transaction,
+	 * such as when data is imported.
+	 * <P>
+	 * The datastore may then write the new objects more efficiently, for
+	 * example by writing them in batches, at the cost of a failure being
+	 * reported only when the batch is written.  The default implementation
+	 * starts a normal transaction.
+	 * 
+	 * @see #startTransaction()
+	 */
+	public void startBulkTransaction() {
+		startTransaction();
+	}
+
 	/**
 	 * This method is called when a transaction is to be committed.
 	 * <P>
@@ -262,10 +278,32 @@ public abstract class DataManager {
 	 * needed to commit the transaction should be put in the implementation
 	 * of this method.
 	 * 
-	 * @see startTransaction
+	 * @see #startTransaction()
 	 */
 	public abstract void commitTransaction();
 
+	/**
+	 * This method is called instead of <code>commitTransaction</code> if
+	 * a change made within the transaction failed.
+	 * <P>
+	 * If the datastore is kept in a transactional database then the code
+	 * needed to roll back the transaction should be put in the
+	 * implementation of this method.  The datastore itself should never
+	 * roll back a transaction started by the framework when a change fails,
+	 * but should throw an exception and leave the decision to the framework.
+	 * The only exception is a failure of the commit itself, after which the
+	 * datastore rolls back the transaction and this method may be called
+	 * with nothing left to roll back.
+	 * <P>
+	 * The default implementation does nothing, which is correct for
+	 * datastores that make changes only in memory.
+	 * 
+	 * @see #startTransaction()
+	 */
+	public void rollbackTransaction() {
+		// Nothing to roll back
+	}
+
 	/** Returns the session object.  The session object must be
 	 * non-null.
 	 * 
@@ -250,14 +250,70 @@ public class EntryInfo implements IPropertySetInfo {
 			}
 		};
 		
-		checkAccessor       = propertySet.addProperty("check",Messages.EntryInfo_Check,String.class, 2, 50,  textControlFactory, onlyIfBankAccount); //$NON-NLS-1$
-		accountAccessor     = propertySet.addProperty("account",Messages.EntryInfo_Category,Account.class, 2, 70,  accountControlFactory, null); //$NON-NLS-1$
-		valutaAccessor      = propertySet.addProperty("valuta",Messages.EntryInfo_Valuta,Date.class, 0, 74,  dateControlFactory, onlyIfCurrencyAccount); //$NON-NLS-1$
-		memoAccessor        = propertySet.addProperty("memo",Messages.EntryInfo_Memo,String.class, 5, 100, textControlFactory, null); //$NON-NLS-1$
-		amountAccessor      = propertySet.addProperty("amount",Messages.EntryInfo_Amount,Long.class, 2, 70,  amountControlFactory, null); //$NON-NLS-1$
-		commodityAccessor   = propertySet.addProperty("commodity","Commodity",Commodity.class, 2, 70, commodityControlFactory, null); //$NON-NLS-1$
-		creationAccessor    = propertySet.addProperty("creation",Messages.EntryInfo_Creation,Long.class, 0, 70,  creationControlFactory, null); //$NON-NLS-1$
-		incomeExpenseCurrencyAccessor = propertySet.addProperty("incomeExpenseCurrency",Messages.EntryInfo_Currency,Currency.class, 2, 70, currencyControlFactory, onlyIfIncomeExpenseAccount); //$NON-NLS-1$
+		checkAccessor       = propertySet.addProperty("check",Messages.EntryInfo_Check,String.class, 2, 50,  textControlFactory, onlyIfBankAccount, new IPropertyValueAccessor<Entry, String>() { //$NON-NLS-1$
+			public String getValue(Entry entry) {
+				return entry.getCheck();
+			}
+			public void setValue(Entry entry, String value) {
+				entry.setCheck(value);
+			}
+		});
+		accountAccessor     = propertySet.addProperty("account",Messages.EntryInfo_Category,Account.class, 2, 70,  accountControlFactory, null, new IPropertyValueAccessor<Entry, Account>() { //$NON-NLS-1$
+			public Account getValue(Entry entry) {
+				return entry.getAccount();
+			}
+			public void setValue(Entry entry, Account value) {
+				entry.setAccount(value);
+			}
+		});
+		valutaAccessor      = propertySet.addProperty("valuta",Messages.EntryInfo_Valuta,Date.class, 0, 74,  dateControlFactory, onlyIfCurrencyAccount, new IPropertyValueAccessor<Entry, Date>() { //$NON-NLS-1$
+			public Date getValue(Entry entry) {
+				return entry.getValuta();
+			}
+			public void setValue(Entry entry, Date value) {
+				entry.setValuta(value);
+			}
+		});
+		memoAccessor        = propertySet.addProperty("memo",Messages.EntryInfo_Memo,String.class, 5, 100, textControlFactory, null, new IPropertyValueAccessor<Entry, String>() { //$NON-NLS-1$
+			public String getValue(Entry entry) {
+				return entry.getMemo();
+			}
+			public void setValue(Entry entry, String value) {
+				entry.setMemo(value);
+			}
+		});
+		amountAccessor      = propertySet.addProperty("amount",Messages.EntryInfo_Amount,Long.class, 2, 70,  amountControlFactory, null, new IPropertyValueAccessor<Entry, Long>() { //$NON-NLS-1$
+			public Long getValue(Entry entry) {
+				return entry.getAmount();
+			}
+			public void setValue(Entry entry, Long value) {
+				entry.setAmount(value);
+			}
+		});
+		commodityAccessor   = propertySet.addProperty("commodity","Commodity",Commodity.class, 2, 70, commodityControlFactory, null, new IPropertyValueAccessor<Entry, Commodity>() { //$NON-NLS-1$
+			public Commodity getValue(Entry entry) {
+				return entry.getCommodity();
+			}
+			public void setValue(Entry entry, Commodity value) {
+				entry.setCommodity(value);
+			}
+		});
+		creationAccessor    = propertySet.addProperty("creation",Messages.EntryInfo_Creation,Long.class, 0, 70,  creationControlFactory, null, new IPropertyValueAccessor<Entry, Long>() { //$NON-NLS-1$
+			public Long getValue(Entry entry) {
+				return entry.getCreation();
+			}
+			public void setValue(Entry entry, Long value) {
+				entry.setCreation(value);
+			}
+		});
+		incomeExpenseCurrencyAccessor = propertySet.addProperty("incomeExpenseCurrency",Messages.EntryInfo_Currency,Currency.class, 2, 70, currencyControlFactory, onlyIfIncomeExpenseAccount, new IPropertyValueAccessor<Entry, Currency>() { //$NON-NLS-1$
+			public Currency getValue(Entry entry) {
+				return entry.getIncomeExpenseCurrency();
+			}
+			public void setValue(Entry entry, Currency value) {
+				entry.setIncomeExpenseCurrency(value);
+			}
+		});
 		
 		return propertySet;
 	}
@@ -24,8 +24,7 @@ package net.sf.jmoney.model2;
 
 import java.lang.reflect.Field;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Vector;
 
 import org.eclipse.core.runtime.IAdaptable;
 import org.eclipse.ui.views.properties.IPropertySource;
@@ -61,10 +60,14 @@ public abstract class ExtendableObject implements IAdaptable {
 	/**
 	 * Extendable objects may have extensions containing additional data needed
 	 * by the plug-ins. Plug-ins add properties to an object class by creating a
-	 * property set and then adding that property set to the object class. This
-	 * map will map property sets to the appropriate extension object.
+	 * property set and then adding that property set to the object class.
+	 * <P>
+	 * This array is indexed by the ordinal of the extension property set.
+	 * Most objects have no extensions, so the array is null until the first
+	 * extension is added and is then only as long as needed for the
+	 * extensions that this object has.
 	 */
-	protected Map<ExtensionPropertySet<?>, ExtensionObject> extensions = new HashMap<ExtensionPropertySet<?>, ExtensionObject>();
+	private ExtensionObject[] extensions = null;
 	
 	/**
 	 * The key which contains this object's parent and also the list property
@@ -88,7 +91,7 @@ public abstract class ExtendableObject implements IAdaptable {
 
 		for (ExtensionPropertySet<?> propertySet: extensionValues.getNonDefaultExtensions()) {
 			ExtensionObject extensionObject = propertySet.constructImplementationObject(this, extensionValues);
-			extensions.put(propertySet, extensionObject);
+			putExtension(propertySet, extensionObject);
 		}
 	}
 	
@@ -268,15 +271,34 @@ public abstract class ExtendableObject implements IAdaptable {
 	 *            the extension have default values.
 	 */
 	public <X extends ExtensionObject> X getExtension(ExtensionPropertySet<X> propertySet, boolean alwaysReturnNonNull) {
-		X extension = propertySet.classOfObject.cast(extensions.get(propertySet));
+		int ordinal = propertySet.ordinal;
+		X extension = (extensions != null && ordinal < extensions.length)
+				? propertySet.classOfObject.cast(extensions[ordinal])
+				: null;
 		
 		if (extension == null && alwaysReturnNonNull) {
 				extension = propertySet.constructDefaultImplementationObject(this);
-				extensions.put(propertySet, extension);
+				putExtension(propertySet, extension);
 		}
 		
 		return extension;
 	}
+
+	/**
+	 * Sets the extension for the given property set, growing the array of
+	 * extensions if it is not long enough.
+	 */
+	private void putExtension(ExtensionPropertySet<?> propertySet, ExtensionObject extension) {
+		int ordinal = propertySet.ordinal;
+		if (extensions == null) {
+			extensions = new ExtensionObject[ordinal + 1];
+		} else if (ordinal >= extensions.length) {
+			ExtensionObject[] newExtensions = new ExtensionObject[ordinal + 1];
+			System.arraycopy(extensions, 0, newExtensions, 0, extensions.length);
+			extensions = newExtensions;
+		}
+		extensions[ordinal] = extension;
+	}
 	
     /**
      * Returns the value of a given property.
@@ -370,7 +392,15 @@ public abstract class ExtendableObject implements IAdaptable {
 	 * 		ExtensionObject.
 	 */
 	public Collection<ExtensionPropertySet<?>> getExtensions() {
-		return extensions.keySet();
+		Vector<ExtensionPropertySet<?>> result = new Vector<ExtensionPropertySet<?>>();
+		if (extensions != null) {
+			for (ExtensionObject extension : extensions) {
+				if (extension != null) {
+					result.add((ExtensionPropertySet<?>)extension.propertySet);
+				}
+			}
+		}
+		return result;
 	}
 	
 	/**
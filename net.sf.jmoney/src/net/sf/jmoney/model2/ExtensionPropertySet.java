@@ -32,6 +32,13 @@ public class ExtensionPropertySet<E extends ExtensionObject> extends PropertySet
 	 * or null if this is an abstract property set.
 	 */
 	IExtensionObjectConstructors<E> constructors;
+
+	/**
+	 * The index of this property set into the array of extensions held by
+	 * each extendable object. Indexes are allocated densely, starting at
+	 * zero, as extension property sets are registered.
+	 */
+	int ordinal = -1;
 	
 	/**
 	 * Constructs an extension property set object.
@@ -60,6 +67,9 @@ public class ExtensionPropertySet<E extends ExtensionObject> extends PropertySet
 		// Add to our map that maps ids to ExtensionPropertySet objects.
 		allExtensionPropertySetsMap.put(propertySetId, this);
 
+		// Allocate the index into the extension arrays.
+		ordinal = extensionPropertySetCount++;
+
 		// Add to our map that maps ids to ExtensionPropertySet objects
 		// within a particular extendable object.
 		extendablePropertySet.extensionPropertySets.put(propertySetId, this);
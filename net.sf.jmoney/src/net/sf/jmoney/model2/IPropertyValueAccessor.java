@@ -0,0 +1,45 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+package net.sf.jmoney.model2;
+
+/**
+ * An implementation of this interface may be provided for a scalar property.
+ * The implementation gets and sets the property value in a given object by
+ * calling the getter and setter directly. Properties for which no
+ * implementation is provided have their values got and set by invoking the
+ * getter and setter through reflection, which is considerably slower.
+ * Properties that are read when sorting, filtering or saving large numbers
+ * of objects should therefore provide an implementation.
+ * 
+ * @author Nigel Westbury
+ * 
+ * @param <P>
+ * 			the class of objects that contain this property
+ * @param <V>
+ *          the class of the property values
+ */
+public interface IPropertyValueAccessor<P, V> {
+
+	V getValue(P parentObject);
+
+	void setValue(P parentObject, V value);
+}
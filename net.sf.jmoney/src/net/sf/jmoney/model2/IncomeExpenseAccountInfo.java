@@ -91,8 +91,22 @@ public class IncomeExpenseAccountInfo implements IPropertySetInfo {
 		};
 		
 		subAccountAccessor = propertySet.addPropertyList("subAccount", Messages.IncomeExpenseAccountInfo_SubAccount, IncomeExpenseAccountInfo.getPropertySet(), accountGetter); //$NON-NLS-1$
-		multiCurrencyAccessor = propertySet.addProperty("multiCurrency", Messages.IncomeExpenseAccountInfo_MultiCurrency, Boolean.class, 0, 10, new CheckBoxControlFactory(), null);  //$NON-NLS-1$
-		currencyAccessor = propertySet.addProperty("currency", Messages.IncomeExpenseAccountInfo_Currency, Currency.class, 2, 20, currencyControlFactory, onlyIfSingleCurrency); //$NON-NLS-1$
+		multiCurrencyAccessor = propertySet.addProperty("multiCurrency", Messages.IncomeExpenseAccountInfo_MultiCurrency, Boolean.class, 0, 10, new CheckBoxControlFactory(), null, new IPropertyValueAccessor<IncomeExpenseAccount, Boolean>() {  //$NON-NLS-1$
+			public Boolean getValue(IncomeExpenseAccount account) {
+				return account.isMultiCurrency();
+			}
+			public void setValue(IncomeExpenseAccount account, Boolean value) {
+				account.setMultiCurrency(value);
+			}
+		});
+		currencyAccessor = propertySet.addProperty("currency", Messages.IncomeExpenseAccountInfo_Currency, Currency.class, 2, 20, currencyControlFactory, onlyIfSingleCurrency, new IPropertyValueAccessor<IncomeExpenseAccount, Currency>() { //$NON-NLS-1$
+			public Currency getValue(IncomeExpenseAccount account) {
+				return account.getCurrency();
+			}
+			public void setValue(IncomeExpenseAccount account, Currency value) {
+				account.setCurrency(value);
+			}
+		});
 		
 		// We should define something for the implied enumerated value
 		// that is controlled by the derived class type.  This has not
@@ -85,6 +85,12 @@ public abstract class PropertySet<E> {
 	protected static Map<String, ExtendablePropertySet<?>> allExtendablePropertySetsMap = new HashMap<String, ExtendablePropertySet<?>>();
 	protected static Map<String, ExtensionPropertySet<?>> allExtensionPropertySetsMap = new HashMap<String, ExtensionPropertySet<?>>();
 
+	/**
+	 * The number of extension property sets registered so far, being also
+	 * the ordinal to be given to the next extension property set.
+	 */
+	static int extensionPropertySetCount = 0;
+
 	/**
 	 * Map extendable classes to property sets.
 	 */
@@ -457,6 +463,16 @@ public abstract class PropertySet<E> {
 		return accessor;
 	}
 
+	/**
+	 * Adds a scalar property whose values are got and set by the given
+	 * accessor rather than through reflection.
+	 */
+	public <V> ScalarPropertyAccessor<V> addProperty(String name, String displayName, Class<V> classOfValue, int weight, int minimumWidth, IPropertyControlFactory<V> propertyControlFactory, IPropertyDependency<E> propertyDependency, IPropertyValueAccessor<E, V> valueAccessor) {
+		ScalarPropertyAccessor<V> accessor = addProperty(name, displayName, classOfValue, weight, minimumWidth, propertyControlFactory, propertyDependency);
+		accessor.setValueAccessor(getImplementationClass(), valueAccessor);
+		return accessor;
+	}
+
 	public <V extends ExtendableObject> ReferencePropertyAccessor<V> addProperty(String name, String displayName, Class<V> classOfValue, int weight, int minimumWidth, final IReferenceControlFactory<E,V> propertyControlFactory, IPropertyDependency<E> propertyDependency) {
 		if (propertyControlFactory == null) {
 			throw new MalformedPluginException(
@@ -476,6 +492,16 @@ public abstract class PropertySet<E> {
 		return accessor;
 	}
 
+	/**
+	 * Adds a reference property whose values are got and set by the given
+	 * accessor rather than through reflection.
+	 */
+	public <V extends ExtendableObject> ReferencePropertyAccessor<V> addProperty(String name, String displayName, Class<V> classOfValue, int weight, int minimumWidth, IReferenceControlFactory<E,V> propertyControlFactory, IPropertyDependency<E> propertyDependency, IPropertyValueAccessor<E, V> valueAccessor) {
+		ReferencePropertyAccessor<V> accessor = addProperty(name, displayName, classOfValue, weight, minimumWidth, propertyControlFactory, propertyDependency);
+		accessor.setValueAccessor(getImplementationClass(), valueAccessor);
+		return accessor;
+	}
+
 	public <E2 extends ExtendableObject> ListPropertyAccessor<E2> addPropertyList(String name, String displayName, ExtendablePropertySet<E2> elementPropertySet, final IListGetter<E, E2> listGetter) {
 		ListPropertyAccessor<E2> accessor = new ListPropertyAccessor<E2>(this, name, displayName, elementPropertySet) {
 			@Override
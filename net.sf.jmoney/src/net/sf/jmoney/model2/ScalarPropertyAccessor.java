@@ -72,6 +72,34 @@ public class ScalarPropertyAccessor<V> extends PropertyAccessor {
 		}
 	}
 	private TypesafePropertyDependency<?> typesafeDependency;
+
+	/*
+	 * Helper class to tie types together in a type safe manner, in the
+	 * same way as TypesafePropertyDependency.
+	 */
+	private class TypesafeValueAccessor<E> {
+		Class<E> classOfContainingObject;
+		IPropertyValueAccessor<E, V> valueAccessor;
+
+		TypesafeValueAccessor (Class<E> classOfContainingObject, IPropertyValueAccessor<E, V> valueAccessor) {
+			this.classOfContainingObject = classOfContainingObject;
+			this.valueAccessor = valueAccessor;
+		}
+
+		public V getValue(Object invocationTarget) {
+			return valueAccessor.getValue(classOfContainingObject.cast(invocationTarget));
+		}
+
+		public void setValue(Object invocationTarget, V value) {
+			valueAccessor.setValue(classOfContainingObject.cast(invocationTarget), value);
+		}
+	}
+
+	/**
+	 * The accessor that gets and sets the values without reflection, or null
+	 * if the getter and setter methods are invoked through reflection.
+	 */
+	private TypesafeValueAccessor<?> typesafeValueAccessor = null;
 	
 	public <E> ScalarPropertyAccessor(Class<V> classOfValueObject, PropertySet<E> propertySet, String localName, String displayName, int weight, int minimumWidth, final IPropertyControlFactory<V> propertyControlFactory, IPropertyDependency<E> propertyDependency) {
 		super(propertySet, localName, displayName);
@@ -150,6 +178,19 @@ public class ScalarPropertyAccessor<V> extends PropertyAccessor {
 			throw new MalformedPluginException("Method '" + theSetMethod.getName() + "' in '" + implementationClass.getName() + "' must return void type ."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 		}
 
+		/*
+		 * The access checks are done once here rather than each time the
+		 * methods are invoked. The methods may not be public, but if that
+		 * is not permitted then the methods will fail when invoked, as
+		 * they always would have done.
+		 */
+		try {
+			theGetMethod.setAccessible(true);
+			theSetMethod.setAccessible(true);
+		} catch (SecurityException e) {
+			// Access checks will be done on each invocation.
+		}
+
 		/*
 		 * Set the comparator, if any.
 		 * 
@@ -305,9 +346,22 @@ public class ScalarPropertyAccessor<V> extends PropertyAccessor {
 		throw new NoSuchMethodException();
 	}
 	
+	/**
+	 * Sets the accessor to be used to get and set the values of this
+	 * property instead of invoking the getter and setter methods through
+	 * reflection. This is called when the property is registered.
+	 */
+	<E> void setValueAccessor(Class<E> classOfContainingObject, IPropertyValueAccessor<E, V> valueAccessor) {
+		this.typesafeValueAccessor = new TypesafeValueAccessor<E>(classOfContainingObject, valueAccessor);
+	}
+
 	/**
 	 */
 	public V invokeGetMethod(Object invocationTarget) {
+		if (typesafeValueAccessor != null) {
+			return typesafeValueAccessor.getValue(invocationTarget);
+		}
+
 		try {
 			Object value = theGetMethod.invoke(invocationTarget, (Object [])null);
 			return classOfValueObject.cast(value);
@@ -323,6 +377,11 @@ public class ScalarPropertyAccessor<V> extends PropertyAccessor {
 	}
 
 	public void invokeSetMethod(Object invocationTarget, V value) {
+		if (typesafeValueAccessor != null) {
+			typesafeValueAccessor.setValue(invocationTarget, value);
+			return;
+		}
+
 		try {
 			Object parameters[] = new Object[] { value };
 			theSetMethod.invoke(invocationTarget, parameters);
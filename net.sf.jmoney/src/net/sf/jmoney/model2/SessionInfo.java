@@ -99,7 +99,14 @@ public class SessionInfo implements IPropertySetInfo {
 		accountsAccessor = propertySet.addPropertyList("account", Messages.SessionInfo_Account, AccountInfo.getPropertySet(), accountGetter); //$NON-NLS-1$
 		transactionsAccessor = propertySet.addPropertyList("transaction", Messages.SessionInfo_Transaction, TransactionInfo.getPropertySet(), transactionGetter); //$NON-NLS-1$
 		
-		defaultCurrencyAccessor = propertySet.addProperty("defaultCurrency", Messages.SessionInfo_DefaultCurrency, Currency.class, 2, 20, currencyControlFactory, null); //$NON-NLS-1$
+		defaultCurrencyAccessor = propertySet.addProperty("defaultCurrency", Messages.SessionInfo_DefaultCurrency, Currency.class, 2, 20, currencyControlFactory, null, new IPropertyValueAccessor<Session, Currency>() { //$NON-NLS-1$
+			public Currency getValue(Session session) {
+				return session.getDefaultCurrency();
+			}
+			public void setValue(Session session, Currency value) {
+				session.setDefaultCurrency(value);
+			}
+		});
 		
 		return propertySet;
 	}
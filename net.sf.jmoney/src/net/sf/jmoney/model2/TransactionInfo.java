@@ -78,7 +78,14 @@ public class TransactionInfo implements IPropertySetInfo {
         IPropertyControlFactory<Date> dateControlFactory = new DateControlFactory();
 		
 		entriesAccessor = propertySet.addPropertyList("entry", Messages.TransactionInfo_Entry, EntryInfo.getPropertySet(), entryGetter); //$NON-NLS-1$
-		dateAccessor = propertySet.addProperty("date", Messages.TransactionInfo_Date, Date.class, 0, 74, dateControlFactory, null); //$NON-NLS-1$
+		dateAccessor = propertySet.addProperty("date", Messages.TransactionInfo_Date, Date.class, 0, 74, dateControlFactory, null, new IPropertyValueAccessor<Transaction, Date>() { //$NON-NLS-1$
+			public Date getValue(Transaction transaction) {
+				return transaction.getDate();
+			}
+			public void setValue(Transaction transaction, Date value) {
+				transaction.setDate(value);
+			}
+		});
 		
 		return propertySet;
 	}
@@ -0,0 +1,62 @@
+/*
+ *
+ *  JMoney - A Personal Finance Manager
+ *  Copyright (c) 2004 Nigel Westbury <westbury@users.sourceforge.net>
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ */
+
+package net.sf.jmoney.model2;
+
+/**
+ * This exception is thrown when an attempt is made to update an object
+ * but the object has been changed or deleted by another user since it
+ * was read.
+ * <P>
+ * This can happen only if the datastore is shared, which in practice means
+ * a database. The datastore does not itself roll back the changes already
+ * made in the same transaction. The caller of <code>commitTransaction</code>
+ * is expected to catch this exception and call
+ * <code>rollbackTransaction</code>. The objects in memory may however no
+ * longer match the datastore, so the user should be told to re-open the
+ * session.
+ * <P>
+ * This is an unchecked exception because it is thrown from deep within the
+ * property setters, which cannot declare checked exceptions.
+ *
+ * @author Nigel Westbury
+ */
+public class UpdateConflictException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	private ExtendablePropertySet<?> propertySet;
+
+	/**
+	 * @param propertySet
+	 *            the property set of the object that could not be updated
+	 * @param detail
+	 *            a description of the conflict, for logging
+	 */
+	public UpdateConflictException(ExtendablePropertySet<?> propertySet, String detail) {
+		super(detail);
+		this.propertySet = propertySet;
+	}
+
+	public ExtendablePropertySet<?> getPropertySet() {
+		return propertySet;
+	}
+}